@@ -0,0 +1,107 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import de.fraunhofer.iais.eis.*;
+import de.fraunhofer.iais.eis.util.TypedLiteral;
+
+import java.net.URI;
+import java.util.ArrayList;
+
+import static de.fraunhofer.iais.eis.util.Util.asList;
+
+/**
+ * Creates the information model objects which are indexed by the benchmarks.
+ * Resources and participants are generated by the {@link MaximumGenerator}, so that every field handled by the indexers is set.
+ * Contract offers are replaced by offers of a configurable size, as the generator only creates a single permission with a single constraint.
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Creates a connector offering the given number of resources
+     * @param resourceCount Number of offered resources
+     * @param contractDepth Size of the contract offer of each resource, see {@link #createContractOffer(int)}
+     * @return Connector with a single catalog
+     * @throws Exception if the resources could not be generated
+     */
+    static Connector createConnector(int resourceCount, int contractDepth) throws Exception {
+        return new BaseConnectorBuilder(URI.create("http://example.org/benchmark/connector"))
+                ._title_(asList(new TypedLiteral("Benchmark Connector", "en")))
+                ._description_(asList(new TypedLiteral("Connector for benchmarking the indexing", "en")))
+                ._outboundModelVersion_("4.0.0")
+                ._inboundModelVersion_(asList("4.0.0"))
+                ._resourceCatalog_(asList(new ResourceCatalogBuilder()
+                        ._offeredResourceAsObject_(createResources(resourceCount, contractDepth))
+                        .build()))
+                ._curatorAsUri_(URI.create("http://example.org/benchmark/curator"))
+                ._maintainerAsUri_(URI.create("http://example.org/benchmark/maintainer"))
+                ._securityProfile_(SecurityProfile.BASE_SECURITY_PROFILE)
+                ._hasDefaultEndpoint_(new ConnectorEndpointBuilder()._accessURL_(URI.create("http://example.org/benchmark/endpoint")).build())
+                .build();
+    }
+
+    /**
+     * Creates resources with all fields set. Each resource gets its own ID
+     * @param resourceCount Number of resources
+     * @param contractDepth Size of the contract offer of each resource, see {@link #createContractOffer(int)}
+     * @return The resources
+     * @throws Exception if the resources could not be generated
+     */
+    static ArrayList<Resource> createResources(int resourceCount, int contractDepth) throws Exception {
+        ArrayList<Resource> resources = new ArrayList<>();
+        for (int i = 0; i < resourceCount; i++) {
+            Resource resource = MaximumGenerator.generate(Resource.class);
+            ((ResourceImpl) resource).setContractOffer(asList(createContractOffer(contractDepth)));
+            resources.add(resource);
+        }
+        return resources;
+    }
+
+    /**
+     * Creates a contract offer with contractDepth permissions, each of which is restricted by a logical constraint combining contractDepth constraints
+     * @param contractDepth Number of permissions and of constraints per permission
+     * @return The contract offer
+     */
+    static ContractOffer createContractOffer(int contractDepth) {
+        ArrayList<Permission> permissions = new ArrayList<>();
+        for (int i = 0; i < contractDepth; i++) {
+            ArrayList<AbstractConstraint> constraints = new ArrayList<>();
+            constraints.add(createLogicalConstraint(contractDepth));
+            permissions.add(new PermissionBuilder()
+                    ._title_(asList(new TypedLiteral("Permission " + i, "en")))
+                    ._action_(asList(Action.USE))
+                    ._constraint_(constraints)
+                    .build());
+        }
+        return new ContractOfferBuilder()
+                ._provider_(URI.create("http://example.org/benchmark/provider"))
+                ._permission_(permissions)
+                .build();
+    }
+
+    /**
+     * Creates a logical constraint requiring all of its constraints to hold
+     * @param constraintCount Number of combined constraints
+     * @return The logical constraint
+     */
+    static LogicalConstraint createLogicalConstraint(int constraintCount) {
+        ArrayList<Constraint> constraints = new ArrayList<>();
+        for (int i = 0; i < constraintCount; i++) {
+            constraints.add(new ConstraintBuilder()
+                    ._leftOperand_(LeftOperand.PURPOSE)
+                    ._operator_(BinaryOperator.SAME_AS)
+                    ._rightOperand_(new RdfResource("http://example.org/benchmark/purpose/" + i))
+                    .build());
+        }
+        return new LogicalConstraintBuilder()._and_(constraints).build();
+    }
+
+    /**
+     * @return Participant with all fields set
+     * @throws Exception if the participant could not be generated
+     */
+    static Participant createParticipant() throws Exception {
+        return MaximumGenerator.generate(Participant.class);
+    }
+}
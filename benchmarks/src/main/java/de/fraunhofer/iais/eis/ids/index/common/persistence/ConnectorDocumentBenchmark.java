@@ -0,0 +1,81 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import de.fraunhofer.iais.eis.Connector;
+import de.fraunhofer.iais.eis.Resource;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the documents which are written when a connector is registered:
+ * the document of the connector in the registrations index and one document per resource in the resources index.
+ * No Elasticsearch or Fuseki is needed, as only the documents are built.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectorDocumentBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int resourceCount;
+
+    @Param({"1", "4"})
+    public int contractDepth;
+
+    private ElasticsearchIndexing indexing;
+    private Connector connector;
+    private List<Resource> resources;
+
+    @Setup
+    public void setUp() throws Exception {
+        indexing = new ElasticsearchIndexing();
+        connector = BenchmarkFixtures.createConnector(resourceCount, contractDepth);
+        resources = ElasticsearchIndexing.getOfferedResources(connector);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ElasticsearchClientFactory.close();
+    }
+
+    /**
+     * Document of the connector including its catalog
+     */
+    @Benchmark
+    public BytesReference connectorDocument() throws IOException {
+        return BytesReference.bytes(indexing.getXContentBuilderForInfrastructureComponent(connector));
+    }
+
+    /**
+     * Resource documents as built by handleResource alone
+     */
+    @Benchmark
+    public void resourceDocuments(Blackhole blackhole) throws IOException {
+        for (Resource resource : resources) {
+            XContentBuilder builder = XContentFactory.jsonBuilder();
+            builder.startObject();
+            indexing.handleResource(resource, builder, connector.getId());
+            builder.endObject();
+            blackhole.consume(BytesReference.bytes(builder));
+        }
+    }
+
+    /**
+     * Resource documents as written to the index, including their fingerprint and catalog entry
+     */
+    @Benchmark
+    public void resourceDocumentsWithFingerprint(Blackhole blackhole) throws IOException {
+        for (Resource resource : resources) {
+            blackhole.consume(indexing.buildResourceDocument(resource, connector.getId()));
+        }
+    }
+}
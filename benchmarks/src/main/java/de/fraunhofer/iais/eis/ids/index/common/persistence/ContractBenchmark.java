@@ -0,0 +1,60 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import de.fraunhofer.iais.eis.ContractOffer;
+import de.fraunhofer.iais.eis.LogicalConstraint;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures indexing contract offers, whose size grows with the number of permissions and constraints
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContractBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int contractDepth;
+
+    private ElasticsearchIndexingConnector indexing;
+    private ContractOffer contractOffer;
+    private LogicalConstraint logicalConstraint;
+
+    @Setup
+    public void setUp() {
+        indexing = new ElasticsearchIndexingConnector();
+        contractOffer = BenchmarkFixtures.createContractOffer(contractDepth);
+        logicalConstraint = BenchmarkFixtures.createLogicalConstraint(contractDepth);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ElasticsearchClientFactory.close();
+    }
+
+    @Benchmark
+    public BytesReference contractOffer() throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        builder.startObject();
+        indexing.handleResourceContract(contractOffer, builder);
+        builder.endObject();
+        return BytesReference.bytes(builder);
+    }
+
+    @Benchmark
+    public BytesReference logicalConstraint() throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        builder.startObject();
+        ElasticsearchIndexingConnector.handleAbstractConstraint(logicalConstraint, builder);
+        builder.endObject();
+        return BytesReference.bytes(builder);
+    }
+}
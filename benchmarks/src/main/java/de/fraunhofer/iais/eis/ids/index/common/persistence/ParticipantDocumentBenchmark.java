@@ -0,0 +1,33 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import de.fraunhofer.iais.eis.Participant;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the document of a participant
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParticipantDocumentBenchmark {
+
+    private Participant participant;
+
+    @Setup
+    public void setUp() throws Exception {
+        participant = BenchmarkFixtures.createParticipant();
+    }
+
+    @Benchmark
+    public BytesReference participantDocument() throws IOException {
+        return BytesReference.bytes(ElasticsearchIndexingParticipant.getXContentBuilderForParticipant(participant, XContentFactory.jsonBuilder()));
+    }
+}
@@ -0,0 +1,77 @@
+package de.fraunhofer.iais.eis.ids.index.common.endpoint;
+
+import de.fraunhofer.iais.eis.Connector;
+import de.fraunhofer.iais.eis.InfrastructureComponent;
+import de.fraunhofer.iais.eis.Resource;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.spi.Indexing;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Decorator which evicts cached /selectQuery results whenever a registration or resource message changed the triple store.
+ * The indexing is called after the triple store was changed, and the named graph of a connector is named after the connector.
+ * Registering or removing a connector also changes the catalog, so all cached results are evicted in these cases
+ */
+public class CacheInvalidatingIndexing implements Indexing<InfrastructureComponent> {
+
+    private final Indexing<InfrastructureComponent> delegate;
+    private final SelectQueryCache cache;
+
+    /**
+     * Constructor
+     * @param delegate The indexing implementation doing the actual work
+     * @param cache Cache of the /selectQuery endpoint
+     */
+    public CacheInvalidatingIndexing(Indexing<InfrastructureComponent> delegate, SelectQueryCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    /**
+     * @return The indexing implementation doing the actual work
+     */
+    public Indexing<InfrastructureComponent> getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void addResourceAsJson(String resourceId, String resourceAsJson) {
+        delegate.addResourceAsJson(resourceId, resourceAsJson);
+    }
+
+    @Override
+    public void add(InfrastructureComponent infrastructureComponent) throws IOException {
+        cache.invalidateAll();
+        delegate.add(infrastructureComponent);
+    }
+
+    @Override
+    public void update(InfrastructureComponent infrastructureComponent) throws IOException {
+        cache.invalidateGraph(infrastructureComponent.getId().toString());
+        delegate.update(infrastructureComponent);
+    }
+
+    @Override
+    public void updateResource(Connector reducedConnector, Resource resource) throws IOException {
+        cache.invalidateGraph(reducedConnector.getId().toString());
+        delegate.updateResource(reducedConnector, resource);
+    }
+
+    @Override
+    public void delete(URI componentId) throws IOException {
+        cache.invalidateAll();
+        delegate.delete(componentId);
+    }
+
+    @Override
+    public void deleteResource(Connector reducedConnector, URI resourceId) throws IOException {
+        cache.invalidateGraph(reducedConnector.getId().toString());
+        delegate.deleteResource(reducedConnector, resourceId);
+    }
+
+    @Override
+    public void recreateIndex(String indexName) throws IOException {
+        delegate.recreateIndex(indexName);
+    }
+}
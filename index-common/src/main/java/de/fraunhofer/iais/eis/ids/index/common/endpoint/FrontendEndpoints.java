@@ -2,12 +2,46 @@ package de.fraunhofer.iais.eis.ids.index.common.endpoint;
 
 import de.fraunhofer.iais.eis.ids.index.common.persistence.RepositoryFacade;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.HttpConnection;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.query.QueryCancelledException;
+import org.apache.jena.query.ResultSetFormatter;
+import org.apache.jena.rdfconnection.RDFConnectionRemote;
+import org.apache.jena.rdfconnection.SparqlQueryConnection;
+import org.apache.jena.sparql.resultset.ResultSetWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.core.env.Environment;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 
 /**
@@ -16,12 +50,31 @@ import org.springframework.core.env.Environment;
 @RestController
 public class FrontendEndpoints {
 
+    private static final Logger logger = LoggerFactory.getLogger(FrontendEndpoints.class);
+
     public static RepositoryFacade repositoryFacade;
+    public static String sparqlEndpointUrl; //dataset of the triple store, which /selectQuery/stream reads without the writable connection of the repositoryFacade
+    public static SelectQueryCache selectQueryCache; //null if results are not cached
+    public static long streamMaxLimit = 100000; //default values, to be overwritten by application properties
+    public static long streamTimeoutMillis = 300000;
+
+    private static final MediaType TSV = MediaType.valueOf("text/tab-separated-values");
+    private static final MediaType SPARQL_JSON = MediaType.valueOf("application/sparql-results+json");
+    private static final MediaType CSV = MediaType.valueOf("text/csv");
+    private static final List<MediaType> STREAMING_TYPES = Arrays.asList(TSV, SPARQL_JSON, MediaType.APPLICATION_JSON, CSV);
+    //Formats requested from the triple store. Jena parses SPARQL JSON results completely before returning the first binding, TSV and XML results are parsed while they are read
+    private static final String TRIPLE_STORE_TYPES = "text/tab-separated-values, application/sparql-results+xml;q=0.9";
     //private String sparqlUrl = "http://broker-core:3030/connectorData";
 
     @PostMapping("/updateQuery")
     public String updateQuery(@RequestBody String queryMessage) {
-        repositoryFacade.getNewWritableConnection().update(queryMessage);
+        timed("update", () -> {
+            repositoryFacade.getNewWritableConnection().update(queryMessage);
+            return null;
+        });
+        if(selectQueryCache != null) {
+            selectQueryCache.invalidateUpdate(queryMessage);
+        }
 		return "Query ran successfully";
     }
 
@@ -32,7 +85,154 @@ public class FrontendEndpoints {
      */
     @PostMapping("/selectQuery")
     public String readQuery(@RequestBody String queryMessage) {
-        return repositoryFacade.selectQueryReturnTSV(queryMessage);
+        if(selectQueryCache != null) {
+            return selectQueryCache.get(queryMessage, query -> timed("select", () -> repositoryFacade.selectQueryReturnTSV(query)));
+        }
+        return timed("select", () -> repositoryFacade.selectQueryReturnTSV(queryMessage));
+    }
+
+    /**
+     * Variant of /selectQuery for large results. The result is written to the response while it is read from the triple store, instead of being built in memory first.
+     * The format is chosen by the Accept header: TSV (default), SPARQL JSON or CSV. The number of results is capped at streamMaxLimit
+     * (also if the query has a higher LIMIT), and the query is aborted after streamTimeoutMillis. The triple store is queried at sparqlEndpointUrl without write access
+     * @param queryMessage The SELECT query to be executed
+     * @param accept Accept header of the request
+     * @return Query bindings in the negotiated format
+     */
+    @PostMapping("/selectQuery/stream")
+    public ResponseEntity<StreamingResponseBody> streamQuery(@RequestBody String queryMessage, @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        MediaType mediaType = negotiate(accept);
+        Query query;
+        try {
+            query = QueryFactory.create(queryMessage);
+        }
+        catch (QueryParseException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid query: " + e.getMessage());
+        }
+        if(!query.isSelectType()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Only SELECT queries are supported");
+        }
+        if(!query.hasLimit() || query.getLimit() > streamMaxLimit) {
+            query.setLimit(streamMaxLimit);
+        }
+        StreamingResponseBody body = outputStream -> {
+            Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+            String outcome = "failure";
+            HttpClientContext context = HttpClientContext.create();
+            try (SparqlQueryConnection connection = RDFConnectionRemote.create().destination(sparqlEndpointUrl).httpContext(context).acceptHeaderSelectQuery(TRIPLE_STORE_TYPES).build();
+                 QueryExecution execution = connection.query(query)) {
+                try {
+                    //Read timeout of the connection, so that the query is also aborted if the triple store sends nothing
+                    execution.setTimeout(streamTimeoutMillis);
+                    ResultSet resultSet = withDeadline(execution.execSelect(), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(streamTimeoutMillis));
+                    if(mediaType.equals(CSV)) {
+                        ResultSetFormatter.outputAsCSV(outputStream, resultSet);
+                    }
+                    else if(mediaType.equals(TSV)) {
+                        ResultSetFormatter.outputAsTSV(outputStream, resultSet);
+                    }
+                    else {
+                        ResultSetFormatter.outputAsJSON(outputStream, resultSet);
+                    }
+                    outputStream.flush();
+                    outcome = "success";
+                }
+                finally {
+                    if(!outcome.equals("success")) {
+                        shutdown(context);
+                    }
+                }
+            }
+            finally {
+                sample.stop(Metrics.timer("broker.sparql", "operation", "stream", "source", "frontend", "outcome", outcome));
+            }
+        };
+        return ResponseEntity.ok().contentType(mediaType.equals(MediaType.APPLICATION_JSON) ? SPARQL_JSON : mediaType).body(body);
+    }
+
+    /**
+     * Records the duration of a call to the triple store as broker.sparql timer
+     * @param operation select or update
+     * @param call The call to the triple store
+     * @return Result of the call
+     */
+    private static <T> T timed(String operation, Supplier<T> call) {
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        String outcome = "failure";
+        try {
+            T result = call.get();
+            outcome = "success";
+            return result;
+        }
+        finally {
+            sample.stop(Metrics.timer("broker.sparql", "operation", operation, "source", "frontend", "outcome", outcome));
+        }
+    }
+
+    /**
+     * @param resultSet Bindings read from the triple store
+     * @param deadline Value of System.nanoTime() after which no further bindings are read
+     * @return The bindings, which throw a QueryCancelledException once the deadline has passed
+     */
+    private static ResultSet withDeadline(ResultSet resultSet, long deadline) {
+        return new ResultSetWrapper(resultSet) {
+            @Override
+            public boolean hasNext() {
+                if(System.nanoTime() - deadline > 0) {
+                    throw new QueryCancelledException();
+                }
+                return super.hasNext();
+            }
+        };
+    }
+
+    /**
+     * Closes the HTTP connection of a query whose result was not read completely. Otherwise, closing the query execution would read the rest of the result first
+     * @param context Context of the request to the triple store
+     */
+    private static void shutdown(HttpContext context) {
+        Object connection = context.getAttribute(HttpCoreContext.HTTP_CONNECTION);
+        if(connection instanceof HttpConnection) {
+            try {
+                ((HttpConnection) connection).shutdown();
+            }
+            catch (IOException e) {
+                logger.warn("Failed to close the connection to the triple store", e);
+            }
+        }
+    }
+
+    private static MediaType negotiate(String accept) {
+        if(accept == null || accept.trim().isEmpty()) {
+            return TSV;
+        }
+        List<MediaType> accepted;
+        try {
+            accepted = MediaType.parseMediaTypes(accept);
+        }
+        catch (InvalidMediaTypeException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid Accept header");
+        }
+        MediaType.sortBySpecificityAndQuality(accepted);
+        for(MediaType acceptedType : accepted) {
+            for(MediaType streamingType : STREAMING_TYPES) {
+                if(acceptedType.isCompatibleWith(streamingType)) {
+                    return streamingType;
+                }
+            }
+        }
+        throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE, "Supported formats: " + STREAMING_TYPES);
+    }
+
+    /**
+     * @return Size, hits, misses, evictions and invalidations of the /selectQuery result cache
+     */
+    @GetMapping("/selectQuery/cache")
+    public Map<String, Long> getSelectQueryCacheStatistics() {
+        if(selectQueryCache == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Caching of query results is disabled");
+        }
+        return selectQueryCache.getStatistics();
     }
 }
 
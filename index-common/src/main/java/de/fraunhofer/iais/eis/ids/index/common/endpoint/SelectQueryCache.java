@@ -0,0 +1,340 @@
+package de.fraunhofer.iais.eis.ids.index.common.endpoint;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.sparql.syntax.ElementNamedGraph;
+import org.apache.jena.sparql.syntax.ElementPathBlock;
+import org.apache.jena.sparql.syntax.ElementService;
+import org.apache.jena.sparql.syntax.ElementSubQuery;
+import org.apache.jena.sparql.syntax.ElementTriplesBlock;
+import org.apache.jena.sparql.syntax.ElementVisitorBase;
+import org.apache.jena.sparql.syntax.ElementWalker;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Read-through cache for the results of SELECT queries sent to the /selectQuery endpoint.
+ * Queries are keyed by their text with comments removed and whitespace collapsed, so that formatting differences do not cause misses.
+ * The least recently used entry is evicted when the cache is full, and entries expire after a fixed time.
+ * Each entry records the named graphs its query reads, which are determined by parsing the query once, when its result is loaded.
+ * Changing a named graph only evicts the entries reading it, and the entries of queries which do not name all of their graphs (e.g. GRAPH ?g or the default graph)
+ */
+public class SelectQueryCache {
+
+    private static final Pattern EXISTS = Pattern.compile("(?i)\\bEXISTS\\b");
+    private static final Pattern GRAPH_REFERENCE = Pattern.compile("(?i)\\b(?:GRAPH|FROM\\s+NAMED|FROM|WITH|INTO|USING\\s+NAMED|USING|CLEAR|DROP|CREATE|LOAD|ADD|MOVE|COPY|TO)\\s+(?:SILENT\\s+)?(?:GRAPH\\s+)?(<[^>]*>|\\?\\w+|\\$\\w+|DEFAULT|ALL|NAMED)");
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final int maxResultLength;
+    private final LinkedHashMap<String, Entry> entries;
+
+    //Incremented by every invalidation. A result loaded while the generation changed may already be outdated and is not cached
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param maxEntries Maximum number of cached results
+     * @param ttlMillis Time after which a cached result is discarded
+     * @param maxResultLength Results longer than this (in characters) are not cached
+     */
+    public SelectQueryCache(int maxEntries, long ttlMillis, int maxResultLength) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlMillis = ttlMillis;
+        this.maxResultLength = maxResultLength;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > SelectQueryCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result of a query, or runs the query and caches its result
+     * @param query SELECT query
+     * @param loader Runs the query against the triple store
+     * @return Query result
+     */
+    public String get(String query, Function<String, String> loader) {
+        String key = normalize(query);
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (now - entry.created < ttlMillis) {
+                    hits.incrementAndGet();
+                    return entry.result;
+                }
+                entries.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        long loadGeneration = generation.get();
+        String result = loader.apply(query);
+        if (result != null && result.length() <= maxResultLength) {
+            Set<String> graphs = getReadGraphs(query);
+            synchronized (entries) {
+                if (generation.get() == loadGeneration) {
+                    entries.put(key, new Entry(result, now, graphs));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Evicts the results of all queries which may read the given named graph
+     * @param graph URI of the named graph
+     */
+    public void invalidateGraph(String graph) {
+        String reference = "<" + graph + ">";
+        synchronized (entries) {
+            generation.incrementAndGet();
+            invalidations.incrementAndGet();
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Set<String> graphs = iterator.next().graphs;
+                if (graphs == null || graphs.contains(reference)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts the results of the queries which may read a graph changed by a SPARQL update. If the update does not name all graphs it changes, the whole cache is cleared
+     * @param update SPARQL update
+     */
+    public void invalidateUpdate(String update) {
+        Set<String> graphs = getUpdatedGraphs(normalize(update));
+        if (graphs == null) {
+            invalidateAll();
+            return;
+        }
+        for (String graph : graphs) {
+            invalidateGraph(graph.substring(1, graph.length() - 1));
+        }
+    }
+
+    /**
+     * Evicts all results
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            invalidations.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return Number of cached results, hits, misses, evictions (size and time) and invalidations
+     */
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        synchronized (entries) {
+            statistics.put("size", (long) entries.size());
+        }
+        statistics.put("hits", hits.get());
+        statistics.put("misses", misses.get());
+        statistics.put("evictions", evictions.get());
+        statistics.put("invalidations", invalidations.get());
+        return statistics;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Removes comments and collapses whitespace outside of IRIs and string literals
+     * @param query SPARQL query or update
+     * @return Normalized query
+     */
+    static String normalize(String query) {
+        StringBuilder normalized = new StringBuilder(query.length());
+        char quote = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote != 0) {
+                normalized.append(c);
+                if (c == '\\' && quote != '>' && i + 1 < query.length()) {
+                    normalized.append(query.charAt(++i));
+                } else if (c == quote) {
+                    quote = 0;
+                }
+                continue;
+            }
+            if (c == '#') {
+                while (i + 1 < query.length() && query.charAt(i + 1) != '\n') {
+                    i++;
+                }
+                pendingSpace = true;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                continue;
+            }
+            if (pendingSpace && normalized.length() > 0) {
+                normalized.append(' ');
+            }
+            pendingSpace = false;
+            if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '<' && isIriStart(query, i)) {
+                quote = '>';
+            }
+            normalized.append(c);
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Distinguishes the start of an IRI from the less-than operator, which is followed by whitespace or a value
+     */
+    private static boolean isIriStart(String query, int index) {
+        int end = query.indexOf('>', index);
+        if (end < 0) {
+            return false;
+        }
+        for (int i = index + 1; i < end; i++) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c) || c == '"' || c == '{' || c == '}') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param queryString SELECT query
+     * @return The named graphs (as &lt;IRI&gt;) the query reads, or null if it reads the default graph or graphs which are not named explicitly
+     */
+    static Set<String> getReadGraphs(String queryString) {
+        Query query;
+        try {
+            query = QueryFactory.create(queryString);
+        }
+        catch (QueryParseException e) {
+            return null;
+        }
+        Set<String> graphs = new HashSet<>();
+        if (query.hasDatasetDescription()) {
+            //FROM and FROM NAMED restrict the query to these graphs
+            query.getGraphURIs().forEach(graph -> graphs.add("<" + graph + ">"));
+            query.getNamedGraphURIs().forEach(graph -> graphs.add("<" + graph + ">"));
+            return Collections.unmodifiableSet(graphs);
+        }
+        //Patterns within FILTER (NOT) EXISTS are not visited by the walker
+        if (query.getQueryPattern() == null || EXISTS.matcher(queryString).find()) {
+            return null;
+        }
+        int[] namedGraphDepth = {0};
+        boolean[] unknown = {false};
+        ElementWalker.walk(query.getQueryPattern(),
+                new ElementVisitorBase() {
+                    @Override
+                    public void visit(ElementPathBlock element) {
+                        unknown[0] |= namedGraphDepth[0] == 0;
+                    }
+
+                    @Override
+                    public void visit(ElementTriplesBlock element) {
+                        unknown[0] |= namedGraphDepth[0] == 0;
+                    }
+
+                    @Override
+                    public void visit(ElementNamedGraph element) {
+                        if (element.getGraphNameNode().isURI()) {
+                            graphs.add("<" + element.getGraphNameNode().getURI() + ">");
+                        } else {
+                            unknown[0] = true;
+                        }
+                    }
+
+                    @Override
+                    public void visit(ElementSubQuery element) {
+                        unknown[0] = true;
+                    }
+
+                    @Override
+                    public void visit(ElementService element) {
+                        unknown[0] = true;
+                    }
+                },
+                new ElementVisitorBase() {
+                    @Override
+                    public void visit(ElementNamedGraph element) {
+                        namedGraphDepth[0]++;
+                    }
+                },
+                new ElementVisitorBase() {
+                    @Override
+                    public void visit(ElementNamedGraph element) {
+                        namedGraphDepth[0]--;
+                    }
+                });
+        if (unknown[0] || graphs.isEmpty()) {
+            return null;
+        }
+        return Collections.unmodifiableSet(graphs);
+    }
+
+    /**
+     * @param update Normalized SPARQL update
+     * @return The named graphs (as &lt;IRI&gt;) the update refers to, or null if it refers to graphs which are not named explicitly
+     */
+    static Set<String> getUpdatedGraphs(String update) {
+        Set<String> graphs = new HashSet<>();
+        Matcher matcher = GRAPH_REFERENCE.matcher(update);
+        while (matcher.find()) {
+            String graph = matcher.group(1);
+            if (!graph.startsWith("<")) {
+                return null;
+            }
+            graphs.add(graph);
+        }
+        if (graphs.isEmpty()) {
+            return null;
+        }
+        return Collections.unmodifiableSet(graphs);
+    }
+
+    private static class Entry {
+        final String result;
+        final long created;
+        final Set<String> graphs;
+
+        Entry(String result, long created, Set<String> graphs) {
+            this.result = result;
+            this.created = created;
+            this.graphs = graphs;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence.logging;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket per client. Each client may use up to burst permits at once, which are refilled at permitsPerSecond.
+ * At most maxClients buckets are kept. Beyond that, the bucket of the least recently seen client is dropped, so that this client starts with a full bucket again
+ */
+class ClientRateLimiter {
+
+    private static final int MAX_CLIENTS = 10000;
+
+    private final Map<String, Bucket> buckets;
+    private final double permitsPerSecond;
+    private final double burst;
+
+    /**
+     * Constructor
+     * @param permitsPerSecond Rate at which the permits of a client are refilled
+     * @param burst Maximum number of permits a client can accumulate
+     */
+    ClientRateLimiter(double permitsPerSecond, double burst) {
+        this(permitsPerSecond, burst, MAX_CLIENTS);
+    }
+
+    /**
+     * Constructor
+     * @param permitsPerSecond Rate at which the permits of a client are refilled
+     * @param burst Maximum number of permits a client can accumulate
+     * @param maxClients Maximum number of clients whose buckets are kept
+     */
+    ClientRateLimiter(double permitsPerSecond, double burst, int maxClients) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        //In access order, so that the eldest entry is the least recently seen client
+        this.buckets = new LinkedHashMap<String, Bucket>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+                return size() > maxClients;
+            }
+        };
+    }
+
+    /**
+     * Takes permits from the bucket of a client, if it holds enough of them
+     * @param client Identifier of the client, e.g. its address
+     * @param permits Number of permits to take
+     * @return false if the client has to wait. No permits are taken in this case
+     */
+    boolean tryAcquire(String client, int permits) {
+        long now = System.nanoTime();
+        synchronized (buckets) {
+            return buckets.computeIfAbsent(client, key -> new Bucket(now)).tryAcquire(permits, now);
+        }
+    }
+
+    /**
+     * @return Number of clients whose buckets are kept
+     */
+    int size() {
+        synchronized (buckets) {
+            return buckets.size();
+        }
+    }
+
+    private class Bucket {
+        private double permits = burst;
+        private long lastRefill;
+
+        Bucket(long now) {
+            lastRefill = now;
+        }
+
+        boolean tryAcquire(int requested, long now) {
+            permits = Math.min(burst, permits + (now - lastRefill) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+            if (permits < requested) {
+                return false;
+            }
+            permits -= requested;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence.logging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.fraunhofer.iais.eis.ids.index.common.util.CryptoUtil;
+
+import javax.crypto.Cipher;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+
+/**
+ * Verifies all signed log files of a log directory, e.g. the rolled over files of several months, outside of the running broker.
+ * The files are verified in parallel on a fork-join pool. Each file is hashed from a memory mapping of the file and compared to its signature file (.sgn),
+ * as written by the {@link VerifyingRollingFileAppender}. For files which do not match or are not signed, the checkpoints in the file are verified,
+ * so that the report shows which lines were manipulated.
+ * Usage: java -cp index-common.jar {@value #CLASS_NAME} &lt;log directory&gt; (--certificate &lt;file&gt; | --keystore &lt;file&gt; --password &lt;password&gt; --alias &lt;alias&gt;) [--pattern broker-*.log] [--threads n] [--output report.json]
+ */
+public class LogArchiveVerifier {
+
+    static final String CLASS_NAME = "de.fraunhofer.iais.eis.ids.index.common.persistence.logging.LogArchiveVerifier";
+    public static final String DEFAULT_PATTERN = "broker-*.log";
+    //Files larger than this are hashed from several mappings
+    static long mappingSize = 256L * 1024 * 1024;
+
+    public enum Status {
+        /** The file matches its signature */
+        VALID,
+        /** The file does not match its signature, or the signature cannot be decrypted with the public key */
+        INVALID,
+        /** There is no signature file, e.g. for the current file of a running broker */
+        UNSIGNED,
+        /** The file could not be read */
+        ERROR
+    }
+
+    /**
+     * Verification result of one log file
+     */
+    public static class FileResult {
+        private final String file;
+        private final long size;
+        private final Status status;
+        private final String sha256;
+        private final String detail;
+        private final List<String> tamperedBlocks;
+
+        FileResult(String file, long size, Status status, String sha256, String detail, List<String> tamperedBlocks) {
+            this.file = file;
+            this.size = size;
+            this.status = status;
+            this.sha256 = sha256;
+            this.detail = detail;
+            this.tamperedBlocks = tamperedBlocks;
+        }
+
+        public String getFile() { return file; }
+        public long getSize() { return size; }
+        public Status getStatus() { return status; }
+        /** @return SHA-256 fingerprint of the file as hex string, or null if it could not be read */
+        public String getSha256() { return sha256; }
+        public String getDetail() { return detail; }
+        /** @return Line ranges which do not match their checkpoints. Only determined for files which are not VALID */
+        public List<String> getTamperedBlocks() { return tamperedBlocks; }
+    }
+
+    /**
+     * Machine-readable result of verifying a log directory
+     */
+    public static class Report {
+        private final String directory;
+        private final long startedAt;
+        private final long durationMillis;
+        private final long totalBytes;
+        private final List<FileResult> files;
+
+        Report(String directory, long startedAt, long durationMillis, List<FileResult> files) {
+            this.directory = directory;
+            this.startedAt = startedAt;
+            this.durationMillis = durationMillis;
+            this.totalBytes = files.stream().mapToLong(FileResult::getSize).sum();
+            this.files = Collections.unmodifiableList(files);
+        }
+
+        public String getDirectory() { return directory; }
+        /** @return Start of the verification in milliseconds since the epoch */
+        public long getStartedAt() { return startedAt; }
+        public long getDurationMillis() { return durationMillis; }
+        public long getTotalBytes() { return totalBytes; }
+        public int getValid() { return count(Status.VALID); }
+        public int getInvalid() { return count(Status.INVALID); }
+        public int getUnsigned() { return count(Status.UNSIGNED); }
+        public int getErrors() { return count(Status.ERROR); }
+        public List<FileResult> getFiles() { return files; }
+
+        private int count(Status status) {
+            return (int) files.stream().filter(file -> file.getStatus() == status).count();
+        }
+    }
+
+    private final Path directory;
+    private final Key publicKey;
+    private final String pattern;
+    private final int parallelism;
+
+    /**
+     * Constructor
+     * @param directory Log directory. Subdirectories are not searched
+     * @param publicKey Public key matching the private key with which the log files were signed
+     * @param pattern Glob pattern of the log files, e.g. {@value #DEFAULT_PATTERN}
+     * @param parallelism Number of files verified at the same time
+     */
+    public LogArchiveVerifier(Path directory, Key publicKey, String pattern, int parallelism) {
+        this.directory = directory;
+        this.publicKey = publicKey;
+        this.pattern = pattern;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Verifies all log files of the directory matching the pattern
+     * @return Report with one result per file, ordered by modification time
+     * @throws IOException if the directory could not be listed
+     */
+    public Report verify() throws IOException {
+        long start = System.currentTimeMillis();
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, pattern)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(Comparator.comparingLong((Path file) -> file.toFile().lastModified()).thenComparing(Path::toString));
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<FileResult> results = pool.invoke(new VerificationTask(files));
+            return new Report(directory.toString(), start, System.currentTimeMillis() - start, results);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Splits the list of files until single files are left, which are verified in parallel
+     */
+    private class VerificationTask extends RecursiveTask<List<FileResult>> {
+        private final List<Path> files;
+
+        VerificationTask(List<Path> files) {
+            this.files = files;
+        }
+
+        @Override
+        protected List<FileResult> compute() {
+            if (files.size() <= 1) {
+                return files.stream().map(LogArchiveVerifier.this::verifyFile).collect(Collectors.toList());
+            }
+            int middle = files.size() / 2;
+            VerificationTask second = new VerificationTask(files.subList(middle, files.size()));
+            second.fork();
+            List<FileResult> results = new ArrayList<>(new VerificationTask(files.subList(0, middle)).compute());
+            results.addAll(second.join());
+            return results;
+        }
+    }
+
+    /**
+     * Verifies a single log file against its signature file
+     * @param file The log file
+     * @return Verification result
+     */
+    FileResult verifyFile(Path file) {
+        //Relative to the log directory, so that the report does not reveal where the log files are located
+        String name = directory.relativize(file).toString();
+        long size = file.toFile().length();
+        byte[] sha256;
+        try {
+            sha256 = getSha256(file);
+        }
+        catch (IOException e) {
+            return new FileResult(name, size, Status.ERROR, null, "Could not read file: " + e.getMessage(), Collections.emptyList());
+        }
+        Path signatureFile = Paths.get(file.toString().replace(".log", ".sgn").replace(".txt", ".sgn"));
+        Status status;
+        String detail;
+        if (!Files.exists(signatureFile)) {
+            status = Status.UNSIGNED;
+            detail = "No signature file " + signatureFile.getFileName();
+        }
+        else {
+            try {
+                Cipher cipher = Cipher.getInstance("RSA");
+                cipher.init(Cipher.DECRYPT_MODE, publicKey);
+                boolean matches = Arrays.equals(sha256, cipher.doFinal(Files.readAllBytes(signatureFile)));
+                status = matches ? Status.VALID : Status.INVALID;
+                detail = matches ? null : "File does not match its signature";
+            }
+            catch (GeneralSecurityException e) {
+                status = Status.INVALID;
+                detail = "Signature could not be decrypted with the public key: " + e.getMessage();
+            }
+            catch (IOException e) {
+                return new FileResult(name, size, Status.ERROR, LogCheckpoint.toHex(sha256), "Could not read signature file: " + e.getMessage(), Collections.emptyList());
+            }
+        }
+        List<String> tamperedBlocks = status == Status.VALID ? Collections.emptyList() : getTamperedBlocks(file);
+        return new FileResult(name, size, status, LogCheckpoint.toHex(sha256), detail, tamperedBlocks);
+    }
+
+    /**
+     * Verifies the checkpoints of a file on its own. The link to the last checkpoint of the previous file is not checked
+     * @param file The log file
+     * @return Tampered line ranges, empty if the file has no checkpoints
+     */
+    private List<String> getTamperedBlocks(Path file) {
+        if (!(publicKey instanceof PublicKey)) {
+            return Collections.emptyList();
+        }
+        try {
+            return new LogChainVerifier((PublicKey) publicKey).verify(file).getBlocks().stream()
+                    .filter(block -> block.getStatus() == LogChainVerifier.Status.TAMPERED)
+                    .map(LogChainVerifier.Block::toString)
+                    .collect(Collectors.toList());
+        }
+        catch (IOException e) {
+            return Collections.singletonList("Could not verify checkpoints: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Computes the SHA-256 fingerprint of a file from memory mappings of the file, so that the content is not copied onto the heap
+     * @param file The file
+     * @return SHA-256 fingerprint
+     * @throws IOException if the file could not be read
+     */
+    static byte[] getSha256(Path file) throws IOException {
+        MessageDigest messageDigest = LogCheckpoint.newDigest();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += mappingSize) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(mappingSize, size - position));
+                messageDigest.update(buffer);
+            }
+        }
+        return messageDigest.digest();
+    }
+
+    /**
+     * Command line entry point. Prints the report as JSON and exits with 0 if all files are valid, 1 if any file is invalid or could not be read, and 2 on wrong usage
+     * @param args See class documentation
+     */
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Runs the verification for the command line arguments
+     * @param args See class documentation
+     * @return Exit code, see {@link #main(String[])}
+     */
+    static int run(String[] args) {
+        String directory = null;
+        String certificate = null;
+        String keystore = null;
+        String password = null;
+        String alias = null;
+        String pattern = DEFAULT_PATTERN;
+        String output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--certificate": certificate = args[++i]; break;
+                    case "--keystore": keystore = args[++i]; break;
+                    case "--password": password = args[++i]; break;
+                    case "--alias": alias = args[++i]; break;
+                    case "--pattern": pattern = args[++i]; break;
+                    case "--threads": threads = Integer.parseInt(args[++i]); break;
+                    case "--output": output = args[++i]; break;
+                    default:
+                        if (directory != null || args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                        directory = args[i];
+                }
+            }
+            if (directory == null || (certificate == null && (keystore == null || password == null || alias == null))) {
+                throw new IllegalArgumentException("Log directory and either a certificate or keystore, password and alias are required");
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e.getMessage() == null ? "Missing value of the last argument" : e.getMessage());
+            System.err.println("Usage: java -cp index-common.jar " + CLASS_NAME + " <log directory> (--certificate <file> | --keystore <file> --password <password> --alias <alias>) [--pattern " + DEFAULT_PATTERN + "] [--threads n] [--output report.json]");
+            return 2;
+        }
+        try {
+            PublicKey publicKey;
+            if (certificate != null) {
+                try (InputStream in = new FileInputStream(certificate)) {
+                    publicKey = CertificateFactory.getInstance("X.509").generateCertificate(in).getPublicKey();
+                }
+            }
+            else {
+                try (InputStream in = new FileInputStream(keystore)) {
+                    publicKey = CryptoUtil.getPublicKeyFromPrivateKey(CryptoUtil.getPrivateKeyFromKeyStore(in, password, alias));
+                }
+            }
+            Report report = new LogArchiveVerifier(Paths.get(directory), publicKey, pattern, threads).verify();
+            ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+            if (output != null) {
+                mapper.writeValue(Paths.get(output).toFile(), report);
+            }
+            else {
+                System.out.println(mapper.writeValueAsString(report));
+            }
+            System.err.println(report.getFiles().size() + " files (" + report.getTotalBytes() + " bytes) verified in " + report.getDurationMillis() + " ms: "
+                    + report.getValid() + " valid, " + report.getInvalid() + " invalid, " + report.getUnsigned() + " unsigned, " + report.getErrors() + " errors");
+            return report.getInvalid() + report.getErrors() == 0 ? 0 : 1;
+        }
+        catch (Exception e) {
+            System.err.println("Verification failed: " + e);
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence.logging;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Verifies log files written by the {@link VerifyingRollingFileAppender} with checkpoints enabled. Each file is read once as a stream.
+ * The result is reported per block, i.e. per range of lines between two checkpoints, so that a manipulation is localized to the block in which it occurred.
+ * The verifier keeps the state of the chain: files have to be passed in the order in which they were written, and the chain continues across rollovers.
+ * Verifying the current file again only reads the bytes appended after its last verified checkpoint.
+ * A line which looks like a checkpoint but does not carry a valid signature is treated as log content
+ */
+public class LogChainVerifier {
+
+    public enum Status {
+        /** Block digest, signature and chain of the checkpoint are valid */
+        VALID,
+        /** The block or its checkpoint was modified, or checkpoints were removed */
+        TAMPERED,
+        /** Lines after the last checkpoint. They will be covered by the next checkpoint */
+        UNVERIFIED
+    }
+
+    /**
+     * Range of lines ending with a checkpoint (or the end of the file) and the result of its verification
+     */
+    public static class Block {
+        private final long firstLine;
+        private final long lastLine;
+        private final long startOffset;
+        private final long endOffset;
+        private final Status status;
+        private final List<String> problems;
+
+        Block(long firstLine, long lastLine, long startOffset, long endOffset, Status status, List<String> problems) {
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+            this.status = status;
+            this.problems = Collections.unmodifiableList(problems);
+        }
+
+        /** @return Number of the first line of the block, starting with 1 */
+        public long getFirstLine() { return firstLine; }
+        /** @return Number of the last line of the block, i.e. of its checkpoint */
+        public long getLastLine() { return lastLine; }
+        /** @return Offset of the first byte of the block in the file */
+        public long getStartOffset() { return startOffset; }
+        /** @return Offset after the last byte of the block */
+        public long getEndOffset() { return endOffset; }
+        public Status getStatus() { return status; }
+        /** @return What was found to be wrong with the block. Empty for valid blocks */
+        public List<String> getProblems() { return problems; }
+
+        @Override
+        public String toString() {
+            return "lines " + firstLine + "-" + lastLine + ": " + status + (problems.isEmpty() ? "" : " " + problems);
+        }
+    }
+
+    /**
+     * Result of verifying one file
+     */
+    public static class Report {
+        private final Path file;
+        private final List<Block> blocks;
+
+        Report(Path file, List<Block> blocks) {
+            this.file = file;
+            this.blocks = Collections.unmodifiableList(blocks);
+        }
+
+        public Path getFile() { return file; }
+        /** @return The verified blocks in file order. If the file was verified before, only the blocks after the previously verified part */
+        public List<Block> getBlocks() { return blocks; }
+
+        /**
+         * @return true if no block was found to be tampered with. Lines after the last checkpoint are not verified yet
+         */
+        public boolean isValid() {
+            return blocks.stream().noneMatch(block -> block.getStatus() == Status.TAMPERED);
+        }
+    }
+
+    private final PublicKey publicKey;
+    private byte[] lastCheckpointHash = null;
+    private long nextSequence = -1;
+    private Path resumeFile = null;
+    private long resumeOffset = 0;
+    private long resumeLine = 0;
+
+    /**
+     * Constructor
+     * @param publicKey Key matching the private key with which the appender signs the checkpoints
+     */
+    public LogChainVerifier(PublicKey publicKey) {
+        this.publicKey = publicKey;
+    }
+
+    /**
+     * Verifies the next log file of the chain, or the part of the current file which was appended since its last verification
+     * @param file The log file
+     * @return Verification result per block
+     * @throws IOException if the file could not be read
+     */
+    public Report verify(Path file) throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        boolean resuming = file.equals(resumeFile);
+        long offset = resuming ? resumeOffset : 0;
+        long lineNumber = resuming ? resumeLine : 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+            if (offset > 0 && in.skip(offset) != offset) {
+                blocks.add(new Block(lineNumber + 1, lineNumber, offset, offset, Status.TAMPERED,
+                        new ArrayList<>(Collections.singletonList("File is shorter than the part verified before"))));
+                return new Report(file, blocks);
+            }
+            MessageDigest blockDigest = LogCheckpoint.newDigest();
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long blockStartOffset = offset;
+            long blockFirstLine = lineNumber + 1;
+            List<String> problems = new ArrayList<>();
+            while (LogCheckpoint.readLine(in, line)) {
+                byte[] bytes = line.toByteArray();
+                lineNumber++;
+                offset += bytes.length;
+                LogCheckpoint checkpoint = LogCheckpoint.parse(bytes);
+                if (checkpoint == null || !checkpoint.verify(publicKey)) {
+                    //Not written by the appender, e.g. a logged message containing a line break. A modified or removed checkpoint is detected by the next valid one
+                    blockDigest.update(bytes);
+                    continue;
+                }
+                if (!Arrays.equals(blockDigest.digest(), checkpoint.blockDigest)) {
+                    problems.add("Content does not match the digest of checkpoint " + checkpoint.sequence);
+                }
+                if (!checkpoint.startsChain() && lastCheckpointHash != null
+                        && (checkpoint.sequence != nextSequence || !Arrays.equals(checkpoint.previousHash, lastCheckpointHash))) {
+                    problems.add("Checkpoint " + checkpoint.sequence + " does not follow checkpoint " + (nextSequence - 1) + ". Checkpoints were removed or reordered");
+                }
+                blocks.add(new Block(blockFirstLine, lineNumber, blockStartOffset, offset, problems.isEmpty() ? Status.VALID : Status.TAMPERED, problems));
+                //Continue the chain from this checkpoint, so that a manipulation only affects the block in which it occurred
+                lastCheckpointHash = checkpoint.hash();
+                nextSequence = checkpoint.sequence + 1;
+                resumeFile = file;
+                resumeOffset = offset;
+                resumeLine = lineNumber;
+                blockStartOffset = offset;
+                blockFirstLine = lineNumber + 1;
+                problems = new ArrayList<>();
+            }
+            if (offset > blockStartOffset || !problems.isEmpty()) {
+                blocks.add(new Block(blockFirstLine, lineNumber, blockStartOffset, offset, Status.UNVERIFIED, problems));
+            }
+        }
+        return new Report(file, blocks);
+    }
+}
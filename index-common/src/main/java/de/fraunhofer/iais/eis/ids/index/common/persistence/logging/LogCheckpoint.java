@@ -0,0 +1,195 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Checkpoint record of a hash-chained log file. A checkpoint is a single line in the log file:
+ * <pre>#CHECKPOINT seq=12 events=1000 prev=&lt;hex&gt; block=&lt;hex&gt; sig=&lt;base64&gt;</pre>
+ * "block" is the SHA-256 digest of all bytes since the previous checkpoint line (or the beginning of the file), "prev" the hash of the previous checkpoint,
+ * and "sig" a SHA256withRSA signature of everything before " sig=". The hash of a checkpoint is the SHA-256 digest of that signed part.
+ * Sequence number 0 starts a new chain, e.g. after a restart, and has a "prev" of zeros
+ */
+final class LogCheckpoint {
+
+    static final String PREFIX = "#CHECKPOINT ";
+    static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String SIGNATURE_SEPARATOR = " sig=";
+    static final byte[] CHAIN_START = new byte[32];
+
+    final long sequence;
+    final long events;
+    final byte[] previousHash;
+    final byte[] blockDigest;
+    private final String body;
+    private final byte[] signature;
+
+    private LogCheckpoint(long sequence, long events, byte[] previousHash, byte[] blockDigest, String body, byte[] signature) {
+        this.sequence = sequence;
+        this.events = events;
+        this.previousHash = previousHash;
+        this.blockDigest = blockDigest;
+        this.body = body;
+        this.signature = signature;
+    }
+
+    /**
+     * Creates and signs a new checkpoint
+     * @param sequence Number of the checkpoint within the chain
+     * @param events Number of events in the block
+     * @param previousHash Hash of the previous checkpoint, or {@link #CHAIN_START}
+     * @param blockDigest SHA-256 digest of the block
+     * @param privateKey Key to sign the checkpoint with
+     * @return The signed checkpoint
+     * @throws GeneralSecurityException if the checkpoint could not be signed
+     */
+    static LogCheckpoint create(long sequence, long events, byte[] previousHash, byte[] blockDigest, PrivateKey privateKey) throws GeneralSecurityException {
+        String body = PREFIX + "seq=" + sequence + " events=" + events + " prev=" + toHex(previousHash) + " block=" + toHex(blockDigest);
+        Signature signer = Signature.getInstance(SIGNATURE_ALGORITHM);
+        signer.initSign(privateKey);
+        signer.update(body.getBytes(StandardCharsets.US_ASCII));
+        return new LogCheckpoint(sequence, events, previousHash, blockDigest, body, signer.sign());
+    }
+
+    /**
+     * Parses a line of a log file
+     * @param line The line, with or without line terminator
+     * @return The checkpoint, or null if the line is not formatted like a checkpoint. The signature is not checked
+     */
+    static LogCheckpoint parse(byte[] line) {
+        if (!startsWithPrefix(line)) {
+            return null;
+        }
+        String text = new String(line, StandardCharsets.US_ASCII).trim();
+        int separator = text.lastIndexOf(SIGNATURE_SEPARATOR);
+        if (separator < 0) {
+            return null;
+        }
+        String body = text.substring(0, separator);
+        String[] fields = body.substring(PREFIX.length()).split(" ");
+        if (fields.length != 4 || !fields[0].startsWith("seq=") || !fields[1].startsWith("events=") || !fields[2].startsWith("prev=") || !fields[3].startsWith("block=")) {
+            return null;
+        }
+        try {
+            return new LogCheckpoint(
+                    Long.parseLong(fields[0].substring(4)),
+                    Long.parseLong(fields[1].substring(7)),
+                    fromHex(fields[2].substring(5)),
+                    fromHex(fields[3].substring(6)),
+                    body,
+                    Base64.getDecoder().decode(text.substring(separator + SIGNATURE_SEPARATOR.length())));
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean startsWithPrefix(byte[] line) {
+        if (line.length < PREFIX.length()) {
+            return false;
+        }
+        for (int i = 0; i < PREFIX.length(); i++) {
+            if (line[i] != PREFIX.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param publicKey Key matching the private key of the appender
+     * @return true if the signature of the checkpoint is valid
+     */
+    boolean verify(PublicKey publicKey) {
+        try {
+            Signature verifier = Signature.getInstance(SIGNATURE_ALGORITHM);
+            verifier.initVerify(publicKey);
+            verifier.update(body.getBytes(StandardCharsets.US_ASCII));
+            return verifier.verify(signature);
+        }
+        catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return Hash of this checkpoint, which the next checkpoint refers to
+     */
+    byte[] hash() {
+        return newDigest().digest(body.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    boolean startsChain() {
+        return sequence == 0 && Arrays.equals(previousHash, CHAIN_START);
+    }
+
+    /**
+     * @return The checkpoint as it is written to the log file, including the line terminator
+     */
+    byte[] toLine() {
+        return (body + SIGNATURE_SEPARATOR + Base64.getEncoder().encodeToString(signature) + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the next line of a log file, including its line terminator
+     * @param in Stream positioned at the beginning of a line
+     * @param line Buffer which receives the line. It is reset first
+     * @return false if the end of the stream was reached before any byte could be read
+     * @throws IOException if the stream could not be read
+     */
+    static boolean readLine(InputStream in, ByteArrayOutputStream line) throws IOException {
+        line.reset();
+        int b;
+        while ((b = in.read()) != -1) {
+            line.write(b);
+            if (b == '\n') {
+                return true;
+            }
+        }
+        return line.size() > 0;
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Odd number of hex digits");
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Not a hex digit");
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+}
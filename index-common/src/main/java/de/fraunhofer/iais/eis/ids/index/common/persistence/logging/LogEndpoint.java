@@ -1,13 +1,30 @@
 package de.fraunhofer.iais.eis.ids.index.common.persistence.logging;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import de.fraunhofer.iais.eis.QueryMessageBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.NoSuchElementException;
 
 /**
@@ -16,10 +33,25 @@ import java.util.NoSuchElementException;
 @RestController
 public class LogEndpoint {
 
+    //Limits of the frontend logging. Each logged message takes one permit of the rate limit of the client
+    public static int maxMessageLength = 16384;
+    public static int maxBatchRecords = 1000;
+    public static long maxBatchBytes = 1024 * 1024;
+    public static double rateLimitPerSecond = 50;
+    public static int rateLimitBurst = 1000;
+    //Request header holding the client address, set by a reverse proxy in front of the broker. If empty, the rate limit applies per remote address, which is the proxy then
+    public static String clientAddressHeader = "";
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private volatile ClientRateLimiter rateLimiter;
+
     Logger logger = LoggerFactory.getLogger(LogEndpoint.class);
     @PostMapping("/logging")
-    public void writeLog(@RequestBody String messageToLog, @RequestParam(required = false) String severity)
+    public void writeLog(@RequestParam(required = false) String severity, HttpServletRequest request) throws IOException
     {
+        acquire(request, 1);
+        String messageToLog = escapeLineBreaks(readMessage(request));
         if(severity != null && !severity.isEmpty()) {
             switch (severity.toLowerCase()) {
                 case "debug":
@@ -43,4 +75,250 @@ public class LogEndpoint {
             logger.info(messageToLog);
         }
     }
+
+    /**
+     * Logs a batch of frontend messages. The body is a JSON array of records {"severity": "info", "message": "...", "timestamp": "..."}, of which only message is required.
+     * The body is parsed as a stream and rejected as a whole if it exceeds the size limits (413), contains an invalid record (400) or exceeds the rate limit of the client (429).
+     * Otherwise all records are passed to the logger at once. With the asynchronous log appender, this only queues them for the log writer thread
+     * @param request Request with the JSON array as body
+     */
+    @PostMapping(value = "/logging/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public void writeLogBatch(HttpServletRequest request) throws IOException
+    {
+        if(request.getContentLengthLong() > maxBatchBytes)
+        {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Batch exceeds " + maxBatchBytes + " bytes");
+        }
+        acquire(request, 1);
+        List<LogRecord> records = parseBatch(new LimitedInputStream(request.getInputStream(), maxBatchBytes));
+        //The first permit was taken before parsing, so that clients cannot flood the endpoint with invalid batches
+        if(records.size() > 1)
+        {
+            acquire(request, records.size() - 1);
+        }
+        for(LogRecord record : records)
+        {
+            String message = escapeLineBreaks(record.timestamp == null ? record.message : "[" + record.timestamp + "] " + record.message);
+            switch (record.severity) {
+                case "debug":
+                    logger.debug(message);
+                    break;
+                case "warn":
+                    logger.warn(message);
+                    break;
+                case "error":
+                    logger.error(message);
+                    break;
+                default:
+                    logger.info(message);
+            }
+        }
+    }
+
+    /**
+     * Reads the message to be logged from the request body. Reading stops as soon as the body cannot be a message within the length limit, also if the client did not send a Content-Length
+     * @param request Request with the message as body, in the charset of the request or UTF-8
+     * @return The message
+     */
+    private static String readMessage(HttpServletRequest request) throws IOException
+    {
+        //No common charset takes more than four bytes per character
+        long maxBytes = 4L * maxMessageLength;
+        if(request.getContentLengthLong() > maxBytes)
+        {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Message exceeds " + maxMessageLength + " characters");
+        }
+        Charset charset;
+        try {
+            charset = request.getCharacterEncoding() == null ? StandardCharsets.UTF_8 : Charset.forName(request.getCharacterEncoding());
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, "Unsupported charset " + request.getCharacterEncoding());
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            new LimitedInputStream(request.getInputStream(), maxBytes).transferTo(body);
+        }
+        catch (LimitExceededException e)
+        {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Message exceeds " + maxMessageLength + " characters");
+        }
+        if(body.size() == 0)
+        {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Missing message");
+        }
+        String message = body.toString(charset);
+        if(message.length() > maxMessageLength)
+        {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Message exceeds " + maxMessageLength + " characters");
+        }
+        return message;
+    }
+
+    /**
+     * Messages of the frontend are logged as a single line. Otherwise, a client could add lines which look like they were logged by the broker, such as checkpoints
+     */
+    static String escapeLineBreaks(String message)
+    {
+        if(message.indexOf('\n') < 0 && message.indexOf('\r') < 0)
+        {
+            return message;
+        }
+        return message.replace("\r", "\\r").replace("\n", "\\n");
+    }
+
+    private List<LogRecord> parseBatch(InputStream body) throws IOException
+    {
+        List<LogRecord> records = new ArrayList<>();
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if(parser.nextToken() != JsonToken.START_ARRAY)
+            {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Expected a JSON array of log records");
+            }
+            JsonToken token;
+            while((token = parser.nextToken()) != JsonToken.END_ARRAY)
+            {
+                if(token != JsonToken.START_OBJECT)
+                {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Log record " + records.size() + " is not a JSON object");
+                }
+                if(records.size() == maxBatchRecords)
+                {
+                    throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Batch exceeds " + maxBatchRecords + " records");
+                }
+                records.add(parseRecord(parser, records.size()));
+            }
+        }
+        catch (LimitExceededException e)
+        {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Batch exceeds " + maxBatchBytes + " bytes");
+        }
+        catch (JsonProcessingException e)
+        {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed JSON" + (e.getLocation() == null ? "" : " at line " + e.getLocation().getLineNr() + ", column " + e.getLocation().getColumnNr()));
+        }
+        return records;
+    }
+
+    private LogRecord parseRecord(JsonParser parser, int index) throws IOException
+    {
+        LogRecord record = new LogRecord();
+        while(parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "severity":
+                    record.severity = value == JsonToken.VALUE_NULL ? "info" : parser.getValueAsString("").toLowerCase(Locale.ROOT);
+                    break;
+                case "message":
+                    record.message = parser.getValueAsString();
+                    break;
+                case "timestamp":
+                    record.timestamp = parser.getValueAsString();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if(record.message == null)
+        {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Log record " + index + " has no message");
+        }
+        if(record.message.length() > maxMessageLength)
+        {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Message of log record " + index + " exceeds " + maxMessageLength + " characters");
+        }
+        if(!record.severity.matches("debug|info|warn|error"))
+        {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Severity " + record.severity + " of log record " + index + " does not exist. Use debug, info, warn, or error.");
+        }
+        return record;
+    }
+
+    private void acquire(HttpServletRequest request, int permits)
+    {
+        ClientRateLimiter limiter = rateLimiter;
+        if(limiter == null)
+        {
+            synchronized (this)
+            {
+                if(rateLimiter == null)
+                {
+                    //Created on first use, as the limits are only set once the application properties have been read
+                    rateLimiter = new ClientRateLimiter(rateLimitPerSecond, rateLimitBurst);
+                }
+                limiter = rateLimiter;
+            }
+        }
+        if(!limiter.tryAcquire(clientAddress(request), permits))
+        {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Rate limit for logging exceeded");
+        }
+    }
+
+    /**
+     * @param request Request of a client
+     * @return Address of the client the rate limit applies to. With a configured header such as X-Forwarded-For, this is the last address in the header,
+     * which is the one added by the proxy in front of the broker. Addresses before it were sent by the client and cannot be trusted
+     */
+    static String clientAddress(HttpServletRequest request)
+    {
+        if(clientAddressHeader != null && !clientAddressHeader.isEmpty())
+        {
+            String forwarded = request.getHeader(clientAddressHeader);
+            if(forwarded != null)
+            {
+                String address = forwarded.substring(forwarded.lastIndexOf(',') + 1).trim();
+                if(!address.isEmpty())
+                {
+                    return address;
+                }
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    private static class LogRecord {
+        String severity = "info";
+        String message;
+        String timestamp;
+    }
+
+    private static class LimitExceededException extends IOException {
+    }
+
+    /**
+     * Fails as soon as more than the allowed number of bytes is read, also if the client did not send a Content-Length
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b != -1 && --remaining < 0)
+            {
+                throw new LimitExceededException();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if(read > 0 && (remaining -= read) < 0)
+            {
+                throw new LimitExceededException();
+            }
+            return read;
+        }
+    }
 }
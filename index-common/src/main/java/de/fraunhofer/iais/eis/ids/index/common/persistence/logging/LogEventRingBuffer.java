@@ -0,0 +1,99 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence.logging;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, lock-free queue for many producers and a single consumer.
+ * Each slot carries a sequence number telling whether it is free for the producer of a given position or filled for the consumer,
+ * so producers only compete for the tail position with a compare-and-set and never wait for each other.
+ * @param <E> Type of the queued elements
+ */
+final class LogEventRingBuffer<E> {
+
+    private final Object[] elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    /**
+     * Constructor
+     * @param capacity Minimum capacity, rounded up to the next power of two
+     */
+    LogEventRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        elements = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an element, if there is space. Can be called from any thread
+     * @param element Element to be added
+     * @return false if the buffer is full
+     */
+    boolean offer(E element) {
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (difference < 0) {
+                //The slot still holds the element from one round ago
+                return false;
+            }
+        }
+        elements[index] = element;
+        sequences.lazySet(index, position + 1);
+        return true;
+    }
+
+    /**
+     * Removes up to maxElements elements in the order in which they were added. Must only be called by the consumer thread
+     * @param target List to which the elements are added
+     * @param maxElements Maximum number of elements to remove
+     * @return Number of removed elements
+     */
+    @SuppressWarnings("unchecked")
+    int drainTo(List<E> target, int maxElements) {
+        int drained = 0;
+        long position = head;
+        while (drained < maxElements) {
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            target.add((E) elements[index]);
+            elements[index] = null;
+            sequences.lazySet(index, position + mask + 1);
+            position++;
+            drained++;
+        }
+        head = position;
+        return drained;
+    }
+
+    /**
+     * @return Number of queued elements. Approximate while producers are adding elements
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    /**
+     * @return Number of elements the buffer can hold
+     */
+    int capacity() {
+        return elements.length;
+    }
+}
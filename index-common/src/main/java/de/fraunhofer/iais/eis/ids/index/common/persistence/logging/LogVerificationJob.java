@@ -0,0 +1,72 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.security.Key;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Verifies the log directory of this component in the background with the {@link LogArchiveVerifier} and keeps the report of the last run.
+ * Verifying all log files takes a while and uses all verification threads, so it is never run on a request thread, and only one run at a time
+ */
+public class LogVerificationJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogVerificationJob.class);
+
+    public static String logDirectory = "logs"; //default value, to be overwritten by application properties
+    public static int verificationThreads = Runtime.getRuntime().availableProcessors();
+
+    private static final AtomicBoolean running = new AtomicBoolean(false);
+    private static volatile LogArchiveVerifier.Report lastReport = null;
+
+    private LogVerificationJob() {
+    }
+
+    /**
+     * Starts verifying the log directory on a background thread, unless a verification is already running
+     * @return true if a verification was started, false if one is already running
+     * @throws IllegalStateException if no key for verifying the log files is available yet
+     */
+    public static boolean start() {
+        Key publicKey = VerifyingRollingFileAppender.getPublicKey();
+        if (publicKey == null) {
+            throw new IllegalStateException("No key for verifying log files available");
+        }
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                lastReport = new LogArchiveVerifier(Paths.get(logDirectory), publicKey, LogArchiveVerifier.DEFAULT_PATTERN, verificationThreads).verify();
+                logger.info("Verified " + lastReport.getFiles().size() + " log files in " + lastReport.getDurationMillis() + " ms: " + lastReport.getValid() + " valid, "
+                        + lastReport.getInvalid() + " invalid, " + lastReport.getUnsigned() + " unsigned, " + lastReport.getErrors() + " errors");
+            }
+            catch (IOException | RuntimeException e) {
+                logger.error("Could not verify log files in " + logDirectory, e);
+            }
+            finally {
+                running.set(false);
+            }
+        }, "log-verification");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * @return true while a verification is running
+     */
+    public static boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return Report of the last completed verification, or null if none has completed yet
+     */
+    public static LogArchiveVerifier.Report getLastReport() {
+        return lastReport;
+    }
+}
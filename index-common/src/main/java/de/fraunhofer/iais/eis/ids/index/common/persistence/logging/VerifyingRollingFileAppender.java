@@ -4,8 +4,13 @@ package de.fraunhofer.iais.eis.ids.index.common.persistence.logging;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.recovery.ResilientFileOutputStream;
 import ch.qos.logback.core.rolling.RollingFileAppender;
-import org.apache.commons.codec.digest.DigestUtils;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,24 +21,81 @@ import javax.crypto.NoSuchPaddingException;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
 import java.util.ArrayList;
 import java.util.Arrays;
-
-//TODO: upon shutting down, one last call should be done towards the signature process. Otherwise the last file before shutdown will never be signed
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * This is an extension of the logback RollingFileAppender, which additionally signs the resulting log file upon rollover, if no external modifications were detected
- * To detect modifications, the VerifyingRollingFileAppender remembers the SHA1 fingerprint of the log file after each append step
- * Before appending, it verifies that the current SHA1 fingerprint matches with the stored one
+ * This is an extension of the logback RollingFileAppender, which additionally signs the resulting log file upon rollover and upon shutdown, if no external modifications were detected
+ * To detect modifications, the VerifyingRollingFileAppender keeps a running SHA-256 digest of exactly the bytes it writes to the log file, together with the expected size and modification time of the file
+ * Before appending, it checks that size and modification time of the file are unchanged. Upon rollover (and optionally every fullVerificationIntervalMillis), the file is hashed and compared to the running digest
+ * In asynchronous mode (async = true), logging threads only put the events into a ring buffer. A single writer thread takes them out in batches, writes, flushes and checks the file once per batch
+ * With checkpoints enabled (checkpointEvents or checkpointIntervalMillis), a signed, hash-chained checkpoint line is written after every block of events, see {@link LogCheckpoint}.
+ * The {@link LogChainVerifier} can then verify the log files block by block, without depending on the signature of whole files
  */
 public class VerifyingRollingFileAppender extends RollingFileAppender<ILoggingEvent> {
-    private byte[] digest = null;
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    //Time spent hashing complete log files and signing files and checkpoints, which is spent while holding the lock of the appender
+    private static final Timer hashTimer = Metrics.timer("broker.log.hash");
+    private static final Timer fileSignatureTimer = Metrics.timer("broker.log.sign", "target", "file");
+    private static final Timer checkpointSignatureTimer = Metrics.timer("broker.log.sign", "target", "checkpoint");
+
+    /**
+     * What happens to an event in asynchronous mode if the ring buffer is full
+     */
+    public enum OverflowPolicy {
+        /** The logging thread waits until the writer thread has made space. No event is lost */
+        BLOCK,
+        /** The event is discarded and counted. The number of discarded events is written to the log file */
+        DROP
+    }
+
+    private boolean async = false;
+    private int queueSize = 8192;
+    private int batchSize = 256;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private boolean includeCallerData = true;
+    private long shutdownTimeoutMillis = 10000;
+    private volatile LogEventRingBuffer<ILoggingEvent> ringBuffer = null;
+    private Thread writerThread = null;
+    private volatile boolean writerRunning = false;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong blockedAppends = new AtomicLong();
+    private long reportedDroppedEvents = 0;
+    private volatile int maxQueueDepth = 0;
+    //Meters of the ring buffer, registered while the appender runs in asynchronous mode
+    private final List<Meter> meters = new ArrayList<>();
+    private int checkpointEvents = 0;
+    private long checkpointIntervalMillis = 0;
+    private long checkpointSequence = 0;
+    private byte[] lastCheckpointHash = LogCheckpoint.CHAIN_START;
+    private long eventsInBlock = 0;
+    private long lastCheckpointTime = System.currentTimeMillis();
+
+    private DigestingOutputStream trackedStream = null;
+    private long expectedLastModified = 0;
+    private long lastFullVerification = 0;
+    private long fullVerificationIntervalMillis = 0;
     private String fileToSign = null;
     private boolean manipulated = false;
+    //Signature of the continued log file and SHA-256 of the content it was opened with, if the file could not be verified yet because the keys were not set
+    private File pendingSignatureFile = null;
+    private byte[] pendingSignatureSha256 = null;
     private final Logger logger = LoggerFactory.getLogger(VerifyingRollingFileAppender.class);
     private final ArrayList<String> messagesToLog = new ArrayList<>();
     private static Key privateKey;
@@ -50,43 +112,225 @@ public class VerifyingRollingFileAppender extends RollingFileAppender<ILoggingEv
         publicKey = key;
     }
 
+    static Key getPublicKey()
+    {
+        return publicKey;
+    }
+
+    /**
+     * How often the current log file is hashed and compared to the running digest, in addition to the verification upon rollover. 0 (default) to verify upon rollover only
+     * @param fullVerificationIntervalMillis Interval in milliseconds, configurable in logback.xml
+     */
+    public void setFullVerificationIntervalMillis(long fullVerificationIntervalMillis)
+    {
+        this.fullVerificationIntervalMillis = fullVerificationIntervalMillis;
+    }
+
+    /**
+     * Writes the events through a ring buffer and a single writer thread instead of on the logging thread. Configurable in logback.xml
+     * @param async true to enable the asynchronous mode
+     */
+    public void setAsync(boolean async)
+    {
+        this.async = async;
+    }
+
+    /**
+     * @param queueSize Capacity of the ring buffer in asynchronous mode, rounded up to the next power of two
+     */
+    public void setQueueSize(int queueSize)
+    {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * @param batchSize Maximum number of events which the writer thread writes before flushing and checking the file
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param overflowPolicy BLOCK (default) or DROP, see {@link OverflowPolicy}
+     */
+    public void setOverflowPolicy(String overflowPolicy)
+    {
+        this.overflowPolicy = OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase());
+    }
+
+    /**
+     * Class and method of the caller can only be determined on the logging thread. Disable if the pattern does not use them (%C, %M, %L, ...)
+     * @param includeCallerData true (default) to determine the caller data before an event is queued
+     */
+    public void setIncludeCallerData(boolean includeCallerData)
+    {
+        this.includeCallerData = includeCallerData;
+    }
+
+    /**
+     * @param shutdownTimeoutMillis How long stopping the appender waits for the writer thread to write the queued events
+     */
+    public void setShutdownTimeoutMillis(long shutdownTimeoutMillis)
+    {
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+
+    /**
+     * Writes a checkpoint after this many events. 0 (default) to not write checkpoints based on the number of events
+     * @param checkpointEvents Number of events per block, configurable in logback.xml
+     */
+    public void setCheckpointEvents(int checkpointEvents)
+    {
+        this.checkpointEvents = checkpointEvents;
+    }
+
+    /**
+     * Writes a checkpoint with the first event after this interval has passed since the last checkpoint. 0 (default) to not write checkpoints based on time
+     * @param checkpointIntervalMillis Interval in milliseconds, configurable in logback.xml
+     */
+    public void setCheckpointIntervalMillis(long checkpointIntervalMillis)
+    {
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    /**
+     * @return Number of events currently waiting in the ring buffer. Always 0 in synchronous mode
+     */
+    public int getQueueDepth()
+    {
+        LogEventRingBuffer<ILoggingEvent> buffer = ringBuffer;
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    /**
+     * @return Highest number of events which were waiting in the ring buffer at once
+     */
+    public int getMaxQueueDepth()
+    {
+        return maxQueueDepth;
+    }
+
+    /**
+     * @return Capacity of the ring buffer. 0 in synchronous mode
+     */
+    public int getQueueCapacity()
+    {
+        LogEventRingBuffer<ILoggingEvent> buffer = ringBuffer;
+        return buffer == null ? 0 : buffer.capacity();
+    }
+
+    /**
+     * @return Number of events discarded because the ring buffer was full (overflow policy DROP)
+     */
+    public long getDroppedEvents()
+    {
+        return droppedEvents.get();
+    }
+
+    /**
+     * @return Number of events for which the logging thread had to wait because the ring buffer was full (overflow policy BLOCK)
+     */
+    public long getBlockedAppends()
+    {
+        return blockedAppends.get();
+    }
+
     /**
      * Function to validate authenticity and integrity of a signed log file
      * @param path Path of log file to be validated
-     * @return true, if file signature is good, false otherwise
+     * @return true, if file signature is good, false if it does not match or could not be checked, e.g. because the public key is not set
      */
     public static boolean verifyIntegrityOfLogFile(String path)
     {
+        //Change file ending from log file to "signature file"
+        File signatureFile = new File(path.replace(".log", ".sgn").replace(".txt", ".sgn"));
+        //Does signature file exist?
+        if(!signatureFile.exists()) return false;
         try {
-            //Change file ending from log file to "signature file"
-            String signatureFile = path.replace(".log", ".sgn").replace(".txt", ".sgn");
-            //Does signature file exist?
-            if(!new File(signatureFile).exists()) return false;
-            //Keys are of RSA nature
-            Cipher cipher = Cipher.getInstance("RSA");
-            cipher.init(Cipher.DECRYPT_MODE, publicKey);
-            byte[] signature = Files.readAllBytes(Paths.get(signatureFile));
-            byte[] decryptedHash = cipher.doFinal(signature);
-            //Does the SHA-256 hash of the current file match with the decrypted hash?
-            return Arrays.equals(getSha256(path), decryptedHash);
-        } catch (NoSuchPaddingException | NoSuchAlgorithmException | IOException | InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
-            e.printStackTrace();
+            return matchesSignature(getSha256(path), signatureFile, publicKey);
+        } catch (IOException | GeneralSecurityException e) {
             return false;
         }
     }
 
+    /**
+     * @param sha256 SHA-256 fingerprint of a log file
+     * @param signatureFile Signature file of the log file
+     * @param key Public key to decrypt the signature
+     * @return true if the decrypted signature is the fingerprint
+     * @throws IOException if the signature file could not be read
+     * @throws GeneralSecurityException if the signature could not be decrypted with the key
+     */
+    private static boolean matchesSignature(byte[] sha256, File signatureFile, Key key) throws IOException, GeneralSecurityException
+    {
+        //Keys are of RSA nature
+        Cipher cipher = Cipher.getInstance("RSA");
+        cipher.init(Cipher.DECRYPT_MODE, key);
+        byte[] decryptedHash = cipher.doFinal(Files.readAllBytes(signatureFile.toPath()));
+        return Arrays.equals(sha256, decryptedHash);
+    }
+
+    /**
+     * Checks the signature of a continued log file against the content the file was opened with, once the public key is set.
+     * If the signature matches, it is deleted and renewed upon the next rollover or shutdown. Must be called while holding the lock
+     * @param lastChance true if the file is about to be signed, so that it cannot be signed if the keys are still missing
+     */
+    private void checkPendingSignature(boolean lastChance)
+    {
+        if(pendingSignatureFile == null)
+        {
+            return;
+        }
+        File logFile = trackedStream.getFile();
+        if(!(publicKey instanceof PublicKey))
+        {
+            if(lastChance)
+            {
+                manipulated = true;
+                messagesToLog.add("Could not verify continued log file " + logFile + " against its signature, as no key was set. Will not sign it again.");
+                pendingSignatureFile = null;
+                pendingSignatureSha256 = null;
+            }
+            return;
+        }
+        boolean valid;
+        try {
+            valid = matchesSignature(pendingSignatureSha256, pendingSignatureFile, publicKey);
+        }
+        catch (IOException | GeneralSecurityException e)
+        {
+            addError("Could not verify signature file " + pendingSignatureFile, e);
+            valid = false;
+        }
+        if(valid && pendingSignatureFile.delete())
+        {
+            messagesToLog.add("Continuing signed log file " + logFile + ". Its signature will be renewed.");
+        }
+        else
+        {
+            manipulated = true;
+            messagesToLog.add("Log file " + logFile + " does not match its signature! Will not sign it again.");
+        }
+        pendingSignatureFile = null;
+        pendingSignatureSha256 = null;
+    }
+
     /**
      * Function to perform the signing of a log file after the program is done with writing to this file
      * @param file path of log file to be signed
+     * @param sha256 SHA-256 fingerprint of the file, which was verified against the running digest
      */
-    private void signFile(String file) throws InvalidKeyException, NoSuchPaddingException, NoSuchAlgorithmException, IOException, BadPaddingException, IllegalBlockSizeException {
+    private void signFile(String file, byte[] sha256) throws InvalidKeyException, NoSuchPaddingException, NoSuchAlgorithmException, IOException, BadPaddingException, IllegalBlockSizeException {
         String signatureFile = file.replace(".log", ".sgn").replace(".txt", ".sgn");
         if(!new File(signatureFile).exists())
         {
+            long start = System.nanoTime();
             Cipher cipher = Cipher.getInstance("RSA");
             cipher.init(Cipher.ENCRYPT_MODE, privateKey);
-            byte[] signature = cipher.doFinal(getSha256(fileToSign));
+            byte[] signature = cipher.doFinal(sha256);
             Files.write(Paths.get(signatureFile), signature);
+            fileSignatureTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             //System.out.println("Log file integrity is good: " + verifyIntegrityOfLogFile(fileToSign));
         }
         else
@@ -95,48 +339,200 @@ public class VerifyingRollingFileAppender extends RollingFileAppender<ILoggingEv
         }
     }
 
+    /**
+     * Performs one last, full check whether the current file has been manipulated and signs it, if not. Must be called while holding the lock
+     */
+    private void verifyAndSignCurrentFile()
+    {
+        byte[] sha256 = null;
+        if(!manipulated && fileToSign != null)
+        {
+            try {
+                sha256 = verifyFully();
+            }
+            catch (IOException e)
+            {
+                manipulated = true;
+                messagesToLog.add("Could not verify integrity of log file. Will not sign log file " + fileToSign);
+            }
+        }
+        if(!manipulated && sha256 != null)
+        {
+            //sign the file
+            try {
+                signFile(fileToSign, sha256);
+            } catch (IOException | NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | IllegalBlockSizeException | BadPaddingException e) {
+                addError("Failed to create signature file for log " + fileToSign, e);
+                messagesToLog.add("Failed to create signature file for log " + fileToSign);
+            }
+        }
+    }
+
     /**
      * An override of the default rollover behaviour. When rolling over takes place, check the integrity of the file and sign it
      */
     @Override
     public void rollover() {
-        //Perform one last check whether file has been manipulated
+        lock.lock();
         try {
-            if(!Arrays.equals(digest, getSha1(fileToSign)))
+            //Close the last block of the file. The chain continues in the next file
+            checkPendingSignature(true);
+            writeCheckpoint(true);
+            verifyAndSignCurrentFile();
+
+            //We are now starting with a fresh log file. Reset parameters to default
+            manipulated = false;
+            lastFullVerification = System.currentTimeMillis();
+
+            //Do the actual rollover. This opens the next file, which resets the running digest
+            super.rollover();
+
+            //Once rolled over, print messages that occurred during rollover process. This prevents this function from being re-triggered indefinitely (StackOverflow error)
+            for(String message : messagesToLog)
             {
-                manipulated = true;
+                //TODO: In which file should errors which occur during the signing process show up? In the log file that should be signed? Currently it is in the "next file"
+                logger.error(message);
+            }
+            messagesToLog.clear();
+            fileToSign = null;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Every file opened by the appender is written through a stream which updates the running digest.
+     * If the file already has content, e.g. after a restart, the digest starts from that content
+     */
+    @Override
+    public void setOutputStream(OutputStream outputStream) {
+        if(isPrudent() || !(outputStream instanceof ResilientFileOutputStream))
+        {
+            //Other processes may write to the file in prudent mode, so the bytes written by this appender do not describe the file
+            trackedStream = null;
+            pendingSignatureFile = null;
+            pendingSignatureSha256 = null;
+            manipulated = true;
+            super.setOutputStream(outputStream);
+            return;
+        }
+        File file = ((ResilientFileOutputStream) outputStream).getFile();
+        File signatureFile = new File(file.getPath().replace(".log", ".sgn").replace(".txt", ".sgn"));
+        pendingSignatureFile = null;
+        pendingSignatureSha256 = null;
+        try {
+            if(file.length() > 0 && signatureFile.exists())
+            {
+                //The file was signed upon the last shutdown and is continued now. The signature is replaced upon the next rollover or shutdown, provided that the file was not changed in between
+                //When the appender is started, the keys are not set yet. The content found now is then verified as soon as they are
+                pendingSignatureSha256 = getSha256(file.getPath());
+                pendingSignatureFile = signatureFile;
             }
+            trackedStream = new DigestingOutputStream(outputStream, file);
+            expectedLastModified = file.lastModified();
+            eventsInBlock = 0;
         }
         catch (IOException e)
         {
+            trackedStream = null;
+            pendingSignatureFile = null;
+            pendingSignatureSha256 = null;
             manipulated = true;
-            messagesToLog.add("Could not verify integrity of log file during rollover process. Will not sign log file " + fileToSign);
+            messagesToLog.add("Could not read existing content of log file " + file + ". Will not sign it.");
+            super.setOutputStream(outputStream);
+            return;
         }
-        if(!manipulated)
+        checkPendingSignature(false);
+        super.setOutputStream(trackedStream);
+    }
+
+    /**
+     * Writes a checkpoint line closing the current block, if a checkpoint is due. Must be called while holding the lock
+     * @param force true to write a checkpoint regardless of number of events and time, e.g. before the file is closed
+     */
+    private void writeCheckpoint(boolean force)
+    {
+        if(trackedStream == null || (checkpointEvents <= 0 && checkpointIntervalMillis <= 0) || trackedStream.getBlockLength() == 0)
         {
-            //sign the file
-            try {
-                signFile(fileToSign);
-            } catch (IOException | NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | IllegalBlockSizeException | BadPaddingException e) {
-                e.printStackTrace();
-                messagesToLog.add("Failed to create signature file for log " + fileToSign);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if(!force && !(checkpointEvents > 0 && eventsInBlock >= checkpointEvents) && !(checkpointIntervalMillis > 0 && now - lastCheckpointTime >= checkpointIntervalMillis))
+        {
+            return;
+        }
+        if(!(privateKey instanceof PrivateKey))
+        {
+            //The keys are only set once the application has started. Until then, the first block keeps growing
+            return;
+        }
+        try {
+            if(trackedStream.hasUnverifiedCheckpoints())
+            {
+                if(!(publicKey instanceof PublicKey))
+                {
+                    //Without the public key, it is unknown where the current block of a continued file starts
+                    return;
+                }
+                trackedStream.verifyCheckpoints((PublicKey) publicKey);
+            }
+            long start = System.nanoTime();
+            LogCheckpoint checkpoint = LogCheckpoint.create(checkpointSequence, eventsInBlock, lastCheckpointHash, trackedStream.getBlockDigest(), (PrivateKey) privateKey);
+            checkpointSignatureTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            trackedStream.writeCheckpoint(checkpoint.toLine());
+            if(isImmediateFlush())
+            {
+                trackedStream.flush();
             }
+            lastCheckpointHash = checkpoint.hash();
+            checkpointSequence++;
+            eventsInBlock = 0;
+            lastCheckpointTime = now;
+        }
+        catch (GeneralSecurityException | IOException e)
+        {
+            messagesToLog.add("Failed to write checkpoint " + checkpointSequence + " to log file " + trackedStream.getFile() + ": " + e.getMessage());
         }
+    }
 
-        //Do the actual rollover
-        super.rollover();
+    /**
+     * Hashes the current log file and compares the result to the running digest
+     * @return SHA-256 fingerprint of the file, or null if it does not match the running digest
+     * @throws IOException if the file could not be read
+     */
+    private byte[] verifyFully() throws IOException
+    {
+        if(trackedStream == null)
+        {
+            return null;
+        }
+        trackedStream.flush();
+        lastFullVerification = System.currentTimeMillis();
+        byte[] expected = trackedStream.getDigest();
+        long start = System.nanoTime();
+        byte[] actual = getSha256(trackedStream.getFile().getPath());
+        hashTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if(!Arrays.equals(expected, actual))
+        {
+            manipulated = true;
+            messagesToLog.add("Unexpected message digest! Log file " + trackedStream.getFile() + " appears to have been manipulated!");
+            return null;
+        }
+        return actual;
+    }
 
-        //We are now starting with a fresh log file. Reset parameters to default
-        manipulated = false;
-        digest = null;
-        //Once rolled over, print messages that occurred during rollover process. This prevents this function from being re-triggered indefinitely (StackOverflow error)
-        for(String message : messagesToLog)
+    /**
+     * Cheap check, which detects any write to the file by others as long as every event is flushed immediately: size and modification time have to be the ones observed after the last append
+     */
+    private void verifySizeAndModificationTime()
+    {
+        File file = trackedStream.getFile();
+        if(file.length() != trackedStream.getLength() || file.lastModified() != expectedLastModified)
         {
-            //TODO: In which file should errors which occur during the signing process show up? In the log file that should be signed? Currently it is in the "next file"
-            logger.error(message);
+            manipulated = true;
+            messagesToLog.add("Unexpected size or modification time! Log file " + file + " appears to have been manipulated!");
         }
-        messagesToLog.clear();
-        fileToSign = null;
     }
 
     /**
@@ -147,78 +543,444 @@ public class VerifyingRollingFileAppender extends RollingFileAppender<ILoggingEv
      */
     private static byte[] getSha256(String fileName) throws IOException
     {
-        try {
-            return MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(Paths.get(fileName)));
+        try (InputStream in = new FileInputStream(fileName)) {
+            MessageDigest messageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, read);
+            }
+            return messageDigest.digest();
         } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+            //Every Java platform is required to support SHA-256
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is not available", e);
         }
-        return null;
+    }
+
+    @Override
+    public void start() {
+        super.start();
+        if(!async || !isStarted())
+        {
+            return;
+        }
+        //The writer thread flushes once per batch
+        setImmediateFlush(false);
+        ringBuffer = new LogEventRingBuffer<>(queueSize);
+        writerRunning = true;
+        writerThread = new Thread(this::writeQueuedEvents, "log-writer-" + getName());
+        writerThread.setDaemon(true);
+        writerThread.start();
+        registerMeters();
     }
 
     /**
-     * Utility function to get the SHA-1 fingerprint of a file. Note that computing the SHA-1 fingerprint of a file is faster than computing the SHA-256 fingerprint
-     * @param fileName path of file
-     * @return SHA-1 fingerprint as byte array
-     * @throws IOException if file could not be opened
+     * Exports depth and capacity of the ring buffer and the numbers of dropped and blocked events, tagged with the name of the appender
      */
-    private static byte[] getSha1(String fileName) throws IOException
+    private void registerMeters()
     {
-        return DigestUtils.sha1(new FileInputStream(fileName));
+        String name = getName() == null ? "" : getName();
+        meters.add(Gauge.builder("broker.log.queue.depth", this, VerifyingRollingFileAppender::getQueueDepth).tag("appender", name).register(Metrics.globalRegistry));
+        meters.add(Gauge.builder("broker.log.queue.depth.max", this, VerifyingRollingFileAppender::getMaxQueueDepth).tag("appender", name).register(Metrics.globalRegistry));
+        meters.add(Gauge.builder("broker.log.queue.capacity", this, VerifyingRollingFileAppender::getQueueCapacity).tag("appender", name).register(Metrics.globalRegistry));
+        meters.add(FunctionCounter.builder("broker.log.queue.dropped", this, VerifyingRollingFileAppender::getDroppedEvents).tag("appender", name).register(Metrics.globalRegistry));
+        meters.add(FunctionCounter.builder("broker.log.queue.blocked", this, VerifyingRollingFileAppender::getBlockedAppends).tag("appender", name).register(Metrics.globalRegistry));
+    }
+
+    /**
+     * Writes the queued events and signs the current log file. Without this, the last file before a shutdown would never be signed.
+     * Called by logback when the logger context is stopped, e.g. by the shutdown hook configured in logback.xml
+     */
+    @Override
+    public void stop() {
+        if(!isStarted())
+        {
+            return;
+        }
+        if(writerThread != null)
+        {
+            writerRunning = false;
+            try {
+                writerThread.join(shutdownTimeoutMillis);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            if(writerThread.isAlive())
+            {
+                addWarn("Writer thread did not finish within " + shutdownTimeoutMillis + " ms. " + getQueueDepth() + " queued events are lost.");
+                writerThread.interrupt();
+            }
+            else
+            {
+                //Events which were queued while the writer thread was finishing
+                List<ILoggingEvent> remaining = new ArrayList<>();
+                ringBuffer.drainTo(remaining, Integer.MAX_VALUE);
+                ringBuffer = null;
+                if(!remaining.isEmpty())
+                {
+                    write(remaining);
+                }
+            }
+            writerThread = null;
+            for(Meter meter : meters)
+            {
+                Metrics.globalRegistry.remove(meter);
+            }
+            meters.clear();
+        }
+        lock.lock();
+        try {
+            if(fileToSign != null)
+            {
+                checkPendingSignature(true);
+                writeCheckpoint(true);
+                verifyAndSignCurrentFile();
+                for(String message : messagesToLog)
+                {
+                    addWarn(message);
+                }
+                messagesToLog.clear();
+                fileToSign = null;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        super.stop();
     }
 
     /**
      * Override the appending functionality to also do an integrity check every time something is appended to the log
+     * In asynchronous mode, the event is only queued for the writer thread
      * @param eventObject event to be logged
      */
     @Override
     protected void append(ILoggingEvent eventObject) {
-
-        //Just storing the current file to a variable. This is required during rollover process where this file needs to be signed
-        //Asking for the current file during the rollover would already give us the "next file", as the "getFile" method queries the Rollover strategy
-        if(fileToSign == null)
+        LogEventRingBuffer<ILoggingEvent> buffer = ringBuffer;
+        if(buffer == null)
         {
-            fileToSign = getFile();
+            write(Collections.singletonList(eventObject));
+            return;
+        }
+        //Everything which depends on the logging thread or on mutable arguments has to be captured before the event changes threads
+        eventObject.prepareForDeferredProcessing();
+        if(includeCallerData)
+        {
+            eventObject.getCallerData();
+        }
+        if(Thread.currentThread() == writerThread)
+        {
+            //Logged while writing, e.g. during a rollover. Waiting for space here would wait for this very thread
+            if(!buffer.offer(eventObject))
+            {
+                droppedEvents.incrementAndGet();
+            }
+            return;
+        }
+        boolean blocked = false;
+        while(!buffer.offer(eventObject))
+        {
+            if(overflowPolicy == OverflowPolicy.DROP)
+            {
+                droppedEvents.incrementAndGet();
+                return;
+            }
+            if(!writerRunning)
+            {
+                //Shutting down. Write directly rather than waiting for a thread which is about to finish
+                write(Collections.singletonList(eventObject));
+                return;
+            }
+            if(!blocked)
+            {
+                blocked = true;
+                blockedAppends.incrementAndGet();
+            }
+            LockSupport.parkNanos(FULL_PARK_NANOS);
         }
-        //digest will be null, if this is the first time we write to the file. TODO: We should check here that the file is empty
-        if(digest != null)
+    }
+
+    /**
+     * Loop of the writer thread in asynchronous mode. Runs until the appender is stopped and the ring buffer is empty
+     */
+    private void writeQueuedEvents()
+    {
+        List<ILoggingEvent> batch = new ArrayList<>(batchSize);
+        while(true)
         {
+            //Read the flag before draining, so that events queued before stop() was called are still written
+            boolean running = writerRunning;
+            int depth = ringBuffer.size();
+            if(depth > maxQueueDepth)
+            {
+                maxQueueDepth = depth;
+            }
+            if(ringBuffer.drainTo(batch, batchSize) == 0)
+            {
+                if(!running)
+                {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
             try {
-                if (!Arrays.equals(digest, getSha1(getFile())))
+                write(batch);
+            }
+            catch (RuntimeException e)
+            {
+                addError("Failed to write " + batch.size() + " log events", e);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes events to the log file, checking the file before and after. In asynchronous mode, this is called by the writer thread with a whole batch, which is flushed at once
+     * @param events events to be logged
+     */
+    private void write(List<ILoggingEvent> events) {
+        //The checks and the running digest have to see the appends in the order in which they are written
+        lock.lock();
+        try {
+            //Size and modification time are only reliable if nothing is buffered, i.e. every event is flushed immediately or the previous batch was flushed
+            boolean flushed = isImmediateFlush() || ringBuffer != null;
+            //Just storing the current file to a variable. This is required during rollover process where this file needs to be signed
+            //Asking for the current file during the rollover would already give us the "next file", as the "getFile" method queries the Rollover strategy
+            if(fileToSign == null)
+            {
+                fileToSign = getFile();
+            }
+            checkPendingSignature(false);
+            if(trackedStream != null && !manipulated && flushed)
+            {
+                verifySizeAndModificationTime();
+            }
+            long dropped = droppedEvents.get();
+            if(dropped > reportedDroppedEvents)
+            {
+                messagesToLog.add((dropped - reportedDroppedEvents) + " log events were dropped, as the queue of the log writer was full.");
+                reportedDroppedEvents = dropped;
+            }
+            //Append messages that occurred, but do this in a manner that this current function is not called again (would cause StackOverflow error)
+            for(String message : messagesToLog)
+            {
+                LoggingEvent event = new LoggingEvent();
+                event.setLevel(Level.WARN);
+                event.setLoggerName(this.getClass().getName());
+                event.setThreadName(Thread.currentThread().getName());
+                event.setMessage(message);
+                //Append to file
+                super.append(event);
+                eventsInBlock++;
+            }
+            messagesToLog.clear();
+            for(ILoggingEvent eventObject : events)
+            {
+                super.append(eventObject);
+                eventsInBlock++;
+                writeCheckpoint(false);
+            }
+            writeCheckpoint(false);
+            if(ringBuffer != null && getOutputStream() != null)
+            {
+                try {
+                    getOutputStream().flush();
+                }
+                catch (IOException e)
                 {
-                    manipulated = true;
-                    messagesToLog.add("Unexpected message digest! Log file " + getFile() + " appears to have been manipulated!");
+                    addError("Failed to flush log file", e);
                 }
             }
-            catch (IOException e)
+            if(trackedStream != null && !manipulated)
             {
-                messagesToLog.add("IOException occurred while attempting to verify log integrity. Cannot sign log file [" + getFile() + "].");
-                e.printStackTrace();
-                manipulated = true;
+                if(flushed)
+                {
+                    expectedLastModified = trackedStream.getFile().lastModified();
+                }
+                if(fullVerificationIntervalMillis > 0 && System.currentTimeMillis() - lastFullVerification >= fullVerificationIntervalMillis)
+                {
+                    try {
+                        verifyFully();
+                    } catch (IOException e) {
+                        messagesToLog.add("Could not verify integrity of log file due to an IOException. Will not sign log file " + trackedStream.getFile());
+                        manipulated = true;
+                    }
+                }
             }
-            //Compute hash of file and compare it to stored hash. If this doesn't match, throw error and prevent log signing
         }
-        //Append messages that occurred, but do this in a manner that this current function is not called again (would cause StackOverflow error)
-        for(String message : messagesToLog)
-        {
-            LoggingEvent event = new LoggingEvent();
-            event.setLevel(Level.WARN);
-            event.setLoggerName(this.getClass().getName());
-            event.setThreadName(Thread.currentThread().getName());
-            event.setMessage(message);
-            //Append to file
-            super.append(event);
+        finally {
+            lock.unlock();
         }
-        String fileBeforeAppend = getFile();
-        super.append(eventObject);
-        //Did a rollover occur? If yes, we must skip one round of computing the SHA (empty)
-        if(getFile().equals(fileBeforeAppend)) {
+    }
+
+    /**
+     * Output stream which updates a SHA-256 digest with every byte written to the log file and counts them.
+     * A second digest covers the current block, i.e. the bytes since the last checkpoint.
+     * Only checkpoints with a valid signature end a block, as any logged message may contain a line which looks like a checkpoint
+     */
+    private static class DigestingOutputStream extends FilterOutputStream {
+        private final File file;
+        private final MessageDigest messageDigest;
+        private MessageDigest blockDigest;
+        private long length;
+        private long blockLength;
+        //Checkpoints found in the existing content of the file while no key for verifying them was set, with the offset after each of them
+        private final List<LogCheckpoint> unverifiedCheckpoints = new ArrayList<>();
+        private final List<Long> unverifiedCheckpointEnds = new ArrayList<>();
+
+        DigestingOutputStream(OutputStream out, File file) throws IOException {
+            super(out);
+            this.file = file;
             try {
-                digest = getSha1(getFile());
-            } catch (IOException e) {
-                messagesToLog.add("Could not verify integrity of log file due to an IOException. Will not sign log file " + getFile());
-                manipulated = true;
+                this.messageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+                this.blockDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+            if(file.length() > 0)
+            {
+                //Line by line, so that the block digest only covers the content after the last checkpoint of the file
+                try (InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+                    ByteArrayOutputStream line = new ByteArrayOutputStream();
+                    while (LogCheckpoint.readLine(in, line)) {
+                        byte[] bytes = line.toByteArray();
+                        messageDigest.update(bytes);
+                        length += bytes.length;
+                        LogCheckpoint checkpoint = LogCheckpoint.parse(bytes);
+                        if(checkpoint != null && publicKey instanceof PublicKey && checkpoint.verify((PublicKey) publicKey))
+                        {
+                            blockDigest.reset();
+                            blockLength = 0;
+                        }
+                        else
+                        {
+                            if(checkpoint != null && !(publicKey instanceof PublicKey))
+                            {
+                                //Decided by verifyCheckpoints, once the keys are set
+                                unverifiedCheckpoints.add(checkpoint);
+                                unverifiedCheckpointEnds.add(length);
+                            }
+                            blockDigest.update(bytes);
+                            blockLength += bytes.length;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return true if the existing content of the file contains checkpoints which could not be verified yet. Until they are, the start of the current block is unknown
+         */
+        boolean hasUnverifiedCheckpoints() {
+            return !unverifiedCheckpoints.isEmpty();
+        }
+
+        /**
+         * Starts the current block after the last checkpoint of the existing content which has a valid signature. The bytes after that checkpoint are read from the file again.
+         * If no checkpoint is valid, the current block starts at the beginning of the file
+         * @param key Key to verify the checkpoints with
+         * @throws IOException if the file could not be read
+         */
+        void verifyCheckpoints(PublicKey key) throws IOException {
+            for(int i = unverifiedCheckpoints.size() - 1; i >= 0; i--)
+            {
+                if(unverifiedCheckpoints.get(i).verify(key))
+                {
+                    long blockStart = unverifiedCheckpointEnds.get(i);
+                    out.flush();
+                    MessageDigest digest = LogCheckpoint.newDigest();
+                    try (InputStream in = new FileInputStream(file)) {
+                        if(in.skip(blockStart) != blockStart)
+                        {
+                            throw new IOException("Log file " + file + " is shorter than expected");
+                        }
+                        byte[] buffer = new byte[BUFFER_SIZE];
+                        long remaining = length - blockStart;
+                        int read;
+                        while(remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1)
+                        {
+                            digest.update(buffer, 0, read);
+                            remaining -= read;
+                        }
+                        if(remaining > 0)
+                        {
+                            throw new IOException("Log file " + file + " is shorter than expected");
+                        }
+                    }
+                    blockDigest = digest;
+                    blockLength = length - blockStart;
+                    break;
+                }
             }
+            unverifiedCheckpoints.clear();
+            unverifiedCheckpointEnds.clear();
         }
 
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            messageDigest.update((byte) b);
+            blockDigest.update((byte) b);
+            length++;
+            blockLength++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            messageDigest.update(b, off, len);
+            blockDigest.update(b, off, len);
+            length += len;
+            blockLength += len;
+        }
+
+        /**
+         * Writes a checkpoint line, which closes the current block and starts a new one
+         * @param line The checkpoint line
+         */
+        void writeCheckpoint(byte[] line) throws IOException {
+            out.write(line);
+            messageDigest.update(line);
+            length += line.length;
+            blockDigest.reset();
+            blockLength = 0;
+        }
+
+        long getBlockLength() {
+            return blockLength;
+        }
+
+        /**
+         * @return Digest of the bytes since the last checkpoint
+         */
+        byte[] getBlockDigest() throws IOException {
+            try {
+                return ((MessageDigest) blockDigest.clone()).digest();
+            } catch (CloneNotSupportedException e) {
+                throw new IOException(e);
+            }
+        }
+
+        File getFile() {
+            return file;
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        /**
+         * @return Digest of all bytes of the file so far. The running digest is not reset
+         */
+        byte[] getDigest() throws IOException {
+            try {
+                return ((MessageDigest) messageDigest.clone()).digest();
+            } catch (CloneNotSupportedException e) {
+                throw new IOException(e);
+            }
+        }
     }
 }
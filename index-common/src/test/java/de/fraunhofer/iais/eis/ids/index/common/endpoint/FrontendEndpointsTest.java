@@ -0,0 +1,285 @@
+package de.fraunhofer.iais.eis.ids.index.common.endpoint;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests /selectQuery/stream against a SPARQL endpoint which writes its results as told by each test
+ */
+public class FrontendEndpointsTest {
+
+    private static final String QUERY = "SELECT ?s WHERE { ?s ?p ?o }";
+
+    private FrontendEndpoints endpoints;
+    private HttpServer server;
+    private volatile Response response;
+    private final List<String> queries = new CopyOnWriteArrayList<>();
+    private final List<String> acceptHeaders = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private interface Response {
+        void write(OutputStream out) throws Exception;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        endpoints = new FrontendEndpoints();
+        response = out -> out.write("?s\n".getBytes(StandardCharsets.UTF_8));
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.createContext("/connectorData", this::handle);
+        server.start();
+        //The writable connection of the repositoryFacade must not be used, which is left null
+        FrontendEndpoints.repositoryFacade = null;
+        FrontendEndpoints.sparqlEndpointUrl = "http://localhost:" + server.getAddress().getPort() + "/connectorData";
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        server.stop(0);
+        FrontendEndpoints.sparqlEndpointUrl = null;
+        FrontendEndpoints.streamMaxLimit = 100000;
+        FrontendEndpoints.streamTimeoutMillis = 300000;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String form = exchange.getRequestMethod().equals("POST") ? readBody(exchange.getRequestBody()) : exchange.getRequestURI().getRawQuery();
+        for (String parameter : form.split("&")) {
+            if (parameter.startsWith("query=")) {
+                queries.add(URLDecoder.decode(parameter.substring("query=".length()), "UTF-8"));
+            }
+        }
+        acceptHeaders.add(exchange.getRequestHeaders().getFirst("Accept"));
+        exchange.getResponseHeaders().set("Content-Type", "text/tab-separated-values; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            response.write(out);
+        }
+        catch (Exception e) {
+            //Connection closed by the broker
+        }
+    }
+
+    @Test
+    public void resultIsWrittenWhileItIsRead() throws Exception {
+        response = out -> {
+            out.write("?s\n".getBytes(StandardCharsets.UTF_8));
+            writeRows(out, 0, 20000);
+            out.flush();
+            release.await();
+            writeRows(out, 20000, 40000);
+        };
+        CountDownLatch firstBytes = new CountDownLatch(1);
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        OutputStream out = new OutputStream() {
+            @Override
+            public synchronized void write(int b) {
+                written.write(b);
+                firstBytes.countDown();
+            }
+
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                written.write(b, off, len);
+                firstBytes.countDown();
+            }
+        };
+        ResponseEntity<StreamingResponseBody> entity = endpoints.streamQuery(QUERY, null);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                entity.getBody().writeTo(out);
+            }
+            catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        writer.start();
+
+        //Written although the triple store holds back the second half of the result
+        Assert.assertTrue(firstBytes.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(writer.isAlive());
+        release.countDown();
+        writer.join(10000);
+
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(MediaType.valueOf("text/tab-separated-values"), entity.getHeaders().getContentType());
+        String[] lines = written.toString("UTF-8").split("\n");
+        Assert.assertEquals(40001, lines.length);
+        Assert.assertEquals("?s", lines[0]);
+        Assert.assertEquals("<http://example.org/39999>", lines[40000]);
+        //A streaming format is requested from the triple store, never SPARQL JSON
+        Assert.assertEquals(1, acceptHeaders.size());
+        Assert.assertTrue(acceptHeaders.get(0), acceptHeaders.get(0).startsWith("text/tab-separated-values"));
+        Assert.assertFalse(acceptHeaders.get(0), acceptHeaders.get(0).contains("json"));
+    }
+
+    @Test
+    public void formatIsNegotiated() throws Exception {
+        response = out -> {
+            out.write("?s\n".getBytes(StandardCharsets.UTF_8));
+            writeRows(out, 0, 2);
+        };
+
+        Assert.assertEquals("?s\n<http://example.org/0>\n<http://example.org/1>\n", stream(null));
+        Assert.assertEquals("?s\n<http://example.org/0>\n<http://example.org/1>\n", stream("*/*"));
+        Assert.assertEquals("s\r\nhttp://example.org/0\r\nhttp://example.org/1\r\n", stream("text/csv"));
+        Assert.assertEquals("s\r\nhttp://example.org/0\r\nhttp://example.org/1\r\n", stream("image/png, text/csv;q=0.5"));
+        Assert.assertTrue(stream("application/sparql-results+json").contains("\"value\": \"http://example.org/1\""));
+
+        ResponseEntity<StreamingResponseBody> json = endpoints.streamQuery(QUERY, "application/json");
+        Assert.assertEquals(MediaType.valueOf("application/sparql-results+json"), json.getHeaders().getContentType());
+        ResponseEntity<StreamingResponseBody> csv = endpoints.streamQuery(QUERY, "text/csv");
+        Assert.assertEquals(MediaType.valueOf("text/csv"), csv.getHeaders().getContentType());
+    }
+
+    @Test
+    public void invalidRequestsAreRejected() {
+        assertStatus(HttpStatus.NOT_ACCEPTABLE, () -> endpoints.streamQuery(QUERY, "image/png"));
+        assertStatus(HttpStatus.NOT_ACCEPTABLE, () -> endpoints.streamQuery(QUERY, "application/xml"));
+        assertStatus(HttpStatus.BAD_REQUEST, () -> endpoints.streamQuery(QUERY, "no media type"));
+        assertStatus(HttpStatus.BAD_REQUEST, () -> endpoints.streamQuery("SELECT ?s WHERE {", null));
+        assertStatus(HttpStatus.BAD_REQUEST, () -> endpoints.streamQuery("ASK { ?s ?p ?o }", null));
+        assertStatus(HttpStatus.BAD_REQUEST, () -> endpoints.streamQuery("CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o }", null));
+
+        //Rejected before the triple store is asked
+        Assert.assertTrue(queries.isEmpty());
+    }
+
+    @Test
+    public void limitIsCapped() throws Exception {
+        FrontendEndpoints.streamMaxLimit = 10;
+
+        stream(null, QUERY);
+        stream(null, QUERY + " LIMIT 100");
+        stream(null, QUERY + " LIMIT 5");
+        stream(null, QUERY + " LIMIT 10");
+
+        Assert.assertEquals(4, queries.size());
+        Assert.assertEquals(10, QueryFactory.create(queries.get(0)).getLimit());
+        Assert.assertEquals(10, QueryFactory.create(queries.get(1)).getLimit());
+        Assert.assertEquals(5, QueryFactory.create(queries.get(2)).getLimit());
+        Assert.assertEquals(10, QueryFactory.create(queries.get(3)).getLimit());
+        Query sent = QueryFactory.create(queries.get(1));
+        Assert.assertEquals(QueryFactory.create(QUERY).getQueryPattern(), sent.getQueryPattern());
+    }
+
+    @Test
+    public void stalledQueryIsAborted() {
+        FrontendEndpoints.streamTimeoutMillis = 500;
+        response = out -> {
+            out.write("?s\n".getBytes(StandardCharsets.UTF_8));
+            writeRows(out, 0, 1);
+            out.flush();
+            release.await();
+        };
+
+        long start = System.nanoTime();
+        assertFails(() -> stream(null));
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void slowQueryIsAbortedAfterTimeout() {
+        FrontendEndpoints.streamTimeoutMillis = 500;
+        //Each row arrives within the read timeout, but the whole result would take far longer
+        response = out -> {
+            out.write("?s\n".getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < 1000 && release.getCount() > 0; i++) {
+                writeRows(out, i, i + 1);
+                out.flush();
+                Thread.sleep(50);
+            }
+        };
+
+        long start = System.nanoTime();
+        assertFails(() -> stream(null));
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    private String stream(String accept) throws IOException {
+        return stream(accept, QUERY);
+    }
+
+    private String stream(String accept, String query) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        endpoints.streamQuery(query, accept).getBody().writeTo(out);
+        return out.toString("UTF-8");
+    }
+
+    private static void writeRows(OutputStream out, int from, int to) throws IOException {
+        StringBuilder rows = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            rows.append("<http://example.org/").append(i).append(">\n");
+        }
+        out.write(rows.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        return body.toString("UTF-8");
+    }
+
+    private interface Call {
+        void run() throws Exception;
+    }
+
+    private static void assertFails(Call call) {
+        try {
+            call.run();
+            Assert.fail("Expected the query to be aborted");
+        }
+        catch (Exception e) {
+            //expected
+        }
+    }
+
+    private static void assertStatus(HttpStatus status, Call call) {
+        try {
+            call.run();
+            Assert.fail("Expected " + status);
+        }
+        catch (ResponseStatusException e) {
+            Assert.assertEquals(e.getReason(), status, e.getStatus());
+        }
+        catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package de.fraunhofer.iais.eis.ids.index.common.endpoint;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class SelectQueryCacheTest {
+
+    private static final String G = "http://example.org/graph/g";
+    private static final String H = "http://example.org/graph/h";
+
+    @Test
+    public void commentsAndWhitespaceAreRemoved() {
+        Assert.assertEquals("SELECT ?s WHERE { ?s ?p ?o }", SelectQueryCache.normalize("  SELECT ?s # the subject\n\tWHERE {\r\n ?s ?p ?o # any triple\n}\n"));
+        Assert.assertEquals(SelectQueryCache.normalize("SELECT ?s WHERE { ?s ?p ?o }"), SelectQueryCache.normalize("SELECT ?s\nWHERE  {\n\t?s ?p ?o\n}#comment"));
+        Assert.assertEquals("SELECT * WHERE { }", SelectQueryCache.normalize("SELECT * WHERE {\n#only a comment\n}"));
+    }
+
+    @Test
+    public void literalsAndIrisAreKept() {
+        //Neither a comment nor the start of an IRI within string literals
+        Assert.assertEquals("SELECT * WHERE { ?s ?p \"a # b  <c\" }", SelectQueryCache.normalize("SELECT * WHERE { ?s ?p \"a # b  <c\" }"));
+        Assert.assertEquals("SELECT * WHERE { ?s ?p 'it\\'s # <x> ' }", SelectQueryCache.normalize("SELECT * WHERE {\n ?s ?p 'it\\'s # <x> ' }"));
+        Assert.assertEquals("SELECT * WHERE { ?s ?p \"\\\" # \" }", SelectQueryCache.normalize("SELECT * WHERE { ?s ?p \"\\\" # \" }"));
+        //A fragment of an IRI is not a comment
+        Assert.assertEquals("SELECT * WHERE { ?s a <http://example.org/vocab#Class> }", SelectQueryCache.normalize("SELECT * WHERE { ?s a <http://example.org/vocab#Class> }"));
+        //The less-than operator is not the start of an IRI
+        Assert.assertEquals("SELECT * WHERE { ?s ?p ?o FILTER(?o < 5 && ?o > 1) }", SelectQueryCache.normalize("SELECT * WHERE { ?s ?p ?o FILTER(?o <  5 && ?o >\n1) # comment\n}"));
+        //Literals which only differ in whitespace are different queries
+        Assert.assertNotEquals(SelectQueryCache.normalize("SELECT * WHERE { ?s ?p \"a b\" }"), SelectQueryCache.normalize("SELECT * WHERE { ?s ?p \"a  b\" }"));
+    }
+
+    @Test
+    public void readGraphsOfNamedGraphPatterns() {
+        Assert.assertEquals(graphs(G), SelectQueryCache.getReadGraphs("SELECT * WHERE { GRAPH <" + G + "> { ?s ?p ?o OPTIONAL { ?o ?q ?r } } }"));
+        Assert.assertEquals(graphs(G, H), SelectQueryCache.getReadGraphs("SELECT * WHERE { { GRAPH <" + G + "> { ?s ?p ?o } } UNION { GRAPH <" + H + "> { ?s ?p ?o } } }"));
+        Assert.assertEquals(graphs(G), SelectQueryCache.getReadGraphs("SELECT * WHERE { GRAPH <" + G + "> { ?s ?p \"# GRAPH <" + H + "> { }\" } }"));
+        Assert.assertEquals(graphs(G), SelectQueryCache.getReadGraphs("PREFIX g: <http://example.org/graph/> SELECT * WHERE { GRAPH g:g { ?s ?p ?o } }"));
+    }
+
+    @Test
+    public void readGraphsOfDatasetDescription() {
+        Assert.assertEquals(graphs(G), SelectQueryCache.getReadGraphs("SELECT * FROM <" + G + "> WHERE { ?s ?p ?o }"));
+        Assert.assertEquals(graphs(G, H), SelectQueryCache.getReadGraphs("SELECT * FROM <" + G + "> FROM NAMED <" + H + "> WHERE { ?s ?p ?o . GRAPH ?g { ?a ?b ?c } }"));
+        Assert.assertEquals(graphs(H), SelectQueryCache.getReadGraphs("SELECT * FROM NAMED <" + H + "> WHERE { GRAPH ?g { ?s ?p ?o } }"));
+    }
+
+    @Test
+    public void readGraphsNotNamedExplicitly() {
+        //Default graph
+        Assert.assertNull(SelectQueryCache.getReadGraphs("SELECT * WHERE { ?s ?p ?o }"));
+        Assert.assertNull(SelectQueryCache.getReadGraphs("SELECT * WHERE { ?s ?p ?o . GRAPH <" + G + "> { ?s ?p ?o } }"));
+        //Any named graph
+        Assert.assertNull(SelectQueryCache.getReadGraphs("SELECT * WHERE { GRAPH ?g { ?s ?p ?o } }"));
+        Assert.assertNull(SelectQueryCache.getReadGraphs("SELECT * WHERE { GRAPH <" + G + "> { ?s ?p ?o } GRAPH ?g { ?o ?p ?s } }"));
+        //Patterns in EXISTS, sub queries and services are not inspected
+        Assert.assertNull(SelectQueryCache.getReadGraphs("SELECT * WHERE { GRAPH <" + G + "> { ?s ?p ?o FILTER EXISTS { GRAPH <" + H + "> { ?s ?p ?o } } } }"));
+        Assert.assertNull(SelectQueryCache.getReadGraphs("SELECT * WHERE { GRAPH <" + G + "> { ?s ?p ?o FILTER NOT EXISTS { ?s ?p ?o } } }"));
+        Assert.assertNull(SelectQueryCache.getReadGraphs("SELECT * WHERE { GRAPH <" + G + "> { ?s ?p ?o } { SELECT ?s WHERE { ?s ?p ?o } } }"));
+        Assert.assertNull(SelectQueryCache.getReadGraphs("SELECT * WHERE { GRAPH <" + G + "> { ?s ?p ?o } { SELECT ?s WHERE { GRAPH <" + G + "> { ?s ?p ?o } } } }"));
+        Assert.assertNull(SelectQueryCache.getReadGraphs("SELECT * WHERE { GRAPH <" + G + "> { ?s ?p ?o } SERVICE <http://example.org/sparql> { ?s ?p ?o } }"));
+        //Without any pattern or not parseable
+        Assert.assertNull(SelectQueryCache.getReadGraphs("SELECT * WHERE { }"));
+        Assert.assertNull(SelectQueryCache.getReadGraphs("SELECT * WHERE { GRAPH <" + G + "> { ?s ?p "));
+    }
+
+    @Test
+    public void updatedGraphs() {
+        Assert.assertEquals(graphs(G), updatedGraphs("INSERT DATA { GRAPH <" + G + "> { <http://example.org/s> <http://example.org/p> \"o\" } }"));
+        Assert.assertEquals(graphs(G), updatedGraphs("WITH <" + G + ">\nDELETE { ?s ?p ?o }\nINSERT { ?s ?p \"new\" }\nWHERE { ?s ?p ?o }"));
+        Assert.assertEquals(graphs(G, H), updatedGraphs("DELETE { GRAPH <" + G + "> { ?s ?p ?o } } USING <" + H + "> WHERE { ?s ?p ?o }"));
+        Assert.assertEquals(graphs(G, H), updatedGraphs("DELETE { GRAPH <" + G + "> { ?s ?p ?o } } USING NAMED <" + H + "> WHERE { GRAPH <" + H + "> { ?s ?p ?o } }"));
+        Assert.assertEquals(graphs(G, H), updatedGraphs("CLEAR GRAPH <" + G + "> ;\nDROP SILENT GRAPH <" + H + ">"));
+        Assert.assertEquals(graphs(G, H), updatedGraphs("COPY <" + G + "> TO <" + H + ">"));
+        Assert.assertEquals(graphs("http://example.org/data.ttl", G), updatedGraphs("LOAD <http://example.org/data.ttl> INTO GRAPH <" + G + ">"));
+        //Commented out graph references do not count
+        Assert.assertEquals(graphs(G), updatedGraphs("# CLEAR GRAPH <" + H + ">\nCLEAR GRAPH <" + G + ">"));
+    }
+
+    @Test
+    public void updatedGraphsNotNamedExplicitly() {
+        Assert.assertNull(updatedGraphs("INSERT DATA { <http://example.org/s> <http://example.org/p> \"o\" }"));
+        Assert.assertNull(updatedGraphs("DELETE WHERE { GRAPH ?g { ?s ?p ?o } }"));
+        Assert.assertNull(updatedGraphs("WITH <" + G + "> DELETE { GRAPH ?g { ?s ?p ?o } } WHERE { GRAPH ?g { ?s ?p ?o } }"));
+        Assert.assertNull(updatedGraphs("CLEAR ALL"));
+        Assert.assertNull(updatedGraphs("DROP DEFAULT"));
+        Assert.assertNull(updatedGraphs("CLEAR NAMED"));
+    }
+
+    @Test
+    public void resultsAreCachedPerNormalizedQuery() {
+        SelectQueryCache cache = new SelectQueryCache(10, 60000, 1000);
+        CountingLoader loader = new CountingLoader();
+        String query = "SELECT * WHERE { GRAPH <" + G + "> { ?s ?p ?o } }";
+
+        Assert.assertEquals("result 1", cache.get(query, loader));
+        Assert.assertEquals("result 1", cache.get("SELECT *\nWHERE {\n  GRAPH <" + G + "> { ?s ?p ?o } # formatted differently\n}", loader));
+        Assert.assertEquals(1, loader.calls.get());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void invalidationEvictsQueriesReadingTheGraph() {
+        SelectQueryCache cache = new SelectQueryCache(10, 60000, 1000);
+        CountingLoader loader = new CountingLoader();
+        String readsG = "SELECT * WHERE { GRAPH <" + G + "> { ?s ?p ?o } }";
+        String readsH = "SELECT * WHERE { GRAPH <" + H + "> { ?s ?p ?o } }";
+        String readsAny = "SELECT * WHERE { GRAPH ?g { ?s ?p ?o } }";
+        cache.get(readsG, loader);
+        cache.get(readsH, loader);
+        cache.get(readsAny, loader);
+
+        cache.invalidateGraph(G);
+
+        Assert.assertEquals("result 4", cache.get(readsG, loader));
+        Assert.assertEquals("result 2", cache.get(readsH, loader));
+        Assert.assertEquals("result 5", cache.get(readsAny, loader));
+
+        cache.invalidateUpdate("INSERT DATA { GRAPH <" + H + "> { <http://example.org/s> <http://example.org/p> \"o\" } }");
+        Assert.assertEquals("result 4", cache.get(readsG, loader));
+        Assert.assertEquals("result 6", cache.get(readsH, loader));
+
+        cache.invalidateUpdate("DELETE WHERE { GRAPH ?g { ?s ?p ?o } }");
+        Assert.assertEquals("result 7", cache.get(readsG, loader));
+    }
+
+    @Test
+    public void resultLoadedDuringInvalidationIsNotCached() {
+        SelectQueryCache cache = new SelectQueryCache(10, 60000, 1000);
+        AtomicInteger calls = new AtomicInteger();
+        String query = "SELECT * WHERE { GRAPH <" + G + "> { ?s ?p ?o } }";
+        //The graph is changed after the triple store has answered, but before the result is cached
+        Function<String, String> overlapping = q -> {
+            String result = "result " + calls.incrementAndGet();
+            cache.invalidateGraph(G);
+            return result;
+        };
+
+        Assert.assertEquals("result 1", cache.get(query, overlapping));
+        Assert.assertEquals("result 2", cache.get(query, q -> "result " + calls.incrementAndGet()));
+        Assert.assertEquals("result 2", cache.get(query, q -> "result " + calls.incrementAndGet()));
+
+        //Also an invalidation of another graph, as the generation counts all invalidations
+        String other = "SELECT * WHERE { GRAPH <" + H + "> { ?s ?p ?o } }";
+        cache.get(other, q -> {
+            cache.invalidateGraph(G);
+            return "other 1";
+        });
+        Assert.assertEquals("other 2", cache.get(other, q -> "other 2"));
+        Assert.assertEquals("other 2", cache.get(other, q -> "other 3"));
+    }
+
+    @Test
+    public void expiredLargeAndLeastRecentlyUsedResultsAreNotKept() throws InterruptedException {
+        SelectQueryCache cache = new SelectQueryCache(2, 60000, 10);
+        CountingLoader loader = new CountingLoader();
+        cache.get("SELECT * WHERE { ?a ?b ?c }", loader);
+        cache.get("SELECT * WHERE { ?d ?e ?f }", loader);
+        cache.get("SELECT * WHERE { ?a ?b ?c }", loader);
+        cache.get("SELECT * WHERE { ?g ?h ?i }", loader);
+
+        //The least recently used entry was evicted
+        Assert.assertEquals("result 3", cache.get("SELECT * WHERE { ?g ?h ?i }", loader));
+        Assert.assertEquals("result 1", cache.get("SELECT * WHERE { ?a ?b ?c }", loader));
+        Assert.assertEquals("result 4", cache.get("SELECT * WHERE { ?d ?e ?f }", loader));
+
+        Assert.assertEquals("long result", cache.get("SELECT * WHERE { ?x ?y ?z }", q -> "long result"));
+        Assert.assertEquals("short", cache.get("SELECT * WHERE { ?x ?y ?z }", q -> "short"));
+
+        SelectQueryCache expiring = new SelectQueryCache(10, 20, 1000);
+        expiring.get("SELECT * WHERE { ?a ?b ?c }", loader);
+        Thread.sleep(40);
+        Assert.assertEquals("result 6", expiring.get("SELECT * WHERE { ?a ?b ?c }", loader));
+    }
+
+    private static Set<String> updatedGraphs(String update) {
+        return SelectQueryCache.getUpdatedGraphs(SelectQueryCache.normalize(update));
+    }
+
+    private static Set<String> graphs(String... graphs) {
+        Set<String> set = new HashSet<>();
+        Arrays.stream(graphs).forEach(graph -> set.add("<" + graph + ">"));
+        return set;
+    }
+
+    /**
+     * Returns a different result for each call
+     */
+    private static class CountingLoader implements Function<String, String> {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public String apply(String query) {
+            return "result " + calls.incrementAndGet();
+        }
+    }
+}
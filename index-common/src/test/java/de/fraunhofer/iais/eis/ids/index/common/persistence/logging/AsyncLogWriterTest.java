@@ -0,0 +1,234 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests the asynchronous mode of the {@link VerifyingRollingFileAppender}, in which many logging threads put their events into the {@link LogEventRingBuffer}
+ */
+public class AsyncLogWriterTest {
+
+    private static final int PRODUCERS = 8;
+    private static final int EVENTS_PER_PRODUCER = 2000;
+
+    private static KeyPair keys;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LoggerContext context;
+    private File logFile;
+
+    @BeforeClass
+    public static void createKeys() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keys = generator.generateKeyPair();
+    }
+
+    @Before
+    public void setUp() {
+        context = new LoggerContext();
+        logFile = new File(folder.getRoot(), "broker.log");
+        VerifyingRollingFileAppender.setPrivateKey(keys.getPrivate());
+        VerifyingRollingFileAppender.setPublicKey(keys.getPublic());
+    }
+
+    @After
+    public void tearDown() {
+        VerifyingRollingFileAppender.setPrivateKey(null);
+        VerifyingRollingFileAppender.setPublicKey(null);
+        context.stop();
+    }
+
+    @Test
+    public void blockingProducersLoseNoEvents() throws Exception {
+        //A small queue, so that the producers have to wait for the writer thread
+        VerifyingRollingFileAppender appender = startAppender(16, "BLOCK", 100);
+        logConcurrently(appender);
+        appender.stop();
+
+        List<String> lines = readEvents();
+        Assert.assertEquals(PRODUCERS * EVENTS_PER_PRODUCER, lines.size());
+        Assert.assertEquals(lines.size(), new HashSet<>(lines).size());
+        assertOrderPerProducer(lines);
+        Assert.assertEquals(0, appender.getDroppedEvents());
+        Assert.assertTrue(appender.getBlockedAppends() > 0);
+        Assert.assertTrue(VerifyingRollingFileAppender.verifyIntegrityOfLogFile(logFile.getPath()));
+    }
+
+    @Test
+    public void droppedEventsAreCounted() throws Exception {
+        //A checkpoint after every event keeps the writer thread busy signing, so that the small queue overflows
+        VerifyingRollingFileAppender appender = startAppender(16, "DROP", 1);
+        logConcurrently(appender);
+        appender.stop();
+
+        List<String> lines = readEvents();
+        Assert.assertTrue(appender.getDroppedEvents() > 0);
+        Assert.assertEquals(PRODUCERS * EVENTS_PER_PRODUCER, lines.size() + appender.getDroppedEvents());
+        Assert.assertEquals(lines.size(), new HashSet<>(lines).size());
+        assertOrderPerProducer(lines);
+        Assert.assertEquals(0, appender.getBlockedAppends());
+        //Dropped events are reported in the log file, except for those dropped after the last write
+        long reported = 0;
+        for (String line : Files.readAllLines(logFile.toPath(), StandardCharsets.US_ASCII)) {
+            if (line.endsWith("log events were dropped, as the queue of the log writer was full.")) {
+                reported += Long.parseLong(line.substring(0, line.indexOf(' ')));
+            }
+        }
+        Assert.assertTrue(reported > 0 && reported <= appender.getDroppedEvents());
+        Assert.assertTrue(new LogChainVerifier(keys.getPublic()).verify(logFile.toPath()).isValid());
+    }
+
+    @Test
+    public void stopWritesQueuedEventsAndSignsFile() throws Exception {
+        VerifyingRollingFileAppender appender = startAppender(8192, "BLOCK", 0);
+        for (int i = 0; i < 5000; i++) {
+            log(appender, "event-0-" + i);
+        }
+        //Stopped while the writer thread is still busy with the queue
+        appender.stop();
+
+        Assert.assertEquals(0, appender.getQueueDepth());
+        Assert.assertEquals(5000, readEvents().size());
+        Assert.assertTrue(VerifyingRollingFileAppender.verifyIntegrityOfLogFile(logFile.getPath()));
+    }
+
+    @Test
+    public void queueMetersAreExportedWhileRunning() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        try {
+            VerifyingRollingFileAppender appender = startAppender(16, "DROP", 1);
+            Assert.assertEquals(16, registry.get("broker.log.queue.capacity").tag("appender", "verifying").gauge().value(), 0);
+            logConcurrently(appender);
+
+            Assert.assertEquals(appender.getDroppedEvents(), registry.get("broker.log.queue.dropped").tag("appender", "verifying").functionCounter().count(), 0);
+            Assert.assertEquals(0, registry.get("broker.log.queue.blocked").tag("appender", "verifying").functionCounter().count(), 0);
+            Assert.assertEquals(appender.getMaxQueueDepth(), registry.get("broker.log.queue.depth.max").tag("appender", "verifying").gauge().value(), 0);
+            Assert.assertNotNull(registry.get("broker.log.queue.depth").tag("appender", "verifying").gauge());
+            appender.stop();
+
+            Assert.assertNull(registry.find("broker.log.queue.depth").gauge());
+            Assert.assertNull(registry.find("broker.log.queue.dropped").functionCounter());
+        }
+        finally {
+            Metrics.removeRegistry(registry);
+        }
+    }
+
+    private void logConcurrently(VerifyingRollingFileAppender appender) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < EVENTS_PER_PRODUCER; i++) {
+                    log(appender, "event-" + producer + "-" + i);
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : producers) {
+            thread.join();
+        }
+    }
+
+    /**
+     * @return Lines of the log file written for the logged events, without checkpoints and messages of the appender
+     */
+    private List<String> readEvents() throws Exception {
+        List<String> events = new ArrayList<>();
+        for (String line : Files.readAllLines(logFile.toPath(), StandardCharsets.US_ASCII)) {
+            if (line.startsWith("event-")) {
+                events.add(line);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * The events of each producer have to appear in the order in which it logged them
+     */
+    private static void assertOrderPerProducer(List<String> lines) {
+        int[] last = new int[PRODUCERS];
+        Arrays.fill(last, -1);
+        for (String line : lines) {
+            String[] parts = line.split("-");
+            int producer = Integer.parseInt(parts[1]);
+            int number = Integer.parseInt(parts[2]);
+            Assert.assertTrue(line + " after event " + last[producer], number > last[producer]);
+            last[producer] = number;
+        }
+    }
+
+    private VerifyingRollingFileAppender startAppender(int queueSize, String overflowPolicy, int checkpointEvents) {
+        VerifyingRollingFileAppender appender = new VerifyingRollingFileAppender();
+        appender.setContext(context);
+        appender.setName("verifying");
+        appender.setFile(logFile.getPath());
+        appender.setAsync(true);
+        appender.setQueueSize(queueSize);
+        appender.setOverflowPolicy(overflowPolicy);
+        appender.setIncludeCallerData(false);
+        appender.setCheckpointEvents(checkpointEvents);
+
+        TimeBasedRollingPolicy<Object> policy = new TimeBasedRollingPolicy<>();
+        policy.setContext(context);
+        policy.setParent(appender);
+        policy.setFileNamePattern(new File(folder.getRoot(), "broker-%d{yyyy-MM-dd}.log").getPath());
+        policy.start();
+        appender.setRollingPolicy(policy);
+
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%msg%n");
+        encoder.start();
+        appender.setEncoder(encoder);
+
+        appender.start();
+        Assert.assertTrue(appender.isStarted());
+        return appender;
+    }
+
+    private void log(VerifyingRollingFileAppender appender, String message) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(Level.INFO);
+        event.setLoggerName(AsyncLogWriterTest.class.getName());
+        event.setMessage(message);
+        event.setTimeStamp(System.currentTimeMillis());
+        appender.doAppend(event);
+    }
+}
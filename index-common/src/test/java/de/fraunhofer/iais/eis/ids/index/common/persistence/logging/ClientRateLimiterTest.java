@@ -0,0 +1,60 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence.logging;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClientRateLimiterTest {
+
+    @Test
+    public void burstIsLimitedPerClient() {
+        //Refilled so slowly that no permit comes back during the test
+        ClientRateLimiter limiter = new ClientRateLimiter(0.001, 10);
+
+        Assert.assertTrue(limiter.tryAcquire("a", 6));
+        Assert.assertFalse(limiter.tryAcquire("a", 5));
+        //A refused request takes no permits
+        Assert.assertTrue(limiter.tryAcquire("a", 4));
+        Assert.assertFalse(limiter.tryAcquire("a", 1));
+        Assert.assertTrue(limiter.tryAcquire("b", 10));
+        Assert.assertFalse(limiter.tryAcquire("c", 11));
+    }
+
+    @Test
+    public void permitsAreRefilledUpToBurst() throws InterruptedException {
+        ClientRateLimiter limiter = new ClientRateLimiter(1000, 5);
+        Assert.assertTrue(limiter.tryAcquire("a", 5));
+
+        Thread.sleep(50);
+
+        //About 50 permits were refilled, but only the burst is kept
+        Assert.assertTrue(limiter.tryAcquire("a", 5));
+        Assert.assertFalse(limiter.tryAcquire("a", 5));
+    }
+
+    @Test
+    public void numberOfClientsIsBounded() {
+        ClientRateLimiter limiter = new ClientRateLimiter(0.001, 2, 3);
+        Assert.assertTrue(limiter.tryAcquire("exhausted", 2));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(limiter.tryAcquire("client" + i, 1));
+            //Seen more recently than all other clients, so its bucket is kept
+            Assert.assertFalse(limiter.tryAcquire("exhausted", 1));
+            Assert.assertTrue(limiter.size() <= 3);
+        }
+        Assert.assertEquals(3, limiter.size());
+    }
+
+    @Test
+    public void leastRecentlySeenClientIsDropped() {
+        ClientRateLimiter limiter = new ClientRateLimiter(0.001, 2, 2);
+        Assert.assertTrue(limiter.tryAcquire("first", 2));
+        Assert.assertTrue(limiter.tryAcquire("second", 2));
+        Assert.assertFalse(limiter.tryAcquire("first", 1));
+
+        //"second" is the least recently seen client now
+        Assert.assertTrue(limiter.tryAcquire("third", 1));
+
+        Assert.assertFalse(limiter.tryAcquire("first", 1));
+        Assert.assertTrue("Dropped client starts with a full bucket", limiter.tryAcquire("second", 2));
+    }
+}
@@ -0,0 +1,270 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.fraunhofer.iais.eis.ids.index.common.util.CryptoUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Tests the offline verification of a log directory with signed, tampered and unsigned files, including the command line entry point
+ */
+public class LogArchiveVerifierTest {
+
+    private static final String PASSWORD = "password";
+    private static final String ALIAS = "broker";
+
+    @ClassRule
+    public static TemporaryFolder keyFolder = new TemporaryFolder();
+
+    private static File keystore;
+    private static File certificate;
+    private static PrivateKey privateKey;
+    private static PublicKey publicKey;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LoggerContext context;
+    private Path directory;
+
+    @BeforeClass
+    public static void createKeys() throws Exception {
+        keystore = new File(keyFolder.getRoot(), "broker.jks");
+        certificate = new File(keyFolder.getRoot(), "broker.crt");
+        keytool("-genkeypair", "-keystore", keystore.getPath(), "-storetype", "JKS", "-storepass", PASSWORD, "-keypass", PASSWORD,
+                "-alias", ALIAS, "-keyalg", "RSA", "-keysize", "2048", "-dname", "CN=broker");
+        keytool("-exportcert", "-rfc", "-keystore", keystore.getPath(), "-storepass", PASSWORD, "-alias", ALIAS, "-file", certificate.getPath());
+        try (InputStream in = new FileInputStream(keystore)) {
+            privateKey = CryptoUtil.getPrivateKeyFromKeyStore(in, PASSWORD, ALIAS);
+        }
+        try (InputStream in = new FileInputStream(certificate)) {
+            publicKey = CertificateFactory.getInstance("X.509").generateCertificate(in).getPublicKey();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        context = new LoggerContext();
+        directory = folder.newFolder("logs").toPath();
+        VerifyingRollingFileAppender.setPrivateKey(privateKey);
+        VerifyingRollingFileAppender.setPublicKey(publicKey);
+    }
+
+    @After
+    public void tearDown() {
+        VerifyingRollingFileAppender.setPrivateKey(null);
+        VerifyingRollingFileAppender.setPublicKey(null);
+        context.stop();
+    }
+
+    @Test
+    public void reportShowsStatusOfEveryFile() throws Exception {
+        //More files than threads, so that the fork-join pool verifies several files per thread
+        for (int day = 1; day <= 9; day++) {
+            writeSignedFile(day);
+        }
+        tamper(2);
+        writeUnsignedFile(5);
+        //The signature of another file
+        Files.copy(signature(3), signature(4), StandardCopyOption.REPLACE_EXISTING);
+
+        LogArchiveVerifier.Report report = new LogArchiveVerifier(directory, publicKey, LogArchiveVerifier.DEFAULT_PATTERN, 3).verify();
+
+        List<String> files = report.getFiles().stream().map(LogArchiveVerifier.FileResult::getFile).collect(Collectors.toList());
+        List<String> expected = new ArrayList<>();
+        for (int day = 1; day <= 9; day++) {
+            expected.add(logFile(day).getFileName().toString());
+        }
+        Assert.assertEquals("Ordered by modification time", expected, files);
+        Assert.assertEquals(6, report.getValid());
+        Assert.assertEquals(2, report.getInvalid());
+        Assert.assertEquals(1, report.getUnsigned());
+        Assert.assertEquals(0, report.getErrors());
+        long totalBytes = 0;
+        for (int day = 1; day <= 9; day++) {
+            LogArchiveVerifier.FileResult result = report.getFiles().get(day - 1);
+            Assert.assertEquals(Files.size(logFile(day)), result.getSize());
+            Assert.assertEquals(LogCheckpoint.toHex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(logFile(day)))), result.getSha256());
+            totalBytes += result.getSize();
+        }
+        Assert.assertEquals(totalBytes, report.getTotalBytes());
+
+        LogArchiveVerifier.FileResult tampered = report.getFiles().get(1);
+        Assert.assertEquals(LogArchiveVerifier.Status.INVALID, tampered.getStatus());
+        Assert.assertEquals(1, tampered.getTamperedBlocks().size());
+        LogArchiveVerifier.FileResult foreignSignature = report.getFiles().get(3);
+        Assert.assertEquals(LogArchiveVerifier.Status.INVALID, foreignSignature.getStatus());
+        Assert.assertTrue(foreignSignature.getTamperedBlocks().isEmpty());
+        LogArchiveVerifier.FileResult unsigned = report.getFiles().get(4);
+        Assert.assertEquals(LogArchiveVerifier.Status.UNSIGNED, unsigned.getStatus());
+        Assert.assertTrue(unsigned.getTamperedBlocks().isEmpty());
+        for (int day : new int[]{1, 3, 6, 7, 8, 9}) {
+            Assert.assertEquals(LogArchiveVerifier.Status.VALID, report.getFiles().get(day - 1).getStatus());
+            Assert.assertNull(report.getFiles().get(day - 1).getDetail());
+        }
+    }
+
+    @Test
+    public void signatureOfOtherKeyIsInvalid() throws Exception {
+        writeSignedFile(1);
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+
+        LogArchiveVerifier.Report report = new LogArchiveVerifier(directory, generator.generateKeyPair().getPublic(), LogArchiveVerifier.DEFAULT_PATTERN, 1).verify();
+
+        Assert.assertEquals(LogArchiveVerifier.Status.INVALID, report.getFiles().get(0).getStatus());
+        Assert.assertNotNull(report.getFiles().get(0).getDetail());
+    }
+
+    @Test
+    public void fileIsHashedFromSeveralMappings() throws Exception {
+        long mappingSize = LogArchiveVerifier.mappingSize;
+        LogArchiveVerifier.mappingSize = 1000;
+        try {
+            for (int size : new int[]{0, 1, 999, 1000, 1001, 2500}) {
+                byte[] content = new byte[size];
+                new Random(size).nextBytes(content);
+                Path file = Files.write(directory.resolve("file" + size), content);
+                Assert.assertArrayEquals("Size " + size, MessageDigest.getInstance("SHA-256").digest(content), LogArchiveVerifier.getSha256(file));
+            }
+        }
+        finally {
+            LogArchiveVerifier.mappingSize = mappingSize;
+        }
+    }
+
+    @Test
+    public void commandLineExitCodes() throws Exception {
+        writeSignedFile(1);
+        writeSignedFile(2);
+        writeUnsignedFile(3);
+        File output = new File(folder.getRoot(), "report.json");
+
+        Assert.assertEquals(0, LogArchiveVerifier.run(new String[]{directory.toString(), "--certificate", certificate.getPath(), "--threads", "2", "--output", output.getPath()}));
+        Map<?, ?> report = new ObjectMapper().readValue(output, Map.class);
+        Assert.assertEquals(2, report.get("valid"));
+        Assert.assertEquals(1, report.get("unsigned"));
+        Assert.assertEquals(3, ((List<?>) report.get("files")).size());
+        Assert.assertEquals(0, LogArchiveVerifier.run(new String[]{directory.toString(), "--keystore", keystore.getPath(), "--password", PASSWORD, "--alias", ALIAS, "--output", output.getPath()}));
+
+        tamper(2);
+        Assert.assertEquals(1, LogArchiveVerifier.run(new String[]{directory.toString(), "--certificate", certificate.getPath(), "--output", output.getPath()}));
+        Assert.assertEquals(1, new ObjectMapper().readValue(output, Map.class).get("invalid"));
+        //Only the files matching the pattern are verified
+        Assert.assertEquals(0, LogArchiveVerifier.run(new String[]{directory.toString(), "--certificate", certificate.getPath(), "--pattern", "broker-2026-01-01.log", "--output", output.getPath()}));
+        //A keystore which cannot be read
+        Assert.assertEquals(1, LogArchiveVerifier.run(new String[]{directory.toString(), "--keystore", keystore.getPath(), "--password", "wrong", "--alias", ALIAS, "--output", output.getPath()}));
+
+        Assert.assertEquals(2, LogArchiveVerifier.run(new String[]{}));
+        Assert.assertEquals(2, LogArchiveVerifier.run(new String[]{directory.toString()}));
+        Assert.assertEquals(2, LogArchiveVerifier.run(new String[]{directory.toString(), "--keystore", keystore.getPath(), "--password", PASSWORD}));
+        Assert.assertEquals(2, LogArchiveVerifier.run(new String[]{directory.toString(), "--certificate"}));
+        Assert.assertEquals(2, LogArchiveVerifier.run(new String[]{directory.toString(), "--certificate", certificate.getPath(), "--unknown"}));
+        Assert.assertEquals(2, LogArchiveVerifier.run(new String[]{directory.toString(), directory.toString(), "--certificate", certificate.getPath()}));
+        Assert.assertEquals(2, LogArchiveVerifier.run(new String[]{directory.toString(), "--certificate", certificate.getPath(), "--threads", "many"}));
+    }
+
+    /**
+     * Logs ten events with a checkpoint after every third event through the appender, which signs the file when it is stopped,
+     * and moves file and signature to the name of a rolled over file
+     */
+    private void writeSignedFile(int day) throws Exception {
+        File current = new File(folder.getRoot(), "broker.log");
+        VerifyingRollingFileAppender appender = new VerifyingRollingFileAppender();
+        appender.setContext(context);
+        appender.setName("verifying");
+        appender.setFile(current.getPath());
+        appender.setCheckpointEvents(3);
+
+        TimeBasedRollingPolicy<Object> policy = new TimeBasedRollingPolicy<>();
+        policy.setContext(context);
+        policy.setParent(appender);
+        policy.setFileNamePattern(new File(folder.getRoot(), "broker-%d{yyyy-MM-dd}.log").getPath());
+        policy.start();
+        appender.setRollingPolicy(policy);
+
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%msg%n");
+        encoder.start();
+        appender.setEncoder(encoder);
+
+        appender.start();
+        for (int i = 0; i < 10; i++) {
+            LoggingEvent event = new LoggingEvent();
+            event.setLevel(Level.INFO);
+            event.setLoggerName(LogArchiveVerifierTest.class.getName());
+            event.setMessage("day " + day + " event " + i);
+            event.setTimeStamp(System.currentTimeMillis());
+            appender.doAppend(event);
+        }
+        appender.stop();
+
+        Files.move(current.toPath(), logFile(day));
+        Files.move(new File(folder.getRoot(), "broker.sgn").toPath(), signature(day));
+        Assert.assertTrue(logFile(day).toFile().setLastModified(1767225600000L + day * 86400000L));
+    }
+
+    private void writeUnsignedFile(int day) throws Exception {
+        Files.deleteIfExists(signature(day));
+        Files.write(logFile(day), ("day " + day + " without signature\n").getBytes(StandardCharsets.US_ASCII));
+        Assert.assertTrue(logFile(day).toFile().setLastModified(1767225600000L + day * 86400000L));
+    }
+
+    /**
+     * Changes an event in the second block of a file
+     */
+    private void tamper(int day) throws Exception {
+        long lastModified = logFile(day).toFile().lastModified();
+        String content = new String(Files.readAllBytes(logFile(day)), StandardCharsets.US_ASCII);
+        Files.write(logFile(day), content.replace("event 4", "event X").getBytes(StandardCharsets.US_ASCII));
+        Assert.assertTrue(logFile(day).toFile().setLastModified(lastModified));
+    }
+
+    private Path logFile(int day) {
+        return directory.resolve(String.format("broker-2026-01-%02d.log", day));
+    }
+
+    private Path signature(int day) {
+        return directory.resolve(String.format("broker-2026-01-%02d.sgn", day));
+    }
+
+    private static void keytool(String... args) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/keytool").getPath());
+        Collections.addAll(command, args);
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        Assert.assertEquals(output, 0, process.waitFor());
+    }
+}
@@ -0,0 +1,286 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class LogChainVerifierTest {
+
+    private static final String FORGED_CHECKPOINT = LogCheckpoint.PREFIX + "seq=7 events=1 prev=" + LogCheckpoint.toHex(new byte[32]) + " block=" + LogCheckpoint.toHex(new byte[32]) + " sig=AAAA";
+
+    private static KeyPair keys;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LoggerContext context;
+    private File logFile;
+
+    @BeforeClass
+    public static void createKeys() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keys = generator.generateKeyPair();
+    }
+
+    @Before
+    public void setUp() {
+        context = new LoggerContext();
+        logFile = new File(folder.getRoot(), "broker.log");
+        setKeys(true);
+    }
+
+    @After
+    public void tearDown() {
+        setKeys(false);
+        context.stop();
+    }
+
+    @Test
+    public void intactFileIsValid() throws Exception {
+        writeBlocks();
+
+        LogChainVerifier.Report report = new LogChainVerifier(keys.getPublic()).verify(logFile.toPath());
+        Assert.assertEquals(4, report.getBlocks().size());
+        for (LogChainVerifier.Block block : report.getBlocks()) {
+            Assert.assertEquals(block.toString(), LogChainVerifier.Status.VALID, block.getStatus());
+        }
+        Assert.assertTrue(VerifyingRollingFileAppender.verifyIntegrityOfLogFile(logFile.getPath()));
+    }
+
+    @Test
+    public void truncatedFileIsDetected() throws Exception {
+        writeBlocks();
+        LogChainVerifier verifier = new LogChainVerifier(keys.getPublic());
+        Assert.assertTrue(verifier.verify(logFile.toPath()).isValid());
+
+        //Remove the last two blocks
+        List<List<String>> blocks = readBlocks();
+        writeBlocks(blocks.subList(0, 2));
+
+        //The remaining blocks are intact, but the file is shorter than verified before and does not match its signature any more
+        LogChainVerifier.Report report = verifier.verify(logFile.toPath());
+        Assert.assertFalse(report.isValid());
+        Assert.assertTrue(report.getBlocks().toString(), report.getBlocks().get(0).getProblems().get(0).contains("shorter"));
+        Assert.assertTrue(new LogChainVerifier(keys.getPublic()).verify(logFile.toPath()).isValid());
+        Assert.assertFalse(VerifyingRollingFileAppender.verifyIntegrityOfLogFile(logFile.getPath()));
+    }
+
+    @Test
+    public void reorderedBlocksAreDetected() throws Exception {
+        writeBlocks();
+        List<List<String>> blocks = readBlocks();
+        Collections.swap(blocks, 1, 2);
+        writeBlocks(blocks);
+
+        //Each block still matches its own checkpoint, but the chain is broken from the first moved block on
+        List<LogChainVerifier.Block> result = new LogChainVerifier(keys.getPublic()).verify(logFile.toPath()).getBlocks();
+        Assert.assertEquals(4, result.size());
+        Assert.assertEquals(LogChainVerifier.Status.VALID, result.get(0).getStatus());
+        for (LogChainVerifier.Block block : result.subList(1, 4)) {
+            Assert.assertEquals(block.toString(), LogChainVerifier.Status.TAMPERED, block.getStatus());
+            Assert.assertTrue(block.toString(), block.getProblems().get(0).contains("removed or reordered"));
+        }
+    }
+
+    @Test
+    public void editedLineIsDetected() throws Exception {
+        writeBlocks();
+        List<List<String>> blocks = readBlocks();
+        blocks.get(1).set(0, blocks.get(1).get(0).replace("event", "evil"));
+        writeBlocks(blocks);
+
+        //Only the block containing the edited line is affected
+        List<LogChainVerifier.Block> result = new LogChainVerifier(keys.getPublic()).verify(logFile.toPath()).getBlocks();
+        Assert.assertEquals(4, result.size());
+        Assert.assertEquals(LogChainVerifier.Status.TAMPERED, result.get(1).getStatus());
+        Assert.assertTrue(result.get(1).getProblems().get(0).contains("does not match the digest"));
+        for (int i : new int[]{0, 2, 3}) {
+            Assert.assertEquals(result.get(i).toString(), LogChainVerifier.Status.VALID, result.get(i).getStatus());
+        }
+        Assert.assertFalse(VerifyingRollingFileAppender.verifyIntegrityOfLogFile(logFile.getPath()));
+    }
+
+    @Test
+    public void forgedCheckpointIsLogContent() throws Exception {
+        VerifyingRollingFileAppender appender = startAppender(3);
+        log(appender, "first");
+        log(appender, "message of a client\n" + FORGED_CHECKPOINT);
+        log(appender, "third");
+        log(appender, "fourth");
+        appender.stop();
+
+        List<LogChainVerifier.Block> blocks = new LogChainVerifier(keys.getPublic()).verify(logFile.toPath()).getBlocks();
+        Assert.assertEquals(2, blocks.size());
+        for (LogChainVerifier.Block block : blocks) {
+            Assert.assertEquals(block.toString(), LogChainVerifier.Status.VALID, block.getStatus());
+        }
+    }
+
+    @Test
+    public void forgedCheckpointDoesNotEndBlockOfContinuedFile() throws Exception {
+        //Content of a previous run: a signed block, then a forged checkpoint which does not end the next block
+        byte[] block = "first\nsecond\n".getBytes(StandardCharsets.US_ASCII);
+        LogCheckpoint checkpoint = LogCheckpoint.create(0, 2, LogCheckpoint.CHAIN_START, LogCheckpoint.newDigest().digest(block), (PrivateKey) keys.getPrivate());
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(block);
+        content.write(checkpoint.toLine());
+        content.write(("third\n" + FORGED_CHECKPOINT + "\n").getBytes(StandardCharsets.US_ASCII));
+        Files.write(logFile.toPath(), content.toByteArray());
+
+        //The keys are only set after the appender was started, as in the broker
+        setKeys(false);
+        VerifyingRollingFileAppender appender = startAppender(1);
+        log(appender, "before the keys are set");
+        setKeys(true);
+        log(appender, "after the keys are set");
+        appender.stop();
+
+        LogChainVerifier.Report report = new LogChainVerifier(keys.getPublic()).verify(logFile.toPath());
+        Assert.assertTrue(report.getBlocks().toString(), report.isValid());
+        Assert.assertEquals(2, report.getBlocks().size());
+        Assert.assertEquals(LogChainVerifier.Status.VALID, report.getBlocks().get(1).getStatus());
+    }
+
+    @Test
+    public void signedFileIsContinuedWhenKeysAreSetAfterStart() throws Exception {
+        VerifyingRollingFileAppender appender = startAppender(0);
+        log(appender, "first run");
+        appender.stop();
+        Assert.assertTrue(VerifyingRollingFileAppender.verifyIntegrityOfLogFile(logFile.getPath()));
+
+        setKeys(false);
+        appender = startAppender(0);
+        log(appender, "before the keys are set");
+        setKeys(true);
+        log(appender, "after the keys are set");
+        appender.stop();
+
+        String content = new String(Files.readAllBytes(logFile.toPath()), StandardCharsets.US_ASCII);
+        Assert.assertTrue(content, content.contains("Continuing signed log file"));
+        Assert.assertTrue(VerifyingRollingFileAppender.verifyIntegrityOfLogFile(logFile.getPath()));
+    }
+
+    @Test
+    public void signedFileChangedWhileStoppedIsNotSignedAgain() throws Exception {
+        VerifyingRollingFileAppender appender = startAppender(0);
+        log(appender, "first run");
+        appender.stop();
+        Files.write(logFile.toPath(), "inserted\n".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+
+        setKeys(false);
+        appender = startAppender(0);
+        setKeys(true);
+        log(appender, "after the keys are set");
+        appender.stop();
+
+        String content = new String(Files.readAllBytes(logFile.toPath()), StandardCharsets.US_ASCII);
+        Assert.assertTrue(content, content.contains("does not match its signature"));
+        Assert.assertFalse(VerifyingRollingFileAppender.verifyIntegrityOfLogFile(logFile.getPath()));
+    }
+
+    @Test
+    public void frontendMessagesAreLoggedAsOneLine() {
+        Assert.assertEquals("text\\n" + FORGED_CHECKPOINT + "\\r\\n", LogEndpoint.escapeLineBreaks("text\n" + FORGED_CHECKPOINT + "\r\n"));
+        Assert.assertEquals("text", LogEndpoint.escapeLineBreaks("text"));
+    }
+
+    /**
+     * Logs ten events with a checkpoint after every third event and stops the appender, which closes the last block and signs the file
+     */
+    private void writeBlocks() {
+        VerifyingRollingFileAppender appender = startAppender(3);
+        for (int i = 0; i < 10; i++) {
+            log(appender, "event " + i);
+        }
+        appender.stop();
+    }
+
+    /**
+     * @return Lines of the log file, grouped into blocks which end with their checkpoint line
+     */
+    private List<List<String>> readBlocks() throws IOException {
+        List<List<String>> blocks = new ArrayList<>();
+        List<String> block = new ArrayList<>();
+        for (String line : Files.readAllLines(logFile.toPath(), StandardCharsets.US_ASCII)) {
+            block.add(line);
+            if (line.startsWith(LogCheckpoint.PREFIX)) {
+                blocks.add(block);
+                block = new ArrayList<>();
+            }
+        }
+        Assert.assertTrue(block.isEmpty());
+        return blocks;
+    }
+
+    private void writeBlocks(List<List<String>> blocks) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (List<String> block : blocks) {
+            for (String line : block) {
+                content.append(line).append('\n');
+            }
+        }
+        Files.write(logFile.toPath(), content.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private VerifyingRollingFileAppender startAppender(int checkpointEvents) {
+        VerifyingRollingFileAppender appender = new VerifyingRollingFileAppender();
+        appender.setContext(context);
+        appender.setName("verifying");
+        appender.setFile(logFile.getPath());
+        appender.setCheckpointEvents(checkpointEvents);
+
+        TimeBasedRollingPolicy<Object> policy = new TimeBasedRollingPolicy<>();
+        policy.setContext(context);
+        policy.setParent(appender);
+        policy.setFileNamePattern(new File(folder.getRoot(), "broker-%d{yyyy-MM-dd}.log").getPath());
+        policy.start();
+        appender.setRollingPolicy(policy);
+
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%msg%n");
+        encoder.start();
+        appender.setEncoder(encoder);
+
+        appender.start();
+        Assert.assertTrue(appender.isStarted());
+        return appender;
+    }
+
+    private void log(VerifyingRollingFileAppender appender, String message) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(Level.INFO);
+        event.setLoggerName(LogChainVerifierTest.class.getName());
+        event.setMessage(message);
+        event.setTimeStamp(System.currentTimeMillis());
+        appender.doAppend(event);
+    }
+
+    private static void setKeys(boolean set) {
+        VerifyingRollingFileAppender.setPrivateKey(set ? keys.getPrivate() : null);
+        VerifyingRollingFileAppender.setPublicKey(set ? keys.getPublic() : null);
+    }
+}
@@ -0,0 +1,267 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Tests the limits, the parsing and the rate limit of the frontend logging endpoints
+ */
+public class LogEndpointTest {
+
+    private LogEndpoint endpoint;
+    private Logger logger;
+    private ListAppender<ILoggingEvent> logged;
+    private Level level;
+
+    @Before
+    public void setUp() {
+        endpoint = new LogEndpoint();
+        logger = (Logger) LoggerFactory.getLogger(LogEndpoint.class);
+        level = logger.getLevel();
+        logger.setLevel(Level.DEBUG);
+        logged = new ListAppender<>();
+        logged.start();
+        logger.addAppender(logged);
+    }
+
+    @After
+    public void tearDown() {
+        logger.detachAppender(logged);
+        logger.setLevel(level);
+        LogEndpoint.maxMessageLength = 16384;
+        LogEndpoint.maxBatchRecords = 1000;
+        LogEndpoint.maxBatchBytes = 1024 * 1024;
+        LogEndpoint.rateLimitBurst = 1000;
+    }
+
+    @Test
+    public void batchIsLoggedWithSeverityAndTimestamp() throws Exception {
+        endpoint.writeLogBatch(request("[{\"severity\":\"WARN\",\"message\":\"first\",\"timestamp\":\"2026-10-18T12:00:00Z\"},"
+                + "{\"message\":\"second\"},"
+                + "{\"severity\":null,\"message\":\"third\",\"unknown\":{\"nested\":[1,{\"message\":\"ignored\"}]}},"
+                + "{\"severity\":\"debug\",\"message\":\"fourth\"},"
+                + "{\"message\":\"fifth\",\"severity\":\"error\"}]", -1));
+
+        Assert.assertEquals(Arrays.asList("[2026-10-18T12:00:00Z] first", "second", "third", "fourth", "fifth"), messages());
+        Assert.assertEquals(Arrays.asList(Level.WARN, Level.INFO, Level.INFO, Level.DEBUG, Level.ERROR),
+                logged.list.stream().map(ILoggingEvent::getLevel).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void lineBreaksOfBatchAreEscaped() throws Exception {
+        endpoint.writeLogBatch(request("[{\"message\":\"first\\nsecond\\r\\n\",\"timestamp\":\"12:00\\n\"}]", -1));
+
+        Assert.assertEquals(Arrays.asList("[12:00\\n] first\\nsecond\\r\\n"), messages());
+    }
+
+    @Test
+    public void batchExceedingSizeIsRejected() throws Exception {
+        LogEndpoint.maxBatchBytes = 100;
+        //Larger than the buffer of the parser, which reads it in chunks
+        String body = "[{\"message\":\"" + repeat('x', 100000) + "\"}]";
+
+        //Rejected by its Content-Length before the body is read
+        TestInputStream unread = new TestInputStream(body.getBytes(StandardCharsets.UTF_8));
+        assertStatus(HttpStatus.PAYLOAD_TOO_LARGE, () -> endpoint.writeLogBatch(request(unread, body.length(), null)));
+        Assert.assertEquals(0, unread.read);
+        //Without Content-Length, reading stops after the limit
+        TestInputStream chunked = new TestInputStream(body.getBytes(StandardCharsets.UTF_8));
+        assertStatus(HttpStatus.PAYLOAD_TOO_LARGE, () -> endpoint.writeLogBatch(request(chunked, -1, null)));
+        Assert.assertTrue(chunked.read < body.length());
+        Assert.assertTrue(logged.list.isEmpty());
+    }
+
+    @Test
+    public void batchExceedingRecordsIsRejected() throws Exception {
+        LogEndpoint.maxBatchRecords = 3;
+
+        assertStatus(HttpStatus.PAYLOAD_TOO_LARGE, () -> endpoint.writeLogBatch(request("[{\"message\":\"1\"},{\"message\":\"2\"},{\"message\":\"3\"},{\"message\":\"4\"}]", -1)));
+        Assert.assertTrue(logged.list.isEmpty());
+
+        endpoint.writeLogBatch(request("[{\"message\":\"1\"},{\"message\":\"2\"},{\"message\":\"3\"}]", -1));
+        Assert.assertEquals(3, logged.list.size());
+    }
+
+    @Test
+    public void invalidBatchesAreRejectedAsWhole() {
+        assertStatus(HttpStatus.BAD_REQUEST, () -> endpoint.writeLogBatch(request("[{\"message\":\"valid\"},{\"message\":\"truncated\"", -1)));
+        assertStatus(HttpStatus.BAD_REQUEST, () -> endpoint.writeLogBatch(request("[{\"message\":\"valid\"},{\"message\":}]", -1)));
+        assertStatus(HttpStatus.BAD_REQUEST, () -> endpoint.writeLogBatch(request("{\"message\":\"not in an array\"}", -1)));
+        assertStatus(HttpStatus.BAD_REQUEST, () -> endpoint.writeLogBatch(request("[{\"message\":\"valid\"},\"not an object\"]", -1)));
+        assertStatus(HttpStatus.BAD_REQUEST, () -> endpoint.writeLogBatch(request("[{\"message\":\"valid\"},{\"severity\":\"info\"}]", -1)));
+        assertStatus(HttpStatus.BAD_REQUEST, () -> endpoint.writeLogBatch(request("[{\"message\":\"valid\"},{\"message\":\"x\",\"severity\":\"fatal\"}]", -1)));
+        LogEndpoint.maxMessageLength = 5;
+        assertStatus(HttpStatus.PAYLOAD_TOO_LARGE, () -> endpoint.writeLogBatch(request("[{\"message\":\"valid\"},{\"message\":\"too long\"}]", -1)));
+
+        Assert.assertTrue(logged.list.isEmpty());
+    }
+
+    @Test
+    public void batchExceedingRateLimitIsRejected() throws Exception {
+        LogEndpoint.rateLimitBurst = 5;
+
+        assertStatus(HttpStatus.TOO_MANY_REQUESTS, () -> endpoint.writeLogBatch(request("[" + repeat("{\"message\":\"x\"},", 9) + "{\"message\":\"x\"}]", -1)));
+        Assert.assertTrue(logged.list.isEmpty());
+
+        //The permit taken before parsing the rejected batch is gone
+        endpoint.writeLogBatch(request("[" + repeat("{\"message\":\"x\"},", 3) + "{\"message\":\"x\"}]", -1));
+        Assert.assertEquals(4, logged.list.size());
+        assertStatus(HttpStatus.TOO_MANY_REQUESTS, () -> endpoint.writeLog(null, request("x", -1)));
+    }
+
+    @Test
+    public void messageIsLoggedAsOneLine() throws Exception {
+        endpoint.writeLog("warn", request("first\nsecond\r\n", -1));
+        endpoint.writeLog(null, request("\u00fc\u20ac\ud83d\ude00", -1));
+
+        Assert.assertEquals(Arrays.asList("first\\nsecond\\r\\n", "\u00fc\u20ac\ud83d\ude00"), messages());
+        Assert.assertEquals(Level.WARN, logged.list.get(0).getLevel());
+        Assert.assertEquals(Level.INFO, logged.list.get(1).getLevel());
+    }
+
+    @Test
+    public void messageIsReadUpToLimit() throws Exception {
+        LogEndpoint.maxMessageLength = 10;
+
+        //Ten characters, but more than ten bytes
+        endpoint.writeLog(null, request(repeat('\u00fc', 10), -1));
+        assertStatus(HttpStatus.PAYLOAD_TOO_LARGE, () -> endpoint.writeLog(null, request(repeat('x', 11), -1)));
+        TestInputStream unread = new TestInputStream(new byte[1000]);
+        assertStatus(HttpStatus.PAYLOAD_TOO_LARGE, () -> endpoint.writeLog(null, request(unread, 1000, null)));
+        Assert.assertEquals(0, unread.read);
+        TestInputStream chunked = new TestInputStream(new byte[100000]);
+        assertStatus(HttpStatus.PAYLOAD_TOO_LARGE, () -> endpoint.writeLog(null, request(chunked, -1, null)));
+        Assert.assertTrue(chunked.read < 100000);
+        assertStatus(HttpStatus.BAD_REQUEST, () -> endpoint.writeLog(null, request("", -1)));
+        assertStatus(HttpStatus.UNSUPPORTED_MEDIA_TYPE, () -> endpoint.writeLog(null, request(new TestInputStream(new byte[1]), -1, "no-such-charset")));
+
+        Assert.assertEquals(Arrays.asList(repeat('\u00fc', 10)), messages());
+    }
+
+    @Test
+    public void messageInCharsetOfRequest() throws Exception {
+        endpoint.writeLog(null, request(new TestInputStream("\u00fc".getBytes(StandardCharsets.ISO_8859_1)), -1, "ISO-8859-1"));
+
+        Assert.assertEquals(Arrays.asList("\u00fc"), messages());
+    }
+
+    private List<String> messages() {
+        return logged.list.stream().map(ILoggingEvent::getFormattedMessage).collect(Collectors.toList());
+    }
+
+    private static String repeat(char c, int count) {
+        return repeat(String.valueOf(c), count);
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+
+    private interface Call {
+        void run() throws Exception;
+    }
+
+    private static void assertStatus(HttpStatus status, Call call) {
+        try {
+            call.run();
+            Assert.fail("Expected " + status);
+        }
+        catch (ResponseStatusException e) {
+            Assert.assertEquals(e.getReason(), status, e.getStatus());
+        }
+        catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static HttpServletRequest request(String body, long contentLength) {
+        return request(new TestInputStream(body.getBytes(StandardCharsets.UTF_8)), contentLength, null);
+    }
+
+    /**
+     * Creates a request of a client with the given body, which returns null from all other getters
+     */
+    private static HttpServletRequest request(TestInputStream body, long contentLength, String characterEncoding) {
+        return (HttpServletRequest) Proxy.newProxyInstance(LogEndpointTest.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getInputStream":
+                    return body;
+                case "getContentLengthLong":
+                    return contentLength;
+                case "getCharacterEncoding":
+                    return characterEncoding;
+                case "getRemoteAddr":
+                    return "192.0.2.1";
+                default:
+                    return null;
+            }
+        });
+    }
+
+    /**
+     * Request body which counts the bytes read from it
+     */
+    private static class TestInputStream extends ServletInputStream {
+        private final ByteArrayInputStream in;
+        private int read = 0;
+
+        TestInputStream(byte[] content) {
+            in = new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public int read() {
+            int b = in.read();
+            if (b != -1) {
+                read++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int count = in.read(b, off, len);
+            if (count > 0) {
+                read += count;
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return in.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.Cipher;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+
+/**
+ * Tests that the {@link VerifyingRollingFileAppender} detects changes made to the current log file by others and signs only files it wrote alone
+ */
+public class VerifyingRollingFileAppenderTest {
+
+    private static KeyPair keys;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LoggerContext context;
+    private File logFile;
+    private File signatureFile;
+
+    @BeforeClass
+    public static void createKeys() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keys = generator.generateKeyPair();
+    }
+
+    @Before
+    public void setUp() {
+        context = new LoggerContext();
+        logFile = new File(folder.getRoot(), "broker.log");
+        signatureFile = new File(folder.getRoot(), "broker.sgn");
+        VerifyingRollingFileAppender.setPrivateKey(keys.getPrivate());
+        VerifyingRollingFileAppender.setPublicKey(keys.getPublic());
+    }
+
+    @After
+    public void tearDown() {
+        VerifyingRollingFileAppender.setPrivateKey(null);
+        VerifyingRollingFileAppender.setPublicKey(null);
+        context.stop();
+    }
+
+    @Test
+    public void untouchedFileIsSignedWithDigestOfItsBytes() throws Exception {
+        VerifyingRollingFileAppender appender = startAppender(0);
+        for (int i = 0; i < 100; i++) {
+            log(appender, "event " + i + " \u00e4\u00f6\u00fc");
+        }
+        appender.stop();
+
+        Cipher cipher = Cipher.getInstance("RSA");
+        cipher.init(Cipher.DECRYPT_MODE, keys.getPublic());
+        byte[] signed = cipher.doFinal(Files.readAllBytes(signatureFile.toPath()));
+        byte[] expected = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(logFile.toPath()));
+        Assert.assertArrayEquals(expected, signed);
+        Assert.assertTrue(VerifyingRollingFileAppender.verifyIntegrityOfLogFile(logFile.getPath()));
+    }
+
+    @Test
+    public void externalAppendBetweenEventsIsDetected() throws Exception {
+        VerifyingRollingFileAppender appender = startAppender(0);
+        log(appender, "before the append");
+        Files.write(logFile.toPath(), "appended by someone else\n".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+        log(appender, "after the append");
+        appender.stop();
+
+        Assert.assertTrue(content(), content().contains("Unexpected size or modification time!"));
+        Assert.assertFalse(signatureFile.exists());
+        Assert.assertFalse(VerifyingRollingFileAppender.verifyIntegrityOfLogFile(logFile.getPath()));
+    }
+
+    @Test
+    public void externalEditBetweenEventsIsDetected() throws Exception {
+        VerifyingRollingFileAppender appender = startAppender(0);
+        log(appender, "before the edit");
+        //Same size, but a later modification time
+        long lastModified = logFile.lastModified();
+        overwriteFirstByte();
+        Assert.assertTrue(logFile.setLastModified(lastModified + 10000));
+        log(appender, "after the edit");
+        appender.stop();
+
+        Assert.assertTrue(content(), content().contains("Unexpected size or modification time!"));
+        Assert.assertFalse(signatureFile.exists());
+    }
+
+    @Test
+    public void editHidingItsModificationTimeIsDetectedBeforeSigning() throws Exception {
+        VerifyingRollingFileAppender appender = startAppender(0);
+        log(appender, "before the edit");
+        //Neither size nor modification time give the edit away, only hashing the file does
+        long lastModified = logFile.lastModified();
+        overwriteFirstByte();
+        Assert.assertTrue(logFile.setLastModified(lastModified));
+        log(appender, "after the edit");
+        appender.stop();
+
+        Assert.assertFalse(content(), content().contains("Unexpected size or modification time!"));
+        Assert.assertFalse(signatureFile.exists());
+    }
+
+    @Test
+    public void periodicFullVerificationDetectsEdit() throws Exception {
+        VerifyingRollingFileAppender appender = startAppender(1);
+        log(appender, "before the edit");
+        long lastModified = logFile.lastModified();
+        overwriteFirstByte();
+        Assert.assertTrue(logFile.setLastModified(lastModified));
+        Thread.sleep(5);
+        //The file is hashed after this event, and the finding is written along with the next one
+        log(appender, "hashed after this event");
+        log(appender, "reported before this event");
+        appender.stop();
+
+        Assert.assertTrue(content(), content().contains("Unexpected message digest!"));
+        Assert.assertFalse(signatureFile.exists());
+    }
+
+    private void overwriteFirstByte() throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+            file.seek(0);
+            file.write('B');
+        }
+    }
+
+    private String content() throws Exception {
+        return new String(Files.readAllBytes(logFile.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private VerifyingRollingFileAppender startAppender(long fullVerificationIntervalMillis) {
+        VerifyingRollingFileAppender appender = new VerifyingRollingFileAppender();
+        appender.setContext(context);
+        appender.setName("verifying");
+        appender.setFile(logFile.getPath());
+        appender.setFullVerificationIntervalMillis(fullVerificationIntervalMillis);
+
+        TimeBasedRollingPolicy<Object> policy = new TimeBasedRollingPolicy<>();
+        policy.setContext(context);
+        policy.setParent(appender);
+        policy.setFileNamePattern(new File(folder.getRoot(), "broker-%d{yyyy-MM-dd}.log").getPath());
+        policy.start();
+        appender.setRollingPolicy(policy);
+
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%msg%n");
+        encoder.setCharset(StandardCharsets.UTF_8);
+        encoder.start();
+        appender.setEncoder(encoder);
+
+        appender.start();
+        Assert.assertTrue(appender.isStarted());
+        return appender;
+    }
+
+    private void log(VerifyingRollingFileAppender appender, String message) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(Level.INFO);
+        event.setLoggerName(VerifyingRollingFileAppenderTest.class.getName());
+        event.setMessage(message);
+        event.setTimeStamp(System.currentTimeMillis());
+        appender.doAppend(event);
+    }
+}
@@ -0,0 +1,729 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import de.fraunhofer.iais.eis.Connector;
+import de.fraunhofer.iais.eis.InfrastructureComponent;
+import de.fraunhofer.iais.eis.Resource;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.spi.Indexing;
+import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decorator which moves all indexing work off the thread handling an IDS message.
+ * Calls are put into a bounded queue and executed by a number of worker threads. Tasks concerning the same connector are executed
+ * one after another in the order they were received, tasks for different connectors run in parallel.
+ * An update or deletion of a connector supersedes updates of the same connector which have not been started yet.
+ * If a spool directory is configured, every accepted task is written to it by a separate spool thread and removed once it was executed,
+ * so that pending tasks survive a restart of the broker. The calling thread neither serializes the task nor waits for the disk.
+ * Each file is synced to disk before it is renamed to its final name, and the directory is synced once per batch of files.
+ * Tasks which are superseded or executed before the spool thread gets to them are not written at all.
+ * A task which was accepted but not yet written when the broker crashes is lost, as are all queued tasks without a spool directory.
+ */
+public class AsyncIndexing implements Indexing<InfrastructureComponent> {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncIndexing.class);
+    private static final Serializer serializer = new Serializer();
+    private static final String SPOOL_FILE_SUFFIX = ".task";
+    //Put into the ready queue to wake up idle workers when shutting down
+    private static final KeyQueue STOP = new KeyQueue(null);
+
+    private enum Operation { ADD, UPDATE, DELETE, UPDATE_RESOURCE, DELETE_RESOURCE }
+
+    private final Indexing<InfrastructureComponent> delegate;
+    private final int capacity;
+    private final long offerTimeoutMillis;
+    private final int maxAttempts;
+    private final Path spoolDirectory;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition idle = lock.newCondition();
+    private final Map<String, KeyQueue> queues = new HashMap<>();
+    private final LinkedBlockingQueue<KeyQueue> ready = new LinkedBlockingQueue<>();
+    private final ExecutorService workers;
+    private final int workerThreads;
+    private final AtomicLong sequence = new AtomicLong();
+    //Accepted tasks which the spool thread has not written yet
+    private final LinkedBlockingQueue<Task> unspooled = new LinkedBlockingQueue<>();
+    //Put into the spool queue to stop the spool thread once it has written all tasks before it
+    private final Task endOfSpool = new Task(null, null, null, null, null);
+    private final ExecutorService spoolWriter;
+    private volatile boolean stopping = false;
+
+    //Guarded by lock
+    private int queueDepth = 0;
+    private int inFlight = 0;
+    private boolean closed = false;
+
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong producerWaitNanos = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+
+    /**
+     * Constructor. Tasks left in the spool directory by a previous run are queued again before the workers are started
+     * @param delegate The indexing implementation doing the actual work
+     * @param workerThreads Number of threads executing tasks
+     * @param capacity Maximum number of tasks waiting for execution
+     * @param offerTimeoutMillis How long a caller waits for free capacity before the call is rejected
+     * @param maxAttempts How often a failing task is attempted before it is dropped
+     * @param spoolDirectory Directory in which pending tasks are persisted, or null to keep them in memory only
+     * @throws IOException if the spool directory could not be created or read
+     */
+    public AsyncIndexing(Indexing<InfrastructureComponent> delegate, int workerThreads, int capacity, long offerTimeoutMillis, int maxAttempts, Path spoolDirectory) throws IOException {
+        this.delegate = delegate;
+        this.capacity = Math.max(1, capacity);
+        this.offerTimeoutMillis = Math.max(0, offerTimeoutMillis);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.spoolDirectory = spoolDirectory;
+        if (spoolDirectory != null) {
+            Files.createDirectories(spoolDirectory);
+            recoverSpooledTasks();
+            spoolWriter = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "indexing-spool");
+                thread.setDaemon(true);
+                return thread;
+            });
+            spoolWriter.execute(this::writeSpool);
+        } else {
+            spoolWriter = null;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        int threads = Math.max(1, workerThreads);
+        this.workerThreads = threads;
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "indexing-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    /**
+     * @return The indexing implementation doing the actual work
+     */
+    public Indexing<InfrastructureComponent> getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void addResourceAsJson(String resourceId, String resourceAsJson) {
+        delegate.addResourceAsJson(resourceId, resourceAsJson);
+    }
+
+    @Override
+    public void add(InfrastructureComponent infrastructureComponent) throws IOException {
+        enqueue(new Task(Operation.ADD, infrastructureComponent.getId().toString(), infrastructureComponent, null, null));
+    }
+
+    @Override
+    public void update(InfrastructureComponent infrastructureComponent) throws IOException {
+        enqueue(new Task(Operation.UPDATE, infrastructureComponent.getId().toString(), infrastructureComponent, null, null));
+    }
+
+    @Override
+    public void updateResource(Connector reducedConnector, Resource resource) throws IOException {
+        enqueue(new Task(Operation.UPDATE_RESOURCE, reducedConnector.getId().toString(), reducedConnector, resource, null));
+    }
+
+    @Override
+    public void delete(URI componentId) throws IOException {
+        enqueue(new Task(Operation.DELETE, componentId.toString(), null, null, componentId));
+    }
+
+    @Override
+    public void deleteResource(Connector reducedConnector, URI resourceId) throws IOException {
+        enqueue(new Task(Operation.DELETE_RESOURCE, reducedConnector.getId().toString(), reducedConnector, null, resourceId));
+    }
+
+    /**
+     * Recreates the index on the calling thread. Recreation reads the current state from the triple store,
+     * so tasks which are still queued are applied on top of it afterwards
+     * @param indexName Name of the index to be recreated
+     * @throws IOException if the delegate failed to recreate the index
+     */
+    @Override
+    public void recreateIndex(String indexName) throws IOException {
+        delegate.recreateIndex(indexName);
+    }
+
+    /**
+     * Stops accepting tasks and waits until all queued tasks have been executed. If the queue is not drained within the timeout,
+     * the workers do not start any further tasks, and tasks which are still running get up to the same timeout to finish before they are interrupted.
+     * Tasks which were not finished remain in the spool directory and are executed after the next start. The spool thread writes all tasks which are left
+     * before it stops
+     * @param timeout Maximum time to wait for the queue to be drained, and for running tasks to finish afterwards
+     * @param unit Unit of the timeout
+     * @return true if the queue was drained completely
+     */
+    public boolean close(long timeout, TimeUnit unit) {
+        boolean drained;
+        lock.lock();
+        try {
+            closed = true;
+            long nanos = unit.toNanos(timeout);
+            while ((queueDepth > 0 || inFlight > 0) && nanos > 0) {
+                nanos = idle.awaitNanos(nanos);
+            }
+            drained = queueDepth == 0 && inFlight == 0;
+            if (!drained) {
+                logger.warn("Indexing queue was not drained within " + timeout + " " + unit + ". " + (queueDepth + inFlight) + " tasks are left" + (spoolDirectory == null ? " and will be lost." : " in " + spoolDirectory + "."));
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        finally {
+            lock.unlock();
+        }
+        stopping = true;
+        for (int i = 0; i < workerThreads; i++) {
+            ready.add(STOP);
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(timeout, unit)) {
+                logger.warn("Indexing tasks did not finish within " + timeout + " " + unit + ", interrupting them.");
+                workers.shutdownNow();
+                if (!workers.awaitTermination(timeout, unit)) {
+                    logger.warn("Indexing tasks did not respond to the interruption within " + timeout + " " + unit + ".");
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        }
+        if (spoolWriter != null) {
+            unspooled.add(endOfSpool);
+            spoolWriter.shutdown();
+            try {
+                if (!spoolWriter.awaitTermination(timeout, unit)) {
+                    logger.warn("Indexing tasks were not written to " + spoolDirectory + " within " + timeout + " " + unit + ". " + unspooled.size() + " tasks are lost.");
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        logger.info("Indexing queue closed. " + getStatistics());
+        return drained;
+    }
+
+    private void enqueue(Task task) throws IOException {
+        long waitStart = System.nanoTime();
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Indexing queue is shut down, rejected " + task);
+            }
+            KeyQueue queue = queues.computeIfAbsent(task.key, KeyQueue::new);
+            coalesce(queue, task);
+            long nanos = TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+            while (queueDepth >= capacity) {
+                if (nanos <= 0) {
+                    rejected.incrementAndGet();
+                    throw new IOException("Indexing queue is full (" + capacity + " tasks), rejected " + task);
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            //The queue of this key may have been drained and removed while we were waiting
+            queue = queues.computeIfAbsent(task.key, KeyQueue::new);
+            task.enqueuedNanos = System.nanoTime();
+            queue.pending.addLast(task);
+            queueDepth++;
+            maxQueueDepth.accumulateAndGet(queueDepth, Math::max);
+            enqueued.incrementAndGet();
+            if (!queue.active) {
+                queue.active = true;
+                ready.add(queue);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for capacity in the indexing queue", e);
+        }
+        finally {
+            producerWaitNanos.addAndGet(System.nanoTime() - waitStart);
+            lock.unlock();
+        }
+        if (spoolWriter != null) {
+            unspooled.add(task);
+        }
+    }
+
+    /**
+     * Removes pending tasks which are made obsolete by a new task for the same key.
+     * A deletion supersedes everything still pending. A full update supersedes pending updates of the connector or of single resources,
+     * but not an addition or deletion, as these are not repeated by the update. Must be called while holding the lock
+     */
+    private void coalesce(KeyQueue queue, Task task) {
+        if (task.operation != Operation.DELETE && task.operation != Operation.UPDATE) {
+            return;
+        }
+        Iterator<Task> iterator = queue.pending.descendingIterator();
+        while (iterator.hasNext()) {
+            Task pending = iterator.next();
+            boolean superseded = task.operation == Operation.DELETE
+                    || pending.operation == Operation.UPDATE
+                    || pending.operation == Operation.UPDATE_RESOURCE
+                    || pending.operation == Operation.DELETE_RESOURCE;
+            if (!superseded) {
+                break;
+            }
+            iterator.remove();
+            queueDepth--;
+            coalesced.incrementAndGet();
+            deleteSpoolFile(pending);
+        }
+        notFull.signalAll();
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            KeyQueue queue;
+            Task task;
+            try {
+                queue = ready.take();
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            if (stopping) {
+                //Remaining tasks stay in the spool directory
+                return;
+            }
+            lock.lock();
+            try {
+                task = queue.pending.pollFirst();
+                if (task == null) {
+                    queue.active = false;
+                    queues.remove(queue.key, queue);
+                    continue;
+                }
+                queueDepth--;
+                inFlight++;
+                notFull.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+            queueWaitNanos.addAndGet(System.nanoTime() - task.enqueuedNanos);
+            boolean finished = execute(task);
+            lock.lock();
+            try {
+                inFlight--;
+                if (queue.pending.isEmpty()) {
+                    queue.active = false;
+                    queues.remove(queue.key, queue);
+                } else {
+                    ready.add(queue);
+                }
+                if (queueDepth == 0 && inFlight == 0) {
+                    idle.signalAll();
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+            if (!finished) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Executes a task, retrying it with increasing delay if it fails
+     * @return false if the worker is shutting down and should stop. The task was not finished then
+     */
+    private boolean execute(Task task) {
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            try {
+                switch (task.operation) {
+                    case ADD:
+                        delegate.add(task.component);
+                        break;
+                    case UPDATE:
+                        delegate.update(task.component);
+                        break;
+                    case DELETE:
+                        delegate.delete(task.uri);
+                        break;
+                    case UPDATE_RESOURCE:
+                        delegate.updateResource((Connector) task.component, task.resource);
+                        break;
+                    case DELETE_RESOURCE:
+                        delegate.deleteResource((Connector) task.component, task.uri);
+                        break;
+                }
+                completed.incrementAndGet();
+                deleteSpoolFile(task);
+                return true;
+            }
+            catch (Exception e) {
+                logger.error("Attempt " + attempt + " of " + maxAttempts + " to execute " + task + " failed.", e);
+            }
+            if (stopping) {
+                //Failed or interrupted while shutting down. The task stays in the spool directory
+                return false;
+            }
+            if (attempt == maxAttempts) {
+                break;
+            }
+            try {
+                backOff(attempt);
+            }
+            catch (InterruptedException e) {
+                //Shutting down. The task stays in the spool directory
+                return false;
+            }
+        }
+        failed.incrementAndGet();
+        deleteSpoolFile(task);
+        return true;
+    }
+
+    /**
+     * Waits before the next attempt of a failed task
+     * @param attempt Number of the attempt which failed
+     * @throws InterruptedException if the worker is interrupted while waiting
+     */
+    void backOff(int attempt) throws InterruptedException {
+        Thread.sleep(1000L * attempt);
+    }
+
+    /**
+     * Body of the spool thread. Writes the accepted tasks in batches, with one sync of the directory per batch
+     */
+    private void writeSpool() {
+        List<Task> batch = new ArrayList<>();
+        boolean stop = false;
+        while (!stop) {
+            try {
+                batch.add(unspooled.take());
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            unspooled.drainTo(batch);
+            boolean written = false;
+            for (Task task : batch) {
+                if (task == endOfSpool) {
+                    stop = true;
+                } else {
+                    written |= spool(task);
+                }
+            }
+            batch.clear();
+            if (written) {
+                syncSpoolDirectory();
+            }
+        }
+    }
+
+    /**
+     * Writes a task to the spool directory, unless it is already finished
+     * @return true if a file was written
+     */
+    private boolean spool(Task task) {
+        synchronized (task) {
+            if (task.finished) {
+                return false;
+            }
+        }
+        Path file = spoolDirectory.resolve(String.format("%019d", task.sequence) + SPOOL_FILE_SUFFIX);
+        Path temporary = spoolDirectory.resolve(file.getFileName() + ".tmp");
+        try {
+            Properties properties = toProperties(task);
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                properties.store(Channels.newOutputStream(channel), null);
+                //The content must be on disk before the rename makes the file visible under its final name
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException | RuntimeException e) {
+            logger.error("Could not write " + task + " to " + file + ". It is lost if the broker stops before it was executed.", e);
+            try {
+                Files.deleteIfExists(temporary);
+            }
+            catch (IOException ignored) {
+            }
+            return false;
+        }
+        boolean finished;
+        synchronized (task) {
+            task.spoolFile = file;
+            finished = task.finished;
+        }
+        //Executed or superseded while it was being written
+        if (finished) {
+            deleteSpoolFile(file);
+        }
+        return true;
+    }
+
+    /**
+     * Syncs the directory entries of the spool directory, so that renamed files survive a crash.
+     * Not all platforms support opening a directory, in which case this is skipped
+     */
+    private void syncSpoolDirectory() {
+        try (FileChannel directory = FileChannel.open(spoolDirectory, StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+        catch (IOException e) {
+            logger.debug("Could not sync spool directory " + spoolDirectory, e);
+        }
+    }
+
+    private static Properties toProperties(Task task) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("operation", task.operation.name());
+        properties.setProperty("key", task.key);
+        if (task.component != null) {
+            properties.setProperty("component", serializer.serialize(task.component));
+        }
+        if (task.resource != null) {
+            properties.setProperty("resource", serializer.serialize(task.resource));
+        }
+        if (task.uri != null) {
+            properties.setProperty("uri", task.uri.toString());
+        }
+        return properties;
+    }
+
+    private void recoverSpooledTasks() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(spoolDirectory, "*" + SPOOL_FILE_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        //File names are zero padded sequence numbers, so that lexicographic order is the order of arrival
+        files.sort(null);
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            try {
+                sequence.accumulateAndGet(Long.parseLong(name.substring(0, name.length() - SPOOL_FILE_SUFFIX.length())), Math::max);
+            }
+            catch (NumberFormatException e) {
+                logger.warn("Unexpected file " + file + " in indexing spool directory.");
+            }
+        }
+        //The workers are not started yet, but coalesce signals a condition of the lock
+        lock.lock();
+        try {
+            recoverSpooledTasks(files);
+        }
+        finally {
+            lock.unlock();
+        }
+        if (!files.isEmpty()) {
+            logger.info("Recovered " + queueDepth + " indexing tasks from " + spoolDirectory);
+        }
+    }
+
+    private void recoverSpooledTasks(List<Path> files) throws IOException {
+        for (Path file : files) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+                Operation operation = Operation.valueOf(properties.getProperty("operation"));
+                String component = properties.getProperty("component");
+                String resource = properties.getProperty("resource");
+                String uri = properties.getProperty("uri");
+                Task task = new Task(operation, properties.getProperty("key"),
+                        component == null ? null : operation == Operation.UPDATE_RESOURCE || operation == Operation.DELETE_RESOURCE
+                                ? serializer.deserialize(component, Connector.class)
+                                : serializer.deserialize(component, InfrastructureComponent.class),
+                        resource == null ? null : serializer.deserialize(resource, Resource.class),
+                        uri == null ? null : URI.create(uri));
+                task.spoolFile = file;
+                KeyQueue queue = queues.computeIfAbsent(task.key, KeyQueue::new);
+                coalesce(queue, task);
+                task.enqueuedNanos = System.nanoTime();
+                queue.pending.addLast(task);
+                queueDepth++;
+                if (!queue.active) {
+                    queue.active = true;
+                    ready.add(queue);
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                logger.error("Could not recover indexing task from " + file + ". Dropping it.", e);
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Marks a task as finished, so that it is no longer written, and deletes its file if it was written already
+     */
+    private void deleteSpoolFile(Task task) {
+        Path file;
+        synchronized (task) {
+            task.finished = true;
+            file = task.spoolFile;
+        }
+        if (file != null) {
+            deleteSpoolFile(file);
+        }
+    }
+
+    private void deleteSpoolFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        }
+        catch (IOException e) {
+            logger.warn("Could not delete spooled indexing task " + file, e);
+        }
+    }
+
+    /**
+     * @return Number of tasks waiting for execution
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queueDepth;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Largest number of tasks which were waiting at the same time
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return Number of tasks which were accepted
+     */
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    /**
+     * @return Number of tasks which were dropped because a later task for the same connector superseded them
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return Number of tasks which were executed successfully
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * @return Number of tasks which failed in every attempt
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return Number of calls which were rejected because the queue stayed full
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return Total time in milliseconds callers spent waiting for free capacity
+     */
+    public long getProducerWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(producerWaitNanos.get());
+    }
+
+    /**
+     * @return Total time in milliseconds tasks spent in the queue before execution
+     */
+    public long getQueueWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(queueWaitNanos.get());
+    }
+
+    /**
+     * @return Human readable summary of the queue metrics
+     */
+    public String getStatistics() {
+        return "depth=" + getQueueDepth() + ", maxDepth=" + getMaxQueueDepth() + ", enqueued=" + getEnqueued() + ", coalesced=" + getCoalesced()
+                + ", completed=" + getCompleted() + ", failed=" + getFailed() + ", rejected=" + getRejected()
+                + ", producerWaitMillis=" + getProducerWaitMillis() + ", queueWaitMillis=" + getQueueWaitMillis();
+    }
+
+    /**
+     * Pending tasks of one connector (or other component) in order of arrival
+     */
+    private static final class KeyQueue {
+        final String key;
+        final ArrayDeque<Task> pending = new ArrayDeque<>();
+        boolean active = false; //Scheduled for or in execution by a worker
+
+        KeyQueue(String key) {
+            this.key = key;
+        }
+    }
+
+    private final class Task {
+        final long sequence = AsyncIndexing.this.sequence.incrementAndGet();
+        final Operation operation;
+        final String key;
+        final InfrastructureComponent component;
+        final Resource resource;
+        final URI uri;
+        long enqueuedNanos;
+        //Guarded by the task itself, as the spool thread and the workers access them
+        Path spoolFile;
+        boolean finished = false;
+
+        Task(Operation operation, String key, InfrastructureComponent component, Resource resource, URI uri) {
+            this.operation = operation;
+            this.key = key;
+            this.component = component;
+            this.resource = resource;
+            this.uri = uri;
+        }
+
+        @Override
+        public String toString() {
+            return operation + " of " + (resource != null ? resource.getId() : uri != null ? uri : key);
+        }
+    }
+}
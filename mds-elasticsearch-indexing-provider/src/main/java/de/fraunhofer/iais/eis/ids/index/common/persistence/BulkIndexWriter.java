@@ -0,0 +1,111 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Collects index, update and delete requests and sends them to Elasticsearch as bulk requests.
+ * A batch is flushed as soon as it holds the configured number of documents or bytes, and once more when the writer is closed.
+ * Failures are reported per item, so that a single rejected document does not abort the remaining batch.
+ */
+public class BulkIndexWriter implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkIndexWriter.class);
+
+    private final RestHighLevelClient client;
+    private final int maxActions;
+    private final long maxBytes;
+
+    private BulkRequest currentBatch = new BulkRequest();
+    private int batches = 0;
+    private int succeeded = 0;
+    private int failed = 0;
+
+    /**
+     * Constructor
+     * @param client Elasticsearch client used to send the bulk requests
+     * @param maxActions Maximum number of documents per bulk request
+     * @param maxBytes Maximum estimated size of a bulk request in bytes
+     */
+    public BulkIndexWriter(RestHighLevelClient client, int maxActions, long maxBytes) {
+        this.client = client;
+        this.maxActions = Math.max(1, maxActions);
+        this.maxBytes = Math.max(1, maxBytes);
+    }
+
+    /**
+     * Adds a request to the current batch and flushes the batch if one of the limits is reached
+     * @param request The index, update or delete request to be sent
+     * @throws IOException if the flush could not be sent to Elasticsearch
+     */
+    public void add(DocWriteRequest<?> request) throws IOException {
+        currentBatch.add(request);
+        if (currentBatch.numberOfActions() >= maxActions || currentBatch.estimatedSizeInBytes() >= maxBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends all pending requests as one bulk request. Items which failed are logged individually
+     * @throws IOException if the bulk request could not be sent to Elasticsearch
+     */
+    public void flush() throws IOException {
+        if (currentBatch.numberOfActions() == 0) {
+            return;
+        }
+        BulkRequest batch = currentBatch;
+        currentBatch = new BulkRequest();
+        batches++;
+        BulkResponse response = ElasticsearchClientFactory.bulk(client, batch);
+        if (!response.hasFailures()) {
+            succeeded += batch.numberOfActions();
+            return;
+        }
+        for (BulkItemResponse item : response.getItems()) {
+            if (item.isFailed()) {
+                failed++;
+                logger.error("Failed to " + item.getOpType().getLowercase() + " document " + item.getId() + " in index " + item.getIndex() + ": " + item.getFailureMessage());
+            } else {
+                succeeded++;
+            }
+        }
+    }
+
+    /**
+     * @return Number of bulk requests sent so far
+     */
+    public int getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return Number of items which were written successfully
+     */
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * @return Number of items which were rejected by Elasticsearch
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * Flushes all remaining requests
+     * @throws IOException if the final bulk request could not be sent to Elasticsearch
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
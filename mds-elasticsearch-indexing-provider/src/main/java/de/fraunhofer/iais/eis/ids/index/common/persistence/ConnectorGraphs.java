@@ -0,0 +1,101 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.rdf.model.RDFNode;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queries on the named graphs of the connectors in the triple store, which are read page by page by the {@link IndexRebuilder} and the {@link IndexReconciler}
+ */
+final class ConnectorGraphs {
+
+    /**
+     * Number of leading hex digits of the SHA-256 hash of a triple which are summed up, giving a 64 bit value per triple
+     */
+    private static final int HASH_DIGITS = 16;
+
+    private ConnectorGraphs() {
+    }
+
+    /**
+     * Retrieves the next page of connector graphs. Pages are delimited by the last graph of the previous page instead of an offset,
+     * so that the triple store does not need to skip the graphs which were already read
+     * @param repositoryFacade Triple store
+     * @param after Last graph of the previous page, or null for the first page
+     * @param pageSize Maximum number of graphs
+     * @param source Caller, used as tag of the query timer
+     * @return Up to pageSize graphs, ordered by name
+     */
+    static List<URI> getPage(RepositoryFacade repositoryFacade, String after, int pageSize, String source) {
+        String query = "PREFIX ids: <https://w3id.org/idsa/core/> \n" +
+                "SELECT DISTINCT ?graph WHERE {\n" +
+                "  GRAPH ?graph { ?connector a ?type . FILTER(?type IN (ids:BaseConnector, ids:TrustedConnector)) }\n" +
+                (after == null ? "" : "  FILTER(STR(?graph) > \"" + after.replace("\\", "\\\\").replace("\"", "\\\"") + "\")\n") +
+                "} ORDER BY STR(?graph) LIMIT " + pageSize;
+        List<URI> graphs = new ArrayList<>();
+        List<QuerySolution> solutions = IndexingMetrics.selectQuery(repositoryFacade, query, source);
+        if (solutions != null) {
+            for (QuerySolution solution : solutions) {
+                RDFNode graph = solution.get("graph");
+                if (graph != null && graph.isURIResource()) {
+                    graphs.add(URI.create(graph.asResource().getURI()));
+                }
+            }
+        }
+        return graphs;
+    }
+
+    /**
+     * Computes a fingerprint of the content of each graph in the triple store, so that only the fingerprints are transferred.
+     * The fingerprint is the number of triples and the sum of a 64 bit hash of each triple, which does not depend on the order in which the triple store returns them.
+     * Blank nodes are hashed as "_:", as their labels may change when the graph is written again.
+     * Hence, graphs which only differ in how their blank nodes are connected have the same fingerprint.
+     * A graph which is not found has no fingerprint
+     * @param repositoryFacade Triple store
+     * @param graphs Graphs to be fingerprinted
+     * @param source Caller, used as tag of the query timer
+     * @return Map from graph to fingerprint
+     */
+    static Map<URI, String> getFingerprints(RepositoryFacade repositoryFacade, Collection<URI> graphs, String source) {
+        Map<URI, String> fingerprints = new HashMap<>();
+        if (graphs.isEmpty()) {
+            return fingerprints;
+        }
+        StringBuilder values = new StringBuilder();
+        for (URI graph : graphs) {
+            values.append(" <").append(graph).append(">");
+        }
+        //SPARQL cannot parse hex numbers, so each digit is looked up by its position in "0123456789abcdef"
+        StringBuilder value = new StringBuilder();
+        for (int i = 1; i <= HASH_DIGITS; i++) {
+            value.append(i == 1 ? "" : " + ")
+                    .append("STRLEN(STRBEFORE(\"0123456789abcdef\", SUBSTR(?hash, ").append(i).append(", 1))) * ")
+                    .append(BigInteger.valueOf(16).pow(HASH_DIGITS - i));
+        }
+        String query = "SELECT ?graph (COUNT(*) AS ?triples) (SUM(?value) AS ?sum) WHERE {\n" +
+                "  VALUES ?graph {" + values + " }\n" +
+                "  GRAPH ?graph { ?s ?p ?o }\n" +
+                "  BIND(SHA256(CONCAT(IF(isBlank(?s), \"_:\", STR(?s)), \" \", STR(?p), \" \", IF(isBlank(?o), \"_:\", STR(?o)),\n" +
+                "                     IF(isLiteral(?o), CONCAT(\"@\", LANG(?o), \"^^\", STR(DATATYPE(?o))), \"\"))) AS ?hash)\n" +
+                "  BIND(" + value + " AS ?value)\n" +
+                "} GROUP BY ?graph";
+        List<QuerySolution> solutions = IndexingMetrics.selectQuery(repositoryFacade, query, source);
+        if (solutions != null) {
+            for (QuerySolution solution : solutions) {
+                RDFNode graph = solution.get("graph");
+                if (graph != null && graph.isURIResource() && solution.contains("sum")) {
+                    //The sum exceeds a long for large graphs, hence its lexical form is kept
+                    fingerprints.put(URI.create(graph.asResource().getURI()), solution.get("triples").asLiteral().getLong() + ":" + solution.get("sum").asLiteral().getLexicalForm());
+                }
+            }
+        }
+        return fingerprints;
+    }
+}
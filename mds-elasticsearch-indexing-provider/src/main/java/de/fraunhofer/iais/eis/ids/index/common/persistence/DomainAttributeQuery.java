@@ -0,0 +1,92 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.rdf.model.RDFNode;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Retrieves all domain specific attributes of the resources in a connector graph with a single SPARQL query.
+ * The properties are passed in a VALUES block together with the name of the field they are indexed under,
+ * so that the bindings can be fanned out to the resource documents without resolving prefixes again.
+ */
+class DomainAttributeQuery {
+
+    private DomainAttributeQuery() {
+    }
+
+    /**
+     * Builds the query
+     * @param prefixes PREFIX declarations for the prefixed names used in the properties
+     * @param connectorId The connector, whose graph is queried
+     * @param properties Properties to be retrieved, e.g. "mds:dataCategory". Each property is also used as field name
+     * @param resourceIds Resources for which the properties should be retrieved, or null for all resources in the graph
+     * @return SELECT query binding ?resource, ?field and ?value
+     */
+    static String build(String prefixes, URI connectorId, List<String> properties, Collection<String> resourceIds) {
+        StringBuilder query = new StringBuilder("PREFIX ids: <https://w3id.org/idsa/core/> \n")
+                .append(prefixes).append(" \n")
+                .append("SELECT ?resource ?field ?value WHERE {\n")
+                .append("  VALUES (?property ?field) {");
+        for (String property : properties) {
+            query.append(" (").append(property).append(" \"").append(property.replace("\\", "\\\\").replace("\"", "\\\"")).append("\")");
+        }
+        query.append(" }\n");
+        if (resourceIds != null) {
+            query.append("  VALUES ?resource {");
+            for (String resourceId : resourceIds) {
+                query.append(" <").append(resourceId).append(">");
+            }
+            query.append(" }\n");
+        }
+        query.append("  GRAPH <").append(connectorId).append("> {\n")
+                .append("  ?resource a ids:Resource;\n")
+                .append("  ?property ?value .\n")
+                .append("} }");
+        return query.toString();
+    }
+
+    /**
+     * Groups the bindings of the query by resource and field. Duplicate values, e.g. of a property which is listed twice, are removed,
+     * as GROUP_CONCAT(DISTINCT ...) did in the query per resource and attribute.
+     * Values are sorted, so that the resulting documents do not depend on the order of the query result
+     * @param solutions Result of the query built by {@link #build(String, URI, List, Collection)}
+     * @return Map from resource ID to a map from field name to values
+     */
+    static Map<String, Map<String, List<RDFNode>>> group(List<QuerySolution> solutions) {
+        Map<String, Map<String, Set<RDFNode>>> distinctAttributes = new HashMap<>();
+        if (solutions == null) {
+            return new HashMap<>();
+        }
+        for (QuerySolution solution : solutions) {
+            RDFNode resource = solution.get("resource");
+            RDFNode field = solution.get("field");
+            RDFNode value = solution.get("value");
+            if (resource == null || !resource.isURIResource() || field == null || !field.isLiteral() || value == null) {
+                continue;
+            }
+            distinctAttributes.computeIfAbsent(resource.asResource().getURI(), k -> new HashMap<>())
+                    .computeIfAbsent(field.asLiteral().getString(), k -> new HashSet<>())
+                    .add(value);
+        }
+        Map<String, Map<String, List<RDFNode>>> attributes = new HashMap<>();
+        for (Map.Entry<String, Map<String, Set<RDFNode>>> resource : distinctAttributes.entrySet()) {
+            Map<String, List<RDFNode>> fields = new HashMap<>();
+            for (Map.Entry<String, Set<RDFNode>> field : resource.getValue().entrySet()) {
+                List<RDFNode> values = new ArrayList<>(field.getValue());
+                values.sort(Comparator.comparing(RDFNode::toString));
+                fields.put(field.getKey(), values);
+            }
+            attributes.put(resource.getKey(), fields);
+        }
+        return attributes;
+    }
+}
@@ -0,0 +1,189 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Provides the Elasticsearch client which is shared by all indexers.
+ * The client keeps a pool of connections per node, so creating one client per indexer would multiply the connections and IO threads.
+ * The settings below are to be overwritten by application properties before the first indexer is created.
+ */
+public class ElasticsearchClientFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(ElasticsearchClientFactory.class);
+    private static final Method BULK_CONVERTER = findBulkConverter();
+
+    public static String hosts = ""; //Comma separated list of nodes, e.g. "http://es1:9200,http://es2:9200". If empty, elasticsearchHostname and elasticsearchPort are used
+    public static int maxConnectionsPerRoute = RestClientBuilder.DEFAULT_MAX_CONN_PER_ROUTE;
+    public static int maxConnectionsTotal = RestClientBuilder.DEFAULT_MAX_CONN_TOTAL;
+    public static int ioThreads = 0; //0 to use one IO thread per processor
+    public static int connectTimeoutMillis = RestClientBuilder.DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    public static int socketTimeoutMillis = RestClientBuilder.DEFAULT_SOCKET_TIMEOUT_MILLIS;
+    public static long keepAliveMillis = 60000; //How long idle connections are kept open at most. A shorter Keep-Alive timeout sent by the server takes precedence
+    public static boolean compressRequests = false; //gzip the bodies of bulk requests sent via bulk(), which makes them much smaller
+
+    private static RestHighLevelClient client;
+
+    private ElasticsearchClientFactory() {
+    }
+
+    /**
+     * Returns the shared client, creating it on first use
+     * @return The shared Elasticsearch client
+     */
+    public static synchronized RestHighLevelClient getClient() {
+        if (client == null) {
+            client = createClient();
+        }
+        return client;
+    }
+
+    /**
+     * Closes the shared client and releases its connections and threads. A later call to getClient creates a new client
+     * @throws IOException if the client could not be closed
+     */
+    public static synchronized void close() throws IOException {
+        if (client != null) {
+            logger.info("Closing Elasticsearch client.");
+            try {
+                client.close();
+            }
+            finally {
+                client = null;
+            }
+        }
+    }
+
+    private static RestHighLevelClient createClient() {
+        HttpHost[] nodes = getHosts();
+        RestClientBuilder builder = RestClient.builder(nodes)
+                .setRequestConfigCallback(requestConfig -> requestConfig
+                        .setConnectTimeout(connectTimeoutMillis)
+                        .setSocketTimeout(socketTimeoutMillis))
+                .setHttpClientConfigCallback(httpClient -> {
+                    IOReactorConfig.Builder ioReactorConfig = IOReactorConfig.custom().setSoKeepAlive(true);
+                    if (ioThreads > 0) {
+                        ioReactorConfig.setIoThreadCount(ioThreads);
+                    }
+                    httpClient.setMaxConnPerRoute(maxConnectionsPerRoute)
+                            .setMaxConnTotal(maxConnectionsTotal)
+                            .setDefaultIOReactorConfig(ioReactorConfig.build())
+                            .setKeepAliveStrategy((response, context) -> {
+                                long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                                return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAliveMillis) : keepAliveMillis;
+                            });
+                    return httpClient;
+                });
+        logger.info("Creating Elasticsearch client for " + nodes.length + " node(s), max. " + maxConnectionsPerRoute + " connections per node.");
+        return new RestHighLevelClient(builder);
+    }
+
+    /**
+     * Sends a bulk request, gzip compressed if compressRequests is set.
+     * The high level client builds the request body itself and cannot compress it, and an HTTP interceptor comes too late to replace the body.
+     * Therefore, the request is converted by the same converter the high level client uses, and its body is compressed and sent with the low level client.
+     * If that converter is not available, the request is sent uncompressed
+     * @param client The client to send the request with
+     * @param request The bulk request
+     * @return The response of Elasticsearch, with one item per request
+     * @throws IOException if the request could not be sent or was rejected as a whole
+     */
+    public static BulkResponse bulk(RestHighLevelClient client, BulkRequest request) throws IOException {
+        if (!compressRequests || BULK_CONVERTER == null) {
+            return client.bulk(request, RequestOptions.DEFAULT);
+        }
+        Response response = client.getLowLevelClient().performRequest(toCompressedRequest(request));
+        try (InputStream content = response.getEntity().getContent();
+             XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, content)) {
+            return BulkResponse.fromXContent(parser);
+        }
+    }
+
+    /**
+     * Converts a bulk request into the request the high level client would send, with a gzip compressed body
+     */
+    static Request toCompressedRequest(BulkRequest request) throws IOException {
+        Request converted;
+        try {
+            converted = (Request) BULK_CONVERTER.invoke(null, request);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot convert bulk request", e);
+        }
+        catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Cannot convert bulk request", e.getCause());
+        }
+        HttpEntity body = converted.getEntity();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream((int) Math.max(64, body.getContentLength() / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            body.writeTo(gzip);
+        }
+        ByteArrayEntity entity = new ByteArrayEntity(compressed.toByteArray(), ContentType.get(body));
+        entity.setContentEncoding("gzip");
+        converted.setEntity(entity);
+        return converted;
+    }
+
+    /**
+     * @return The method of the high level client which converts bulk requests, or null if it cannot be accessed
+     */
+    private static Method findBulkConverter() {
+        try {
+            Method converter = Class.forName("org.elasticsearch.client.RequestConverters").getDeclaredMethod("bulk", BulkRequest.class);
+            converter.setAccessible(true);
+            return converter;
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("Bulk request converter of the Elasticsearch client not found. Bulk requests are sent uncompressed.", e);
+            return null;
+        }
+    }
+
+    private static HttpHost[] getHosts() {
+        List<HttpHost> nodes = new ArrayList<>();
+        if (hosts != null) {
+            for (String host : hosts.split(",")) {
+                if (!host.isBlank()) {
+                    nodes.add(HttpHost.create(host.strip()));
+                }
+            }
+        }
+        if (nodes.isEmpty()) {
+            nodes.add(new HttpHost(ElasticsearchIndexingConnector.elasticsearchHostname, ElasticsearchIndexingConnector.elasticsearchPort, "http"));
+        }
+        return nodes.toArray(new HttpHost[0]);
+    }
+}
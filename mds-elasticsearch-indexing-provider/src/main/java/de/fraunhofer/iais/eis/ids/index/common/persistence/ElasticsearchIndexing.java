@@ -3,14 +3,35 @@ package de.fraunhofer.iais.eis.ids.index.common.persistence;
 import de.fraunhofer.iais.eis.*;
 import org.apache.jena.query.ParameterizedSparqlString;
 import org.apache.jena.query.QuerySolution;
+import org.apache.jena.rdf.model.RDFNode;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.ClearScrollRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.bytes.CompositeBytesReference;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.slf4j.Logger;
@@ -19,8 +40,13 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -37,6 +63,50 @@ public class ElasticsearchIndexing extends ElasticsearchIndexingConnector {
     private List<String> prefixes;
     private List<String> predicates;
     public static final String RESOURCE_INDEX = "resources";
+    static final String CONNECTOR_ID_FIELD = "connectorID";
+    static final String CONTENT_HASH_FIELD = "contentHash";
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+    private static final int SCROLL_PAGE_SIZE = 1000;
+    private static final BytesReference ARRAY_START = new BytesArray("[");
+    private static final BytesReference ARRAY_SEPARATOR = new BytesArray(",");
+    private static final BytesReference ARRAY_END = new BytesArray("]");
+    //Replaces the catalog entry with the ID params.resourceID by params.entry, in whichever catalog of the connector document it is found
+    private static final String REPLACE_CATALOG_ENTRY_SCRIPT =
+            "boolean found = false;" +
+            "if (ctx._source.catalog != null) {" +
+            "  for (def catalog : ctx._source.catalog) {" +
+            "    if (catalog.resources != null) {" +
+            "      for (int i = 0; i < catalog.resources.size(); i++) {" +
+            "        if (params.resourceID.equals(catalog.resources[i].resourceID)) { catalog.resources[i] = params.entry; found = true; }" +
+            "      }" +
+            "    }" +
+            "  }" +
+            "}" +
+            "if (found) { ctx._source[params.fingerprintField] = null; } else { ctx.op = 'none'; }";
+    //Removes the catalog entries whose IDs are in params.resourceIDs from all catalogs of the connector document
+    private static final String REMOVE_CATALOG_ENTRIES_SCRIPT =
+            "boolean found = false;" +
+            "Set ids = new HashSet(params.resourceIDs);" +
+            "if (ctx._source.catalog != null) {" +
+            "  for (def catalog : ctx._source.catalog) {" +
+            "    if (catalog.resources != null && catalog.resources.removeIf(entry -> ids.contains(entry.resourceID))) { found = true; }" +
+            "  }" +
+            "}" +
+            "if (found) { ctx._source[params.fingerprintField] = null; } else { ctx.op = 'none'; }";
+    //Deletes a resource document only if it belongs to the connector params.connectorID. Compared and deleted atomically, as part of one update operation
+    private static final String DELETE_IF_OWNED_SCRIPT =
+            "if (params.connectorID.equals(ctx._source." + CONNECTOR_ID_FIELD + ")) { ctx.op = 'delete'; } else { ctx.op = 'none'; }";
+
+    public static boolean bulkIndexing = true; //default value, to be overwritten by application properties
+    public static int bulkMaxActions = 500; //Maximum number of documents per bulk request
+    public static long bulkMaxBytes = 5 * 1024 * 1024; //Maximum size of a bulk request in bytes
+    public static boolean incrementalUpdates = true; //Only write resources whose fingerprint changed when a connector is updated
+    public static boolean batchedDomainAttributes = true; //Fetch the domain attributes of all resources of a connector with one SPARQL query
+    public static boolean partialResourceUpdates = true; //Update a single resource by patching its catalog entry instead of rewriting the connector document
+    public static int documentBuildThreads = 0; //Threads building the resource documents of a connector concurrently, 0 for one per processor, 1 to build them on the calling thread
+
+    //Connectors which were changed while the indices are rebuilt, or null if no rebuild is running
+    private volatile Set<URI> changedConnectors;
 
     /**
      * Constructor
@@ -60,6 +130,16 @@ public class ElasticsearchIndexing extends ElasticsearchIndexingConnector {
     @Override
     public void add(InfrastructureComponent selfDescription) throws IOException {
         logger.info("Adding " + selfDescription.getId() + " to index.");
+        recordChange(selfDescription.getId());
+        if (bulkIndexing && selfDescription instanceof Connector) {
+            //Send the connector and its resources together. The resources come first, the catalog of the connector document is taken from their documents
+            BulkIndexWriter writer = createBulkIndexWriter();
+            IndexingContext context = indexResources((Connector) selfDescription, writer);
+            writer.add(createIndexRequest(selfDescription, context));
+            writer.flush();
+            logBulkResult(selfDescription.getId(), writer);
+            return;
+        }
         //Default behaviour: Index the connector with its catalog
         super.add(selfDescription);
 
@@ -70,9 +150,66 @@ public class ElasticsearchIndexing extends ElasticsearchIndexingConnector {
         }
     }
 
+    /**
+     * Starts collecting the IDs of all connectors which are changed from now on.
+     * Changes made during a rebuild reach the index version in use, but possibly not the one being built
+     */
+    void startRecordingChanges() {
+        changedConnectors = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Stops collecting changed connectors
+     * @return IDs of the connectors changed since {@link #startRecordingChanges()}
+     */
+    Set<URI> stopRecordingChanges() {
+        Set<URI> changed = changedConnectors;
+        changedConnectors = null;
+        return changed == null ? Collections.emptySet() : changed;
+    }
+
+    /**
+     * @param connectorId ID of a connector
+     * @return true if the connector was changed since {@link #startRecordingChanges()}
+     */
+    boolean isRecordedChange(URI connectorId) {
+        Set<URI> changed = changedConnectors;
+        return changed != null && changed.contains(connectorId);
+    }
+
+    private void recordChange(URI connectorId) {
+        Set<URI> changed = changedConnectors;
+        if (changed != null) {
+            changed.add(connectorId);
+        }
+    }
+
     @Override
     public void update(InfrastructureComponent selfDescription) throws IOException {
         logger.info("Updating indexing of " + selfDescription.getId() + " .");
+        recordChange(selfDescription.getId());
+        if (incrementalUpdates && selfDescription instanceof Connector) {
+            Connector connector = (Connector) selfDescription;
+            BulkIndexWriter writer = createBulkIndexWriter();
+            IndexingContext context = updateResourcesIncrementally(connector, writer);
+            writer.add(createUpdateRequest(connector, context));
+            writer.flush();
+            logBulkResult(connector.getId(), writer);
+            return;
+        }
+        if (bulkIndexing && selfDescription instanceof Connector) {
+            Connector connector = (Connector) selfDescription;
+            //delete respective resources of the connector in RESOURCE_INDEX first
+            deleteResourcesFromIndex(connector.getId().toString());
+
+            //Update the connector and index its resources in as few requests as possible
+            BulkIndexWriter writer = createBulkIndexWriter();
+            IndexingContext context = indexResources(connector, writer);
+            writer.add(createUpdateRequest(connector, context));
+            writer.flush();
+            logBulkResult(connector.getId(), writer);
+            return;
+        }
         //Update the connector in the registrations index
         super.update(selfDescription);
 
@@ -90,6 +227,7 @@ public class ElasticsearchIndexing extends ElasticsearchIndexingConnector {
     @Override
     public void delete(URI componentId) throws IOException{
         logger.info("Removing " + componentId + " from index.");
+        recordChange(componentId);
         //delete respective resources in RESOURCE_INDEX first
         deleteResourcesFromIndex(componentId.toString());
 
@@ -98,91 +236,296 @@ public class ElasticsearchIndexing extends ElasticsearchIndexingConnector {
     }
 
     protected void indexResources(Connector connector) throws IOException {
+        IndexingContext context = createIndexingContext(connector);
+        ResourceDocumentPipeline.forEach(getOfferedResources(connector), resource -> buildResourceDocument(resource, context), document -> {
+            client.index(createResourceIndexRequest(document), RequestOptions.DEFAULT);
+            logger.info("Creating resource " + document.getId() + " which belongs to the connector " + connector.getId().toString());
+        });
+    }
 
-        if(connector.getResourceCatalog() != null && !connector.getResourceCatalog().isEmpty()) {
-            for (ResourceCatalog resourceCatalog : connector.getResourceCatalog()) {
-                if(resourceCatalog.getOfferedResourceAsObject() != null && !resourceCatalog.getOfferedResourceAsObject().isEmpty()) {
-                    for (Resource resource : resourceCatalog.getOfferedResourceAsObject()) {
-                        XContentBuilder builder = XContentFactory.jsonBuilder();
-                        builder.startObject();
-                        handleResource(resource, builder, connector.getId());
-                        builder.endObject();
-                        IndexRequest resIndexAdd = new IndexRequest(RESOURCE_INDEX)
-                            .id(resource.getId().toString())
-                            .source(builder);
-
-                        client.index(resIndexAdd, RequestOptions.DEFAULT);
-                        logger.info("Creating resource " + resource.getId().toString() + " which belongs to the connector " + connector.getId().toString());
-                    }
-                }
-            }
-        }
+    /**
+     * Adds index requests for all offered resources of a connector to a bulk writer.
+     * Their catalog entries are collected in the returned context, so that the connector document can be built from them
+     * @param connector The connector whose resources should be indexed
+     * @param writer Bulk writer which sends the requests in batches
+     * @return Context holding the catalog entries of the resources
+     * @throws IOException if a batch could not be sent to Elasticsearch
+     */
+    protected IndexingContext indexResources(Connector connector, BulkIndexWriter writer) throws IOException {
+        return indexResources(connector, writer, RESOURCE_INDEX);
     }
 
-    private void deleteResourcesFromIndex(String connId) throws IOException {
-        SearchRequest reqSearch = new SearchRequest(RESOURCE_INDEX);
-        SearchSourceBuilder searchSource = new SearchSourceBuilder()
-                .size(10000)
-                .query(QueryBuilders.matchAllQuery());
-        reqSearch.source(searchSource);
-        SearchResponse resSearch = client.search(reqSearch, RequestOptions.DEFAULT);
+    private IndexingContext indexResources(Connector connector, BulkIndexWriter writer, String resourceIndex) throws IOException {
+        IndexingContext context = createIndexingContext(connector);
+        ResourceDocumentPipeline.forEach(getOfferedResources(connector), resource -> buildResourceDocument(resource, context), document -> {
+            context.addCatalogEntry(document.getId(), document.getCatalogEntry());
+            writer.add(createResourceIndexRequest(document).index(resourceIndex));
+        });
+        return context;
+    }
 
-        if(resSearch.getHits().getHits().length != 0){
-            for(SearchHit hit: resSearch.getHits().getHits()) {
-                HashMap<String,Object> res = (HashMap<String, Object>) hit.getSourceAsMap();
-                   if(connId.equals(res.get("connectorID").toString())) {
+    /**
+     * Adds the documents of a connector and its resources to a bulk writer, addressed to the given indices instead of the aliases in use.
+     * This is how a new version of the indices is filled during a rebuild
+     * @param connector The connector to be indexed
+     * @param writer Bulk writer which sends the requests in batches
+     * @param registrationIndex Concrete index for the connector document
+     * @param resourceIndex Concrete index for the resource documents
+     * @throws IOException if a batch could not be sent to Elasticsearch
+     */
+    void indexConnector(Connector connector, BulkIndexWriter writer, String registrationIndex, String resourceIndex) throws IOException {
+        IndexingContext context = indexResources(connector, writer, resourceIndex);
+        writer.add(createIndexRequest(connector, context).index(registrationIndex));
+    }
 
-                    DeleteRequest resIndexDelete = new DeleteRequest(RESOURCE_INDEX)
-                            .id( res.get("resourceID").toString());
-                                               client.delete(resIndexDelete, RequestOptions.DEFAULT);
-                        logger.info("Deleting resource " + res.get("resourceID").toString() + "from Resource Index which belongs to the connector "+res.get("connectorID"));
+    /**
+     * Brings the documents of a connector in line with its current state, no matter whether it is indexed already.
+     * Changed resources are written, removed ones are deleted and the connector document is replaced
+     * @param connector The connector in its current form
+     * @throws IOException if the documents could not be written
+     */
+    void reindex(Connector connector) throws IOException {
+        BulkIndexWriter writer = createBulkIndexWriter();
+        IndexingContext context = updateResourcesIncrementally(connector, writer);
+        writer.add(createIndexRequest(connector, context));
+        writer.flush();
+        logBulkResult(connector.getId(), writer);
+    }
 
-                }
+    /**
+     * Creates the request which stores the fingerprint of the graph of a connector in its document, after the connector was indexed from that graph.
+     * The number of offered resources is stored along with it, so that missing or surplus resource documents can be detected without reading the triple store
+     * @param registrationIndex Index or alias of the connector document
+     * @param connector The connector as it was indexed
+     * @param fingerprint Fingerprint of its graph, see {@link ConnectorGraphs#getFingerprints}
+     * @return Partial update of the connector document
+     */
+    UpdateRequest createReconciliationUpdate(String registrationIndex, Connector connector, String fingerprint) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(GRAPH_FINGERPRINT_FIELD, fingerprint);
+        fields.put(RESOURCE_COUNT_FIELD, getOfferedResources(connector).size());
+        return new UpdateRequest(registrationIndex, connector.getId().toString()).doc(fields);
+    }
+
+    /**
+     * Compares the fingerprints of the resources of a connector with the fingerprints stored in the resource index.
+     * Only resources which were added or changed are written, and only resources which disappeared from the catalog are deleted
+     * @param connector The connector in its current form
+     * @param writer Bulk writer which sends the requests in batches
+     * @return Context holding the catalog entries of all offered resources
+     * @throws IOException if the stored fingerprints could not be retrieved or a batch could not be sent
+     */
+    protected IndexingContext updateResourcesIncrementally(Connector connector, BulkIndexWriter writer) throws IOException {
+        Map<String, String> indexedFingerprints = getIndexedFingerprints(connector.getId().toString());
+        int[] unchanged = new int[1];
+        IndexingContext context = createIndexingContext(connector);
+        ResourceDocumentPipeline.forEach(getOfferedResources(connector), resource -> buildResourceDocument(resource, context), document -> {
+            context.addCatalogEntry(document.getId(), document.getCatalogEntry());
+            String indexedFingerprint = indexedFingerprints.remove(document.getId());
+            if (document.getFingerprint().equals(indexedFingerprint)) {
+                unchanged[0]++;
+            } else {
+                writer.add(createResourceIndexRequest(document));
+            }
+        });
+        //Whatever is left was indexed before, but is no longer offered by the connector
+        for (String removedResourceId : indexedFingerprints.keySet()) {
+            writer.add(new DeleteRequest(RESOURCE_INDEX, removedResourceId));
+        }
+        logger.info(unchanged[0] + " resources of the connector " + connector.getId() + " are unchanged, " + indexedFingerprints.size() + " were removed.");
+        return context;
+    }
 
+    /**
+     * Retrieves the fingerprints of all indexed resources of a connector
+     * @param connId The connector whose resources should be retrieved
+     * @return Map from resource ID to fingerprint. The fingerprint is null for documents indexed without one
+     * @throws IOException if the search could not be sent to Elasticsearch
+     */
+    private Map<String, String> getIndexedFingerprints(String connId) throws IOException {
+        Map<String, String> fingerprints = new HashMap<>();
+        SearchRequest request = new SearchRequest(RESOURCE_INDEX)
+                .scroll(SCROLL_KEEP_ALIVE)
+                .source(new SearchSourceBuilder()
+                        .query(connectorIdQuery(connId))
+                        .fetchSource(CONTENT_HASH_FIELD, null)
+                        .size(SCROLL_PAGE_SIZE));
+        SearchResponse response;
+        try {
+            response = client.search(request, RequestOptions.DEFAULT);
+        }
+        catch (ElasticsearchStatusException e) {
+            if (e.status() == RestStatus.NOT_FOUND) {
+                return fingerprints;
+            }
+            throw e;
+        }
+        String scrollId = response.getScrollId();
+        try {
+            SearchHit[] hits = response.getHits().getHits();
+            while (hits.length > 0) {
+                for (SearchHit hit : hits) {
+                    Object fingerprint = hit.getSourceAsMap().get(CONTENT_HASH_FIELD);
+                    fingerprints.put(hit.getId(), fingerprint == null ? null : fingerprint.toString());
+                }
+                if (hits.length < SCROLL_PAGE_SIZE) {
+                    break;
+                }
+                response = client.scroll(new SearchScrollRequest(scrollId).scroll(SCROLL_KEEP_ALIVE), RequestOptions.DEFAULT);
+                scrollId = response.getScrollId();
+                hits = response.getHits().getHits();
             }
         }
+        finally {
+            ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+            clearScrollRequest.addScrollId(scrollId);
+            client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Serializes a resource into a document of the resource index and computes its fingerprint.
+     * The fingerprint covers the output of handleResource without autogenerated IDs, the time of indexing is added afterwards
+     * @param resource The resource to be indexed
+     * @param connectorId The connector offering the resource
+     * @return The serialized resource document
+     * @throws IOException thrown if some required values could not be extracted
+     */
+    protected ResourceDocument buildResourceDocument(Resource resource, URI connectorId) throws IOException {
+        return buildResourceDocument(resource, IndexingContext.of(connectorId));
     }
 
-    private void indexResource(Connector connector, Resource resource) throws IOException {
+    /**
+     * Serializes a resource into a document of the resource index and computes its fingerprint. Called concurrently for the resources of a connector
+     * @param resource The resource to be indexed
+     * @param context State of the current indexing call, e.g. the prefetched domain attributes. Only read here
+     * @return The serialized resource document
+     * @throws IOException thrown if some required values could not be extracted
+     */
+    protected ResourceDocument buildResourceDocument(Resource resource, IndexingContext context) throws IOException {
         XContentBuilder builder = XContentFactory.jsonBuilder();
         builder.startObject();
-        handleResource(resource, builder, connector.getId());
+        handleResource(resource, builder, context);
         builder.endObject();
-        IndexRequest resIndexAdd = new IndexRequest(RESOURCE_INDEX)
-                .id(resource.getId().toString())
-                .source(builder);
-
-        client.index(resIndexAdd, RequestOptions.DEFAULT);
-        logger.info("Creating resource " + resource.getId().toString() + " which belongs to the connector " + connector.getId().toString());
-    }
-
-    private void deleteResourceFromIndex(String connId, String resId) throws IOException {
-        SearchRequest reqSearch = new SearchRequest(RESOURCE_INDEX);
-        SearchSourceBuilder searchSource = new SearchSourceBuilder()
-                .size(10000)
-                .query(QueryBuilders.idsQuery().addIds(connId, resId));
-        reqSearch.source(searchSource);
-        SearchResponse resSearch = client.search(reqSearch, RequestOptions.DEFAULT);
-
-        if(resSearch.getHits().getHits().length != 0){
-            for(SearchHit hit: resSearch.getHits().getHits()) {
-                HashMap<String,Object> res = (HashMap<String, Object>) hit.getSourceAsMap();
-                if(connId.equals(res.get("connectorID").toString())) {
-
-                    DeleteRequest resIndexDelete = new DeleteRequest(RESOURCE_INDEX)
-                            .id( res.get("resourceID").toString());
-                    client.delete(resIndexDelete, RequestOptions.DEFAULT);
-                    logger.info("Deleting resource " + res.get("resourceID").toString() + "from Resource Index which belongs to the connector "+res.get("connectorID"));
+        return ResourceDocument.of(resource.getId().toString(), BytesReference.bytes(builder),
+                resource.getPublisherAsUri() == null ? null : resource.getPublisherAsUri().toString());
+    }
+
+    /**
+     * Embeds the catalog entries taken from the resource documents which were built in the same call, if there are any.
+     * Otherwise, the catalog entries are built from the resources
+     */
+    @Override
+    protected void handleConnectorCatalog(ResourceCatalog catalog, XContentBuilder builder, IndexingContext context) throws IOException {
+        if (!context.hasCatalogEntries() || catalog.getOfferedResourceAsObject() == null) {
+            super.handleConnectorCatalog(catalog, builder, context);
+            return;
+        }
+        //The serialized entries are joined into a JSON array, which is copied into the connector document without parsing it again
+        List<BytesReference> array = new ArrayList<>();
+        for (Resource resource : catalog.getOfferedResourceAsObject()) {
+            BytesReference entry = context.getCatalogEntry(resource.getId().toString());
+            if (entry == null) {
+                XContentBuilder entryBuilder = XContentFactory.jsonBuilder().startObject();
+                handleCatalogEntry(resource, entryBuilder);
+                entry = BytesReference.bytes(entryBuilder.endObject());
+            }
+            array.add(array.isEmpty() ? ARRAY_START : ARRAY_SEPARATOR);
+            array.add(entry);
+        }
+        for (URI resourceUri : catalog.getOfferedResourceAsUri()) {
+            array.add(array.isEmpty() ? ARRAY_START : ARRAY_SEPARATOR);
+            array.add(BytesReference.bytes(XContentFactory.jsonBuilder().startObject().field("resourceID", resourceUri.toString()).endObject()));
+        }
+        if (array.isEmpty()) {
+            array.add(ARRAY_START);
+        }
+        array.add(ARRAY_END);
+        builder.rawField("resources", CompositeBytesReference.of(array.toArray(new BytesReference[0])).streamInput(), XContentType.JSON);
+    }
+
+    /**
+     * Creates the request which adds a single resource to the resource index, without sending it
+     * @param resource The resource to be indexed
+     * @param connectorId The connector offering the resource
+     * @return Index request for the resource index
+     * @throws IOException thrown if some required values could not be extracted
+     */
+    protected IndexRequest createResourceIndexRequest(Resource resource, URI connectorId) throws IOException {
+        return createResourceIndexRequest(buildResourceDocument(resource, connectorId));
+    }
+
+    private IndexRequest createResourceIndexRequest(ResourceDocument document) {
+        return new IndexRequest(RESOURCE_INDEX)
+                .id(document.getId())
+                .source(document.getSource(), XContentType.JSON);
+    }
+
+    /**
+     * Collects the resources offered in all catalogs of a connector
+     * @param connector The connector offering the resources
+     * @return List of offered resources, which is empty if the connector has no catalog
+     */
+    protected static List<Resource> getOfferedResources(Connector connector) {
+        List<Resource> resources = new ArrayList<>();
+        if(connector.getResourceCatalog() != null) {
+            for (ResourceCatalog resourceCatalog : connector.getResourceCatalog()) {
+                if(resourceCatalog.getOfferedResourceAsObject() != null) {
+                    resources.addAll(resourceCatalog.getOfferedResourceAsObject());
                 }
             }
         }
+        return resources;
+    }
+
+    BulkIndexWriter createBulkIndexWriter() {
+        return new BulkIndexWriter(client, bulkMaxActions, bulkMaxBytes);
+    }
+
+    private void logBulkResult(URI connectorId, BulkIndexWriter writer) {
+        logger.info("Indexed " + writer.getSucceeded() + " documents of connector " + connectorId + " in " + writer.getBatches() + " bulk request(s).");
+        if (writer.getFailed() > 0) {
+            logger.error(writer.getFailed() + " documents of connector " + connectorId + " could not be indexed.");
+        }
+    }
+
+    /**
+     * Removes all resources of a connector from the resource index with a single delete-by-query request
+     * @param connId The connector whose resources should be removed
+     * @return The number of removed resource documents
+     * @throws IOException if the request could not be sent to Elasticsearch
+     */
+    protected long deleteResourcesFromIndex(String connId) throws IOException {
+        DeleteByQueryRequest request = new DeleteByQueryRequest(RESOURCE_INDEX)
+                .setQuery(connectorIdQuery(connId))
+                .setRefresh(true);
+        request.setConflicts("proceed");
+        BulkByScrollResponse response = client.deleteByQuery(request, RequestOptions.DEFAULT);
+        if (!response.getBulkFailures().isEmpty() || !response.getSearchFailures().isEmpty()) {
+            logger.error("Not all resources of the connector " + connId + " could be deleted from the resource index: "
+                    + response.getBulkFailures().size() + " bulk failures, " + response.getSearchFailures().size() + " search failures");
+        }
+        logger.info("Deleted " + response.getDeleted() + " resources from Resource Index which belong to the connector " + connId);
+        return response.getDeleted();
     }
 
+    /**
+     * Creates an exact match query on the connectorID field of resource documents
+     * @param connId The connector ID to match
+     * @return Query matching all resources of the given connector
+     */
+    static QueryBuilder connectorIdQuery(String connId) {
+        //Indices created before connectorID was mapped as keyword only contain the exact value in the dynamic keyword sub field
+        return QueryBuilders.boolQuery()
+                .should(QueryBuilders.termQuery(CONNECTOR_ID_FIELD, connId))
+                .should(QueryBuilders.termQuery(CONNECTOR_ID_FIELD + ".keyword", connId))
+                .minimumShouldMatch(1);
+    }
 
     @Override
-    protected void handleResourceCustomFields(Resource resource, XContentBuilder builder, URI connectorId) throws IOException {
+    protected void handleResourceCustomFields(Resource resource, XContentBuilder builder, IndexingContext context) throws IOException {
         fbw.x(() -> builder.field("resourceAsJsonLd", resource.toRdf()), "resourceAsJsonLd");
-        fbw.x(() -> builder.field( "lastChanged", System.currentTimeMillis()),"lastChanged");
         try {
             String originID = resource.getProperties().get("http://www.w3.org/2002/07/owl#sameAs").toString();
             String formattedOriginID = originID.substring(5, originID.length() - 1);
@@ -206,7 +549,17 @@ public class ElasticsearchIndexing extends ElasticsearchIndexingConnector {
 
         //domain specific terms to be fetched from fuseki
 
-        if ( (! (predicates == null) && !predicates.isEmpty()  && ! (prefixes == null) && !prefixes.isEmpty()))
+        if (batchedDomainAttributes) {
+            Map<String, List<RDFNode>> attributes = getDomainAttributes(resource, context);
+            for (String attr : getDomainProperties()) {
+                List<RDFNode> values = attributes.get(attr);
+                if (values != null) {
+                    List<String> someValues = values.stream().map(RDFNode::toString).collect(Collectors.toList());
+                    fbw.x(() -> builder.field(attr, someValues), attr);
+                }
+            }
+        }
+        else if ( (! (predicates == null) && !predicates.isEmpty()  && ! (prefixes == null) && !prefixes.isEmpty()))
 
         {List<String> domainAttrs = predicates;
 
@@ -227,6 +580,62 @@ public class ElasticsearchIndexing extends ElasticsearchIndexingConnector {
         }
     }
 
+    /**
+     * @return The domain properties which are retrieved from the triple store for each resource and indexed as fields of the same name
+     */
+    protected List<String> getDomainProperties() {
+        if (predicates == null || predicates.isEmpty() || prefixes == null || prefixes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return predicates;
+    }
+
+    /**
+     * @return PREFIX declarations for the prefixed names returned by getDomainProperties
+     */
+    protected String getDomainPrefixes() {
+        return prefixes.stream().map(elem -> "PREFIX "  + elem + " ").collect(Collectors.joining(" \n"));
+    }
+
+    /**
+     * Creates the context for indexing the resources of a connector. The domain attributes of all resources in the graph of the connector are retrieved with a single query,
+     * so that the resources can be indexed without further queries
+     * @param connector The connector which is about to be indexed
+     * @return A new context for this call
+     */
+    protected IndexingContext createIndexingContext(Connector connector) {
+        if (!batchedDomainAttributes || repo == null || getDomainProperties().isEmpty()) {
+            return IndexingContext.of(connector.getId());
+        }
+        try {
+            String query = DomainAttributeQuery.build(getDomainPrefixes(), connector.getId(), getDomainProperties(), null);
+            return new IndexingContext(connector.getId(), DomainAttributeQuery.group(IndexingMetrics.selectQuery(repo, query, "domainAttributes")));
+        }
+        catch (RuntimeException e) {
+            logger.warn("Could not prefetch domain attributes of " + connector.getId() + ". Falling back to one query per resource.", e);
+            return IndexingContext.of(connector.getId());
+        }
+    }
+
+    /**
+     * Returns the domain attributes of a resource, either from the attributes prefetched for its connector or with a single query for this resource
+     * @param resource The resource being indexed
+     * @param context State of the current indexing call
+     * @return Map from field name to values. Empty if no domain attributes are configured or present
+     */
+    protected Map<String, List<RDFNode>> getDomainAttributes(Resource resource, IndexingContext context) {
+        List<String> properties = getDomainProperties();
+        if (properties.isEmpty() || repo == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Map<String, List<RDFNode>>> connectorAttributes = context.getDomainAttributes();
+        if (connectorAttributes == null) {
+            String query = DomainAttributeQuery.build(getDomainPrefixes(), context.getConnectorId(), properties, Collections.singletonList(resource.getId().toString()));
+            connectorAttributes = DomainAttributeQuery.group(IndexingMetrics.selectQuery(repo, query, "domainAttributes"));
+        }
+        return connectorAttributes.getOrDefault(resource.getId().toString(), Collections.emptyMap());
+    }
+
     private void queryAndIndexDomainAttrs(Resource resource, String domainAttr, String extendedPrefixes, XContentBuilder builder) throws IOException {
         String resourceID = resource.getId().toString();
         String connectorID = resource.getId().toString().substring(0,resourceID.indexOf("/", resourceID.lastIndexOf("connectors/")+12)); //TODO: This is exceptionally dangerous! Why not search for the first slash after "/connectors/"?
@@ -241,7 +650,7 @@ public class ElasticsearchIndexing extends ElasticsearchIndexingConnector {
         query.setIri("resource", resource.getId().toString());
         logger.info(query.toString());
         try {
-            ArrayList<QuerySolution> tupleQueryResult = repo.selectQuery(query.toString());
+            ArrayList<QuerySolution> tupleQueryResult = IndexingMetrics.selectQuery(repo, query.toString(), "domainAttributes");
             if (tupleQueryResult != null && !tupleQueryResult.isEmpty()) {
                 List<String> someValues = tupleQueryResult.stream().map(tuple -> tuple.getLiteral("?value").toString()).collect(Collectors.toList());
                 if (someValues.get(0) != null) {
@@ -254,23 +663,140 @@ public class ElasticsearchIndexing extends ElasticsearchIndexingConnector {
         }
     }
 
+    /**
+     * Updates a single resource of a connector. Only the document of the resource and its entry in the catalog of the connector document are written,
+     * with one bulk request and without reading anything from the index. If the catalog does not contain an entry for the resource yet, or the connector document
+     * does not exist, the connector document is updated in full instead
+     * @param reducedConnector The connector offering the resource, in its current form
+     * @param resource The resource in its current form
+     * @throws IOException if the documents could not be written
+     */
     @Override
     public void updateResource( Connector reducedConnector, Resource resource )
             throws IOException {
-        logger.info("Update indexing of " + reducedConnector.getId() + ".");
-        super.update(reducedConnector);
-        logger.info("Delete old resources from indexing of " + reducedConnector.getId() + ".");
-        deleteResourceFromIndex(reducedConnector.getId().toString(), resource.getId().toString());
-        logger.info("Add updated resources to indexing of " + reducedConnector.getId() + ".");
-        indexResource(reducedConnector, resource);
+        logger.info("Update indexing of resource " + resource.getId() + " of " + reducedConnector.getId() + ".");
+        recordChange(reducedConnector.getId());
+        ResourceDocument document = buildResourceDocument(resource, reducedConnector.getId());
+        if (!partialResourceUpdates) {
+            super.update(reducedConnector);
+            client.index(createResourceIndexRequest(document), RequestOptions.DEFAULT);
+            return;
+        }
+        BulkRequest request = new BulkRequest()
+                .add(createCatalogEntryUpdateRequest(reducedConnector.getId(), document))
+                .add(createResourceIndexRequest(document));
+        BulkResponse response = ElasticsearchClientFactory.bulk(client, request);
+        BulkItemResponse catalogResult = response.getItems()[0];
+        BulkItemResponse resourceResult = response.getItems()[1];
+        if (resourceResult.isFailed()) {
+            throw new IOException("Resource " + document.getId() + " could not be indexed: " + resourceResult.getFailureMessage());
+        }
+        if (catalogResult.isFailed() || catalogResult.getResponse().getResult() == DocWriteResponse.Result.NOOP) {
+            logger.info("Catalog of " + reducedConnector.getId() + " has no entry for " + document.getId() + " which could be patched"
+                    + (catalogResult.isFailed() ? " (" + catalogResult.getFailureMessage() + ")" : "") + ". Updating the connector in full.");
+            super.update(reducedConnector);
+        }
+    }
+
+    /**
+     * Creates the request which replaces the entry of a resource in the catalog of the connector document, without sending it.
+     * The update is a no-op if the catalog has no entry for the resource. Like any other write of the connector document, it resets the graph fingerprint
+     * @param connectorId The connector offering the resource
+     * @param document The serialized resource document, from which the catalog entry is taken
+     * @return Scripted update of the connector document
+     */
+    protected UpdateRequest createCatalogEntryUpdateRequest(URI connectorId, ResourceDocument document) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("resourceID", document.getId());
+        params.put("entry", XContentHelper.convertToMap(document.getCatalogEntry(), false, XContentType.JSON).v2());
+        params.put("fingerprintField", GRAPH_FINGERPRINT_FIELD);
+        return new UpdateRequest(INDEX_NAME, connectorId.toString())
+                .script(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, REPLACE_CATALOG_ENTRY_SCRIPT, params));
     }
 
+    /**
+     * Removes a single resource of a connector, see {@link #deleteResources(Connector, Collection)}
+     * @param reducedConnector The connector which offered the resource, in its current form
+     * @param resourceId The resource to be removed
+     * @throws IOException if the documents could not be written
+     */
     @Override
     public void deleteResource( Connector reducedConnector, URI resourceId )
             throws IOException {
-        logger.info("Start deletion of " + resourceId.toString() + " from resource Index.");
-        super.delete(resourceId);
-        logger.info("Start removing resource " + resourceId.toString() + " from the resource list of the connector " + reducedConnector.getId().toString());
-        super.update(reducedConnector);
+        deleteResources(reducedConnector, Collections.singletonList(resourceId));
+    }
+
+    /**
+     * Removes resources of a connector with one bulk request, without reading anything from the index.
+     * A resource document is only deleted if it belongs to the connector, which is checked by Elasticsearch when the document is deleted.
+     * The entries of the resources are removed from the catalog of the connector document
+     * @param reducedConnector The connector which offered the resources, in its current form
+     * @param resourceIds The resources to be removed
+     * @throws IOException if the documents could not be written
+     */
+    public void deleteResources(Connector reducedConnector, Collection<URI> resourceIds) throws IOException {
+        logger.info("Start deletion of " + resourceIds.size() + " resource(s) of " + reducedConnector.getId() + " from resource Index.");
+        recordChange(reducedConnector.getId());
+        if (resourceIds.isEmpty()) {
+            return;
+        }
+        BulkRequest request = new BulkRequest();
+        for (URI resourceId : resourceIds) {
+            request.add(createResourceDeleteRequest(reducedConnector.getId(), resourceId));
+        }
+        if (partialResourceUpdates) {
+            request.add(createCatalogEntriesRemovalRequest(reducedConnector.getId(), resourceIds));
+        }
+        BulkResponse response = ElasticsearchClientFactory.bulk(client, request);
+        int deleted = 0;
+        for (BulkItemResponse item : response.getItems()) {
+            //The items are in the order of the requests, the catalog update comes last
+            boolean resourceItem = item.getItemId() < resourceIds.size();
+            if (item.isFailed()) {
+                //A document which does not exist has nothing to delete or to remove from
+                if (item.getFailure().getStatus() != RestStatus.NOT_FOUND) {
+                    throw new IOException((resourceItem ? "Resource " : "Catalog of connector ") + item.getId() + " could not be updated: " + item.getFailureMessage());
+                }
+            }
+            else if (resourceItem) {
+                if (item.getResponse().getResult() == DocWriteResponse.Result.DELETED) {
+                    deleted++;
+                } else {
+                    logger.warn("Resource " + item.getId() + " does not belong to the connector " + reducedConnector.getId() + " and was not deleted.");
+                }
+            }
+        }
+        logger.info("Deleted " + deleted + " resources from Resource Index which belong to the connector " + reducedConnector.getId());
+        if (!partialResourceUpdates) {
+            logger.info("Start removing resources from the resource list of the connector " + reducedConnector.getId().toString());
+            super.update(reducedConnector);
+        }
+    }
+
+    /**
+     * Creates the request which deletes a resource document if it belongs to the given connector, without sending it
+     * @param connectorId The connector which offered the resource
+     * @param resourceId The resource to be deleted
+     * @return Scripted update, which deletes the document or leaves it untouched
+     */
+    protected UpdateRequest createResourceDeleteRequest(URI connectorId, URI resourceId) {
+        return new UpdateRequest(RESOURCE_INDEX, resourceId.toString())
+                .script(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, DELETE_IF_OWNED_SCRIPT,
+                        Collections.singletonMap("connectorID", connectorId.toString())));
+    }
+
+    /**
+     * Creates the request which removes the entries of resources from the catalog of the connector document, without sending it.
+     * Like any other write of the connector document, it resets the graph fingerprint, unless no entry was found
+     * @param connectorId The connector which offered the resources
+     * @param resourceIds The resources whose entries should be removed
+     * @return Scripted update of the connector document
+     */
+    protected UpdateRequest createCatalogEntriesRemovalRequest(URI connectorId, Collection<URI> resourceIds) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("resourceIDs", resourceIds.stream().map(URI::toString).collect(Collectors.toList()));
+        params.put("fingerprintField", GRAPH_FINGERPRINT_FIELD);
+        return new UpdateRequest(INDEX_NAME, connectorId.toString())
+                .script(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, REMOVE_CATALOG_ENTRIES_SCRIPT, params));
     }
 }
@@ -3,12 +3,10 @@ package de.fraunhofer.iais.eis.ids.index.common.persistence;
 import de.fraunhofer.iais.eis.*;
 import de.fraunhofer.iais.eis.ids.index.common.persistence.spi.Indexing;
 import de.fraunhofer.iais.eis.util.TypedLiteral;
-import org.apache.http.HttpHost;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.RequestOptions;
-import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
@@ -16,9 +14,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.math.BigInteger;
 import java.net.URI;
 import java.util.Iterator;
+import java.util.List;
 import java.util.stream.Collectors;
 
 /**
@@ -30,23 +28,114 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
 
     public static final String INDEX_NAME = "registrations";
     public static final String RESOURCE_INDEX_NAME = "resources";
+    //Written by the IndexReconciler. Every other write of a connector document resets the fingerprint, so that the reconciler checks the connector again
+    static final String GRAPH_FINGERPRINT_FIELD = "graphFingerprint";
+    static final String RESOURCE_COUNT_FIELD = "resourceCount";
 
     protected final RestHighLevelClient client;
     protected static final FieldBuilderWrapper fbw = new FieldBuilderWrapper();
 
+    //Flat fields of the infomodel classes, in the order in which they appear in the documents. See FieldPlan
+    private static final FieldPlan<Resource> RESOURCE_FIELDS = FieldPlan.<Resource>builder()
+            .literals("title", Resource::getTitle)
+            .literals("description", Resource::getDescription)
+            .literals("keyword", Resource::getKeyword)
+            .string("sample", resource -> resource.getSample() == null || resource.getSample().isEmpty() ? null : resource.getSample().get(0).getId())
+            .labels("language", Resource::getLanguage, Language::getId, Language::getLabel)
+            .labels("labelLanguage", Resource::getLanguage, Language::getId, Language::getLabel)
+            .string("customLicense", Resource::getCustomLicense)
+            .string("standardLicense", Resource::getStandardLicense)
+            .value("version", Resource::getVersion)
+            //contentType is potentially legacy. The two below are used for FhG Digital
+            .vocabulary("contentType", Resource::getContentType, ContentType::getId, ContentType::getLabel)
+            .string("contentTypeSerialized", resource -> resource.getContentType() == null ? null : resource.getContentType().getId())
+            .vocabulary("contentTypeLabel", Resource::getContentType, ContentType::getId, ContentType::getLabel)
+            .string("contentStandard", Resource::getContentStandard)
+            .build();
+    private static final FieldPlan<Resource> CATALOG_ENTRY_FIELDS = FieldPlan.<Resource>builder()
+            .string("resourceID", Resource::getId)
+            .literals("title", Resource::getTitle)
+            .literals("description", Resource::getDescription)
+            .literals("keyword", Resource::getKeyword)
+            .string("publisherAsUri", Resource::getPublisherAsUri)
+            .build();
+    private static final FieldPlan<Endpoint> ENDPOINT_FIELDS = FieldPlan.<Endpoint>builder()
+            .value("Path", Endpoint::getPath)
+            .value("inboundPath", Endpoint::getInboundPath)
+            .value("outboundPath", Endpoint::getOutboundPath)
+            .string("endpointDocumentation", Endpoint::getEndpointDocumentation)
+            .nonEmptyValue("endpointInformation", Endpoint::getEndpointInformation)
+            .string("endpointAccessUrl", Endpoint::getAccessURL)
+            .build();
+    private static final FieldPlan<Artifact> ARTIFACT_FIELDS = FieldPlan.<Artifact>builder()
+            .value("bytesize", artifact -> artifact.getByteSize() == null || artifact.getByteSize().signum() == 0 ? null : artifact.getByteSize())
+            .value("filename", Artifact::getFileName)
+            .time("creation", Artifact::getCreationDate)
+            .build();
+    private static final FieldPlan<Representation> REPRESENTATION_FIELDS = FieldPlan.<Representation>builder()
+            .string("id", Representation::getId)
+            .string("representationStandard", Representation::getRepresentationStandard)
+            .build();
+    private static final FieldPlan<MediaType> MEDIA_TYPE_FIELDS = FieldPlan.<MediaType>builder()
+            .string("mediatype", MediaType::getId)
+            .vocabulary("labelMediatype", mediaType -> mediaType, MediaType::getId, MediaType::getLabel)
+            .value("filenameExtensionMediatype", MediaType::getFilenameExtension)
+            .build();
+    private static final FieldPlan<Contract> CONTRACT_FIELDS = FieldPlan.<Contract>builder()
+            .string("contractConsumer", Contract::getConsumer)
+            .string("contractProvider", Contract::getProvider)
+            .time("contractStart", Contract::getContractStart)
+            .time("contractEnd", Contract::getContractEnd)
+            .time("contractDate", Contract::getContractDate)
+            .build();
+    private static final FieldPlan<Contract> CONTRACT_ANNEX_FIELDS = FieldPlan.<Contract>builder()
+            .literals("annexTitle", contract -> contract.getContractAnnex().getTitle())
+            .build();
+    private static final FieldPlan<Contract> CONTRACT_DOCUMENT_FIELDS = FieldPlan.<Contract>builder()
+            .literals("docTitle", contract -> contract.getContractDocument().getTitle())
+            .literals("docDesc", contract -> contract.getContractDocument().getDescription())
+            .build();
+    private static final FieldPlan<Duty> DUTY_FIELDS = FieldPlan.<Duty>builder()
+            .literals("dutyTitle", Duty::getTitle)
+            .literals("dutyDesc", Duty::getDescription)
+            .labels("dutyAction", Duty::getAction, Action::getId, Action::getLabel)
+            .build();
+    private static final FieldPlan<Duty> DUTY_PARTY_FIELDS = FieldPlan.<Duty>builder()
+            .uris("dutyAssignee", Duty::getAssignee)
+            .uris("dutyAssigner", Duty::getAssigner)
+            .build();
+    private static final FieldPlan<Permission> PERMISSION_FIELDS = FieldPlan.<Permission>builder()
+            .literals("permissionTitle", Permission::getTitle)
+            .literals("permissionDesc", Permission::getDescription)
+            .labels("permissionAction", Permission::getAction, Action::getId, Action::getLabel)
+            .build();
+    private static final FieldPlan<Permission> PERMISSION_PARTY_FIELDS = FieldPlan.<Permission>builder()
+            .uris("permissionAssignee", Permission::getAssignee)
+            .uris("permissionAssigner", Permission::getAssigner)
+            .build();
+    private static final FieldPlan<Prohibition> PROHIBITION_FIELDS = FieldPlan.<Prohibition>builder()
+            .literals("prohibitionTitle", Prohibition::getTitle)
+            .literals("prohibitionDesc", Prohibition::getDescription)
+            .labels("prohibitionAction", Prohibition::getAction, Action::getId, Action::getLabel)
+            .build();
+    private static final FieldPlan<Prohibition> PROHIBITION_PARTY_FIELDS = FieldPlan.<Prohibition>builder()
+            .uris("prohibitionAssignee", Prohibition::getAssignee)
+            .uris("prohibitionAssigner", Prohibition::getAssigner)
+            .build();
+    private static final FieldPlan<Constraint> CONSTRAINT_FIELDS = FieldPlan.<Constraint>builder()
+            .vocabulary("leftOperand", Constraint::getLeftOperand, LeftOperand::getId, LeftOperand::getLabel)
+            .vocabulary("operator", Constraint::getOperator, BinaryOperator::getId, BinaryOperator::getLabel)
+            .value("rightOperand", constraint -> constraint.getRightOperand() == null ? null : constraint.getRightOperand().getValue())
+            .build();
+
     public static String elasticsearchHostname = "localhost"; //default value, to be overwritten by application properties or docker-compose config
     public static int elasticsearchPort = 9200; //Also default value
 
-    private RestHighLevelClient getElasticsearchClient() {
-        return new RestHighLevelClient(
-                RestClient.builder(new HttpHost(elasticsearchHostname, elasticsearchPort, "http")));
-    }
-
     /**
      * Constructor
      */
     public ElasticsearchIndexingConnector() {
-        this.client = getElasticsearchClient();
+        this.client = ElasticsearchClientFactory.getClient();
     }
 
 
@@ -62,10 +151,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
      */
     @Override
     public void add(InfrastructureComponent infrastructureComponent) throws IOException {
-        IndexRequest request = new IndexRequest(INDEX_NAME)
-                .id(infrastructureComponent.getId().toString())
-                .source(getXContentBuilderForInfrastructureComponent(infrastructureComponent));
-        client.index(request, RequestOptions.DEFAULT);
+        client.index(createIndexRequest(infrastructureComponent), RequestOptions.DEFAULT);
     }
 
     /**
@@ -75,9 +161,52 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
      */
     @Override
     public void update(InfrastructureComponent infrastructureComponent) throws IOException {
-        UpdateRequest updateRequest = new UpdateRequest(INDEX_NAME,  infrastructureComponent.getId().toString())
-                .doc(getXContentBuilderForInfrastructureComponent(infrastructureComponent));
-        client.update(updateRequest, RequestOptions.DEFAULT);
+        client.update(createUpdateRequest(infrastructureComponent), RequestOptions.DEFAULT);
+    }
+
+    /**
+     * Creates the request which adds an infrastructure component to the registrations index, without sending it
+     * @param infrastructureComponent The infrastructure component to be indexed
+     * @return Index request for the registrations index
+     * @throws IOException thrown if some required values could not be extracted
+     */
+    protected IndexRequest createIndexRequest(InfrastructureComponent infrastructureComponent) throws IOException {
+        return createIndexRequest(infrastructureComponent, IndexingContext.of(infrastructureComponent.getId()));
+    }
+
+    /**
+     * Creates the request which adds an infrastructure component to the registrations index, without sending it
+     * @param infrastructureComponent The infrastructure component to be indexed
+     * @param context State of the current indexing call, e.g. the catalog entries of the resource documents built in it
+     * @return Index request for the registrations index
+     * @throws IOException thrown if some required values could not be extracted
+     */
+    protected IndexRequest createIndexRequest(InfrastructureComponent infrastructureComponent, IndexingContext context) throws IOException {
+        return new IndexRequest(INDEX_NAME)
+                .id(infrastructureComponent.getId().toString())
+                .source(getXContentBuilderForInfrastructureComponent(infrastructureComponent, context));
+    }
+
+    /**
+     * Creates the request which updates an already indexed infrastructure component, without sending it
+     * @param infrastructureComponent The infrastructure component in its current form
+     * @return Update request for the registrations index
+     * @throws IOException thrown if some required values could not be extracted
+     */
+    protected UpdateRequest createUpdateRequest(InfrastructureComponent infrastructureComponent) throws IOException {
+        return createUpdateRequest(infrastructureComponent, IndexingContext.of(infrastructureComponent.getId()));
+    }
+
+    /**
+     * Creates the request which updates an already indexed infrastructure component, without sending it
+     * @param infrastructureComponent The infrastructure component in its current form
+     * @param context State of the current indexing call, e.g. the catalog entries of the resource documents built in it
+     * @return Update request for the registrations index
+     * @throws IOException thrown if some required values could not be extracted
+     */
+    protected UpdateRequest createUpdateRequest(InfrastructureComponent infrastructureComponent, IndexingContext context) throws IOException {
+        return new UpdateRequest(INDEX_NAME,  infrastructureComponent.getId().toString())
+                .doc(getXContentBuilderForInfrastructureComponent(infrastructureComponent, context));
     }
 
     @Override
@@ -130,7 +259,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
      * @return Prettified list of security guarantees
      */
     // PNL-TODO!!!
-    protected java.util.List<String> createSecurityProfileNames(SecurityProfile securityProfile) {
+    protected List<String> createSecurityProfileNames(SecurityProfile securityProfile) {
         //prevent exception (either UnsupportedOperationException or NullPointerException)
         try {
             securityProfile.getSecurityGuarantee();
@@ -157,11 +286,22 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
      * @throws IOException thrown if some required values could not be extracted
      */
     protected void handleResource(Resource resource, XContentBuilder builder, URI connectorId) throws IOException {
+        handleResource(resource, builder, IndexingContext.of(connectorId));
+    }
+
+    /**
+     * Function to add a resource to an existing XContentBuilder
+     * @param resource The resource object which should be attached to the ContentBuilder
+     * @param builder An existing XContentBuilder with an open array to which a resource should be attached
+     * @param context State of the current indexing call, which holds the connector id to be embedded for every resource
+     * @throws IOException thrown if some required values could not be extracted
+     */
+    protected void handleResource(Resource resource, XContentBuilder builder, IndexingContext context) throws IOException {
         //Root object of resource is created by calling method
         //builder.startObject();
 
         //Handle some basic fields first, such as ID, title, description, language, license, version, and more
-        handleResourceBasicFields(resource, builder, connectorId);
+        handleResourceBasicFields(resource, builder, context.getConnectorId());
 
         //More complex: Temporal / Spatial coverage of resources
         handleResourceCoverage(resource, builder);
@@ -199,7 +339,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
         }
 
         //Custom fields for child classes
-        handleResourceCustomFields(resource, builder, connectorId);
+        handleResourceCustomFields(resource, builder, context);
 
     }
 
@@ -207,8 +347,9 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
      * This function can be overridden by custom implementations to append additional fields to a resource without overriding the entire handleResource function
      * @param resource Resource to be indexed
      * @param builder Builder to which resource custom fields should be added
+     * @param context State of the current indexing call
      */
-    protected void handleResourceCustomFields(Resource resource, XContentBuilder builder, URI connectorId) throws IOException {
+    protected void handleResourceCustomFields(Resource resource, XContentBuilder builder, IndexingContext context) throws IOException {
         //Do nothing here. Only child classes should do something here
 
     }
@@ -220,55 +361,9 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
      */
     protected void handleResourceBasicFields(Resource resource, XContentBuilder builder, URI connectorId) throws IOException {
 
-        fbw.x(() -> builder.field("resourceID", resource.getId().toString()), "resourceID");
-        fbw.x(() -> builder.field("connectorID", connectorId.toString()), "connectorID");
-        if(resource.getTitle() != null)
-//        fbw.x(() -> buildTypedLiterals(builder, "title", resource.getTitle()), "title");
-            fbw.x(() -> builder.field("title", resource.getTitle().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "title");
-
-        if(resource.getDescription() != null)
-//        fbw.x(() -> buildTypedLiterals(builder, "description", resource.getDescription()), "description");
-            fbw.x(() -> builder.field("description", resource.getDescription().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "description");
-
-        if(resource.getKeyword() != null)
-            fbw.x(() -> builder.field("keyword", resource.getKeyword().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "keywords");
-
-/*
-        if(resource.getPaymentModality() != null)
-            fbw.x(() -> builder.field("paymentModality", resource.getPaymentModality().toString()), "paymentModality");
-*/
-
-        if(resource.getSample() != null)
-            if(!resource.getSample().isEmpty())
-            fbw.x(() -> builder.field("sample", resource.getSample().get(0).getId().toString()), "sample");
-
-
-
-        //fbw.x(() -> builder.field("originalID", getOriginalId(resource)), "originalID");
-
-        if(resource.getLanguage() != null) {
-            fbw.x(() -> builder.field("language", resource.getLanguage().stream().map(lang -> lang.getLabel().stream().map(TypedLiteral::getValue).collect(Collectors.toList())).collect(Collectors.toList())), "languages");
-            fbw.x(() -> builder.field("labelLanguage", resource.getLanguage().stream().map(lang -> lang.getLabel().stream().map(TypedLiteral::getValue).collect(Collectors.toList())).collect(Collectors.toList())), "labelLanguage");
-        }
-
-        if(resource.getCustomLicense() != null) {
-            fbw.x(() -> builder.field("customLicense", resource.getCustomLicense().toString()), "custom license");
-        }
-
-        if(resource.getStandardLicense() != null)
-            fbw.x(() -> builder.field("standardLicense", resource.getStandardLicense().toString()), "standard license");
-        //fbw.x(() -> builder.field("labelStandardLicense", resource.getStandardLicense().getLabel().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "labelStandardLicense");
-
-        if(resource.getVersion() != null)
-            fbw.x(() -> builder.field("version", resource.getVersion()), "version");
-
-        if(resource.getContentType() != null) {
-            fbw.x(() -> builder.field("contentType", resource.getContentType().getLabel().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "contentType"); //Potentially legacy. The two below are used for FhG Digital
-            fbw.x(() -> builder.field("contentTypeSerialized", resource.getContentType().getId().toString()), "contentTypeSerialized");
-            fbw.x(() -> builder.field("contentTypeLabel", resource.getContentType().getLabel().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "contentTypeLabel");
-        }
-        if(resource.getContentStandard() != null)
-            fbw.x(() -> builder.field("contentStandard", resource.getContentStandard().toString()), "contentStandard");
+        fbw.string(builder, "resourceID", resource.getId());
+        fbw.string(builder, "connectorID", connectorId);
+        RESOURCE_FIELDS.write(resource, builder, fbw);
 
         if(resource.getPublisherAsObject() != null) {
             builder.startObject("publisherAsObject");
@@ -279,7 +374,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
             }
             builder.endObject();
         } else if (resource.getPublisherAsUri() != null) {
-            fbw.x(() -> builder.field("publisherAsUri", resource.getPublisherAsUri().toString()), "publisherAsUri");
+            fbw.string(builder, "publisherAsUri", resource.getPublisherAsUri());
         }
     }
 
@@ -384,18 +479,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
 
 
         builder.field("id", endpoint.getId().toString());
-        if(endpoint.getPath() != null)
-            fbw.x(() -> builder.field("Path", endpoint.getPath()), "Path");
-        if(endpoint.getInboundPath() != null)
-            fbw.x(() -> builder.field("inboundPath", endpoint.getInboundPath()), "inboundPath");
-        if(endpoint.getOutboundPath() != null)
-            fbw.x(() -> builder.field("outboundPath", endpoint.getOutboundPath()), "outboundPath");
-        if(endpoint.getEndpointDocumentation() != null)
-            fbw.x(() -> builder.field("endpointDocumentation", endpoint.getEndpointDocumentation().toString()), "endpointDocumentation");
-        if(endpoint.getEndpointInformation() != null && endpoint.getEndpointInformation().size() > 0)
-            fbw.x(() -> builder.field("endpointInformation", endpoint.getEndpointInformation()), "endpointInformation");
-        if(endpoint.getAccessURL() != null)
-            fbw.x(() -> builder.field("endpointAccessUrl", endpoint.getAccessURL().toString()), "endpointAccessUrl");
+        ENDPOINT_FIELDS.write(endpoint, builder, fbw);
     }
 
     /**
@@ -405,12 +489,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
      */
     protected void handleConnectorEndpointArtifact(Artifact artifact, XContentBuilder builder) throws IOException {
         builder.field("id", artifact.getId().toString());
-        if(artifact.getByteSize() != null && !artifact.getByteSize().equals(new BigInteger("0")))
-            fbw.x(() -> builder.field("bytesize", artifact.getByteSize()), "bytesize");
-        if(artifact.getFileName() != null)
-            fbw.x(() -> builder.field("filename", artifact.getFileName()), "filename");
-        if(artifact.getCreationDate() != null)
-            fbw.x(() -> builder.timeField("creation", artifact.getCreationDate().toGregorianCalendar().getTime()), "creation");
+        ARTIFACT_FIELDS.write(artifact, builder, fbw);
     }
 
     /**
@@ -443,12 +522,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
      * @param builder Builder to which flat fields of resource should be added
      */
     protected void handleRepresentationBasicFields(Representation representation, XContentBuilder builder) throws IOException {
-
-        if(representation.getId() != null)
-            builder.field("id", representation.getId().toString());
-        if(representation.getRepresentationStandard() != null)
-            fbw.x(() -> builder.field("representationStandard", representation.getRepresentationStandard().toString()), "representationStandard");
-
+        REPRESENTATION_FIELDS.write(representation, builder, fbw);
     }
 
     /**
@@ -458,11 +532,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
      */
     protected void handleRepresentationMediaType(MediaType mediaType, XContentBuilder builder)
     {
-            fbw.x(() -> builder.field("mediatype", mediaType.getId().toString()), "mediatype");
-            fbw.x(() -> builder.field("labelMediatype", mediaType.getLabel().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "labelMediatype");
-            if(mediaType.getFilenameExtension() != null) {
-                fbw.x(() -> builder.field("filenameExtensionMediatype", mediaType.getFilenameExtension()), "labelMediatype");
-            }
+        MEDIA_TYPE_FIELDS.write(mediaType, builder, fbw);
     }
 
     /**
@@ -475,12 +545,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
 
         //fbw.x(() -> builder.field("originalID", getOriginalId(artifact)), "originalID");
 
-        if(artifact.getByteSize() != null && !artifact.getByteSize().equals(new BigInteger("0")))
-            fbw.x(() -> builder.field("bytesize", artifact.getByteSize()), "bytesize");
-        if(artifact.getFileName() != null)
-            fbw.x(() -> builder.field("filename", artifact.getFileName()), "filename");
-        if(artifact.getCreationDate() != null)
-            fbw.x(() -> builder.timeField("creation", artifact.getCreationDate().toGregorianCalendar().getTime()), "creation");
+        ARTIFACT_FIELDS.write(artifact, builder, fbw);
     }
 
     /**
@@ -490,16 +555,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
      */
     protected void handleResourceContractBasicFields(Contract contract, XContentBuilder builder) throws IOException {
         builder.field("id", contract.getId().toString());
-        if(contract.getConsumer() != null)
-            fbw.x(() -> builder.field("contractConsumer", contract.getConsumer().toString()), "contractConsumer");
-        if(contract.getProvider() != null)
-            fbw.x(() -> builder.field("contractProvider", contract.getProvider().toString()), "contractProvider");
-        if(contract.getContractStart() != null)
-            fbw.x(() -> builder.timeField("contractStart", contract.getContractStart().toGregorianCalendar().getTime()), "contractStart");
-        if(contract.getContractEnd() != null)
-            fbw.x(() -> builder.timeField("contractEnd", contract.getContractEnd().toGregorianCalendar().getTime()), "contractEnd");
-        if(contract.getContractDate() != null)
-            fbw.x(() -> builder.timeField("contractDate", contract.getContractDate().toGregorianCalendar().getTime()), "contractDate");
+        CONTRACT_FIELDS.write(contract, builder, fbw);
 
     }
 
@@ -510,8 +566,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
      */
     protected void handleResourceContractAnnex(Contract contract, XContentBuilder builder)
     {
-        if(contract.getContractAnnex().getTitle() != null)
-            fbw.x(() -> builder.field("annexTitle", contract.getContractAnnex().getTitle().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "annexTitle");
+        CONTRACT_ANNEX_FIELDS.write(contract, builder, fbw);
     }
 
 
@@ -523,10 +578,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
     protected void handleResourceContractDocument(Contract contract, XContentBuilder builder) throws IOException {
         if(contract.getContractDocument().getId() != null)
             builder.field("id", contract.getContractDocument().getId().toString());
-        if(contract.getContractDocument().getTitle() != null)
-            fbw.x(() -> builder.field("docTitle", contract.getContractDocument().getTitle().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "docTitle");
-        if(contract.getContractDocument().getDescription() != null)
-            fbw.x(() -> builder.field("docDesc", contract.getContractDocument().getDescription().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "docDesc");
+        CONTRACT_DOCUMENT_FIELDS.write(contract, builder, fbw);
 
     }
 
@@ -538,12 +590,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
     protected void handleResourceContractPermissionDuty(Duty duty, XContentBuilder builder) throws IOException {
         handleResourceContractDutyBasicFields(duty, builder);
 
-        if(duty.getAssignee() != null) {
-            fbw.x(() -> builder.field("dutyAssignee", duty.getAssignee().stream().map(URI::toString).collect(Collectors.toList())), "dutyAssignee");
-        }
-        if(duty.getAssigner() != null) {
-            fbw.x(() -> builder.field("dutyAssigner", duty.getAssigner().stream().map(URI::toString).collect(Collectors.toList())), "dutyAssigner");
-        }
+        DUTY_PARTY_FIELDS.write(duty, builder, fbw);
         if(duty.getConstraint() != null) {
             builder.startArray("dutyConstraint");
             for (AbstractConstraint c : duty.getConstraint()) {
@@ -563,12 +610,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
      */
     static void handleAbstractConstraint(AbstractConstraint constraint, XContentBuilder builder) throws IOException {
         if (constraint instanceof Constraint) {
-            if (((Constraint) constraint).getLeftOperand() != null)
-                fbw.x(() -> builder.field("leftOperand", ((Constraint) constraint).getLeftOperand().getLabel().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "leftOperand");
-            if (((Constraint) constraint).getOperator() != null)
-                fbw.x(() -> builder.field("operator", ((Constraint) constraint).getOperator().getLabel().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "operator");
-            if (((Constraint) constraint).getRightOperand() != null)
-                fbw.x(() -> builder.field("rightOperand", ((Constraint) constraint).getRightOperand().getValue()), "rightOperand");
+            CONSTRAINT_FIELDS.write((Constraint) constraint, builder, fbw);
         }
         else if(constraint instanceof LogicalConstraint)
         {
@@ -580,6 +622,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
                     handleAbstractConstraint(c, builder);
                     builder.endObject();
                 }
+                builder.endArray();
             }
             if(((LogicalConstraint) constraint).getOr() != null)
             {
@@ -589,6 +632,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
                     handleAbstractConstraint(c, builder);
                     builder.endObject();
                 }
+                builder.endArray();
             }
             if(((LogicalConstraint) constraint).getXone() != null)
             {
@@ -598,6 +642,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
                     handleAbstractConstraint(c, builder);
                     builder.endObject();
                 }
+                builder.endArray();
             }
         }
         else
@@ -613,12 +658,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
      */
     protected void handleResourceContractDutyBasicFields(Duty duty, XContentBuilder builder) throws IOException {
         builder.field("id", duty.getId().toString());
-        if(duty.getTitle() != null)
-            fbw.x(() -> builder.field("dutyTitle", duty.getTitle().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "dutyTitle");
-        if(duty.getDescription() != null)
-            fbw.x(() -> builder.field("dutyDesc", duty.getDescription().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "dutyDesc");
-        if(duty.getAction() != null)
-            fbw.x(() -> builder.field("dutyAction", duty.getAction().stream().map(action-> action.getLabel().stream().map(TypedLiteral::getValue).collect(Collectors.toList())).collect(Collectors.toList())), "dutyAction");
+        DUTY_FIELDS.write(duty, builder, fbw);
 
     }
 
@@ -630,12 +670,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
     protected void handleResourceContractPermission(Permission permission, XContentBuilder builder) throws IOException {
         handleResourceContractPermissionBasicFields(permission, builder);
 
-        if(permission.getAssignee() != null) {
-            fbw.x(() -> builder.field("permissionAssignee", permission.getAssigner().stream().map(URI::toString).collect(Collectors.toList())), "permissionAssignee");
-        }
-        if(permission.getAssigner() != null) {
-            fbw.x(() -> builder.field("permissionAssigner", permission.getAssigner().stream().map(URI::toString).collect(Collectors.toList())), "permissionAssigner");
-        }
+        PERMISSION_PARTY_FIELDS.write(permission, builder, fbw);
 
         if(permission.getConstraint() != null) {
             builder.startArray("permissionConstraint");
@@ -679,12 +714,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
      */
     protected void handleResourceContractPermissionBasicFields(Permission permission, XContentBuilder builder) throws IOException {
         builder.field("id", permission.getId().toString());
-        if(permission.getTitle() != null)
-            fbw.x(() -> builder.field("permissionTitle", permission.getTitle().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "permissionTitle");
-        if(permission.getDescription() != null)
-            fbw.x(() -> builder.field("permissionDesc", permission.getDescription().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "permissionDesc");
-        if(permission.getAction() != null)
-            fbw.x(() -> builder.field("permissionAction", permission.getAction().stream().map(action-> action.getLabel().stream().map(TypedLiteral::getValue).collect(Collectors.toList())).collect(Collectors.toList())), "permissionAction");
+        PERMISSION_FIELDS.write(permission, builder, fbw);
 
     }
 
@@ -705,13 +735,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
             }
             builder.endArray();
         }
-        if(prohibition.getAssignee() != null) {
-            fbw.x(() -> builder.field("prohibitionAssignee", prohibition.getAssignee().stream().map(URI::toString).collect(Collectors.toList())), "prohibitionAssignee");
-        }
-
-        if(prohibition.getAssigner() != null) {
-            fbw.x(() -> builder.field("prohibitionAssigner", prohibition.getAssignee().stream().map(URI::toString).collect(Collectors.toList())), "prohibitionAssigner");
-        }
+        PROHIBITION_PARTY_FIELDS.write(prohibition, builder, fbw);
 
         //TODO: more fields to build?
     }
@@ -723,12 +747,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
      */
     protected void handleResourceContractProhibitionBasicFields(Prohibition prohibition, XContentBuilder builder) throws IOException {
         builder.field("id", prohibition.getId().toString());
-        if(prohibition.getTitle() != null)
-            fbw.x(() -> builder.field("prohibitionTitle", prohibition.getTitle().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "prohibitionTitle");
-        if(prohibition.getDescription() != null)
-            fbw.x(() -> builder.field("prohibitionDesc", prohibition.getDescription().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "prohibitionDesc");
-        if(prohibition.getAction() != null)
-            fbw.x(() -> builder.field("prohibitionAction", prohibition.getAction().stream().map(action-> action.getLabel().stream().map(TypedLiteral::getValue).collect(Collectors.toList())).collect(Collectors.toList())), "prohibitionAction");
+        PROHIBITION_FIELDS.write(prohibition, builder, fbw);
     }
 
     /**
@@ -782,6 +801,17 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
      * @throws IOException thrown if some required values could not be extracted
      */
     protected XContentBuilder getXContentBuilderForInfrastructureComponent(InfrastructureComponent infrastructureComponent) throws IOException {
+        return getXContentBuilderForInfrastructureComponent(infrastructureComponent, IndexingContext.of(infrastructureComponent.getId()));
+    }
+
+    /**
+     * Function to create an XContentBuilder describing an infrastructure component
+     * @param infrastructureComponent The infrastructure component which should be described by the ContentBuilder
+     * @param context State of the current indexing call, e.g. the catalog entries of the resource documents built in it
+     * @return Returns an XContentBuilder describing the passed infrastructure component
+     * @throws IOException thrown if some required values could not be extracted
+     */
+    protected XContentBuilder getXContentBuilderForInfrastructureComponent(InfrastructureComponent infrastructureComponent, IndexingContext context) throws IOException {
         XContentBuilder builder = XContentFactory.jsonBuilder();
 
         //Create root object
@@ -803,12 +833,13 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
                 builder.startArray("catalog");
                 for (ResourceCatalog catalog : ((Connector) infrastructureComponent).getResourceCatalog()) {
                     builder.startObject();
-                    handleConnectorCatalog(catalog, builder, infrastructureComponent.getId());
+                    handleConnectorCatalog(catalog, builder, context);
                     builder.endObject();
                 }
                 builder.endArray();
             }
         }
+        builder.nullField(GRAPH_FINGERPRINT_FIELD);
         //Close root object
         builder.endObject();
 
@@ -868,7 +899,7 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
     }
 
     /**
-     * Handles the security profile object of a connector
+     * Handles the security profile object of a connector. The names of a security profile of the IDS vocabulary are derived once and then cached, see {@link VocabularyLabels}
      * @param infrastructureComponent Connector to be indexed
      * @param builder Builder to which security profile should be added
      */
@@ -876,12 +907,13 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
     {
 
         if (infrastructureComponent instanceof Connector && ((Connector) infrastructureComponent).getSecurityProfile() != null) {
-            if(createSecurityProfileNames(((Connector) infrastructureComponent).getSecurityProfile()) == null)
-            {
-                fbw.x(() -> builder.field("securityProfile", ((Connector) infrastructureComponent).getSecurityProfile().getLabel().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "securityProfile");
-            }
-            else {
-                fbw.x(() -> builder.field("securityProfile", createSecurityProfileNames(((Connector) infrastructureComponent).getSecurityProfile())), "securityProfile");
+            //Falls back to the labels of the profile if its guarantees are not available
+            List<String> names = VocabularyLabels.securityProfileNames(((Connector) infrastructureComponent).getSecurityProfile(), SecurityProfile::getId, profile -> {
+                List<String> guaranteeNames = createSecurityProfileNames(profile);
+                return guaranteeNames != null ? guaranteeNames : VocabularyLabels.of(profile, SecurityProfile::getId, SecurityProfile::getLabel);
+            });
+            if (names != null) {
+                fbw.x(() -> builder.field("securityProfile", names), "securityProfile");
             }
         }
     }
@@ -916,36 +948,32 @@ public class ElasticsearchIndexingConnector implements Indexing<InfrastructureCo
     }
 
     //Possible TODO: We only handle offers. In case that we want to handle requests as well, we should take care of that here
-    protected void handleConnectorCatalog(ResourceCatalog catalog, XContentBuilder builder, URI connectorId) throws IOException {
+    protected void handleConnectorCatalog(ResourceCatalog catalog, XContentBuilder builder, IndexingContext context) throws IOException {
         if(catalog.getOfferedResourceAsObject() != null) {
             builder.startArray("resources");
             for (Resource resource : catalog.getOfferedResourceAsObject()) {
                 builder.startObject();
-                fbw.x(() -> builder.field("resourceID", resource.getId().toString()), "resourceID");
-
-                if(resource.getTitle() != null)
-                    fbw.x(() -> builder.field("title", resource.getTitle().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "title");
-
-                if(resource.getDescription() != null)
-                    fbw.x(() -> builder.field("description", resource.getDescription().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "description");
-
-                if(resource.getKeyword() != null)
-                    fbw.x(() -> builder.field("keyword", resource.getKeyword().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "keywords");
-
-                if(resource.getPublisherAsUri() != null)
-                fbw.x(() -> builder.field("publisherAsUri", resource.getPublisherAsUri().toString()), "publisherAsUri");
-
+                handleCatalogEntry(resource, builder);
                 builder.endObject();
             }
             for (URI resourceUri : catalog.getOfferedResourceAsUri()) {
                 builder.startObject();
-                fbw.x(() -> builder.field("resourceID", resourceUri.toString()), "resourceID");
+                fbw.string(builder, "resourceID", resourceUri);
                 builder.endObject();
             }
             builder.endArray();
         }
     }
 
+    /**
+     * Adds the abbreviated form of a resource, which is embedded in the catalog of the connector document
+     * @param resource Resource offered by the connector
+     * @param builder Builder to which the fields of the catalog entry should be added
+     */
+    protected void handleCatalogEntry(Resource resource, XContentBuilder builder) {
+        CATALOG_ENTRY_FIELDS.write(resource, builder, fbw);
+    }
+
     public String getOriginalId(Resource resource) {
 
         Iterator<String> iter = resource.getProperties().keySet().iterator();
@@ -1,30 +1,18 @@
 package de.fraunhofer.iais.eis.ids.index.common.persistence;
 
 import de.fraunhofer.iais.eis.*;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.mds.MdsOntology;
 import org.apache.jena.query.QuerySolution;
-import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.RDFNode;
-import org.apache.jena.rdf.model.Statement;
-import org.apache.jena.riot.Lang;
-import org.apache.jena.riot.RDFDataMgr;
-import org.apache.jena.vocabulary.OWL;
-import org.apache.jena.vocabulary.RDFS;
-import org.elasticsearch.action.delete.DeleteRequest;
-import org.elasticsearch.action.index.IndexRequest;
-import org.elasticsearch.action.search.SearchRequest;
-import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.common.xcontent.XContentBuilder;
-import org.elasticsearch.common.xcontent.XContentFactory;
-import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.search.SearchHit;
-import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -32,7 +20,11 @@ public class ElasticsearchIndexingMobiDS extends ElasticsearchIndexing {
 
     final private Logger logger = LoggerFactory.getLogger(ElasticsearchIndexing.class);
     public static final String RESOURCE_INDEX = "resources"; // previously: "mdmresources"; see also the recreation of the index at Broker-Paris-Core-Container --> metadata-brkoer-core --> SelfDescriptionPersistenceAndIndexing.refreshIndex() where the hard-coded index names are used!
-    final private Map<String, String> mdsUriToLabelMap = new HashMap<>();
+    public static String mdsOntologyPath = ""; //Turtle file overriding the bundled MDS ontology. Empty to use the bundled one
+    public static long mdsOntologyCheckIntervalMillis = 60000; //How often the configured ontology file is checked for changes. 0 disables reloading
+
+    private static volatile MdsOntology ontology;
+    private static volatile long lastOntologyCheck;
 
     /**
      * Constructor
@@ -40,129 +32,82 @@ public class ElasticsearchIndexingMobiDS extends ElasticsearchIndexing {
      */
     public ElasticsearchIndexingMobiDS() {
         super();
-        createMdsIdToLabelMap();
-    }
-
-    private static String getOntologyQuery(URI connectorId, String resourceId, String domainAttr) {
-        return  "PREFIX ids: <https://w3id.org/idsa/core/> \n " +
-                "PREFIX mds: <http://w3id.org/mds#>  \n" +
-                "SELECT (GROUP_CONCAT(DISTINCT ?value;SEPARATOR=\", \") AS ?values) WHERE {\n" +
-                "  GRAPH <" + connectorId + "> {" +
-                "  <"+resourceId+"> a ids:Resource;\n" +
-                "  "+domainAttr+" ?value .\n" +
-                "} }";
-    }
-
-    private void createMdsIdToLabelMap() {
-        // importing the ontology into a rdf model
-        Model model = ModelFactory.createDefaultModel();
-        RDFDataMgr.read(model, Objects.requireNonNull(getClass().getClassLoader().getResourceAsStream("mds/mds-ontology.ttl")), Lang.TTL);
-
-        // Extracting structural mappings out of the ontology
-        model.listStatements(null, RDFS.label, (String) null)
-                .forEach(statement -> {
-                    org.apache.jena.rdf.model.Resource subject = statement.getSubject();
-                    RDFNode object = statement.getObject();
-                    mdsUriToLabelMap.put(subject.getURI(), object.asLiteral().getString());
-                });
+        getOntology();
     }
 
-    @Override
-    public void add(InfrastructureComponent selfDescription) throws IOException {
-        //Default behaviour: Index the connector with its catalog
-        super.add(selfDescription);
-
-        //create a new index for mobids resources
-        if (selfDescription instanceof Connector) {
-            Connector connector = (Connector) selfDescription;
-            indexResources(connector);
+    /**
+     * Returns the current snapshot of the MDS ontology, loading it on first use.
+     * If an ontology file is configured, it is checked for modifications at most once per check interval and reloaded if it changed
+     * @return The current ontology snapshot
+     */
+    public static MdsOntology getOntology() {
+        MdsOntology current = ontology;
+        if (current == null) {
+            synchronized (ElasticsearchIndexingMobiDS.class) {
+                if (ontology == null) {
+                    ontology = loadOntology();
+                    lastOntologyCheck = System.currentTimeMillis();
+                }
+                return ontology;
+            }
         }
-    }
-
-    @Override
-    public void update(InfrastructureComponent selfDescription) throws IOException {
-        //Update the connector in the registrations index
-        super.update(selfDescription);
-
-        //update index for fhg-digital resources
-        if (selfDescription instanceof Connector) {
-            Connector connector = (Connector) selfDescription;
-            //delete respective resources of the connector in RESOURCE_INDEX first
-            deleteResourcesFromIndex(connector.getId().toString());
-
-            //index updated resources of the connector
-            indexResources(connector);
+        long now = System.currentTimeMillis();
+        if (!mdsOntologyPath.isEmpty() && mdsOntologyCheckIntervalMillis > 0 && now - lastOntologyCheck >= mdsOntologyCheckIntervalMillis) {
+            lastOntologyCheck = now;
+            try {
+                if (Files.getLastModifiedTime(Paths.get(mdsOntologyPath)).toMillis() != current.getLastModified()) {
+                    reloadOntology();
+                }
+            } catch (IOException e) {
+                LoggerFactory.getLogger(ElasticsearchIndexingMobiDS.class).warn("Could not check MDS ontology at " + mdsOntologyPath + " for changes.", e);
+            }
         }
+        return ontology;
     }
 
-    @Override
-    public void delete(URI componentId) throws IOException{
-        //delete respective resources in RESOURCE_INDEX first
-        deleteResourcesFromIndex(componentId.toString());
-
-        //Now remove connector from registrations index
-        super.delete(componentId);
-    }
-
-    protected void indexResources(Connector connector) throws IOException {
-
-        if(connector.getResourceCatalog() != null && !connector.getResourceCatalog().isEmpty()) {
-            for (ResourceCatalog resourceCatalog : connector.getResourceCatalog()) {
-                if(resourceCatalog.getOfferedResourceAsObject() != null && !resourceCatalog.getOfferedResourceAsObject().isEmpty()) {
-                    for (Resource resource : resourceCatalog.getOfferedResourceAsObject()) {
-                        XContentBuilder builder = XContentFactory.jsonBuilder();
-                        builder.startObject();
-                        handleResource(resource, builder, connector.getId());
-                        builder.endObject();
-                        IndexRequest resIndexAdd = new IndexRequest(RESOURCE_INDEX)
-                                .id(resource.getId().toString())
-                                .source(builder);
-                        try {
-
-                            client.index(resIndexAdd, RequestOptions.DEFAULT);
-                            logger.info("Creating resource " + resource.getId().toString() + " which belongs to the connector " + connector.getId().toString());
-                        }
-                        catch(IOException e) {
-                            e.printStackTrace();
-                            logger.error("Error while creating resource indices");
-                        }
-                    }}}
+    /**
+     * Parses the ontology again and replaces the current snapshot. If the ontology cannot be parsed, the previous snapshot stays in use
+     * @return true if the snapshot was replaced
+     */
+    public static synchronized boolean reloadOntology() {
+        Logger logger = LoggerFactory.getLogger(ElasticsearchIndexingMobiDS.class);
+        try {
+            MdsOntology reloaded = mdsOntologyPath.isEmpty() ? MdsOntology.loadBundled() : MdsOntology.load(Paths.get(mdsOntologyPath));
+            ontology = reloaded;
+            lastOntologyCheck = System.currentTimeMillis();
+            logger.info("Loaded MDS ontology from " + reloaded.getSource() + " with " + reloaded.getDomainProperties().size() + " domain properties and " + reloaded.getLabelCount() + " labels.");
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to reload MDS ontology from " + mdsOntologyPath + ". Keeping the previous version.", e);
+            return false;
         }
     }
 
-    private void deleteResourcesFromIndex(String connId) throws IOException {
-        SearchRequest reqSearch = new SearchRequest(RESOURCE_INDEX);
-        SearchSourceBuilder searchSource = new SearchSourceBuilder()
-                .size(10000)
-                .query(QueryBuilders.matchAllQuery());
-        reqSearch.source(searchSource);
-        SearchResponse resSearch = client.search(reqSearch, RequestOptions.DEFAULT);
-
-        if(resSearch.getHits().getHits().length != 0){
-            for(SearchHit hit: resSearch.getHits().getHits()) {
-                HashMap<String,Object> res = (HashMap<String, Object>) hit.getSourceAsMap();
-                if(connId.equals(res.get("connectorID").toString())) {
-
-                    DeleteRequest resIndexDelete = new DeleteRequest(RESOURCE_INDEX)
-                            .id( res.get("resourceID").toString());
-                    try {
-                        client.delete(resIndexDelete, RequestOptions.DEFAULT);
-                        logger.info("Deleting resource " + res.get("resourceID").toString() + "from Resource Index which belongs to the connector "+res.get("connectorID"));
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        logger.error("Error while deleting resource indices");
-                    }
-                }
-
+    private static MdsOntology loadOntology() {
+        if (!mdsOntologyPath.isEmpty()) {
+            Path path = Paths.get(mdsOntologyPath);
+            try {
+                return MdsOntology.load(path);
+            } catch (IOException | RuntimeException e) {
+                LoggerFactory.getLogger(ElasticsearchIndexingMobiDS.class).error("Failed to load MDS ontology from " + path + ". Falling back to the bundled ontology.", e);
             }
         }
+        return MdsOntology.loadBundled();
     }
 
+    private static String getOntologyQuery(URI connectorId, String resourceId, String domainAttr) {
+        return  "PREFIX ids: <https://w3id.org/idsa/core/> \n " +
+                "PREFIX mds: <http://w3id.org/mds#>  \n" +
+                "SELECT (GROUP_CONCAT(DISTINCT ?value;SEPARATOR=\", \") AS ?values) WHERE {\n" +
+                "  GRAPH <" + connectorId + "> {" +
+                "  <"+resourceId+"> a ids:Resource;\n" +
+                "  "+domainAttr+" ?value .\n" +
+                "} }";
+    }
 
     @Override
-    protected void handleResourceCustomFields( Resource resource, XContentBuilder builder, URI connectorId) throws IOException {
+    protected void handleResourceCustomFields( Resource resource, XContentBuilder builder, IndexingContext context) throws IOException {
         fbw.x(() -> builder.field("resourceAsJsonLd", resource.toRdf()), "resourceAsJsonLd");
-        fbw.x(() -> builder.field( "lastChanged", System.currentTimeMillis()),"lastChanged");
       /*  try {
             String originID = resource.getProperties().get("http://www.w3.org/2002/07/owl#sameAs").toString();
             String formattedOriginID = originID.substring(1, originID.length() - 2);
@@ -199,14 +144,30 @@ public class ElasticsearchIndexingMobiDS extends ElasticsearchIndexing {
         //domain specific terms to be fetched from fuseki
         //(Removed:"mobids:roadNetworkCoverage")
         //Added: roadNetworkCoverageDescription,dataFormatAdditionalDescription,dataModel,networkCoverage
-        List<String> domainAttrs = readDomainProperties();
+        MdsOntology mdsOntology = getOntology();
+        List<String> domainAttrs = mdsOntology.getDomainProperties();
+        if (batchedDomainAttributes) {
+            Map<String, List<RDFNode>> attributes = getDomainAttributes(resource, context);
+            for (String attr : domainAttrs) {
+                //Attributes without values are left out, as with one query per attribute
+                if (!attributes.containsKey(attr)) {
+                    continue;
+                }
+                List<String> values = attributes.get(attr).stream()
+                        .map(value -> value.isLiteral() ? value.asLiteral().getLexicalForm() : value.toString())
+                        .collect(Collectors.toList());
+                List<String> mappedURIsList = mapToLabels(values, mdsOntology);
+                fbw.x(() -> builder.field(attr, mappedURIsList), attr);
+            }
+            return;
+        }
                 //Arrays.asList("mds:dataFormatAdditionalDescription", "mds:dataModel", "mds:geoReferenceMethod", "mds:transportMode", "mds:dataSubcategory", "mds:dataCategory");
                 //Arrays.asList("mobids:transportMode", "mobids:DataCategoryDetail", "mobids:DataCategory", "mobids:geoReferenceMethod" , "mobids:mdmBrokering", "mobids:NutsLocation","mobids:roadNetworkCoverageDescription","mobids:dataFormatAdditionalDescription","mobids:dataModel","mobids:networkCoverage");
                 // fill the list with the properties from the model
 
                 domainAttrs.forEach(attr -> {
             try {
-                queryAndIndexDomainAttrs(resource, attr, builder, connectorId);
+                queryAndIndexDomainAttrs(resource, attr, builder, context.getConnectorId(), mdsOntology);
             } catch (IOException e) {
                 logger.error("An error during indexing domain specific attributes");
                 e.printStackTrace();
@@ -215,27 +176,54 @@ public class ElasticsearchIndexingMobiDS extends ElasticsearchIndexing {
     }
 
     public List<String> readDomainProperties() {
-        List<String> domainAttrs = new ArrayList<>();
-        Model model = ModelFactory.createDefaultModel();
-        RDFDataMgr.read(model, Objects.requireNonNull(getClass().getClassLoader().getResourceAsStream("mds/mds-ontology.ttl")), Lang.TTL);
-        model.listStatements(null, null, OWL.ObjectProperty)
-                .mapWith(Statement::getSubject)
-                .forEach(resource -> domainAttrs.add("mds:" + resource.getLocalName()));
+        return getOntology().getDomainProperties();
+    }
 
-        model.listStatements(null, null, OWL.DatatypeProperty)
-                .mapWith(Statement::getSubject)
-                .forEach(resource -> domainAttrs.add("mds:" + resource.getLocalName()));
-        return domainAttrs;
+    @Override
+    protected List<String> getDomainProperties() {
+        return getOntology().getDomainProperties();
     }
 
+    @Override
+    protected String getDomainPrefixes() {
+        return "PREFIX mds: <http://w3id.org/mds#>";
+    }
+
+    /**
+     * Splits comma separated values and replaces URIs of ontology terms by their labels
+     * @param values Values of a domain property
+     * @param mdsOntology Ontology providing the labels
+     * @return Labels, or the values themselves if there is no label for them
+     */
+    private List<String> mapToLabels(List<String> values, MdsOntology mdsOntology) {
+        List<String> mappedURIsList = new ArrayList<>();
+        values.forEach( value -> {
+            List<String> splittedValues = Arrays.asList(value.split(","));
+            splittedValues.forEach(splittedValue -> {
+                if (!splittedValue.isEmpty()) {
+                    splittedValue = splittedValue.strip();
+                    // map the uri to the desired labels
+                    String label = mdsOntology.getLabel(splittedValue, splittedValue);
+                    if (splittedValue.startsWith("http") && label.contains(splittedValue)) {
+                        logger.info("Missing label for " + splittedValue + ". Using URI instead.");
+                    }
+                    // adding the labels to the result set
+                    mappedURIsList.add(label);
+                }
+            });
+
+        });
+        return mappedURIsList;
+    }
 
 
-    private void queryAndIndexDomainAttrs( Resource resource, String domainAttr, XContentBuilder builder, URI connectorId) throws IOException {
+
+    private void queryAndIndexDomainAttrs( Resource resource, String domainAttr, XContentBuilder builder, URI connectorId, MdsOntology mdsOntology) throws IOException {
         // prepare adjusted query
         String query = getOntologyQuery(connectorId,resource.getId().toString(),domainAttr);
 
         // perform select query
-        ArrayList<QuerySolution> tupleQueryResult = repo.selectQuery(query);
+        ArrayList<QuerySolution> tupleQueryResult = IndexingMetrics.selectQuery(repo, query, "domainAttributes");
 
         // Analyze the query results regarding the structure of the ontology
         try {
@@ -243,23 +231,7 @@ public class ElasticsearchIndexingMobiDS extends ElasticsearchIndexing {
                 List<String> extractedValueList = tupleQueryResult.stream().map(tuple -> tuple.getLiteral("?values").toString()).collect(Collectors.toList());
                 if (!extractedValueList.isEmpty() && extractedValueList.get(0) != null) {
                     // If the values are URIs, map them to the labels which are connected to these URIs in the mds-ontology.ttl
-                    List<String> mappedURIsList = new ArrayList<>();
-                    extractedValueList.forEach( value -> {
-                        List<String> splittedValues = Arrays.asList(value.split(","));
-                        splittedValues.forEach(splittedValue -> {
-                            if (!splittedValue.isEmpty()) {
-                                splittedValue = splittedValue.strip();
-                                // map the uri to the desired labels
-                                String label = mdsUriToLabelMap.getOrDefault(splittedValue, splittedValue);
-                                if (splittedValue.startsWith("http") && label.contains(splittedValue)) {
-                                    logger.info("Missing label for " + splittedValue + ". Using URI instead.");
-                                }
-                                // adding the labels to the result set
-                                mappedURIsList.add(label);
-                            }
-                        });
-
-                    });
+                    List<String> mappedURIsList = mapToLabels(extractedValueList, mdsOntology);
                     // prepare and map the fields to be added to the fuseki
                     fbw.x(() -> builder.field(domainAttr, mappedURIsList), domainAttr);
                 }
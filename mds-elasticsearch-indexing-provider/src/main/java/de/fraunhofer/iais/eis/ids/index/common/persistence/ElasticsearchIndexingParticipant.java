@@ -3,12 +3,10 @@ package de.fraunhofer.iais.eis.ids.index.common.persistence;
 import de.fraunhofer.iais.eis.*;
 import de.fraunhofer.iais.eis.ids.index.common.persistence.spi.Indexing;
 import de.fraunhofer.iais.eis.util.TypedLiteral;
-import org.apache.http.HttpHost;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.RequestOptions;
-import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
@@ -18,7 +16,6 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Collection;
-import java.util.stream.Collectors;
 
 import static de.fraunhofer.iais.eis.ids.index.common.persistence.ElasticsearchIndexingConnector.handleAbstractConstraint;
 
@@ -30,19 +27,43 @@ public class ElasticsearchIndexingParticipant implements Indexing<Participant> {
     protected final RestHighLevelClient client;
     protected static final FieldBuilderWrapper fbw = new FieldBuilderWrapper();
 
+    //Flat fields of the infomodel classes, in the order in which they appear in the documents. See FieldPlan
+    private static final FieldPlan<Agent> AGENT_FIELDS = FieldPlan.<Agent>builder()
+            .literals("title", Agent::getTitle)
+            .literals("description", Agent::getDescription)
+            .build();
+    private static final FieldPlan<Participant> PARTICIPANT_FIELDS = FieldPlan.<Participant>builder()
+            .nonEmptyValue("corporateEmailAddress", Participant::getCorporateEmailAddress)
+            .string("corporateHomepage", Participant::getCorporateHomepage)
+            //would be sufficient to provide the URI of the member participant
+            .strings("memberParticipant", participant -> participant.getMemberParticipant() == null || participant.getMemberParticipant().isEmpty() ? null : participant.getMemberParticipant(), Participant::getId)
+            .value("version", Participant::getVersion)
+            .value("primarySite", participant -> participant.getPrimarySite() == null ? null : participant.getPrimarySite().getSiteAddress())
+            .value("jurisdiction", Participant::getJurisdiction)
+            .value("legalForm", Participant::getLegalForm)
+            .nonEmptyValue("legalName", Participant::getLegalName)
+            .value("VatID", Participant::getVatID)
+            .build();
+    private static final FieldPlan<Person> PERSON_FIELDS = FieldPlan.<Person>builder()
+            .value("emailAddress", Person::getEmailAddress)
+            .value("familyName", Person::getFamilyName)
+            .value("givenName", Person::getGivenName)
+            .value("homepage", Person::getHomepage)
+            .value("phoneNumber", Person::getPhoneNumber)
+            .build();
+    private static final FieldPlan<BusinessIdentifier> BUSINESS_IDENTIFIER_FIELDS = FieldPlan.<BusinessIdentifier>builder()
+            .value("identifierNumber", BusinessIdentifier::getIdentifierNumber)
+            .value("identifierSystem", BusinessIdentifier::getIdentifierSystem)
+            .build();
+
     public static String elasticsearchHostname = "localhost"; //default value, to be overwritten by application properties or docker-compose config
     public static int elasticsearchPort = 9200; //Also default value
 
-    private RestHighLevelClient getElasticsearchClient() {
-        return new RestHighLevelClient(
-                RestClient.builder(new HttpHost(elasticsearchHostname, elasticsearchPort, "http")));
-    }
-
     /**
      * Constructor
      */
     public ElasticsearchIndexingParticipant() {
-        this.client = getElasticsearchClient();
+        this.client = ElasticsearchClientFactory.getClient();
     }
 
 
@@ -182,11 +203,7 @@ public class ElasticsearchIndexingParticipant implements Indexing<Participant> {
     }
 
     static void handleAgentFields(Agent agent, XContentBuilder builder) {
-        if(agent.getTitle() != null)
-            fbw.x(() -> builder.field("title", agent.getTitle().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "title");
-
-        if(agent.getDescription() != null)
-            fbw.x(() -> builder.field("description", agent.getDescription().stream().map(TypedLiteral::getValue).collect(Collectors.toList())), "description");
+        AGENT_FIELDS.write(agent, builder, fbw);
     }
 
     /**
@@ -197,49 +214,7 @@ public class ElasticsearchIndexingParticipant implements Indexing<Participant> {
     static void handleParticipantBasicFields(Participant participant, XContentBuilder builder) {
 
         handleAgentFields(participant, builder);
-
-        if(participant.getCorporateEmailAddress() != null && !participant.getCorporateEmailAddress().isEmpty())
-        {
-            fbw.x(() -> builder.field("corporateEmailAddress", participant.getCorporateEmailAddress()),"corporateEmailAddress");
-        }
-
-        if(participant.getCorporateHomepage() != null)
-        {
-            fbw.x(() -> builder.field("corporateHomepage", participant.getCorporateHomepage().toString()),"corporateHomepage");
-        }
-        if(participant.getMemberParticipant() != null && !participant.getMemberParticipant().isEmpty())
-        {
-            //would be sufficient to provide the URI of the member participant
-            fbw.x(() -> builder.field("memberParticipant", participant.getMemberParticipant().stream().map(val -> val.getId().toString()).collect(Collectors.toList())),"memberParticipant");
-        }
-        if(participant.getVersion() != null)
-        {
-            fbw.x(() -> builder.field("version", participant.getVersion()),"version");
-        }
-        if(participant.getPrimarySite() != null)
-        {
-            fbw.x(() -> builder.field("primarySite", participant.getPrimarySite().getSiteAddress()),"primarySite");
-        }
-
-        if(participant.getJurisdiction() != null)
-        {
-            fbw.x(() -> builder.field("jurisdiction", participant.getJurisdiction()),"jurisdiction");
-        }
-
-        if(participant.getLegalForm() != null)
-        {
-            fbw.x(() -> builder.field("legalForm", participant.getLegalForm()),"legalForm");
-        }
-
-        if(participant.getLegalName() != null && !participant.getLegalName().isEmpty())
-        {
-            fbw.x(() -> builder.field("legalName", participant.getLegalName()),"legalName");
-        }
-
-        if(participant.getVatID() != null)
-        {
-            fbw.x(() -> builder.field("VatID", participant.getVatID()),"VatID");
-        }
+        PARTICIPANT_FIELDS.write(participant, builder, fbw);
     }
 
     /**
@@ -248,17 +223,7 @@ public class ElasticsearchIndexingParticipant implements Indexing<Participant> {
      * @param builder Builder to which the member person should be added
      */
     static void handleParticipantMemberPerson(Person person, XContentBuilder builder) {
-
-        if(person.getEmailAddress() != null)
-            fbw.x(() -> builder.field("emailAddress", person.getEmailAddress()), "emailAddress");
-        if(person.getFamilyName() != null)
-            fbw.x(() -> builder.field("familyName", person.getFamilyName()), "familyName");
-        if(person.getGivenName() != null)
-            fbw.x(() -> builder.field("givenName", person.getGivenName()), "givenName");
-        if(person.getHomepage() != null)
-            fbw.x(() -> builder.field("homepage", person.getHomepage()), "homepage");
-        if(person.getPhoneNumber() != null)
-            fbw.x(() -> builder.field("phoneNumber", person.getPhoneNumber()), "phoneNumber");
+        PERSON_FIELDS.write(person, builder, fbw);
     }
 
     /**
@@ -272,7 +237,7 @@ public class ElasticsearchIndexingParticipant implements Indexing<Participant> {
             fbw.x(() -> builder.timeField("membershipEnd", participantCertification.getMembershipEnd().toGregorianCalendar().getTime()), "membershipEnd");
         if(participantCertification.getCertificationLevel() != null) {
             fbw.x(() -> builder.field("certificationLevel", participantCertification.getCertificationLevel().getId().toString()),"certificationLevel");
-            fbw.x(() -> builder.field("labelCertificationLevel", participantCertification.getCertificationLevel().getLabel().stream().map(TypedLiteral::getValue).collect(Collectors.toList())),"labelCertificationLevel");
+            fbw.x(() -> builder.field("labelCertificationLevel", VocabularyLabels.of(participantCertification.getCertificationLevel(), level -> level.getId(), level -> level.getLabel())),"labelCertificationLevel");
         }
         if(participantCertification.getVersion() != null)
             fbw.x(() -> builder.field("version", participantCertification.getVersion()),"version");
@@ -293,14 +258,7 @@ public class ElasticsearchIndexingParticipant implements Indexing<Participant> {
      */
     static void handleParticipantBusinessIdentifier(BusinessIdentifier businessIdentifier, XContentBuilder builder)
     {
-        if(businessIdentifier.getIdentifierNumber() != null)
-        {
-            fbw.x(() -> builder.field("identifierNumber", businessIdentifier.getIdentifierNumber()),"identifierNumber");
-        }
-        if(businessIdentifier.getIdentifierSystem() != null)
-        {
-            fbw.x(() -> builder.field("identifierSystem", businessIdentifier.getIdentifierSystem()),"identifierSystem");
-        }
+        BUSINESS_IDENTIFIER_FIELDS.write(businessIdentifier, builder, fbw);
     }
 
     /**
@@ -1,23 +1,81 @@
 package de.fraunhofer.iais.eis.ids.index.common.persistence;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Metrics;
+import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
- * Utility class which could really do with some updates and documentation. TODO
+ * Writes single fields of an index document, so that a field which cannot be extracted or written does not prevent the rest of the document from being indexed.
+ * Failures are counted per field name, across all instances, and exported as counter broker.indexing.field.failures.
+ * Only the first failure of a field is logged with its stack trace, as the same field usually fails for every document of a connector
  */
 public class FieldBuilderWrapper {
 
-    final private Logger logger = LoggerFactory.getLogger(getClass());
+    private static final Logger logger = LoggerFactory.getLogger(FieldBuilderWrapper.class);
+    private static final ConcurrentHashMap<String, LongAdder> failures = new ConcurrentHashMap<>();
 
     public void x(Worker worker, String... fieldName) {
         try {
             worker.doSomething();
         }
         catch (Exception e) {
-            //TODO: Do some exception handling. This error message seems to be incorrect or at least not precise enough.
-            // Could we please catch something more precise than just ANY exception?
-            logger.warn("An exception occurred while trying to index the field: "+ ((fieldName != null) ? " '" +fieldName[0]+ "'." : " (?)"), e);
+            recordFailure((fieldName != null && fieldName.length > 0) ? fieldName[0] : "?", e);
+        }
+    }
+
+    /**
+     * Writes a single value as string, e.g. an ID. Same as x(() -> builder.field(fieldName, value.toString()), fieldName), but without allocating a lambda per call
+     * @param builder Builder with an open object
+     * @param fieldName Name of the field
+     * @param value Value of the field. A null value is counted as failure
+     */
+    public void string(XContentBuilder builder, String fieldName, Object value) {
+        try {
+            builder.field(fieldName, value.toString());
+        }
+        catch (IOException | RuntimeException e) {
+            recordFailure(fieldName, e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Counts a field which could not be written
+     * @param fieldName Name of the field
+     * @param e Cause of the failure
+     */
+    void recordFailure(String fieldName, Exception e) {
+        LongAdder counter = failures.get(fieldName);
+        if (counter == null) {
+            LongAdder newCounter = new LongAdder();
+            counter = failures.putIfAbsent(fieldName, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+                FunctionCounter.builder("broker.indexing.field.failures", newCounter, LongAdder::doubleValue)
+                        .tag("field", fieldName)
+                        .register(Metrics.globalRegistry);
+                logger.warn("An exception occurred while trying to index the field '" + fieldName + "'. Further failures of this field are only counted.", e);
+            }
+        }
+        counter.increment();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Could not index the field '" + fieldName + "': " + e);
+        }
+    }
+
+    /**
+     * @return Number of failures per field name since startup
+     */
+    public static Map<String, Long> getFailures() {
+        Map<String, Long> counts = new TreeMap<>();
+        failures.forEach((field, counter) -> counts.put(field, counter.sum()));
+        return counts;
+    }
+}
@@ -0,0 +1,255 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import de.fraunhofer.iais.eis.util.TypedLiteral;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Precomputed list of the flat fields of an infomodel class, which are written to an XContentBuilder one after another.
+ * A plan is built once per class and shared by all threads. The accessors are non-capturing method references or lambdas, so writing a
+ * document does not allocate any lambdas, and typed literals, URIs and labels are written directly as array values instead of being collected into lists first.
+ * A field whose accessor returns null (or an empty collection, if the field is declared so) is omitted.
+ * A field which cannot be written is counted by the {@link FieldBuilderWrapper} and omitted, the remaining fields are written nevertheless
+ * @param <T> Infomodel class
+ */
+final class FieldPlan<T> {
+
+    private final List<Field<T>> fields;
+
+    private FieldPlan(List<Field<T>> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * @return Builder of a plan. The infomodel class is given as type witness, e.g. {@code FieldPlan.<Resource>builder()}
+     */
+    static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Writes all fields of an object
+     * @param object Object to be indexed
+     * @param builder Builder with an open object to which the fields are added
+     * @param fbw Counts the fields which could not be written
+     */
+    void write(T object, XContentBuilder builder, FieldBuilderWrapper fbw) {
+        for (int i = 0; i < fields.size(); i++) {
+            Field<T> field = fields.get(i);
+            try {
+                field.write(object, builder);
+            }
+            catch (IOException | RuntimeException e) {
+                fbw.recordFailure(field.name, e);
+            }
+        }
+    }
+
+    /**
+     * Writes the labels of a vocabulary term (e.g. a content type or an operator) as array of their values
+     */
+    static void writeLiterals(XContentBuilder builder, Collection<? extends TypedLiteral> literals) throws IOException {
+        builder.startArray();
+        for (TypedLiteral literal : literals) {
+            builder.value(literal == null ? null : literal.getValue());
+        }
+        builder.endArray();
+    }
+
+    /**
+     * Writes the cached label values of a vocabulary term as array
+     */
+    static void writeValues(XContentBuilder builder, List<String> values) throws IOException {
+        builder.startArray();
+        for (int i = 0; i < values.size(); i++) {
+            builder.value(values.get(i));
+        }
+        builder.endArray();
+    }
+
+    static final class Builder<T> {
+        private final List<Field<T>> fields = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Any value XContentBuilder can write, e.g. a string, number or list of strings. Equivalent to builder.field(name, value)
+         */
+        Builder<T> value(String name, Function<? super T, ?> accessor) {
+            fields.add(new Field<T>(name) {
+                @Override
+                void write(T object, XContentBuilder builder) throws IOException {
+                    Object value = accessor.apply(object);
+                    if (value != null) {
+                        builder.field(name, value);
+                    }
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Same as value, but omits the field if the value is an empty collection or string
+         */
+        Builder<T> nonEmptyValue(String name, Function<? super T, ?> accessor) {
+            fields.add(new Field<T>(name) {
+                @Override
+                void write(T object, XContentBuilder builder) throws IOException {
+                    Object value = accessor.apply(object);
+                    if (value != null && !(value instanceof Collection && ((Collection<?>) value).isEmpty()) && !(value instanceof String && ((String) value).isEmpty())) {
+                        builder.field(name, value);
+                    }
+                }
+            });
+            return this;
+        }
+
+        /**
+         * A value written as string, e.g. a URI
+         */
+        Builder<T> string(String name, Function<? super T, ?> accessor) {
+            fields.add(new Field<T>(name) {
+                @Override
+                void write(T object, XContentBuilder builder) throws IOException {
+                    Object value = accessor.apply(object);
+                    if (value != null) {
+                        builder.field(name, value.toString());
+                    }
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Typed literals, such as titles or labels, written as array of their values without language
+         */
+        Builder<T> literals(String name, Function<? super T, ? extends Collection<? extends TypedLiteral>> accessor) {
+            fields.add(new Field<T>(name) {
+                @Override
+                void write(T object, XContentBuilder builder) throws IOException {
+                    Collection<? extends TypedLiteral> literals = accessor.apply(object);
+                    if (literals != null) {
+                        builder.field(name);
+                        writeLiterals(builder, literals);
+                    }
+                }
+            });
+            return this;
+        }
+
+        /**
+         * The labels of a vocabulary term (e.g. a content type or an operator), written as array of their values. The values are cached, see {@link VocabularyLabels}
+         */
+        <V> Builder<T> vocabulary(String name, Function<? super T, ? extends V> accessor, Function<? super V, URI> id, Function<? super V, ? extends Collection<? extends TypedLiteral>> labels) {
+            fields.add(new Field<T>(name) {
+                @Override
+                void write(T object, XContentBuilder builder) throws IOException {
+                    List<String> values = VocabularyLabels.of(accessor.apply(object), id, labels);
+                    if (values != null) {
+                        builder.field(name);
+                        writeValues(builder, values);
+                    }
+                }
+            });
+            return this;
+        }
+
+        /**
+         * The labels of a number of vocabulary terms (e.g. actions), written as array of arrays of their values. The values are cached, see {@link VocabularyLabels}
+         */
+        <V> Builder<T> labels(String name, Function<? super T, ? extends Collection<? extends V>> accessor, Function<? super V, URI> id, Function<? super V, ? extends Collection<? extends TypedLiteral>> labels) {
+            fields.add(new Field<T>(name) {
+                @Override
+                void write(T object, XContentBuilder builder) throws IOException {
+                    Collection<? extends V> terms = accessor.apply(object);
+                    if (terms != null) {
+                        //The labels are read before anything is written, so that a term without labels does not leave the array open
+                        for (V term : terms) {
+                            if (VocabularyLabels.of(term, id, labels) == null) {
+                                throw new NullPointerException("Missing label of " + term);
+                            }
+                        }
+                        builder.startArray(name);
+                        for (V term : terms) {
+                            writeValues(builder, VocabularyLabels.of(term, id, labels));
+                        }
+                        builder.endArray();
+                    }
+                }
+            });
+            return this;
+        }
+
+        /**
+         * URIs, written as array of strings
+         */
+        Builder<T> uris(String name, Function<? super T, ? extends Collection<URI>> accessor) {
+            return strings(name, accessor, URI::toString);
+        }
+
+        /**
+         * A number of objects, written as array of strings, e.g. of their IDs
+         */
+        <V> Builder<T> strings(String name, Function<? super T, ? extends Collection<? extends V>> accessor, Function<? super V, ?> element) {
+            fields.add(new Field<T>(name) {
+                @Override
+                void write(T object, XContentBuilder builder) throws IOException {
+                    Collection<? extends V> values = accessor.apply(object);
+                    if (values != null) {
+                        //The elements are converted before anything is written, so that an element which cannot be converted does not leave the array open
+                        for (V value : values) {
+                            if (value != null) {
+                                element.apply(value);
+                            }
+                        }
+                        builder.startArray(name);
+                        for (V value : values) {
+                            Object string = value == null ? null : element.apply(value);
+                            builder.value(string == null ? null : string.toString());
+                        }
+                        builder.endArray();
+                    }
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Date and time
+         */
+        Builder<T> time(String name, Function<? super T, XMLGregorianCalendar> accessor) {
+            fields.add(new Field<T>(name) {
+                @Override
+                void write(T object, XContentBuilder builder) throws IOException {
+                    XMLGregorianCalendar time = accessor.apply(object);
+                    if (time != null) {
+                        builder.timeField(name, time.toGregorianCalendar().getTime());
+                    }
+                }
+            });
+            return this;
+        }
+
+        FieldPlan<T> build() {
+            return new FieldPlan<>(List.copyOf(fields));
+        }
+    }
+
+    private abstract static class Field<T> {
+        final String name;
+
+        Field(String name) {
+            this.name = name;
+        }
+
+        abstract void write(T object, XContentBuilder builder) throws IOException;
+    }
+}
@@ -0,0 +1,168 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import de.fraunhofer.iais.eis.Connector;
+import de.fraunhofer.iais.eis.ids.component.core.RejectMessageException;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Rebuilds the registrations and resources indices from the triple store without taking them offline (blue/green).
+ * New versions of both indices are filled while the current versions keep serving searches. The connectors are read page by page
+ * and written in bulk requests, so memory only depends on the page and bulk sizes. Afterwards both aliases are switched in one atomic request
+ * and the previous versions are dropped. Connectors which were changed during the rebuild are indexed again after the switch.
+ */
+public class IndexRebuilder {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexRebuilder.class);
+
+    public static int pageSize = 100; //Number of connectors read from the triple store per query
+
+    //Shared with the IndexReconciler, so that a reconciliation never runs during a rebuild and vice versa
+    static final AtomicBoolean running = new AtomicBoolean(false);
+
+    private final ElasticsearchIndexing indexing;
+    private final RepositoryFacade repositoryFacade;
+
+    /**
+     * Constructor
+     * @param indexing Indexer which builds the documents and is notified about changes during the rebuild
+     * @param repositoryFacade Triple store from which the connectors are read
+     */
+    public IndexRebuilder(ElasticsearchIndexing indexing, RepositoryFacade repositoryFacade) {
+        this.indexing = indexing;
+        this.repositoryFacade = repositoryFacade;
+    }
+
+    /**
+     * Rebuilds the indices. If a rebuild is already running, nothing is done
+     * @return true if the indices were rebuilt
+     * @throws IOException if the new indices could not be created, filled or switched to. The previous versions stay in use in this case
+     */
+    public boolean rebuild() throws IOException {
+        if (!running.compareAndSet(false, true)) {
+            logger.warn("Index rebuild or reconciliation is already running. Skipping the rebuild.");
+            return false;
+        }
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        String outcome = "failure";
+        try {
+            long start = System.currentTimeMillis();
+            RestHighLevelClient client = indexing.client;
+            Map<String, String> newIndices = new LinkedHashMap<>();
+            Set<URI> changed;
+            indexing.startRecordingChanges();
+            try {
+                newIndices.put(ElasticsearchIndexingConnector.INDEX_NAME, IndexRecreator.createVersionedIndex(ElasticsearchIndexingConnector.INDEX_NAME, client, true));
+                newIndices.put(ElasticsearchIndexing.RESOURCE_INDEX, IndexRecreator.createVersionedIndex(ElasticsearchIndexing.RESOURCE_INDEX, client, true));
+                fill(newIndices.get(ElasticsearchIndexingConnector.INDEX_NAME), newIndices.get(ElasticsearchIndexing.RESOURCE_INDEX));
+                for (String index : newIndices.values()) {
+                    IndexRecreator.finishBulkLoading(index, client);
+                }
+                IndexRecreator.switchAliases(newIndices, client);
+            }
+            catch (IOException | RuntimeException e) {
+                logger.error("Index rebuild failed. Keeping the current indices.", e);
+                for (String index : newIndices.values()) {
+                    IndexRecreator.dropIndex(index, client);
+                }
+                throw e;
+            }
+            finally {
+                changed = indexing.stopRecordingChanges();
+            }
+            reindexChanged(changed);
+            logger.info("Rebuilt indices " + newIndices.values() + " in " + (System.currentTimeMillis() - start) + " ms.");
+            outcome = "success";
+            return true;
+        }
+        finally {
+            sample.stop(Metrics.timer("broker.index.rebuild", "outcome", outcome));
+            running.set(false);
+        }
+    }
+
+    private void fill(String registrationIndex, String resourceIndex) throws IOException {
+        BulkIndexWriter writer = indexing.createBulkIndexWriter();
+        int connectors = 0;
+        int failed = 0;
+        String after = null;
+        List<URI> page;
+        while (!(page = ConnectorGraphs.getPage(repositoryFacade, after, pageSize, "indexRebuild")).isEmpty()) {
+            //Taken before the connectors are read, so that a graph changed in between is indexed again by the next reconciliation
+            Map<URI, String> fingerprints = ConnectorGraphs.getFingerprints(repositoryFacade, page, "indexRebuild");
+            for (URI graph : page) {
+                Connector connector;
+                try {
+                    connector = repositoryFacade.getConnectorFromTripleStore(graph);
+                }
+                catch (IOException | RejectMessageException | RuntimeException e) {
+                    failed++;
+                    logger.error("Could not read connector " + graph + " from the triple store. It is missing in the rebuilt index.", e);
+                    continue;
+                }
+                try {
+                    indexing.indexConnector(connector, writer, registrationIndex, resourceIndex);
+                    if (fingerprints.containsKey(graph)) {
+                        writer.add(indexing.createReconciliationUpdate(registrationIndex, connector, fingerprints.get(graph)));
+                    }
+                    connectors++;
+                }
+                catch (RuntimeException e) {
+                    failed++;
+                    logger.error("Could not build the documents of connector " + graph + ". It is missing in the rebuilt index.", e);
+                }
+            }
+            after = page.get(page.size() - 1).toString();
+        }
+        writer.flush();
+        logger.info("Indexed " + connectors + " connectors with " + writer.getSucceeded() + " documents in " + writer.getBatches() + " bulk request(s).");
+        if (failed > 0 || writer.getFailed() > 0) {
+            logger.error(failed + " connectors could not be indexed and " + writer.getFailed() + " documents were rejected during the rebuild.");
+        }
+    }
+
+    /**
+     * Indexes the connectors which were changed during the rebuild again, as the changes may have missed the new indices
+     * @param changed IDs of the changed connectors
+     */
+    private void reindexChanged(Set<URI> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        logger.info(changed.size() + " connectors changed during the rebuild. Indexing them again.");
+        for (URI connectorId : changed) {
+            try {
+                Connector connector = getConnectorIfPresent(connectorId);
+                if (connector == null) {
+                    indexing.delete(connectorId);
+                } else {
+                    indexing.reindex(connector);
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                logger.error("Could not index connector " + connectorId + " again after the rebuild.", e);
+            }
+        }
+    }
+
+    private Connector getConnectorIfPresent(URI connectorId) throws IOException {
+        try {
+            return repositoryFacade.getConnectorFromTripleStore(connectorId);
+        }
+        catch (RejectMessageException e) {
+            //Unknown connector, i.e. it was removed during the rebuild
+            return null;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import de.fraunhofer.iais.eis.Connector;
+import de.fraunhofer.iais.eis.ids.component.core.RejectMessageException;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Brings the registrations and resources indices in line with the triple store without rebuilding them.
+ * The connector graphs are read page by page. For each page, the triple store computes one fingerprint per graph and the stored fingerprints are read from the connector documents,
+ * so that only fingerprints are transferred. Connectors whose fingerprint differs, or whose number of resource documents differs from the number stored with the fingerprint,
+ * are indexed again in parallel. Connector and resource documents of connectors which no longer exist in the triple store are removed.
+ * Writing a connector document for any other reason resets its fingerprint, so a connector changed by a message is checked once more by the next reconciliation
+ */
+public class IndexReconciler {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexReconciler.class);
+
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+    private static final int SCROLL_PAGE_SIZE = 1000;
+    private static final String SOURCE = "indexReconciliation";
+
+    private final ElasticsearchIndexing indexing;
+    private final RepositoryFacade repositoryFacade;
+    private final int threads;
+
+    /**
+     * Constructor
+     * @param indexing Indexer which builds the documents and is notified about changes during the reconciliation
+     * @param repositoryFacade Triple store from which the connectors are read
+     * @param threads Number of connectors indexed at the same time
+     */
+    public IndexReconciler(ElasticsearchIndexing indexing, RepositoryFacade repositoryFacade, int threads) {
+        this.indexing = indexing;
+        this.repositoryFacade = repositoryFacade;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Reconciles the indices with the triple store. If a reconciliation or rebuild is already running, nothing is done
+     * @return true if the indices were reconciled
+     * @throws IOException if the indexed state could not be read. Connectors which could not be indexed again are only logged
+     */
+    public boolean reconcile() throws IOException {
+        if (!IndexRebuilder.running.compareAndSet(false, true)) {
+            logger.warn("Index rebuild or reconciliation is already running. Skipping the reconciliation.");
+            return false;
+        }
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        String outcome = "failure";
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "index-reconciliation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        indexing.startRecordingChanges();
+        Set<URI> changed = null;
+        try {
+            long start = System.currentTimeMillis();
+            //The indexed state is read before the graphs, so that a connector registered in the meantime is not mistaken for an orphan
+            Set<String> indexedConnectors = getIndexedConnectors();
+            Map<String, Long> resourceCounts = getResourceCounts();
+            Set<String> connectorsWithResources = resourceCounts == null ? Collections.emptySet() : resourceCounts.keySet();
+            Set<String> graphs = new HashSet<>();
+            int checked = 0;
+            AtomicInteger reindexed = new AtomicInteger();
+            AtomicInteger failed = new AtomicInteger();
+            String after = null;
+            List<URI> page;
+            while (!(page = ConnectorGraphs.getPage(repositoryFacade, after, IndexRebuilder.pageSize, SOURCE)).isEmpty()) {
+                Map<URI, String> fingerprints = ConnectorGraphs.getFingerprints(repositoryFacade, page, SOURCE);
+                Map<String, Map<String, Object>> indexed = getReconciliationFields(page);
+                List<Future<?>> tasks = new ArrayList<>();
+                for (URI graph : page) {
+                    String id = graph.toString();
+                    graphs.add(id);
+                    checked++;
+                    String fingerprint = fingerprints.get(graph);
+                    if (!hasDiverged(indexed.get(id), fingerprint, resourceCounts == null ? null : resourceCounts.getOrDefault(id, 0L))) {
+                        continue;
+                    }
+                    tasks.add(workers.submit(() -> {
+                        if (reindex(graph, fingerprint)) {
+                            reindexed.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                    }));
+                }
+                await(tasks);
+                after = page.get(page.size() - 1).toString();
+            }
+            changed = indexing.stopRecordingChanges();
+            int removed = removeOrphans(indexedConnectors, connectorsWithResources, graphs, changed);
+            logger.info("Reconciled " + checked + " connectors in " + (System.currentTimeMillis() - start) + " ms: " + reindexed + " indexed again, "
+                    + removed + " removed, " + failed + " failed.");
+            Metrics.counter("broker.index.reconcile.connectors", "result", "checked").increment(checked);
+            Metrics.counter("broker.index.reconcile.connectors", "result", "reindexed").increment(reindexed.get());
+            Metrics.counter("broker.index.reconcile.connectors", "result", "removed").increment(removed);
+            Metrics.counter("broker.index.reconcile.connectors", "result", "failed").increment(failed.get());
+            outcome = "success";
+            return true;
+        }
+        finally {
+            workers.shutdownNow();
+            reindexChanged(changed == null ? indexing.stopRecordingChanges() : changed);
+            sample.stop(Metrics.timer("broker.index.reconcile", "outcome", outcome));
+            IndexRebuilder.running.set(false);
+        }
+    }
+
+    /**
+     * @param indexed Fingerprint and resource count stored in the connector document, or null if there is no connector document
+     * @param fingerprint Current fingerprint of the graph
+     * @param resourceCount Number of resource documents of the connector, or null if unknown
+     * @return true if the connector needs to be indexed again
+     */
+    private static boolean hasDiverged(Map<String, Object> indexed, String fingerprint, Long resourceCount) {
+        if (indexed == null || fingerprint == null) {
+            return true;
+        }
+        Object indexedFingerprint = indexed.get(ElasticsearchIndexingConnector.GRAPH_FINGERPRINT_FIELD);
+        Object indexedResourceCount = indexed.get(ElasticsearchIndexingConnector.RESOURCE_COUNT_FIELD);
+        return !fingerprint.equals(indexedFingerprint)
+                || !(indexedResourceCount instanceof Number)
+                || (resourceCount != null && ((Number) indexedResourceCount).longValue() != resourceCount);
+    }
+
+    /**
+     * Indexes a connector again and stores the fingerprint of its graph, unless the connector was changed by a message in the meantime
+     * @return false if the connector could not be indexed
+     */
+    private boolean reindex(URI graph, String fingerprint) {
+        try {
+            Connector connector = repositoryFacade.getConnectorFromTripleStore(graph);
+            indexing.reindex(connector);
+            if (fingerprint != null && !indexing.isRecordedChange(connector.getId())) {
+                indexing.client.update(indexing.createReconciliationUpdate(ElasticsearchIndexingConnector.INDEX_NAME, connector, fingerprint), RequestOptions.DEFAULT);
+            }
+            return true;
+        }
+        catch (IOException | RejectMessageException | RuntimeException e) {
+            logger.error("Could not index connector " + graph + " again during the reconciliation.", e);
+            return false;
+        }
+    }
+
+    private static void await(List<Future<?>> tasks) throws IOException {
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Reconciliation was interrupted", e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Reconciliation of a connector failed", e.getCause());
+        }
+    }
+
+    /**
+     * Removes the documents of connectors which were indexed, but are no longer found in the triple store
+     * @param indexedConnectors Connector documents which existed before the graphs were read
+     * @param connectorsWithResources Connectors with resource documents, read before the graphs
+     * @param graphs Connector graphs found in the triple store
+     * @param changed Connectors changed by messages during the reconciliation, which are left alone
+     * @return Number of connectors removed
+     */
+    private int removeOrphans(Set<String> indexedConnectors, Set<String> connectorsWithResources, Set<String> graphs, Set<URI> changed) {
+        Set<String> orphans = new HashSet<>(indexedConnectors);
+        orphans.addAll(connectorsWithResources);
+        orphans.removeAll(graphs);
+        for (URI connectorId : changed) {
+            orphans.remove(connectorId.toString());
+        }
+        int removed = 0;
+        for (String orphan : orphans) {
+            try {
+                if (indexedConnectors.contains(orphan)) {
+                    indexing.delete(URI.create(orphan));
+                } else {
+                    indexing.deleteResourcesFromIndex(orphan);
+                }
+                removed++;
+            }
+            catch (IOException | RuntimeException e) {
+                logger.error("Could not remove the documents of connector " + orphan + ", which no longer exists.", e);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Indexes the connectors which were changed during the reconciliation again, as the reconciliation may have overwritten their documents with an older state
+     * @param changed IDs of the changed connectors
+     */
+    private void reindexChanged(Set<URI> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        logger.info(changed.size() + " connectors changed during the reconciliation. Indexing them again.");
+        for (URI connectorId : changed) {
+            try {
+                Connector connector;
+                try {
+                    connector = repositoryFacade.getConnectorFromTripleStore(connectorId);
+                }
+                catch (RejectMessageException e) {
+                    //Unknown connector, i.e. it was removed during the reconciliation
+                    connector = null;
+                }
+                if (connector == null) {
+                    indexing.delete(connectorId);
+                } else {
+                    indexing.reindex(connector);
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                logger.error("Could not index connector " + connectorId + " again after the reconciliation.", e);
+            }
+        }
+    }
+
+    /**
+     * @return IDs of all connector documents in the registrations index. Participants, which share the index, are not included
+     */
+    private Set<String> getIndexedConnectors() throws IOException {
+        Set<String> ids = new HashSet<>();
+        RestHighLevelClient client = indexing.client;
+        SearchRequest request = new SearchRequest(ElasticsearchIndexingConnector.INDEX_NAME)
+                .scroll(SCROLL_KEEP_ALIVE)
+                .source(new SearchSourceBuilder()
+                        .query(QueryBuilders.existsQuery("connector"))
+                        .fetchSource(false)
+                        .size(SCROLL_PAGE_SIZE));
+        SearchResponse response;
+        try {
+            response = client.search(request, RequestOptions.DEFAULT);
+        }
+        catch (ElasticsearchStatusException e) {
+            if (e.status() == RestStatus.NOT_FOUND) {
+                return ids;
+            }
+            throw e;
+        }
+        String scrollId = response.getScrollId();
+        try {
+            SearchHit[] hits = response.getHits().getHits();
+            while (hits.length > 0) {
+                for (SearchHit hit : hits) {
+                    ids.add(hit.getId());
+                }
+                if (hits.length < SCROLL_PAGE_SIZE) {
+                    break;
+                }
+                response = client.scroll(new SearchScrollRequest(scrollId).scroll(SCROLL_KEEP_ALIVE), RequestOptions.DEFAULT);
+                scrollId = response.getScrollId();
+                hits = response.getHits().getHits();
+            }
+        }
+        finally {
+            ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+            clearScrollRequest.addScrollId(scrollId);
+            client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
+        }
+        return ids;
+    }
+
+    /**
+     * Counts the resource documents per connector with a composite aggregation, so that only one bucket per connector is transferred
+     * @return Map from connector ID to number of resource documents, or null if the index does not support the aggregation (connectorID not mapped as keyword)
+     */
+    private Map<String, Long> getResourceCounts() throws IOException {
+        Map<String, Long> counts = new HashMap<>();
+        Map<String, Object> afterKey = null;
+        do {
+            CompositeAggregationBuilder aggregation = AggregationBuilders.composite("connectors",
+                    Collections.singletonList(new TermsValuesSourceBuilder("connector").field(ElasticsearchIndexing.CONNECTOR_ID_FIELD)))
+                    .size(SCROLL_PAGE_SIZE);
+            if (afterKey != null) {
+                aggregation.aggregateAfter(afterKey);
+            }
+            SearchResponse response;
+            try {
+                response = indexing.client.search(new SearchRequest(ElasticsearchIndexing.RESOURCE_INDEX)
+                        .source(new SearchSourceBuilder().size(0).aggregation(aggregation)), RequestOptions.DEFAULT);
+            }
+            catch (ElasticsearchStatusException e) {
+                if (e.status() == RestStatus.NOT_FOUND) {
+                    return counts;
+                }
+                if (e.status() == RestStatus.BAD_REQUEST) {
+                    logger.warn("Could not count the resources per connector. Missing or surplus resource documents are only found after the next rebuild.", e);
+                    return null;
+                }
+                throw e;
+            }
+            CompositeAggregation connectors = response.getAggregations().get("connectors");
+            for (CompositeAggregation.Bucket bucket : connectors.getBuckets()) {
+                counts.put(bucket.getKey().get("connector").toString(), bucket.getDocCount());
+            }
+            afterKey = connectors.getBuckets().size() < SCROLL_PAGE_SIZE ? null : connectors.afterKey();
+        } while (afterKey != null);
+        return counts;
+    }
+
+    /**
+     * Reads the stored fingerprints and resource counts of a page of connectors with one multi-get request
+     * @return Map from connector ID to the stored fields. Connectors without document are missing
+     */
+    private Map<String, Map<String, Object>> getReconciliationFields(List<URI> connectors) throws IOException {
+        MultiGetRequest request = new MultiGetRequest();
+        FetchSourceContext fields = new FetchSourceContext(true,
+                new String[]{ElasticsearchIndexingConnector.GRAPH_FINGERPRINT_FIELD, ElasticsearchIndexingConnector.RESOURCE_COUNT_FIELD}, null);
+        for (URI connector : connectors) {
+            request.add(new MultiGetRequest.Item(ElasticsearchIndexingConnector.INDEX_NAME, connector.toString()).fetchSourceContext(fields));
+        }
+        Map<String, Map<String, Object>> indexed = new HashMap<>();
+        for (MultiGetItemResponse item : indexing.client.mget(request, RequestOptions.DEFAULT).getResponses()) {
+            if (!item.isFailed() && item.getResponse().isExists()) {
+                indexed.put(item.getId(), item.getResponse().getSourceAsMap());
+            }
+        }
+        return indexed;
+    }
+}
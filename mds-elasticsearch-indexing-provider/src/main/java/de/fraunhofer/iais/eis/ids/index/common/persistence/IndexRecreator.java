@@ -1,56 +1,192 @@
 package de.fraunhofer.iais.eis.ids.index.common.persistence;
 
 import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+/**
+ * Manages the versions of the indices. The index names used by the indexers ("registrations", "resources", ...) are aliases,
+ * each pointing to exactly one concrete index named {alias}_v{n}. A new version is filled while the previous one keeps serving searches,
+ * and the alias is switched atomically afterwards.
+ */
 public class IndexRecreator {
 
     private static final Logger logger = LoggerFactory.getLogger(IndexRecreator.class);
 
+    static final String VERSION_SEPARATOR = "_v";
+
+    public static int numberOfShards = 5; //default value, to be overwritten by application properties
+    public static int numberOfReplicas = 1;
+    public static String refreshInterval = "1s";
+
     /**
-     * Function for recreating the entire index from the current state of the repository (triple store). This helps keeping database and index in sync
+     * Function for recreating the entire index from the current state of the repository (triple store). This helps keeping database and index in sync.
+     * A new, empty version of the index is created and the alias is switched to it, so the index is empty afterwards. Use the {@link IndexRebuilder} to fill the new version before switching
      * @throws IOException if an exception occurs during the dropping or recreation of the index
      */
     public static void recreateIndex(String indexName, RestHighLevelClient client) throws IOException {
-        DeleteIndexRequest request = new DeleteIndexRequest(indexName);
-        AcknowledgedResponse response;
+        IndexingMetrics.time("broker.index.recreate", () -> {
+            String index = createVersionedIndex(indexName, client, false);
+            switchAliases(Collections.singletonMap(indexName, index), client);
+            return null;
+        }, "index", indexName);
+        logger.info("Index recreated");
+    }
+
+    /**
+     * Creates the next version of an index. Its mapping is taken from the index template of the alias (see {@link IndexTemplates}), which is installed first if necessary.
+     * Shards, replicas and refresh interval are set explicitly, so that changed settings take effect without a new template version. The alias is not changed
+     * @param alias Name under which the index is used, e.g. "resources"
+     * @param client Elasticsearch client
+     * @param bulkLoading If true, refreshes and replicas are switched off until {@link #finishBulkLoading(String, RestHighLevelClient)} is called
+     * @return Name of the new index, e.g. "resources_v3"
+     * @throws IOException if the template could not be installed or the index could not be created
+     */
+    static String createVersionedIndex(String alias, RestHighLevelClient client, boolean bulkLoading) throws IOException {
+        IndexTemplates.install(alias, client);
+        String index = alias + VERSION_SEPARATOR + (getLatestVersion(alias, client) + 1);
+        CreateIndexRequest request = new CreateIndexRequest(index)
+                .settings(
+                        Settings.builder()
+                                .put("index.number_of_shards", numberOfShards)
+                                .put("index.number_of_replicas", bulkLoading ? 0 : numberOfReplicas)
+                                .put("index.refresh_interval", bulkLoading ? "-1" : refreshInterval)
+                );
+        AcknowledgedResponse response = client.indices().create(request, RequestOptions.DEFAULT);
+        if (!response.isAcknowledged()) {
+            throw new IOException("Creation of index " + index + " was not acknowledged");
+        }
+        logger.info("Created index " + index);
+        return index;
+    }
+
+    /**
+     * Restores the refresh interval and the replicas of an index created for bulk loading and makes its documents visible
+     * @param index The concrete index
+     * @param client Elasticsearch client
+     * @throws IOException if the settings could not be updated
+     */
+    static void finishBulkLoading(String index, RestHighLevelClient client) throws IOException {
+        UpdateSettingsRequest request = new UpdateSettingsRequest(index)
+                .settings(Settings.builder()
+                        .put("index.number_of_replicas", numberOfReplicas)
+                        .put("index.refresh_interval", refreshInterval));
+        client.indices().putSettings(request, RequestOptions.DEFAULT);
+        client.indices().refresh(new RefreshRequest(index), RequestOptions.DEFAULT);
+    }
+
+    /**
+     * Points each alias to its new index in a single atomic request and drops the previous versions afterwards.
+     * An index created before aliases were used, which carries the name of the alias itself, is removed in the same request
+     * @param aliasToIndex Map from alias to the concrete index it should point to
+     * @param client Elasticsearch client
+     * @throws IOException if the aliases could not be switched
+     */
+    static void switchAliases(Map<String, String> aliasToIndex, RestHighLevelClient client) throws IOException {
+        IndicesAliasesRequest request = new IndicesAliasesRequest();
+        for (Map.Entry<String, String> entry : aliasToIndex.entrySet()) {
+            String alias = entry.getKey();
+            String index = entry.getValue();
+            request.addAliasAction(AliasActions.add().index(index).alias(alias));
+            Set<String> previous = getAliasedIndices(alias, client);
+            for (String previousIndex : previous) {
+                if (!previousIndex.equals(index)) {
+                    request.addAliasAction(AliasActions.remove().index(previousIndex).alias(alias));
+                }
+            }
+            if (previous.isEmpty() && client.indices().exists(new GetIndexRequest(alias), RequestOptions.DEFAULT)) {
+                logger.info("Replacing index " + alias + " by an alias.");
+                request.addAliasAction(AliasActions.removeIndex().index(alias));
+            }
+        }
+        AcknowledgedResponse response = client.indices().updateAliases(request, RequestOptions.DEFAULT);
+        if (!response.isAcknowledged()) {
+            throw new IOException("Switching the aliases " + aliasToIndex.keySet() + " was not acknowledged");
+        }
+        logger.info("Switched aliases to " + aliasToIndex.values());
+        for (Map.Entry<String, String> entry : aliasToIndex.entrySet()) {
+            dropVersionsExcept(entry.getKey(), entry.getValue(), client);
+        }
+    }
+
+    /**
+     * Drops an index, e.g. a new version which could not be filled. Failures are only logged
+     * @param index The concrete index
+     * @param client Elasticsearch client
+     */
+    static void dropIndex(String index, RestHighLevelClient client) {
         try {
-            response = client.indices().delete(request, RequestOptions.DEFAULT);
-            if (response.isAcknowledged()) {
-                logger.info("Index " + indexName + " was dropped");
-            } else {
-                logger.error("Could not drop index " + indexName);
+            client.indices().delete(new DeleteIndexRequest(index), RequestOptions.DEFAULT);
+            logger.info("Index " + index + " was dropped");
+        }
+        catch (IOException | ElasticsearchStatusException e) {
+            logger.warn("Could not drop index " + index, e);
+        }
+    }
+
+    private static void dropVersionsExcept(String alias, String current, RestHighLevelClient client) {
+        for (String index : getVersions(alias, client)) {
+            if (!index.equals(current)) {
+                dropIndex(index, client);
             }
         }
-        catch (ElasticsearchStatusException e)
-        {
-            logger.warn("Could not recreate the elasticsearch index. In case this warning appears during startup, it can be safely ignored.");
+    }
+
+    private static Set<String> getAliasedIndices(String alias, RestHighLevelClient client) throws IOException {
+        try {
+            return client.indices().getAlias(new GetAliasesRequest(alias), RequestOptions.DEFAULT).getAliases().keySet();
         }
-        //Use the default number of shards: 5
-        CreateIndexRequest request1 = new CreateIndexRequest(indexName)
-                .settings(
-                        Settings.builder()
-                                .put("index.number_of_shards", 5)
-                                .put("index.mapping.total_fields.limit", 2000)
-                );
-        response = client.indices().create(request1, RequestOptions.DEFAULT);
-        if(response.isAcknowledged())
-        {
-            logger.info("Index recreated");
+        catch (ElasticsearchStatusException e) {
+            if (e.status() == RestStatus.NOT_FOUND) {
+                return Collections.emptySet();
+            }
+            throw e;
+        }
+    }
+
+    private static int getLatestVersion(String alias, RestHighLevelClient client) {
+        Pattern pattern = Pattern.compile(Pattern.quote(alias + VERSION_SEPARATOR) + "(\\d+)");
+        int latest = 0;
+        for (String index : getVersions(alias, client)) {
+            Matcher matcher = pattern.matcher(index);
+            if (matcher.matches()) {
+                latest = Math.max(latest, Integer.parseInt(matcher.group(1)));
+            }
+        }
+        return latest;
+    }
+
+    private static List<String> getVersions(String alias, RestHighLevelClient client) {
+        List<String> versions = new ArrayList<>();
+        try {
+            Collections.addAll(versions, client.indices().get(new GetIndexRequest(alias + VERSION_SEPARATOR + "*"), RequestOptions.DEFAULT).getIndices());
         }
-        else
-        {
-            logger.error("Failed to recreate index");
+        catch (IOException | ElasticsearchStatusException e) {
+            logger.warn("Could not list the versions of index " + alias, e);
         }
+        return versions;
     }
 
 }
@@ -0,0 +1,116 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.support.master.AcknowledgedResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.GetIndexTemplatesRequest;
+import org.elasticsearch.client.indices.IndexTemplateMetadata;
+import org.elasticsearch.client.indices.PutIndexTemplateRequest;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Installs the index templates shipped in /elasticsearch/{alias}-template.json. A template applies to the alias itself and to all of its versions ({alias}_v{n}),
+ * so that an index created implicitly by writing to a missing alias is mapped the same way.
+ * Each template carries a version. A template already installed in the cluster is only replaced by a higher version, so that an older broker does not downgrade the mapping of a newer one.
+ * Changed mappings take effect for the next version of an index, i.e. after the next rebuild or recreation
+ */
+final class IndexTemplates {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexTemplates.class);
+
+    static final String TEMPLATE_PREFIX = "broker-";
+
+    //Aliases whose template was checked since startup
+    private static final Set<String> installed = ConcurrentHashMap.newKeySet();
+
+    private IndexTemplates() {
+    }
+
+    /**
+     * Installs the template of an alias, unless it was already checked since startup
+     * @param alias Name under which the index is used, e.g. "resources"
+     * @param client Elasticsearch client
+     * @throws IOException if the template could not be read or installed
+     */
+    static void install(String alias, RestHighLevelClient client) throws IOException {
+        if (installed.contains(alias)) {
+            return;
+        }
+        Map<String, Object> template = load(alias);
+        if (template == null) {
+            logger.warn("No index template for " + alias + " found. Its fields are mapped dynamically.");
+            installed.add(alias);
+            return;
+        }
+        int version = ((Number) template.get("version")).intValue();
+        String name = TEMPLATE_PREFIX + alias;
+        Integer installedVersion = getInstalledVersion(name, client);
+        if (installedVersion != null && installedVersion >= version) {
+            logger.info("Index template " + name + " is up to date (version " + installedVersion + ")");
+            installed.add(alias);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> settings = new LinkedHashMap<>((Map<String, Object>) template.get("settings"));
+        settings.put("index.number_of_shards", IndexRecreator.numberOfShards);
+        settings.put("index.number_of_replicas", IndexRecreator.numberOfReplicas);
+        settings.put("index.refresh_interval", IndexRecreator.refreshInterval);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> mappings = (Map<String, Object>) template.get("mappings");
+        PutIndexTemplateRequest request = new PutIndexTemplateRequest(name)
+                .patterns(Arrays.asList(alias, alias + IndexRecreator.VERSION_SEPARATOR + "*"))
+                .version(version)
+                .settings(settings)
+                .mapping(mappings);
+        AcknowledgedResponse response = client.indices().putTemplate(request, RequestOptions.DEFAULT);
+        if (!response.isAcknowledged()) {
+            throw new IOException("Installation of index template " + name + " was not acknowledged");
+        }
+        logger.info("Installed index template " + name + " (version " + version + ", previously " + installedVersion + ")");
+        installed.add(alias);
+    }
+
+    /**
+     * @param alias Name under which the index is used
+     * @return The parsed template file, or null if there is no template for this alias
+     * @throws IOException if the template file could not be read
+     */
+    static Map<String, Object> load(String alias) throws IOException {
+        try (InputStream in = IndexTemplates.class.getResourceAsStream("/elasticsearch/" + alias + "-template.json")) {
+            if (in == null) {
+                return null;
+            }
+            return XContentHelper.convertToMap(XContentType.JSON.xContent(), in, true);
+        }
+    }
+
+    private static Integer getInstalledVersion(String name, RestHighLevelClient client) throws IOException {
+        try {
+            for (IndexTemplateMetadata template : client.indices().getIndexTemplate(new GetIndexTemplatesRequest(name), RequestOptions.DEFAULT).getIndexTemplates()) {
+                if (template.name().equals(name)) {
+                    return template.version();
+                }
+            }
+            return null;
+        }
+        catch (ElasticsearchStatusException e) {
+            if (e.status() == RestStatus.NOT_FOUND) {
+                return null;
+            }
+            throw e;
+        }
+    }
+}
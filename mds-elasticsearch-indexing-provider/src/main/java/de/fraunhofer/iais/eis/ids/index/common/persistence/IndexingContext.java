@@ -0,0 +1,67 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import org.apache.jena.rdf.model.RDFNode;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State of a single call indexing a connector, which is passed down to the methods building its documents.
+ * It holds the domain attributes prefetched for the resources of the connector and the catalog entries of the resource documents built so far.
+ * As every call has its own context, the same connector can be indexed concurrently, e.g. by a message handler and the reconciler, without sharing or releasing each other's state
+ */
+public final class IndexingContext {
+
+    private final URI connectorId;
+    //resource ID -> field -> values, or null if the domain attributes were not prefetched
+    private final Map<String, Map<String, List<RDFNode>>> domainAttributes;
+    //resource ID -> serialized catalog entry. Only accessed by the thread which consumes the built documents
+    private final Map<String, BytesReference> catalogEntries = new HashMap<>();
+
+    IndexingContext(URI connectorId, Map<String, Map<String, List<RDFNode>>> domainAttributes) {
+        this.connectorId = connectorId;
+        this.domainAttributes = domainAttributes;
+    }
+
+    /**
+     * Creates a context without prefetched domain attributes, e.g. for indexing a single resource
+     * @param connectorId The connector being indexed
+     * @return A new, empty context
+     */
+    public static IndexingContext of(URI connectorId) {
+        return new IndexingContext(connectorId, null);
+    }
+
+    public URI getConnectorId() {
+        return connectorId;
+    }
+
+    /**
+     * @return Domain attributes of all resources of the connector, or null if they were not prefetched and have to be queried per resource
+     */
+    Map<String, Map<String, List<RDFNode>>> getDomainAttributes() {
+        return domainAttributes;
+    }
+
+    void addCatalogEntry(String resourceId, BytesReference entry) {
+        catalogEntries.put(resourceId, entry);
+    }
+
+    /**
+     * @param resourceId ID of an offered resource
+     * @return The catalog entry taken from the document of the resource, or null if no document was built for it in this call
+     */
+    BytesReference getCatalogEntry(String resourceId) {
+        return catalogEntries.get(resourceId);
+    }
+
+    /**
+     * @return true if documents of resources were built in this call, so that the catalog of the connector document can be taken from them
+     */
+    boolean hasCatalogEntries() {
+        return !catalogEntries.isEmpty();
+    }
+}
@@ -0,0 +1,78 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.apache.jena.query.QuerySolution;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Timers of the indexing provider. They are registered in the global registry of Micrometer, which Spring Boot exports, e.g. via the Prometheus actuator endpoint.
+ * broker.indexing is tagged with the Indexing operation, broker.sparql with the SPARQL operation and the component issuing the query, and both with the outcome (success or failure)
+ */
+final class IndexingMetrics {
+
+    static final String INDEXING_TIMER = "broker.indexing";
+    static final String SPARQL_TIMER = "broker.sparql";
+
+    private IndexingMetrics() {
+    }
+
+    /**
+     * Part of the indexing code which may throw an IOException
+     */
+    @FunctionalInterface
+    interface IndexingCall<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * Executes a call and records its duration in a timer, tagged with the outcome of the call
+     * @param name Name of the timer
+     * @param call The call to time
+     * @param tags Tags as key/value pairs, in addition to the outcome
+     * @return Result of the call
+     * @throws IOException if the call failed
+     */
+    static <T> T time(String name, IndexingCall<T> call, String... tags) throws IOException {
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        String outcome = "failure";
+        try {
+            T result = call.call();
+            outcome = "success";
+            return result;
+        }
+        finally {
+            sample.stop(Metrics.timer(name, withOutcome(tags, outcome)));
+        }
+    }
+
+    /**
+     * Sends a SELECT query to the triple store and records its duration
+     * @param repo Triple store
+     * @param query SELECT query
+     * @param source Component sending the query, e.g. "domainAttributes"
+     * @return Query result
+     */
+    static ArrayList<QuerySolution> selectQuery(RepositoryFacade repo, String query, String source) {
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        String outcome = "failure";
+        try {
+            ArrayList<QuerySolution> result = repo.selectQuery(query);
+            outcome = "success";
+            return result;
+        }
+        finally {
+            sample.stop(Metrics.timer(SPARQL_TIMER, "operation", "select", "source", source, "outcome", outcome));
+        }
+    }
+
+    private static String[] withOutcome(String[] tags, String outcome) {
+        String[] allTags = new String[tags.length + 2];
+        System.arraycopy(tags, 0, allTags, 0, tags.length);
+        allTags[tags.length] = "outcome";
+        allTags[tags.length + 1] = outcome;
+        return allTags;
+    }
+}
@@ -0,0 +1,96 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import de.fraunhofer.iais.eis.Connector;
+import de.fraunhofer.iais.eis.InfrastructureComponent;
+import de.fraunhofer.iais.eis.Resource;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.spi.Indexing;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Decorator which records the duration and outcome of every call to the Indexing SPI in the timer broker.indexing, tagged with the operation.
+ * It wraps the indexing implementation itself, so that the time spent waiting in the queue of {@link AsyncIndexing} is not included
+ */
+public class MeteredIndexing implements Indexing<InfrastructureComponent> {
+
+    private final Indexing<InfrastructureComponent> delegate;
+
+    /**
+     * Constructor
+     * @param delegate The indexing implementation doing the actual work
+     */
+    public MeteredIndexing(Indexing<InfrastructureComponent> delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return The indexing implementation doing the actual work
+     */
+    public Indexing<InfrastructureComponent> getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void addResourceAsJson(String resourceId, String resourceAsJson) {
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        String outcome = "failure";
+        try {
+            delegate.addResourceAsJson(resourceId, resourceAsJson);
+            outcome = "success";
+        }
+        finally {
+            sample.stop(Metrics.timer(IndexingMetrics.INDEXING_TIMER, "operation", "addResourceAsJson", "outcome", outcome));
+        }
+    }
+
+    @Override
+    public void add(InfrastructureComponent infrastructureComponent) throws IOException {
+        IndexingMetrics.time(IndexingMetrics.INDEXING_TIMER, () -> {
+            delegate.add(infrastructureComponent);
+            return null;
+        }, "operation", "add");
+    }
+
+    @Override
+    public void update(InfrastructureComponent infrastructureComponent) throws IOException {
+        IndexingMetrics.time(IndexingMetrics.INDEXING_TIMER, () -> {
+            delegate.update(infrastructureComponent);
+            return null;
+        }, "operation", "update");
+    }
+
+    @Override
+    public void updateResource(Connector reducedConnector, Resource resource) throws IOException {
+        IndexingMetrics.time(IndexingMetrics.INDEXING_TIMER, () -> {
+            delegate.updateResource(reducedConnector, resource);
+            return null;
+        }, "operation", "updateResource");
+    }
+
+    @Override
+    public void delete(URI componentId) throws IOException {
+        IndexingMetrics.time(IndexingMetrics.INDEXING_TIMER, () -> {
+            delegate.delete(componentId);
+            return null;
+        }, "operation", "delete");
+    }
+
+    @Override
+    public void deleteResource(Connector reducedConnector, URI resourceId) throws IOException {
+        IndexingMetrics.time(IndexingMetrics.INDEXING_TIMER, () -> {
+            delegate.deleteResource(reducedConnector, resourceId);
+            return null;
+        }, "operation", "deleteResource");
+    }
+
+    @Override
+    public void recreateIndex(String indexName) throws IOException {
+        IndexingMetrics.time(IndexingMetrics.INDEXING_TIMER, () -> {
+            delegate.recreateIndex(indexName);
+            return null;
+        }, "operation", "recreateIndex");
+    }
+}
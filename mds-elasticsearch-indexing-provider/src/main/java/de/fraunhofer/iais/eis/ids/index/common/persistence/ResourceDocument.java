@@ -0,0 +1,156 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.bytes.CompositeBytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A serialized document of the resource index together with a fingerprint of its content.
+ * The fingerprint covers everything produced by handleResource, but not volatile fields such as the time of indexing.
+ * IDs generated by the infomodel for nested objects without an ID of their own (https://w3id.org/idsa/autogen/...) are left out as well, as they are generated anew
+ * whenever a connector is parsed. Two documents with the same fingerprint therefore do not need to be written again.
+ * The entry of the resource in the catalog of the connector document is derived from the same bytes, so that a resource is only serialized once.
+ */
+public class ResourceDocument {
+
+    //Fields of a resource which are repeated in the catalog of the connector document, see ElasticsearchIndexingConnector.handleCatalogEntry
+    private static final Set<String> CATALOG_FIELDS = Set.of("resourceID", "title", "description", "keyword", "publisherAsUri");
+    private static final String AUTOGEN_PREFIX = "https://w3id.org/idsa/autogen/";
+    //The random part of an autogenerated ID, which is removed before hashing
+    private static final Pattern AUTOGEN_ID = Pattern.compile("(" + Pattern.quote(AUTOGEN_PREFIX) + "[^/\\s\"]+/)[0-9a-fA-F-]+");
+
+    private final String id;
+    private final BytesReference source;
+    private final String fingerprint;
+    private final BytesReference catalogEntry;
+
+    ResourceDocument(String id, BytesReference source, String fingerprint, BytesReference catalogEntry) {
+        this.id = id;
+        this.source = source;
+        this.fingerprint = fingerprint;
+        this.catalogEntry = catalogEntry;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public BytesReference getSource() {
+        return source;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return The abbreviated form of the resource which is embedded in the catalog of the connector document
+     */
+    public BytesReference getCatalogEntry() {
+        return catalogEntry;
+    }
+
+    /**
+     * Completes a serialized resource. Its content is parsed once, which yields both the fingerprint and the catalog entry.
+     * The fingerprint and the time of indexing are appended to the serialized bytes, without copying them
+     * @param id ID of the resource
+     * @param content The object written by handleResource
+     * @param publisherAsUri Publisher URI to be added to the catalog entry if the content does not contain one, because the publisher was indexed as object
+     * @return The document of the resource index
+     * @throws IOException if the content could not be parsed
+     */
+    static ResourceDocument of(String id, BytesReference content, String publisherAsUri) throws IOException {
+        MessageDigest digest = newDigest();
+        XContentBuilder entry = XContentFactory.jsonBuilder(new BytesStreamOutput());
+        entry.startObject();
+        boolean hasFields = false;
+        boolean hasPublisherAsUri = false;
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, content.streamInput())) {
+            parser.nextToken();
+            //Depth below the root object, and whether the current field of the root object belongs to the catalog entry
+            int depth = 0;
+            boolean copying = false;
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT || depth > 0) {
+                if (depth == 0 && token == XContentParser.Token.FIELD_NAME) {
+                    hasFields = true;
+                    copying = CATALOG_FIELDS.contains(parser.currentName());
+                    hasPublisherAsUri |= copying && parser.currentName().equals("publisherAsUri");
+                }
+                update(digest, token, parser);
+                if (copying) {
+                    entry.generator().copyCurrentEvent(parser);
+                }
+                if (token == XContentParser.Token.START_OBJECT || token == XContentParser.Token.START_ARRAY) {
+                    depth++;
+                } else if (token == XContentParser.Token.END_OBJECT || token == XContentParser.Token.END_ARRAY) {
+                    depth--;
+                }
+            }
+        }
+        if (!hasPublisherAsUri && publisherAsUri != null) {
+            entry.field("publisherAsUri", publisherAsUri);
+        }
+        entry.endObject();
+
+        String fingerprint = Base64.getEncoder().encodeToString(digest.digest());
+        if (content.length() == 0 || content.get(content.length() - 1) != '}') {
+            throw new IllegalArgumentException("Content of resource " + id + " is not a JSON object");
+        }
+        //Base64 and a number need no escaping
+        BytesReference fields = new BytesArray((hasFields ? "," : "") + "\"" + ElasticsearchIndexing.CONTENT_HASH_FIELD + "\":\"" + fingerprint + "\","
+                + "\"lastChanged\":" + System.currentTimeMillis() + "}");
+        BytesReference source = CompositeBytesReference.of(content.slice(0, content.length() - 1), fields);
+        return new ResourceDocument(id, source, fingerprint, BytesReference.bytes(entry));
+    }
+
+    /**
+     * Adds a token to the fingerprint. Names and values are prefixed with their length, so that different token sequences cannot produce the same input
+     */
+    private static void update(MessageDigest digest, XContentParser.Token token, XContentParser parser) throws IOException {
+        digest.update((byte) token.ordinal());
+        String text;
+        if (token == XContentParser.Token.FIELD_NAME) {
+            text = parser.currentName();
+        } else if (token == XContentParser.Token.VALUE_STRING) {
+            text = parser.text();
+            if (text.contains(AUTOGEN_PREFIX)) {
+                text = AUTOGEN_ID.matcher(text).replaceAll("$1");
+            }
+        } else if (token.isValue()) {
+            text = parser.text();
+        } else {
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
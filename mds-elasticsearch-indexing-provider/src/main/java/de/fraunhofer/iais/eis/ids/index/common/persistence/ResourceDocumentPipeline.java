@@ -0,0 +1,131 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import de.fraunhofer.iais.eis.Resource;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the documents of the resources of a connector on a pool of worker threads, and hands them to the write stage in the order of the catalog.
+ * The resources of a connector are independent of each other, so serializing them (including toRdf and the domain attribute queries) scales with the number of cores.
+ * The pool is shared by all indexers and bounded: Each call keeps at most two documents per worker thread in flight, and if the queue of the pool is full,
+ * the calling thread builds the document itself. With a single thread, the documents are built on the calling thread, as before
+ */
+public final class ResourceDocumentPipeline {
+
+    /**
+     * Builds the document of a single resource
+     */
+    interface DocumentFactory {
+        ResourceDocument build(Resource resource) throws IOException;
+    }
+
+    /**
+     * Receives the documents, one after another and in the order of the resources
+     */
+    interface DocumentConsumer {
+        void accept(ResourceDocument document) throws IOException;
+    }
+
+    private static ThreadPoolExecutor executor;
+
+    private ResourceDocumentPipeline() {
+    }
+
+    /**
+     * Builds the documents of all resources and passes them to the consumer in the order of the resources.
+     * If a document cannot be built, the documents following it are discarded and the exception is thrown, as if they had been built one after another
+     * @param resources Resources to be indexed
+     * @param factory Builds the document of a resource. Called concurrently
+     * @param consumer Receives the documents. Called on the calling thread only
+     * @throws IOException if a document could not be built or consumed
+     */
+    static void forEach(List<Resource> resources, DocumentFactory factory, DocumentConsumer consumer) throws IOException {
+        ThreadPoolExecutor workers = resources.size() > 1 ? getExecutor() : null;
+        if (workers == null) {
+            for (Resource resource : resources) {
+                consumer.accept(factory.build(resource));
+            }
+            return;
+        }
+        int window = 2 * workers.getMaximumPoolSize();
+        ArrayDeque<Future<ResourceDocument>> pending = new ArrayDeque<>(window);
+        Iterator<Resource> iterator = resources.iterator();
+        try {
+            while (iterator.hasNext() || !pending.isEmpty()) {
+                while (iterator.hasNext() && pending.size() < window) {
+                    Resource resource = iterator.next();
+                    pending.add(workers.submit(() -> factory.build(resource)));
+                }
+                consumer.accept(await(pending.poll()));
+            }
+        }
+        finally {
+            for (Future<ResourceDocument> future : pending) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private static ResourceDocument await(Future<ResourceDocument> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while building resource documents");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return The shared pool, or null if documents are built on the calling thread
+     */
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int threads = ElasticsearchIndexing.documentBuildThreads > 0 ? ElasticsearchIndexing.documentBuildThreads : Runtime.getRuntime().availableProcessors();
+            if (threads < 2) {
+                return null;
+            }
+            AtomicInteger threadNumber = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(4 * threads), runnable -> {
+                Thread thread = new Thread(runnable, "document-builder-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, (task, pool) -> task.run()); //Unlike CallerRunsPolicy, the caller also runs the task if the pool was shut down in the meantime, so that no future is left incomplete
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Stops the worker threads. Documents which are being built are finished, later documents are built on the calling threads
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import de.fraunhofer.iais.eis.util.TypedLiteral;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Cache of the values derived from the terms of the IDS vocabularies (languages, actions, content types, operators, security profiles and so on), keyed by the URI of the term.
+ * The same few hundred terms appear in nearly every connector, so their labels are extracted once and then shared by all documents and threads. The values are interned.
+ * Only terms of the fixed vocabularies, which are enums of the information model, are cached, as their labels cannot differ between messages.
+ * Terms defined by the connectors themselves (e.g. media types) are derived anew each time and do not grow the cache
+ */
+final class VocabularyLabels {
+
+    private static final Map<String, List<String>> labels = new ConcurrentHashMap<>();
+    private static final Map<String, List<String>> securityProfileNames = new ConcurrentHashMap<>();
+
+    private VocabularyLabels() {
+    }
+
+    /**
+     * @param term Vocabulary term, may be null
+     * @param id Accessor of the URI of the term
+     * @param literals Accessor of the labels of the term
+     * @return The values of the labels of the term, without language, or null if the term or its labels are null
+     */
+    static <V> List<String> of(V term, Function<? super V, URI> id, Function<? super V, ? extends Collection<? extends TypedLiteral>> literals) {
+        if (term == null) {
+            return null;
+        }
+        URI uri = term instanceof Enum ? id.apply(term) : null;
+        if (uri == null) {
+            return values(literals.apply(term));
+        }
+        List<String> cached = labels.get(uri.toString());
+        if (cached == null) {
+            cached = values(literals.apply(term));
+            if (cached != null) {
+                labels.putIfAbsent(uri.toString(), cached);
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Display names of a security profile, cached by the URI of the profile
+     * @param profile Security profile, may be null
+     * @param id Accessor of the URI of the profile
+     * @param names Derivation of the names, which may return null
+     * @return The names of the security profile, or null if there are none
+     */
+    static <V> List<String> securityProfileNames(V profile, Function<? super V, URI> id, Function<? super V, List<String>> names) {
+        if (profile == null) {
+            return null;
+        }
+        URI uri = profile instanceof Enum ? id.apply(profile) : null;
+        if (uri == null) {
+            return intern(names.apply(profile));
+        }
+        List<String> cached = securityProfileNames.get(uri.toString());
+        if (cached == null) {
+            cached = intern(names.apply(profile));
+            if (cached != null) {
+                securityProfileNames.putIfAbsent(uri.toString(), cached);
+            }
+        }
+        return cached;
+    }
+
+    private static List<String> values(Collection<? extends TypedLiteral> literals) {
+        if (literals == null) {
+            return null;
+        }
+        List<String> values = new ArrayList<>(literals.size());
+        for (TypedLiteral literal : literals) {
+            values.add(literal == null || literal.getValue() == null ? null : literal.getValue().intern());
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    private static List<String> intern(List<String> names) {
+        if (names == null) {
+            return null;
+        }
+        List<String> interned = new ArrayList<>(names.size());
+        for (String name : names) {
+            interned.add(name == null ? null : name.intern());
+        }
+        return Collections.unmodifiableList(interned);
+    }
+}
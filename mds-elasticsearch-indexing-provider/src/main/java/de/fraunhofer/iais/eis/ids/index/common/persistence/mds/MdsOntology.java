@@ -0,0 +1,123 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence.mds;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.RDFS;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of the MDS ontology.
+ * It holds the domain properties which are indexed for each resource and the labels of all ontology terms,
+ * so that the Turtle file only needs to be parsed once instead of once per indexed resource.
+ */
+public final class MdsOntology {
+
+    /**
+     * Location of the ontology which is bundled with this module
+     */
+    public static final String BUNDLED_ONTOLOGY = "mds/mds-ontology.ttl";
+
+    private final List<String> domainProperties;
+    private final Map<String, String> labels;
+    private final String source;
+    private final long lastModified;
+
+    private MdsOntology(Model model, String source, long lastModified) {
+        List<String> properties = new ArrayList<>();
+        model.listStatements(null, null, OWL.ObjectProperty)
+                .mapWith(Statement::getSubject)
+                .forEach(resource -> properties.add("mds:" + resource.getLocalName()));
+        model.listStatements(null, null, OWL.DatatypeProperty)
+                .mapWith(Statement::getSubject)
+                .forEach(resource -> properties.add("mds:" + resource.getLocalName()));
+
+        Map<String, String> uriToLabel = new HashMap<>();
+        model.listStatements(null, RDFS.label, (String) null)
+                .forEach(statement -> uriToLabel.put(statement.getSubject().getURI(), statement.getObject().asLiteral().getString()));
+
+        this.domainProperties = List.copyOf(properties);
+        this.labels = Map.copyOf(uriToLabel);
+        this.source = source;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Parses the ontology which is bundled with this module
+     * @return Snapshot of the bundled ontology
+     */
+    public static MdsOntology loadBundled() {
+        Model model = ModelFactory.createDefaultModel();
+        try (InputStream in = Objects.requireNonNull(MdsOntology.class.getClassLoader().getResourceAsStream(BUNDLED_ONTOLOGY))) {
+            RDFDataMgr.read(model, in, Lang.TTL);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read bundled ontology " + BUNDLED_ONTOLOGY, e);
+        }
+        return new MdsOntology(model, "classpath:" + BUNDLED_ONTOLOGY, 0);
+    }
+
+    /**
+     * Parses an ontology from the file system
+     * @param path Path to a Turtle file
+     * @return Snapshot of the ontology
+     * @throws IOException if the file could not be read
+     */
+    public static MdsOntology load(Path path) throws IOException {
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        Model model = ModelFactory.createDefaultModel();
+        try (InputStream in = Files.newInputStream(path)) {
+            RDFDataMgr.read(model, in, Lang.TTL);
+        }
+        return new MdsOntology(model, path.toString(), lastModified);
+    }
+
+    /**
+     * @return Unmodifiable list of the domain properties, e.g. "mds:dataCategory"
+     */
+    public List<String> getDomainProperties() {
+        return domainProperties;
+    }
+
+    /**
+     * Looks up the rdfs:label of an ontology term
+     * @param uri URI of the term
+     * @param defaultValue Value to be returned if the term has no label
+     * @return The label, or the default value
+     */
+    public String getLabel(String uri, String defaultValue) {
+        return labels.getOrDefault(uri, defaultValue);
+    }
+
+    /**
+     * @return Number of terms which have a label
+     */
+    public int getLabelCount() {
+        return labels.size();
+    }
+
+    /**
+     * @return Location from which this snapshot was loaded
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return Modification time of the file this snapshot was loaded from, or 0 for the bundled ontology
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+}
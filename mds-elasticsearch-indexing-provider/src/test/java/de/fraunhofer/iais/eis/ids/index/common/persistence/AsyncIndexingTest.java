@@ -0,0 +1,310 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import de.fraunhofer.iais.eis.Connector;
+import de.fraunhofer.iais.eis.InfrastructureComponent;
+import de.fraunhofer.iais.eis.Resource;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.spi.Indexing;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncIndexingTest {
+
+    @Test
+    void laterUpdateSupersedesPendingUpdates() throws Exception {
+        Connector connector = connector("http://example.org/connector");
+        Connector firstUpdate = connector("http://example.org/connector");
+        Connector secondUpdate = connector("http://example.org/connector");
+        CountDownLatch addStarted = new CountDownLatch(1);
+        CountDownLatch releaseAdd = new CountDownLatch(1);
+        RecordingIndexing delegate = new RecordingIndexing() {
+            @Override
+            public void add(InfrastructureComponent component) throws IOException {
+                super.add(component);
+                addStarted.countDown();
+                await(releaseAdd);
+            }
+        };
+        AsyncIndexing indexing = new AsyncIndexing(delegate, 1, 100, 1000, 1, null);
+
+        //The worker is blocked in the addition, so that the following tasks are pending
+        indexing.add(connector);
+        assertTrue(addStarted.await(10, TimeUnit.SECONDS));
+        indexing.updateResource(connector, resource("http://example.org/resource"));
+        indexing.update(firstUpdate);
+        indexing.update(secondUpdate);
+        releaseAdd.countDown();
+
+        assertTrue(indexing.close(10, TimeUnit.SECONDS));
+        assertEquals(2, delegate.calls.size());
+        assertEquals("add http://example.org/connector", delegate.calls.get(0));
+        assertSame(secondUpdate, delegate.updated);
+        assertEquals(2, indexing.getCoalesced());
+        assertEquals(2, indexing.getCompleted());
+    }
+
+    @Test
+    void deletionSupersedesAdditionButUpdateDoesNot() throws Exception {
+        CountDownLatch releaseDelete = new CountDownLatch(1);
+        RecordingIndexing delegate = new RecordingIndexing() {
+            @Override
+            public void delete(URI componentId) throws IOException {
+                super.delete(componentId);
+                await(releaseDelete);
+            }
+        };
+        AsyncIndexing indexing = new AsyncIndexing(delegate, 1, 100, 1000, 1, null);
+
+        //Blocks the only worker, so that all tasks of the connector are pending
+        indexing.delete(URI.create("http://example.org/blocker"));
+        Connector connector = connector("http://example.org/connector");
+        indexing.add(connector);
+        indexing.update(connector);
+        indexing.delete(connector.getId());
+        indexing.add(connector);
+        indexing.update(connector);
+        releaseDelete.countDown();
+
+        assertTrue(indexing.close(10, TimeUnit.SECONDS));
+        assertEquals(4, delegate.calls.size());
+        assertEquals("delete http://example.org/blocker", delegate.calls.get(0));
+        assertEquals("delete http://example.org/connector", delegate.calls.get(1));
+        assertEquals("add http://example.org/connector", delegate.calls.get(2));
+        assertEquals("update http://example.org/connector", delegate.calls.get(3));
+        assertEquals(2, indexing.getCoalesced());
+    }
+
+    @Test
+    void tasksOfTheSameConnectorKeepTheirOrder() throws Exception {
+        int connectors = 8;
+        int resources = 100;
+        Map<String, List<String>> executed = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        AtomicInteger overlaps = new AtomicInteger();
+        RecordingIndexing delegate = new RecordingIndexing() {
+            @Override
+            public void updateResource(Connector reducedConnector, Resource resource) {
+                String key = reducedConnector.getId().toString();
+                if (running.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet() > 1) {
+                    overlaps.incrementAndGet();
+                }
+                if (ThreadLocalRandom.current().nextInt(10) == 0) {
+                    Thread.yield();
+                }
+                executed.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<>())).add(resource.getId().toString());
+                running.get(key).decrementAndGet();
+            }
+        };
+        AsyncIndexing indexing = new AsyncIndexing(delegate, 4, 10, 10000, 1, null);
+
+        //Interleave the connectors, with a capacity below the number of tasks, so that producers wait for the workers
+        for (int r = 0; r < resources; r++) {
+            for (int c = 0; c < connectors; c++) {
+                indexing.updateResource(connector("http://example.org/connector/" + c), resource("http://example.org/connector/" + c + "/resource/" + r));
+            }
+        }
+
+        assertTrue(indexing.close(30, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+        assertEquals(connectors, executed.size());
+        for (int c = 0; c < connectors; c++) {
+            List<String> order = executed.get("http://example.org/connector/" + c);
+            assertEquals(resources, order.size());
+            for (int r = 0; r < resources; r++) {
+                assertEquals("http://example.org/connector/" + c + "/resource/" + r, order.get(r));
+            }
+        }
+        assertEquals(connectors * resources, indexing.getCompleted());
+        assertEquals(0, indexing.getCoalesced());
+    }
+
+    @Test
+    void failedTaskIsRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        RecordingIndexing delegate = new RecordingIndexing() {
+            @Override
+            public void add(InfrastructureComponent component) throws IOException {
+                super.add(component);
+                if (attempts.incrementAndGet() == 1) {
+                    throw new IOException("Elasticsearch not available");
+                }
+            }
+        };
+        AsyncIndexing indexing = new AsyncIndexing(delegate, 1, 100, 1000, 3, null);
+
+        indexing.add(connector("http://example.org/connector"));
+
+        assertTrue(indexing.close(10, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+        assertEquals(1, indexing.getCompleted());
+        assertEquals(0, indexing.getFailed());
+    }
+
+    @Test
+    void taskIsDroppedAfterLastAttemptWithoutWaiting() throws Exception {
+        RecordingIndexing delegate = new RecordingIndexing() {
+            @Override
+            public void delete(URI componentId) throws IOException {
+                super.delete(componentId);
+                throw new IOException("Elasticsearch not available");
+            }
+        };
+        AsyncIndexing indexing = new AsyncIndexing(delegate, 1, 100, 1000, 3, null) {
+            @Override
+            void backOff(int attempt) {
+                delegate.calls.add("backOff " + attempt);
+            }
+        };
+
+        indexing.delete(URI.create("http://example.org/connector"));
+        assertTrue(indexing.close(10, TimeUnit.SECONDS));
+
+        //A delay between the attempts, none after the last one
+        assertEquals(List.of("delete http://example.org/connector", "backOff 1", "delete http://example.org/connector", "backOff 2", "delete http://example.org/connector"),
+                delegate.calls);
+        assertEquals(1, indexing.getFailed());
+        assertEquals(0, indexing.getCompleted());
+    }
+
+    @Test
+    void spooledTasksAreExecutedAfterRestart(@TempDir Path spoolDirectory) throws Exception {
+        CountDownLatch releaseBlocker = new CountDownLatch(1);
+        RecordingIndexing blocked = new RecordingIndexing() {
+            @Override
+            public void delete(URI componentId) throws IOException {
+                super.delete(componentId);
+                await(releaseBlocker);
+            }
+        };
+        AsyncIndexing indexing = new AsyncIndexing(blocked, 1, 100, 1000, 1, spoolDirectory);
+
+        //The only worker is blocked, so that the other tasks are still queued when the broker stops.
+        //Only deletions are used, as the test doubles of connectors cannot be serialized
+        indexing.delete(URI.create("http://example.org/blocker"));
+        indexing.delete(URI.create("http://example.org/first"));
+        indexing.delete(URI.create("http://example.org/second"));
+        assertFalse(indexing.close(1, TimeUnit.SECONDS));
+        //The interrupted task was not finished either
+        assertEquals(List.of("delete http://example.org/blocker"), blocked.calls);
+        assertEquals(0, indexing.getFailed());
+        assertEquals(3, spoolFiles(spoolDirectory).size());
+
+        RecordingIndexing delegate = new RecordingIndexing();
+        AsyncIndexing restarted = new AsyncIndexing(delegate, 1, 100, 1000, 1, spoolDirectory);
+        assertTrue(restarted.close(10, TimeUnit.SECONDS));
+        assertEquals(List.of("delete http://example.org/blocker", "delete http://example.org/first", "delete http://example.org/second"), delegate.calls);
+        assertEquals(List.of(), spoolFiles(spoolDirectory));
+    }
+
+    @Test
+    void executedAndSupersededTasksLeaveNoSpoolFiles(@TempDir Path spoolDirectory) throws Exception {
+        RecordingIndexing delegate = new RecordingIndexing();
+        AsyncIndexing indexing = new AsyncIndexing(delegate, 2, 100, 1000, 1, spoolDirectory);
+
+        for (int i = 0; i < 50; i++) {
+            indexing.deleteResource(connector("http://example.org/connector"), URI.create("http://example.org/connector/resource/" + i));
+            indexing.delete(URI.create("http://example.org/connector/" + i));
+        }
+        indexing.delete(URI.create("http://example.org/connector"));
+
+        assertTrue(indexing.close(10, TimeUnit.SECONDS));
+        assertEquals(List.of(), spoolFiles(spoolDirectory));
+        assertEquals(101, indexing.getCompleted() + indexing.getCoalesced());
+    }
+
+    @Test
+    void closedQueueRejectsTasks() throws Exception {
+        AsyncIndexing indexing = new AsyncIndexing(new RecordingIndexing(), 2, 100, 1000, 1, null);
+        assertTrue(indexing.close(10, TimeUnit.SECONDS));
+        assertThrows(IOException.class, () -> indexing.delete(URI.create("http://example.org/connector")));
+    }
+
+    private static List<Path> spoolFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+                throw new IOException("Test timed out");
+            }
+        }
+        catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static Connector connector(String id) {
+        return (Connector) Proxy.newProxyInstance(AsyncIndexingTest.class.getClassLoader(), new Class<?>[]{Connector.class},
+                (proxy, method, args) -> method.getName().equals("getId") ? URI.create(id) : null);
+    }
+
+    private static Resource resource(String id) {
+        return (Resource) Proxy.newProxyInstance(AsyncIndexingTest.class.getClassLoader(), new Class<?>[]{Resource.class},
+                (proxy, method, args) -> method.getName().equals("getId") ? URI.create(id) : null);
+    }
+
+    private static class RecordingIndexing implements Indexing<InfrastructureComponent> {
+
+        final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        volatile InfrastructureComponent updated;
+
+        @Override
+        public void addResourceAsJson(String resourceId, String resourceAsJson) {
+        }
+
+        @Override
+        public void add(InfrastructureComponent component) throws IOException {
+            calls.add("add " + component.getId());
+        }
+
+        @Override
+        public void update(InfrastructureComponent component) throws IOException {
+            calls.add("update " + component.getId());
+            updated = component;
+        }
+
+        @Override
+        public void updateResource(Connector reducedConnector, Resource resource) throws IOException {
+            calls.add("updateResource " + resource.getId());
+        }
+
+        @Override
+        public void delete(URI componentId) throws IOException {
+            calls.add("delete " + componentId);
+        }
+
+        @Override
+        public void deleteResource(Connector reducedConnector, URI resourceId) throws IOException {
+            calls.add("deleteResource " + resourceId);
+        }
+
+        @Override
+        public void recreateIndex(String indexName) {
+        }
+    }
+}
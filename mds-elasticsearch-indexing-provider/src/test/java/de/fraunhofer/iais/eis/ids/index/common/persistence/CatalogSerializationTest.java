@@ -0,0 +1,137 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import de.fraunhofer.iais.eis.Resource;
+import de.fraunhofer.iais.eis.ResourceCatalog;
+import de.fraunhofer.iais.eis.util.TypedLiteral;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that the catalog of a connector document, which is joined from the catalog entries of the resource documents without parsing them,
+ * is valid JSON and the same as the catalog serialized from the resources
+ */
+class CatalogSerializationTest {
+
+    private static final URI CONNECTOR_ID = URI.create("http://example.org/connector");
+
+    private static ElasticsearchIndexing indexing;
+
+    @BeforeAll
+    static void setUp() {
+        indexing = new ElasticsearchIndexing();
+    }
+
+    @AfterAll
+    static void tearDown() throws IOException {
+        ElasticsearchClientFactory.close();
+    }
+
+    @Test
+    void joinedCatalogMatchesFullSerialization() throws IOException {
+        Resource first = resource("first", "First resource", URI.create("http://example.org/publisher"));
+        Resource second = resource("second", "Quotes \", backslashes \\, a\nline break and non-ASCII characters \u00fc\u20ac\ud83d\ude00", null);
+        ResourceCatalog catalog = catalog(Arrays.asList(first, second), URI.create(CONNECTOR_ID + "/resource/third"));
+
+        Map<String, Object> joined = serialize(catalog, contextWithDocumentsOf(first, second));
+
+        assertEquals(3, ((List<?>) joined.get("resources")).size());
+        assertEquals(serialize(catalog, IndexingContext.of(CONNECTOR_ID)), joined);
+    }
+
+    @Test
+    void resourceWithoutDocumentIsSerializedFromObject() throws IOException {
+        Resource built = resource("built", "Built resource", null);
+        Resource notBuilt = resource("notBuilt", "Resource without document", URI.create("http://example.org/publisher"));
+        ResourceCatalog catalog = catalog(Arrays.asList(notBuilt, built));
+
+        Map<String, Object> joined = serialize(catalog, contextWithDocumentsOf(built));
+
+        assertEquals(2, ((List<?>) joined.get("resources")).size());
+        assertEquals(serialize(catalog, IndexingContext.of(CONNECTOR_ID)), joined);
+    }
+
+    @Test
+    void emptyCatalogIsEmptyArray() throws IOException {
+        //The context has entries, but none of them belongs to this catalog
+        ResourceCatalog catalog = catalog(new ArrayList<>());
+
+        Map<String, Object> joined = serialize(catalog, contextWithDocumentsOf(resource("other", "Resource of another catalog", null)));
+
+        assertEquals(0, ((List<?>) joined.get("resources")).size());
+        assertEquals(serialize(catalog, IndexingContext.of(CONNECTOR_ID)), joined);
+    }
+
+    /**
+     * @return A context holding the catalog entries of the documents built for the resources, as when a connector is indexed
+     */
+    private static IndexingContext contextWithDocumentsOf(Resource... resources) throws IOException {
+        IndexingContext context = IndexingContext.of(CONNECTOR_ID);
+        for (Resource resource : resources) {
+            ResourceDocument document = indexing.buildResourceDocument(resource, context);
+            context.addCatalogEntry(document.getId(), document.getCatalogEntry());
+        }
+        return context;
+    }
+
+    /**
+     * Serializes a catalog as in the connector document and parses it again, which fails if it is not valid JSON
+     */
+    private static Map<String, Object> serialize(ResourceCatalog catalog, IndexingContext context) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        indexing.handleConnectorCatalog(catalog, builder, context);
+        builder.endObject();
+        return XContentHelper.convertToMap(BytesReference.bytes(builder), true, XContentType.JSON).v2();
+    }
+
+    private static Resource resource(String name, String title, URI publisher) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("getId", URI.create(CONNECTOR_ID + "/resource/" + name));
+        values.put("getTitle", new ArrayList<>(List.of(new TypedLiteral(title, "en"))));
+        values.put("getDescription", new ArrayList<>(List.of(new TypedLiteral("Description of " + title, "en"))));
+        values.put("getKeyword", new ArrayList<>(List.of(new TypedLiteral(name, "en"), new TypedLiteral("resource", "en"))));
+        values.put("getPublisherAsUri", publisher);
+        return model(Resource.class, values);
+    }
+
+    private static ResourceCatalog catalog(List<Resource> resources, URI... resourceUris) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("getOfferedResourceAsObject", new ArrayList<>(resources));
+        values.put("getOfferedResourceAsUri", new ArrayList<>(Arrays.asList(resourceUris)));
+        return model(ResourceCatalog.class, values);
+    }
+
+    /**
+     * Creates an infomodel object which returns the given values from its getters and null from all others
+     */
+    private static <T> T model(Class<T> type, Map<String, Object> values) {
+        return type.cast(Proxy.newProxyInstance(CatalogSerializationTest.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return String.valueOf(values.get("getId"));
+                default:
+                    return values.get(method.getName());
+            }
+        }));
+    }
+}
@@ -0,0 +1,107 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Tests the fingerprints of the connector graphs computed by the triple store
+ */
+class ConnectorGraphsTest {
+
+    private static final String GRAPH = "@prefix ids: <https://w3id.org/idsa/core/> .\n"
+            + "<http://example.org/connector> a ids:BaseConnector ;\n"
+            + "    ids:title \"Connector\"@en, \"Konnektor\"@de ;\n"
+            + "    ids:version \"1\"^^<http://www.w3.org/2001/XMLSchema#integer> ;\n"
+            + "    ids:hasDefaultEndpoint [ a ids:ConnectorEndpoint ; ids:accessURL <http://example.org/api> ] .\n";
+
+    private final Dataset dataset = DatasetFactory.createTxnMem();
+
+    private final RepositoryFacade repositoryFacade = new RepositoryFacade() {
+        @Override
+        public ArrayList<QuerySolution> selectQuery(String query) {
+            ArrayList<QuerySolution> solutions = new ArrayList<>();
+            try (QueryExecution execution = QueryExecutionFactory.create(query, dataset)) {
+                ResultSet resultSet = execution.execSelect();
+                resultSet.forEachRemaining(solutions::add);
+            }
+            return solutions;
+        }
+    };
+
+    @Test
+    void fingerprintIsCountAndSumOfTripleHashes() throws Exception {
+        dataset.addNamedModel("http://example.org/graph", parse("<http://example.org/a> <http://example.org/p> \"x\"@en, <http://example.org/b> ."));
+
+        Map<URI, String> fingerprints = fingerprints("http://example.org/graph");
+
+        BigInteger sum = hash("http://example.org/a http://example.org/p x@en^^http://www.w3.org/1999/02/22-rdf-syntax-ns#langString")
+                .add(hash("http://example.org/a http://example.org/p http://example.org/b"));
+        assertEquals("2:" + sum, fingerprints.get(URI.create("http://example.org/graph")));
+    }
+
+    @Test
+    void fingerprintDoesNotDependOnOrderOrBlankNodeLabels() {
+        Model graph = parse(GRAPH);
+        //Same triples, written in reverse order and with freshly labelled blank nodes
+        Model reversed = ModelFactory.createDefaultModel();
+        ArrayList<Statement> statements = new ArrayList<>(graph.listStatements().toList());
+        for (int i = statements.size() - 1; i >= 0; i--) {
+            reversed.add(statements.get(i));
+        }
+        dataset.addNamedModel("http://example.org/graph", graph);
+        dataset.addNamedModel("http://example.org/reversed", reversed);
+        dataset.addNamedModel("http://example.org/relabelled", parse(GRAPH));
+        dataset.addNamedModel("http://example.org/changed", parse(GRAPH.replace("\"Konnektor\"@de", "\"Konnektor\"@en")));
+
+        Map<URI, String> fingerprints = fingerprints("http://example.org/graph", "http://example.org/reversed", "http://example.org/relabelled", "http://example.org/changed", "http://example.org/missing");
+
+        String fingerprint = fingerprints.get(URI.create("http://example.org/graph"));
+        assertEquals(fingerprint, fingerprints.get(URI.create("http://example.org/reversed")));
+        assertEquals(fingerprint, fingerprints.get(URI.create("http://example.org/relabelled")));
+        assertNotEquals(fingerprint, fingerprints.get(URI.create("http://example.org/changed")));
+        assertFalse(fingerprints.containsKey(URI.create("http://example.org/missing")));
+        assertEquals("7", fingerprint.split(":")[0]);
+    }
+
+    private Map<URI, String> fingerprints(String... graphs) {
+        ArrayList<URI> uris = new ArrayList<>();
+        Arrays.stream(graphs).map(URI::create).forEach(uris::add);
+        return ConnectorGraphs.getFingerprints(repositoryFacade, uris, "test");
+    }
+
+    private static Model parse(String turtle) {
+        Model model = ModelFactory.createDefaultModel();
+        RDFParser.fromString(turtle).lang(Lang.TTL).parse(model);
+        return model;
+    }
+
+    /**
+     * The leading 64 bits of the SHA-256 hash of a triple
+     */
+    private static BigInteger hash(String triple) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(triple.getBytes(StandardCharsets.UTF_8));
+        return new BigInteger(1, Arrays.copyOf(digest, 8));
+    }
+}
@@ -0,0 +1,203 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import de.fraunhofer.iais.eis.Resource;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Tests that the domain attributes fetched with one query per connector graph are indexed the same way as with one query per resource and attribute
+ */
+class DomainAttributeQueryTest {
+
+    private static final URI CONNECTOR_ID = URI.create("http://example.org/connectors/connector");
+
+    private static final String GRAPH = "@prefix ids: <https://w3id.org/idsa/core/> .\n"
+            + "@prefix mds: <http://w3id.org/mds#> .\n"
+            + "@prefix cat: <http://w3id.org/mds/data-categories#> .\n"
+            + "@prefix tmode: <http://w3id.org/mds/transport-mode#> .\n"
+            + "<" + CONNECTOR_ID + "/resource/first> a ids:Resource ;\n"
+            + "    mds:dataCategory cat:TrafficInformation ;\n"
+            + "    mds:transportMode tmode:Road, tmode:Rail, <http://example.org/unknownMode> ;\n"
+            + "    mds:dataModel \"DATEX II\", \"NeTEx\" ;\n"
+            + "    mds:geoReferenceMethod \"WGS 84\"@en .\n"
+            + "<" + CONNECTOR_ID + "/resource/second> a ids:Resource ;\n"
+            + "    mds:transportMode tmode:Water .\n"
+            + "<" + CONNECTOR_ID + "/resource/third> a ids:Resource .\n";
+
+    private static final List<String> RESOURCES = Arrays.asList("first", "second", "third");
+
+    private static ElasticsearchIndexingMobiDS indexing;
+
+    @BeforeAll
+    static void setUp() {
+        Dataset dataset = DatasetFactory.createTxnMem();
+        Model graph = ModelFactory.createDefaultModel();
+        RDFParser.fromString(GRAPH).lang(Lang.TTL).parse(graph);
+        dataset.addNamedModel(CONNECTOR_ID.toString(), graph);
+        //Another connector offering the same resource must not contribute any values
+        Model otherGraph = ModelFactory.createDefaultModel();
+        RDFParser.fromString(GRAPH.replace("mds:dataModel \"DATEX II\"", "mds:dataModel \"GTFS\"")).lang(Lang.TTL).parse(otherGraph);
+        dataset.addNamedModel("http://example.org/connectors/other", otherGraph);
+
+        indexing = new ElasticsearchIndexingMobiDS() {
+            //Every property is listed twice, which doubles the bindings of the batched query
+            @Override
+            protected List<String> getDomainProperties() {
+                List<String> properties = new ArrayList<>(super.getDomainProperties());
+                properties.addAll(super.getDomainProperties());
+                return properties;
+            }
+        };
+        indexing.setRepo(new RepositoryFacade() {
+            @Override
+            public ArrayList<QuerySolution> selectQuery(String query) {
+                ArrayList<QuerySolution> solutions = new ArrayList<>();
+                try (QueryExecution execution = QueryExecutionFactory.create(query, dataset)) {
+                    ResultSet result = execution.execSelect();
+                    result.forEachRemaining(solutions::add);
+                }
+                return solutions;
+            }
+        });
+    }
+
+    @AfterEach
+    void resetMode() {
+        ElasticsearchIndexing.batchedDomainAttributes = true;
+    }
+
+    @AfterAll
+    static void tearDown() throws IOException {
+        ElasticsearchClientFactory.close();
+    }
+
+    @Test
+    void batchedQueryIndexesSameFieldsAsQueryPerResource() throws IOException {
+        ElasticsearchIndexing.batchedDomainAttributes = true;
+        IndexingContext context = indexing.createIndexingContext(connector());
+        List<Map<String, Object>> batched = new ArrayList<>();
+        for (String name : RESOURCES) {
+            batched.add(customFields(resource(name), context));
+        }
+
+        ElasticsearchIndexing.batchedDomainAttributes = false;
+        List<Map<String, Object>> perResource = new ArrayList<>();
+        for (String name : RESOURCES) {
+            perResource.add(customFields(resource(name), IndexingContext.of(CONNECTOR_ID)));
+        }
+
+        assertEquals(sorted(perResource), sorted(batched));
+        assertEquals(Arrays.asList("Road", "Rail", "http://example.org/unknownMode").stream().sorted().collect(Collectors.toList()),
+                batched.get(0).get("mds:transportMode"));
+        assertEquals(Arrays.asList("DATEX II", "NeTEx"), batched.get(0).get("mds:dataModel"));
+        assertFalse(batched.get(2).containsKey("mds:dataCategory"));
+    }
+
+    @Test
+    void groupRemovesDuplicateValues() {
+        List<QuerySolution> solutions = new ArrayList<>();
+        solutions.add(solution("first", "mds:dataModel", ResourceFactory.createStringLiteral("NeTEx")));
+        solutions.add(solution("first", "mds:dataModel", ResourceFactory.createStringLiteral("DATEX II")));
+        solutions.add(solution("first", "mds:dataModel", ResourceFactory.createStringLiteral("NeTEx")));
+        solutions.add(solution("first", "mds:dataModel", ResourceFactory.createLangLiteral("NeTEx", "en")));
+        solutions.add(solution("second", "mds:dataModel", ResourceFactory.createStringLiteral("NeTEx")));
+
+        Map<String, Map<String, List<RDFNode>>> attributes = DomainAttributeQuery.group(solutions);
+
+        assertEquals(Arrays.asList(ResourceFactory.createStringLiteral("DATEX II"), ResourceFactory.createStringLiteral("NeTEx"), ResourceFactory.createLangLiteral("NeTEx", "en")),
+                attributes.get(CONNECTOR_ID + "/resource/first").get("mds:dataModel"));
+        assertEquals(List.of(ResourceFactory.createStringLiteral("NeTEx")), attributes.get(CONNECTOR_ID + "/resource/second").get("mds:dataModel"));
+        assertFalse(DomainAttributeQuery.build("", CONNECTOR_ID, List.of("mds:dataModel"), null).contains("?resource {"));
+    }
+
+    /**
+     * Serializes the custom fields of a resource and parses them again
+     */
+    private static Map<String, Object> customFields(Resource resource, IndexingContext context) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        indexing.handleResourceCustomFields(resource, builder, context);
+        builder.endObject();
+        return XContentHelper.convertToMap(BytesReference.bytes(builder), true, XContentType.JSON).v2();
+    }
+
+    /**
+     * Sorts the values of every field. The query per resource concatenates the values in the order of the triple store
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> sorted(List<Map<String, Object>> documents) {
+        for (Map<String, Object> document : documents) {
+            for (Map.Entry<String, Object> field : document.entrySet()) {
+                if (field.getValue() instanceof List) {
+                    ((List<String>) field.getValue()).sort(null);
+                }
+            }
+        }
+        return documents;
+    }
+
+    private static QuerySolution solution(String resource, String field, RDFNode value) {
+        QuerySolutionMap solution = new QuerySolutionMap();
+        solution.add("resource", ResourceFactory.createResource(CONNECTOR_ID + "/resource/" + resource));
+        solution.add("field", ResourceFactory.createStringLiteral(field));
+        solution.add("value", value);
+        return solution;
+    }
+
+    private static de.fraunhofer.iais.eis.Connector connector() {
+        return model(de.fraunhofer.iais.eis.Connector.class, Map.of("getId", CONNECTOR_ID));
+    }
+
+    private static Resource resource(String name) {
+        return model(Resource.class, Map.of("getId", URI.create(CONNECTOR_ID + "/resource/" + name)));
+    }
+
+    /**
+     * Creates an infomodel object which returns the given values from its getters and null from all others
+     */
+    private static <T> T model(Class<T> type, Map<String, Object> values) {
+        return type.cast(Proxy.newProxyInstance(DomainAttributeQueryTest.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return String.valueOf(values.get("getId"));
+                default:
+                    return values.get(method.getName());
+            }
+        }));
+    }
+}
@@ -0,0 +1,102 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import org.apache.http.HttpEntity;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests that a compressed bulk request is the request the high level client would send, by parsing its decompressed body the way Elasticsearch does
+ */
+class ElasticsearchClientFactoryTest {
+
+    @Test
+    void compressedBulkRequestRoundTrips() throws IOException {
+        BulkRequest request = new BulkRequest()
+                .add(new IndexRequest("resources").id("http://example.org/resource")
+                        .source("{\"title\":[\"Quotes \\\" and line\\nbreaks \u00fc\"],\"bytesize\":1024}", XContentType.JSON))
+                .add(new IndexRequest("registrations").id("http://example.org/connector").routing("connector")
+                        .source(Map.of("title", "Connector"))
+                        .setIfSeqNo(3).setIfPrimaryTerm(1))
+                .add(new UpdateRequest("registrations", "http://example.org/connector")
+                        .script(new Script(ScriptType.INLINE, "painless", "ctx._source.catalog = params.catalog", Map.of("catalog", List.of("a", "b"))))
+                        .retryOnConflict(3))
+                .add(new UpdateRequest("resources", "http://example.org/other").routing("other")
+                        .doc(Map.of("title", "Patched")).docAsUpsert(true))
+                .add(new DeleteRequest("resources", "http://example.org/deleted").routing("deleted"))
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL);
+
+        Request compressed = ElasticsearchClientFactory.toCompressedRequest(request);
+
+        assertEquals("POST", compressed.getMethod());
+        assertEquals("/_bulk", compressed.getEndpoint());
+        assertEquals("wait_for", compressed.getParameters().get("refresh"));
+        assertEquals("gzip", compressed.getEntity().getContentEncoding().getValue());
+        byte[] body = decompress(compressed.getEntity());
+        BulkRequest parsed = new BulkRequest().add(body, 0, body.length, XContentType.JSON);
+
+        List<DocWriteRequest<?>> items = parsed.requests();
+        assertEquals(5, items.size());
+        for (int i = 0; i < items.size(); i++) {
+            DocWriteRequest<?> expected = request.requests().get(i);
+            DocWriteRequest<?> actual = items.get(i);
+            assertEquals(expected.opType(), actual.opType());
+            assertEquals(expected.index(), actual.index());
+            assertEquals(expected.id(), actual.id());
+            assertEquals(expected.routing(), actual.routing());
+            assertEquals(expected.ifSeqNo(), actual.ifSeqNo());
+            assertEquals(expected.ifPrimaryTerm(), actual.ifPrimaryTerm());
+        }
+        assertEquals(((IndexRequest) request.requests().get(0)).sourceAsMap(), ((IndexRequest) items.get(0)).sourceAsMap());
+        assertEquals(((IndexRequest) request.requests().get(1)).sourceAsMap(), ((IndexRequest) items.get(1)).sourceAsMap());
+
+        UpdateRequest scripted = (UpdateRequest) items.get(2);
+        assertEquals(request.requests().get(2).toString(), scripted.toString());
+        assertEquals("ctx._source.catalog = params.catalog", scripted.script().getIdOrCode());
+        assertEquals(Map.of("catalog", List.of("a", "b")), scripted.script().getParams());
+        assertEquals(3, scripted.retryOnConflict());
+        assertNull(scripted.doc());
+
+        UpdateRequest doc = (UpdateRequest) items.get(3);
+        assertEquals(Map.of("title", "Patched"), doc.doc().sourceAsMap());
+        assertEquals(true, doc.docAsUpsert());
+        assertNull(doc.script());
+    }
+
+    @Test
+    void emptyDocumentWithoutRefreshPolicyRoundTrips() throws IOException {
+        BulkRequest request = new BulkRequest().add(new IndexRequest("resources").id("empty").source("{}", XContentType.JSON));
+
+        byte[] body = decompress(ElasticsearchClientFactory.toCompressedRequest(request).getEntity());
+        BulkRequest parsed = new BulkRequest().add(body, 0, body.length, XContentType.JSON);
+
+        assertEquals(Map.of(), ((IndexRequest) parsed.requests().get(0)).sourceAsMap());
+        assertNull(ElasticsearchClientFactory.toCompressedRequest(request).getParameters().get("refresh"));
+    }
+
+    private static byte[] decompress(HttpEntity entity) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(entity.getContent())) {
+            in.transferTo(out);
+        }
+        return out.toByteArray();
+    }
+}
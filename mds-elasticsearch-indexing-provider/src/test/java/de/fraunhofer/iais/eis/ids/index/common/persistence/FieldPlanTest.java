@@ -0,0 +1,427 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import de.fraunhofer.iais.eis.AbstractConstraint;
+import de.fraunhofer.iais.eis.Artifact;
+import de.fraunhofer.iais.eis.Constraint;
+import de.fraunhofer.iais.eis.ContractOffer;
+import de.fraunhofer.iais.eis.Duty;
+import de.fraunhofer.iais.eis.Endpoint;
+import de.fraunhofer.iais.eis.LogicalConstraint;
+import de.fraunhofer.iais.eis.MediaType;
+import de.fraunhofer.iais.eis.Participant;
+import de.fraunhofer.iais.eis.Permission;
+import de.fraunhofer.iais.eis.Prohibition;
+import de.fraunhofer.iais.eis.Representation;
+import de.fraunhofer.iais.eis.RepresentationInstance;
+import de.fraunhofer.iais.eis.Resource;
+import de.fraunhofer.iais.eis.util.TypedLiteral;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Tests that the field plans write the same documents as the code writing one field after another which they replaced,
+ * apart from the assignees and assigners of permissions and prohibitions, which were mixed up before
+ */
+class FieldPlanTest {
+
+    private static final URI CONNECTOR_ID = URI.create("http://example.org/connector");
+
+    private static ElasticsearchIndexing indexing;
+
+    @BeforeAll
+    static void setUp() {
+        indexing = new ElasticsearchIndexing();
+    }
+
+    @AfterAll
+    static void tearDown() throws IOException {
+        ElasticsearchClientFactory.close();
+    }
+
+    @Test
+    void generatedResourceMatchesPreviousSerialization() throws Exception {
+        Resource resource = MaximumGenerator.generate(Resource.class);
+
+        assertSameDocument(builder -> indexing.handleResourceBasicFields(resource, builder, CONNECTOR_ID), builder -> Previous.resourceBasicFields(resource, builder, CONNECTOR_ID));
+        if (resource.getRepresentation() != null) {
+            for (Representation representation : resource.getRepresentation()) {
+                assertSameDocument(builder -> indexing.handleRepresentationBasicFields(representation, builder), builder -> Previous.representationBasicFields(representation, builder));
+                if (representation.getMediaType() != null) {
+                    assertSameDocument(builder -> indexing.handleRepresentationMediaType(representation.getMediaType(), builder), builder -> Previous.mediaType(representation.getMediaType(), builder));
+                }
+                if (representation.getInstance() != null) {
+                    for (RepresentationInstance instance : representation.getInstance()) {
+                        if (instance instanceof Artifact) {
+                            assertSameDocument(builder -> indexing.handleArtifact((Artifact) instance, builder), builder -> Previous.artifact((Artifact) instance, builder));
+                        }
+                    }
+                }
+            }
+        }
+        if (resource.getResourceEndpoint() != null) {
+            for (Endpoint endpoint : resource.getResourceEndpoint()) {
+                assertSameDocument(builder -> indexing.handleEndpointBasicFields(endpoint, builder), builder -> Previous.endpointBasicFields(endpoint, builder));
+            }
+        }
+        //The generator creates a contract offer with a permission
+        assertFalse(resource.getContractOffer().isEmpty());
+        for (ContractOffer contract : resource.getContractOffer()) {
+            assertFalse(contract.getPermission().isEmpty());
+            assertSameDocument(builder -> indexing.handleResourceContractBasicFields(contract, builder), builder -> Previous.contractBasicFields(contract, builder));
+            if (contract.getContractAnnex() != null) {
+                assertSameDocument(builder -> indexing.handleResourceContractAnnex(contract, builder), builder -> Previous.contractAnnex(contract, builder));
+            }
+            if (contract.getContractDocument() != null) {
+                assertSameDocument(builder -> indexing.handleResourceContractDocument(contract, builder), builder -> Previous.contractDocument(contract, builder));
+            }
+            for (Permission permission : contract.getPermission()) {
+                assertSameDocument(builder -> indexing.handleResourceContractPermission(permission, builder), builder -> Previous.permission(permission, builder));
+            }
+            if (contract.getProhibition() != null) {
+                for (Prohibition prohibition : contract.getProhibition()) {
+                    assertSameDocument(builder -> indexing.handleResourceContractProhibition(prohibition, builder), builder -> Previous.prohibition(prohibition, builder));
+                }
+            }
+        }
+    }
+
+    @Test
+    void generatedParticipantMatchesPreviousSerialization() throws Exception {
+        Participant participant = MaximumGenerator.generate(Participant.class);
+
+        assertSameDocument(builder -> ElasticsearchIndexingParticipant.handleParticipantBasicFields(participant, builder), builder -> Previous.participantBasicFields(participant, builder));
+    }
+
+    @Test
+    void permissionAssigneeIsWritten() throws IOException {
+        Map<String, Object> values = new HashMap<>();
+        values.put("getId", URI.create("http://example.org/permission"));
+        values.put("getAssignee", new ArrayList<>(List.of(URI.create("http://example.org/assignee"))));
+        values.put("getAssigner", new ArrayList<>(List.of(URI.create("http://example.org/assigner"))));
+        Permission permission = model(Permission.class, values);
+
+        Map<String, Object> document = serialize(builder -> indexing.handleResourceContractPermission(permission, builder));
+
+        assertEquals(List.of("http://example.org/assignee"), document.get("permissionAssignee"));
+    }
+
+    @Test
+    void prohibitionAssignerIsWritten() throws IOException {
+        Map<String, Object> values = new HashMap<>();
+        values.put("getId", URI.create("http://example.org/prohibition"));
+        values.put("getAssignee", new ArrayList<>(List.of(URI.create("http://example.org/assignee"))));
+        values.put("getAssigner", new ArrayList<>(List.of(URI.create("http://example.org/assigner"))));
+        Prohibition prohibition = model(Prohibition.class, values);
+
+        Map<String, Object> document = serialize(builder -> indexing.handleResourceContractProhibition(prohibition, builder));
+
+        assertEquals(List.of("http://example.org/assigner"), document.get("prohibitionAssigner"));
+    }
+
+    @Test
+    void elementWhichCannotBeConvertedOmitsArray() throws IOException {
+        FieldPlan<List<Object>> plan = FieldPlan.<List<Object>>builder()
+                .strings("ids", list -> list, element -> ((URI) element).toString())
+                .value("next", list -> "after")
+                .build();
+
+        Map<String, Object> document = serialize(builder -> plan.write(Arrays.asList(URI.create("http://example.org/first"), "not a URI"), builder, new FieldBuilderWrapper()));
+
+        assertEquals(Map.of("next", "after"), document);
+    }
+
+    private interface Writer {
+        void write(XContentBuilder builder) throws IOException;
+    }
+
+    /**
+     * Compares the JSON written into an open object, byte for byte
+     */
+    private static void assertSameDocument(Writer actual, Writer expected) throws IOException {
+        assertEquals(json(expected), json(actual));
+    }
+
+    private static String json(Writer writer) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        writer.write(builder);
+        builder.endObject();
+        return BytesReference.bytes(builder).utf8ToString();
+    }
+
+    private static Map<String, Object> serialize(Writer writer) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        writer.write(builder);
+        builder.endObject();
+        return XContentHelper.convertToMap(BytesReference.bytes(builder), true, XContentType.JSON).v2();
+    }
+
+    /**
+     * Creates an infomodel object which returns the given values from its getters and null from all others
+     */
+    private static <T> T model(Class<T> type, Map<String, Object> values) {
+        return type.cast(Proxy.newProxyInstance(FieldPlanTest.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return values.get(method.getName());
+            }
+        }));
+    }
+
+    /**
+     * The fields as they were written before the field plans, one lambda per field, with the assignees and assigners fixed
+     */
+    private static final class Previous {
+
+        private static final FieldBuilderWrapper fbw = new FieldBuilderWrapper();
+
+        static void resourceBasicFields(Resource resource, XContentBuilder builder, URI connectorId) {
+            fbw.x(() -> builder.field("resourceID", resource.getId().toString()), "resourceID");
+            fbw.x(() -> builder.field("connectorID", connectorId.toString()), "connectorID");
+            if (resource.getTitle() != null)
+                fbw.x(() -> builder.field("title", values(resource.getTitle())), "title");
+            if (resource.getDescription() != null)
+                fbw.x(() -> builder.field("description", values(resource.getDescription())), "description");
+            if (resource.getKeyword() != null)
+                fbw.x(() -> builder.field("keyword", values(resource.getKeyword())), "keywords");
+            if (resource.getSample() != null && !resource.getSample().isEmpty())
+                fbw.x(() -> builder.field("sample", resource.getSample().get(0).getId().toString()), "sample");
+            if (resource.getLanguage() != null) {
+                fbw.x(() -> builder.field("language", resource.getLanguage().stream().map(lang -> values(lang.getLabel())).collect(Collectors.toList())), "languages");
+                fbw.x(() -> builder.field("labelLanguage", resource.getLanguage().stream().map(lang -> values(lang.getLabel())).collect(Collectors.toList())), "labelLanguage");
+            }
+            if (resource.getCustomLicense() != null)
+                fbw.x(() -> builder.field("customLicense", resource.getCustomLicense().toString()), "custom license");
+            if (resource.getStandardLicense() != null)
+                fbw.x(() -> builder.field("standardLicense", resource.getStandardLicense().toString()), "standard license");
+            if (resource.getVersion() != null)
+                fbw.x(() -> builder.field("version", resource.getVersion()), "version");
+            if (resource.getContentType() != null) {
+                fbw.x(() -> builder.field("contentType", values(resource.getContentType().getLabel())), "contentType");
+                fbw.x(() -> builder.field("contentTypeSerialized", resource.getContentType().getId().toString()), "contentTypeSerialized");
+                fbw.x(() -> builder.field("contentTypeLabel", values(resource.getContentType().getLabel())), "contentTypeLabel");
+            }
+            if (resource.getContentStandard() != null)
+                fbw.x(() -> builder.field("contentStandard", resource.getContentStandard().toString()), "contentStandard");
+            if (resource.getPublisherAsObject() == null && resource.getPublisherAsUri() != null)
+                fbw.x(() -> builder.field("publisherAsUri", resource.getPublisherAsUri().toString()), "publisherAsUri");
+        }
+
+        static void representationBasicFields(Representation representation, XContentBuilder builder) throws IOException {
+            if (representation.getId() != null)
+                builder.field("id", representation.getId().toString());
+            if (representation.getRepresentationStandard() != null)
+                fbw.x(() -> builder.field("representationStandard", representation.getRepresentationStandard().toString()), "representationStandard");
+        }
+
+        static void mediaType(MediaType mediaType, XContentBuilder builder) {
+            fbw.x(() -> builder.field("mediatype", mediaType.getId().toString()), "mediatype");
+            fbw.x(() -> builder.field("labelMediatype", values(mediaType.getLabel())), "labelMediatype");
+            if (mediaType.getFilenameExtension() != null)
+                fbw.x(() -> builder.field("filenameExtensionMediatype", mediaType.getFilenameExtension()), "labelMediatype");
+        }
+
+        static void artifact(Artifact artifact, XContentBuilder builder) throws IOException {
+            builder.field("id", artifact.getId().toString());
+            if (artifact.getByteSize() != null && !artifact.getByteSize().equals(new BigInteger("0")))
+                fbw.x(() -> builder.field("bytesize", artifact.getByteSize()), "bytesize");
+            if (artifact.getFileName() != null)
+                fbw.x(() -> builder.field("filename", artifact.getFileName()), "filename");
+            if (artifact.getCreationDate() != null)
+                fbw.x(() -> builder.timeField("creation", artifact.getCreationDate().toGregorianCalendar().getTime()), "creation");
+        }
+
+        static void endpointBasicFields(Endpoint endpoint, XContentBuilder builder) throws IOException {
+            builder.field("id", endpoint.getId().toString());
+            if (endpoint.getPath() != null)
+                fbw.x(() -> builder.field("Path", endpoint.getPath()), "Path");
+            if (endpoint.getInboundPath() != null)
+                fbw.x(() -> builder.field("inboundPath", endpoint.getInboundPath()), "inboundPath");
+            if (endpoint.getOutboundPath() != null)
+                fbw.x(() -> builder.field("outboundPath", endpoint.getOutboundPath()), "outboundPath");
+            if (endpoint.getEndpointDocumentation() != null)
+                fbw.x(() -> builder.field("endpointDocumentation", endpoint.getEndpointDocumentation().toString()), "endpointDocumentation");
+            if (endpoint.getEndpointInformation() != null && endpoint.getEndpointInformation().size() > 0)
+                fbw.x(() -> builder.field("endpointInformation", endpoint.getEndpointInformation()), "endpointInformation");
+            if (endpoint.getAccessURL() != null)
+                fbw.x(() -> builder.field("endpointAccessUrl", endpoint.getAccessURL().toString()), "endpointAccessUrl");
+        }
+
+        static void contractBasicFields(ContractOffer contract, XContentBuilder builder) throws IOException {
+            builder.field("id", contract.getId().toString());
+            if (contract.getConsumer() != null)
+                fbw.x(() -> builder.field("contractConsumer", contract.getConsumer().toString()), "contractConsumer");
+            if (contract.getProvider() != null)
+                fbw.x(() -> builder.field("contractProvider", contract.getProvider().toString()), "contractProvider");
+            if (contract.getContractStart() != null)
+                fbw.x(() -> builder.timeField("contractStart", contract.getContractStart().toGregorianCalendar().getTime()), "contractStart");
+            if (contract.getContractEnd() != null)
+                fbw.x(() -> builder.timeField("contractEnd", contract.getContractEnd().toGregorianCalendar().getTime()), "contractEnd");
+            if (contract.getContractDate() != null)
+                fbw.x(() -> builder.timeField("contractDate", contract.getContractDate().toGregorianCalendar().getTime()), "contractDate");
+        }
+
+        static void contractAnnex(ContractOffer contract, XContentBuilder builder) {
+            if (contract.getContractAnnex().getTitle() != null)
+                fbw.x(() -> builder.field("annexTitle", values(contract.getContractAnnex().getTitle())), "annexTitle");
+        }
+
+        static void contractDocument(ContractOffer contract, XContentBuilder builder) throws IOException {
+            if (contract.getContractDocument().getId() != null)
+                builder.field("id", contract.getContractDocument().getId().toString());
+            if (contract.getContractDocument().getTitle() != null)
+                fbw.x(() -> builder.field("docTitle", values(contract.getContractDocument().getTitle())), "docTitle");
+            if (contract.getContractDocument().getDescription() != null)
+                fbw.x(() -> builder.field("docDesc", values(contract.getContractDocument().getDescription())), "docDesc");
+        }
+
+        static void permission(Permission permission, XContentBuilder builder) throws IOException {
+            builder.field("id", permission.getId().toString());
+            if (permission.getTitle() != null)
+                fbw.x(() -> builder.field("permissionTitle", values(permission.getTitle())), "permissionTitle");
+            if (permission.getDescription() != null)
+                fbw.x(() -> builder.field("permissionDesc", values(permission.getDescription())), "permissionDesc");
+            if (permission.getAction() != null)
+                fbw.x(() -> builder.field("permissionAction", permission.getAction().stream().map(action -> values(action.getLabel())).collect(Collectors.toList())), "permissionAction");
+            if (permission.getAssignee() != null)
+                fbw.x(() -> builder.field("permissionAssignee", permission.getAssignee().stream().map(URI::toString).collect(Collectors.toList())), "permissionAssignee");
+            if (permission.getAssigner() != null)
+                fbw.x(() -> builder.field("permissionAssigner", permission.getAssigner().stream().map(URI::toString).collect(Collectors.toList())), "permissionAssigner");
+            constraints("permissionConstraint", permission.getConstraint(), builder);
+            duties("permissionPreDuty", permission.getPreDuty(), builder);
+            duties("permissionPostDuty", permission.getPostDuty(), builder);
+        }
+
+        static void prohibition(Prohibition prohibition, XContentBuilder builder) throws IOException {
+            builder.field("id", prohibition.getId().toString());
+            if (prohibition.getTitle() != null)
+                fbw.x(() -> builder.field("prohibitionTitle", values(prohibition.getTitle())), "prohibitionTitle");
+            if (prohibition.getDescription() != null)
+                fbw.x(() -> builder.field("prohibitionDesc", values(prohibition.getDescription())), "prohibitionDesc");
+            if (prohibition.getAction() != null)
+                fbw.x(() -> builder.field("prohibitionAction", prohibition.getAction().stream().map(action -> values(action.getLabel())).collect(Collectors.toList())), "prohibitionAction");
+            constraints("prohibitionConstraint", prohibition.getConstraint(), builder);
+            if (prohibition.getAssignee() != null)
+                fbw.x(() -> builder.field("prohibitionAssignee", prohibition.getAssignee().stream().map(URI::toString).collect(Collectors.toList())), "prohibitionAssignee");
+            if (prohibition.getAssigner() != null)
+                fbw.x(() -> builder.field("prohibitionAssigner", prohibition.getAssigner().stream().map(URI::toString).collect(Collectors.toList())), "prohibitionAssigner");
+        }
+
+        private static void duties(String name, List<Duty> duties, XContentBuilder builder) throws IOException {
+            if (duties != null && !duties.isEmpty()) {
+                builder.startArray(name);
+                for (Duty duty : duties) {
+                    builder.startObject();
+                    builder.field("id", duty.getId().toString());
+                    if (duty.getTitle() != null)
+                        fbw.x(() -> builder.field("dutyTitle", values(duty.getTitle())), "dutyTitle");
+                    if (duty.getDescription() != null)
+                        fbw.x(() -> builder.field("dutyDesc", values(duty.getDescription())), "dutyDesc");
+                    if (duty.getAction() != null)
+                        fbw.x(() -> builder.field("dutyAction", duty.getAction().stream().map(action -> values(action.getLabel())).collect(Collectors.toList())), "dutyAction");
+                    if (duty.getAssignee() != null)
+                        fbw.x(() -> builder.field("dutyAssignee", duty.getAssignee().stream().map(URI::toString).collect(Collectors.toList())), "dutyAssignee");
+                    if (duty.getAssigner() != null)
+                        fbw.x(() -> builder.field("dutyAssigner", duty.getAssigner().stream().map(URI::toString).collect(Collectors.toList())), "dutyAssigner");
+                    constraints("dutyConstraint", duty.getConstraint(), builder);
+                    builder.endObject();
+                }
+                builder.endArray();
+            }
+        }
+
+        private static void constraints(String name, List<AbstractConstraint> constraints, XContentBuilder builder) throws IOException {
+            if (constraints != null) {
+                builder.startArray(name);
+                for (AbstractConstraint constraint : constraints) {
+                    builder.startObject();
+                    constraint(constraint, builder);
+                    builder.endObject();
+                }
+                builder.endArray();
+            }
+        }
+
+        private static void constraint(AbstractConstraint abstractConstraint, XContentBuilder builder) throws IOException {
+            if (abstractConstraint instanceof Constraint) {
+                Constraint constraint = (Constraint) abstractConstraint;
+                if (constraint.getLeftOperand() != null)
+                    fbw.x(() -> builder.field("leftOperand", values(constraint.getLeftOperand().getLabel())), "leftOperand");
+                if (constraint.getOperator() != null)
+                    fbw.x(() -> builder.field("operator", values(constraint.getOperator().getLabel())), "operator");
+                if (constraint.getRightOperand() != null)
+                    fbw.x(() -> builder.field("rightOperand", constraint.getRightOperand().getValue()), "rightOperand");
+            }
+            else if (abstractConstraint instanceof LogicalConstraint) {
+                LogicalConstraint logical = (LogicalConstraint) abstractConstraint;
+                logicalConstraints("and", logical.getAnd(), builder);
+                logicalConstraints("or", logical.getOr(), builder);
+                logicalConstraints("xone", logical.getXone(), builder);
+            }
+        }
+
+        private static void logicalConstraints(String name, List<Constraint> constraints, XContentBuilder builder) throws IOException {
+            if (constraints != null) {
+                builder.startArray(name);
+                for (Constraint constraint : constraints) {
+                    builder.startObject();
+                    constraint(constraint, builder);
+                    builder.endObject();
+                }
+                builder.endArray();
+            }
+        }
+
+        static void participantBasicFields(Participant participant, XContentBuilder builder) {
+            if (participant.getTitle() != null)
+                fbw.x(() -> builder.field("title", values(participant.getTitle())), "title");
+            if (participant.getDescription() != null)
+                fbw.x(() -> builder.field("description", values(participant.getDescription())), "description");
+            if (participant.getCorporateEmailAddress() != null && !participant.getCorporateEmailAddress().isEmpty())
+                fbw.x(() -> builder.field("corporateEmailAddress", participant.getCorporateEmailAddress()), "corporateEmailAddress");
+            if (participant.getCorporateHomepage() != null)
+                fbw.x(() -> builder.field("corporateHomepage", participant.getCorporateHomepage().toString()), "corporateHomepage");
+            if (participant.getMemberParticipant() != null && !participant.getMemberParticipant().isEmpty())
+                fbw.x(() -> builder.field("memberParticipant", participant.getMemberParticipant().stream().map(val -> val.getId().toString()).collect(Collectors.toList())), "memberParticipant");
+            if (participant.getVersion() != null)
+                fbw.x(() -> builder.field("version", participant.getVersion()), "version");
+            if (participant.getPrimarySite() != null)
+                fbw.x(() -> builder.field("primarySite", participant.getPrimarySite().getSiteAddress()), "primarySite");
+            if (participant.getJurisdiction() != null)
+                fbw.x(() -> builder.field("jurisdiction", participant.getJurisdiction()), "jurisdiction");
+            if (participant.getLegalForm() != null)
+                fbw.x(() -> builder.field("legalForm", participant.getLegalForm()), "legalForm");
+            if (participant.getLegalName() != null && !participant.getLegalName().isEmpty())
+                fbw.x(() -> builder.field("legalName", participant.getLegalName()), "legalName");
+            if (participant.getVatID() != null)
+                fbw.x(() -> builder.field("VatID", participant.getVatID()), "VatID");
+        }
+
+        private static List<String> values(List<? extends TypedLiteral> literals) {
+            return literals.stream().map(TypedLiteral::getValue).collect(Collectors.toList());
+        }
+    }
+}
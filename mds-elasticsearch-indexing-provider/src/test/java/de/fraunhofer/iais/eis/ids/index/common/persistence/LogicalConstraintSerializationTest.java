@@ -0,0 +1,127 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import de.fraunhofer.iais.eis.AbstractConstraint;
+import de.fraunhofer.iais.eis.BinaryOperator;
+import de.fraunhofer.iais.eis.Constraint;
+import de.fraunhofer.iais.eis.LeftOperand;
+import de.fraunhofer.iais.eis.LogicalConstraint;
+import de.fraunhofer.iais.eis.RdfResource;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that logical constraints are serialized as valid JSON, with the constraints they combine in closed arrays,
+ * so that the fields following them end up in the right object
+ */
+class LogicalConstraintSerializationTest {
+
+    @Test
+    void logicalConstraintsAreClosed() throws IOException {
+        LogicalConstraint logical = logical(
+                Arrays.asList(constraint("and-1"), constraint("and-2")),
+                Arrays.asList(constraint("or-1")),
+                Arrays.asList(constraint("xone-1"), constraint("xone-2")));
+
+        Map<String, Object> document = serialize(logical, constraint("plain"), logical(null, Arrays.asList(constraint("only-or")), null));
+
+        List<Map<String, Object>> constraints = objects(document.get("permissionConstraint"));
+        assertEquals(3, constraints.size());
+        assertEquals(Arrays.asList("and-1", "and-2"), rightOperands(constraints.get(0).get("and")));
+        assertEquals(Arrays.asList("or-1"), rightOperands(constraints.get(0).get("or")));
+        assertEquals(Arrays.asList("xone-1", "xone-2"), rightOperands(constraints.get(0).get("xone")));
+        assertEquals(3, constraints.get(0).size());
+        //The constraint after the logical constraint is a sibling, not part of its last array
+        assertEquals("plain", constraints.get(1).get("rightOperand"));
+        assertTrue(constraints.get(1).containsKey("leftOperand"));
+        assertTrue(constraints.get(1).containsKey("operator"));
+        assertEquals(Arrays.asList("only-or"), rightOperands(constraints.get(2).get("or")));
+        assertFalse(constraints.get(2).containsKey("and"));
+        assertFalse(constraints.get(2).containsKey("xone"));
+        //Fields after the constraints are written to the enclosing object
+        assertEquals("after", document.get("next"));
+    }
+
+    @Test
+    void emptyLogicalConstraintIsEmptyArray() throws IOException {
+        Map<String, Object> document = serialize(logical(new ArrayList<>(), null, null));
+
+        List<Map<String, Object>> constraints = objects(document.get("permissionConstraint"));
+        assertEquals(List.of(), constraints.get(0).get("and"));
+        assertEquals("after", document.get("next"));
+    }
+
+    /**
+     * Serializes constraints as in the permissions of a contract, followed by another field, and parses the result again
+     */
+    private static Map<String, Object> serialize(AbstractConstraint... constraints) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        builder.startArray("permissionConstraint");
+        for (AbstractConstraint constraint : constraints) {
+            builder.startObject();
+            ElasticsearchIndexingConnector.handleAbstractConstraint(constraint, builder);
+            builder.endObject();
+        }
+        builder.endArray();
+        builder.field("next", "after");
+        builder.endObject();
+        return XContentHelper.convertToMap(BytesReference.bytes(builder), true, XContentType.JSON).v2();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> objects(Object array) {
+        return (List<Map<String, Object>>) array;
+    }
+
+    private static List<Object> rightOperands(Object array) {
+        return objects(array).stream().map(constraint -> constraint.get("rightOperand")).collect(Collectors.toList());
+    }
+
+    private static Constraint constraint(String rightOperand) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("getLeftOperand", LeftOperand.PURPOSE);
+        values.put("getOperator", BinaryOperator.SAME_AS);
+        values.put("getRightOperand", new RdfResource(rightOperand));
+        return model(Constraint.class, values);
+    }
+
+    private static LogicalConstraint logical(List<Constraint> and, List<Constraint> or, List<Constraint> xone) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("getAnd", and == null ? null : new ArrayList<>(and));
+        values.put("getOr", or == null ? null : new ArrayList<>(or));
+        values.put("getXone", xone == null ? null : new ArrayList<>(xone));
+        return model(LogicalConstraint.class, values);
+    }
+
+    /**
+     * Creates an infomodel object which returns the given values from its getters and null from all others
+     */
+    private static <T> T model(Class<T> type, Map<String, Object> values) {
+        return type.cast(Proxy.newProxyInstance(LogicalConstraintSerializationTest.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return values.get(method.getName());
+            }
+        }));
+    }
+}
@@ -0,0 +1,121 @@
+package de.fraunhofer.iais.eis.ids.index.common.persistence;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the fingerprint, the source and the catalog entry of resource documents, which are all produced in a single pass over the serialized resource
+ */
+class ResourceDocumentTest {
+
+    private static final String RESOURCE = "{\"resourceID\":\"http://example.org/resource\",\"connectorID\":\"http://example.org/connector\","
+            + "\"title\":[\"Title\"],\"description\":[\"Description\"],\"keyword\":[\"a\",\"b\"],"
+            + "\"representation\":[{\"id\":\"%s\",\"instance\":[{\"id\":\"%s\",\"bytesize\":1024,\"compressed\":true,\"checksum\":null}]}],"
+            + "\"resourceAsJsonLd\":\"{\\n  \\\"@id\\\" : \\\"%s\\\"\\n}\"}";
+
+    @Test
+    void fingerprintIgnoresAutogeneratedIds() throws IOException {
+        ResourceDocument first = document(String.format(RESOURCE,
+                "https://w3id.org/idsa/autogen/representation/0b7c1c0e-7c8e-4f0e-8f5a-2f7a3c1d9e01",
+                "https://w3id.org/idsa/autogen/artifact/5d3e8a71-0c2b-4c55-9a0e-6b1f2d3c4e5f",
+                "https://w3id.org/idsa/autogen/artifact/5d3e8a71-0c2b-4c55-9a0e-6b1f2d3c4e5f"));
+        ResourceDocument second = document(String.format(RESOURCE,
+                "https://w3id.org/idsa/autogen/representation/a1b2c3d4-e5f6-4789-8abc-def012345678",
+                "https://w3id.org/idsa/autogen/artifact/ffffffff-0000-4000-8000-000000000000",
+                "https://w3id.org/idsa/autogen/artifact/ffffffff-0000-4000-8000-000000000000"));
+
+        assertEquals(first.getFingerprint(), second.getFingerprint());
+    }
+
+    @Test
+    void fingerprintCoversOtherIds() throws IOException {
+        ResourceDocument first = document(String.format(RESOURCE, "http://example.org/representation/1", "http://example.org/artifact", "http://example.org/artifact"));
+        ResourceDocument second = document(String.format(RESOURCE, "http://example.org/representation/2", "http://example.org/artifact", "http://example.org/artifact"));
+        //The type of an autogenerated ID is kept
+        ResourceDocument third = document(String.format(RESOURCE,
+                "https://w3id.org/idsa/autogen/representation/0b7c1c0e-7c8e-4f0e-8f5a-2f7a3c1d9e01", "http://example.org/artifact", "http://example.org/artifact"));
+        ResourceDocument fourth = document(String.format(RESOURCE,
+                "https://w3id.org/idsa/autogen/artifact/0b7c1c0e-7c8e-4f0e-8f5a-2f7a3c1d9e01", "http://example.org/artifact", "http://example.org/artifact"));
+
+        assertNotEquals(first.getFingerprint(), second.getFingerprint());
+        assertNotEquals(third.getFingerprint(), fourth.getFingerprint());
+    }
+
+    @Test
+    void fingerprintCoversValuesAndStructure() throws IOException {
+        String base = document("{\"title\":[\"ab\",\"c\"],\"bytesize\":1}").getFingerprint();
+
+        assertEquals(base, document("{\"title\":[\"ab\",\"c\"],\"bytesize\":1}").getFingerprint());
+        assertNotEquals(base, document("{\"title\":[\"a\",\"bc\"],\"bytesize\":1}").getFingerprint());
+        assertNotEquals(base, document("{\"title\":[\"ab\",\"c\"],\"bytesize\":2}").getFingerprint());
+        assertNotEquals(base, document("{\"title\":[\"ab\",\"c\"],\"bytesize\":\"1\"}").getFingerprint());
+        assertNotEquals(base, document("{\"title\":[[\"ab\"],\"c\"],\"bytesize\":1}").getFingerprint());
+        assertNotEquals(base, document("{\"name\":[\"ab\",\"c\"],\"bytesize\":1}").getFingerprint());
+    }
+
+    @Test
+    void sourceContainsFingerprintAndTimeOfIndexing() throws IOException {
+        String content = String.format(RESOURCE, "http://example.org/representation", "http://example.org/artifact", "http://example.org/artifact");
+        long before = System.currentTimeMillis();
+        ResourceDocument document = document(content);
+
+        Map<String, Object> source = XContentHelper.convertToMap(document.getSource(), true, XContentType.JSON).v2();
+        Map<String, Object> expected = XContentHelper.convertToMap(new BytesArray(content), true, XContentType.JSON).v2();
+        expected.put(ElasticsearchIndexing.CONTENT_HASH_FIELD, document.getFingerprint());
+        assertTrue(((Number) source.get("lastChanged")).longValue() >= before);
+        expected.put("lastChanged", source.get("lastChanged"));
+        assertEquals(expected, source);
+        //The time of indexing is not part of the fingerprint
+        assertEquals(document.getFingerprint(), document(content).getFingerprint());
+    }
+
+    @Test
+    void emptyContentGetsFingerprintAndTime() throws IOException {
+        ResourceDocument document = document("{}");
+
+        Map<String, Object> source = XContentHelper.convertToMap(document.getSource(), true, XContentType.JSON).v2();
+        assertEquals(document.getFingerprint(), source.get(ElasticsearchIndexing.CONTENT_HASH_FIELD));
+        assertEquals(2, source.size());
+    }
+
+    @Test
+    void catalogEntryContainsCatalogFields() throws IOException {
+        String content = String.format(RESOURCE, "http://example.org/representation", "http://example.org/artifact", "http://example.org/artifact");
+
+        Map<String, Object> entry = XContentHelper.convertToMap(ResourceDocument.of("http://example.org/resource", new BytesArray(content), "http://example.org/publisher")
+                .getCatalogEntry(), true, XContentType.JSON).v2();
+
+        assertEquals("http://example.org/resource", entry.get("resourceID"));
+        assertEquals(List.of("Title"), entry.get("title"));
+        assertEquals(List.of("Description"), entry.get("description"));
+        assertEquals(List.of("a", "b"), entry.get("keyword"));
+        assertEquals("http://example.org/publisher", entry.get("publisherAsUri"));
+        assertEquals(5, entry.size());
+        assertFalse(entry.containsKey("representation"));
+    }
+
+    @Test
+    void publisherAsUriOfContentIsKept() throws IOException {
+        Map<String, Object> entry = XContentHelper.convertToMap(ResourceDocument.of("http://example.org/resource",
+                new BytesArray("{\"resourceID\":\"http://example.org/resource\",\"publisherAsUri\":\"http://example.org/indexed\"}"), "http://example.org/other")
+                .getCatalogEntry(), true, XContentType.JSON).v2();
+
+        assertEquals("http://example.org/indexed", entry.get("publisherAsUri"));
+        assertEquals(2, entry.size());
+    }
+
+    private static ResourceDocument document(String content) throws IOException {
+        return ResourceDocument.of("http://example.org/resource", new BytesArray(content), null);
+    }
+}
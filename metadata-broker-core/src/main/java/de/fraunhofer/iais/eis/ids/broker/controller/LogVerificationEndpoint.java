@@ -0,0 +1,54 @@
+package de.fraunhofer.iais.eis.ids.broker.controller;
+
+import de.fraunhofer.iais.eis.ids.index.common.persistence.logging.LogArchiveVerifier;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.logging.LogVerificationJob;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint for verifying the signed log files of the broker, available at /actuator/logverification once it is exposed via management.endpoints.web.exposure.include.
+ * It is not exposed by default, as it reveals the log files and a verification is expensive. POST starts a verification in the background, GET returns the report of the last one
+ */
+@Component
+@Endpoint(id = "logverification")
+public class LogVerificationEndpoint {
+
+    /**
+     * @return State of the verification and the report of the last completed verification (404 if there is none yet)
+     */
+    @ReadOperation
+    public WebEndpointResponse<Map<String, Object>> lastReport() {
+        LogArchiveVerifier.Report report = LogVerificationJob.getLastReport();
+        return new WebEndpointResponse<>(status(report), report == null ? WebEndpointResponse.STATUS_NOT_FOUND : WebEndpointResponse.STATUS_OK);
+    }
+
+    /**
+     * Starts verifying all log files in the log directory of the broker, unless a verification is already running
+     * @return 202 with the report of the last completed verification, or 503 if no key for verifying the log files is available
+     */
+    @WriteOperation
+    public WebEndpointResponse<Map<String, Object>> verify() {
+        try {
+            LogVerificationJob.start();
+        }
+        catch (IllegalStateException e) {
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("error", e.getMessage());
+            return new WebEndpointResponse<>(body, WebEndpointResponse.STATUS_SERVICE_UNAVAILABLE);
+        }
+        return new WebEndpointResponse<>(status(LogVerificationJob.getLastReport()), 202);
+    }
+
+    private static Map<String, Object> status(LogArchiveVerifier.Report report) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("running", LogVerificationJob.isRunning());
+        body.put("lastReport", report);
+        return body;
+    }
+}
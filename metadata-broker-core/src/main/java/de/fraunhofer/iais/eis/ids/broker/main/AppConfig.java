@@ -13,6 +13,7 @@ import de.fraunhofer.iais.eis.ids.component.ecosystemintegration.daps.JWKSFromIs
 import de.fraunhofer.iais.eis.ids.component.interaction.multipart.MultipartComponentInteractor;
 import de.fraunhofer.iais.eis.ids.component.interaction.validation.ShaclValidator;
 import de.fraunhofer.iais.eis.ids.connector.commons.broker.QueryHandler;
+import de.fraunhofer.iais.eis.ids.index.common.endpoint.CacheInvalidatingIndexing;
 import de.fraunhofer.iais.eis.ids.index.common.endpoint.FrontendEndpoints;
 import de.fraunhofer.iais.eis.ids.index.common.main.AppConfigTemplate;
 import de.fraunhofer.iais.eis.ids.index.common.persistence.*;
@@ -46,13 +47,29 @@ public class AppConfig extends AppConfigTemplate {
         this.maxNumberOfIndexedConnectorResources = maxNumberOfIndexedConnectorResources;
         this.refreshAtBeginning = refreshAtBeginning;
         this.refreshHours = refreshHours;
-        if(indexing instanceof ElasticsearchIndexingMobiDS)
+        if(unwrap(indexing) instanceof ElasticsearchIndexingMobiDS)
         {
-            ((ElasticsearchIndexingMobiDS) indexing).setDomainVocabulary(prefixes, predicates);
+            ((ElasticsearchIndexingMobiDS) unwrap(indexing)).setDomainVocabulary(prefixes, predicates);
         }
         return this;
     }
 
+    /**
+     * @return The indexing implementation behind the cache invalidation, the asynchronous indexing queue and the metrics, or the indexing itself if it is not decorated
+     */
+    private static Indexing unwrap(Indexing indexing)
+    {
+        if(indexing instanceof CacheInvalidatingIndexing)
+        {
+            indexing = ((CacheInvalidatingIndexing) indexing).getDelegate();
+        }
+        if(indexing instanceof AsyncIndexing)
+        {
+            indexing = ((AsyncIndexing) indexing).getDelegate();
+        }
+        return indexing instanceof MeteredIndexing ? ((MeteredIndexing) indexing).getDelegate() : indexing;
+    }
+
     @Override
     public MultipartComponentInteractor build() {
         //Try to pre-initialize the SHACL validation shapes so that this won't slow us down during message handling
@@ -68,11 +85,12 @@ public class AppConfig extends AppConfigTemplate {
         RepositoryFacade repositoryFacade = new RepositoryFacade(sparqlEndpointUrl);
 
         FrontendEndpoints.repositoryFacade = repositoryFacade;
+        FrontendEndpoints.sparqlEndpointUrl = sparqlEndpointUrl;
 
-        if(indexing instanceof ElasticsearchIndexingMobiDS)
+        if(unwrap(indexing) instanceof ElasticsearchIndexingMobiDS)
         {
-            ((ElasticsearchIndexingMobiDS) indexing).setDomainVocabulary(prefixes, predicates);
-            ((ElasticsearchIndexingMobiDS) indexing).setRepo(repositoryFacade);
+            ((ElasticsearchIndexingMobiDS) unwrap(indexing)).setDomainVocabulary(prefixes, predicates);
+            ((ElasticsearchIndexingMobiDS) unwrap(indexing)).setRepo(repositoryFacade);
         }
 
         SelfDescriptionPersistenceAndIndexing selfDescriptionPersistence =
@@ -105,11 +123,11 @@ public class AppConfig extends AppConfigTemplate {
         //TODO: Does not work in the case that the catalog is empty
         DescriptionProvider descriptionProvider = new DescriptionProvider(selfDescriptionProvider.getSelfDescription(), repositoryFacade, catalogUri);
         DescriptionRequestHandler descriptionHandler = new DescriptionRequestHandler(descriptionProvider, securityTokenProvider, responseSenderAgent);
-        component.addMessageHandler(descriptionHandler, RequestType.INFRASTRUCTURE);
-        component.addMessageHandler(registrationHandler, RequestType.INFRASTRUCTURE);
-        component.addMessageHandler(queryHandler, RequestType.INFRASTRUCTURE);
+        component.addMessageHandler(new TimedMessageHandler<>(descriptionHandler), RequestType.INFRASTRUCTURE);
+        component.addMessageHandler(new TimedMessageHandler<>(registrationHandler), RequestType.INFRASTRUCTURE);
+        component.addMessageHandler(new TimedMessageHandler<>(queryHandler), RequestType.INFRASTRUCTURE);
         //component.addMessageHandler(artifactHandler, RequestType.INFRASTRUCTURE);
-        component.addMessageHandler(resourceHandler, RequestType.INFRASTRUCTURE);
+        component.addMessageHandler(new TimedMessageHandler<>(resourceHandler), RequestType.INFRASTRUCTURE);
 //        component.setSecurityTokenProvider(securityTokenProvider);
 
         CamelController.securityTokenProvider = securityTokenProvider;
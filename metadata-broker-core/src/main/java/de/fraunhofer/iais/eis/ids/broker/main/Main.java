@@ -3,13 +3,29 @@ package de.fraunhofer.iais.eis.ids.broker.main;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.Appender;
+import de.fraunhofer.iais.eis.ids.index.common.endpoint.CacheInvalidatingIndexing;
+import de.fraunhofer.iais.eis.ids.index.common.endpoint.FrontendEndpoints;
+import de.fraunhofer.iais.eis.ids.index.common.endpoint.SelectQueryCache;
 import de.fraunhofer.iais.eis.ids.index.common.main.ExtendedMainTemplate;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.AsyncIndexing;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.ElasticsearchClientFactory;
 import de.fraunhofer.iais.eis.ids.index.common.persistence.ElasticsearchIndexing;
 import de.fraunhofer.iais.eis.ids.index.common.persistence.ElasticsearchIndexingMobiDS;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.IndexRebuilder;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.IndexReconciler;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.IndexRecreator;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.MeteredIndexing;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.RepositoryFacade;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.ResourceDocumentPipeline;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.logging.LogEndpoint;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.logging.LogVerificationJob;
 import de.fraunhofer.iais.eis.ids.index.common.persistence.logging.VerifyingRollingFileAppender;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.spi.Indexing;
+import de.fraunhofer.iais.eis.InfrastructureComponent;
 import de.fraunhofer.iais.eis.ids.component.core.InfomodelFormalException;
 import de.fraunhofer.iais.eis.ids.component.protocol.http.server.ComponentInteractorProvider;
-import org.elasticsearch.client.RestHighLevelClient;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -29,10 +45,14 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Paths;
 import java.security.*;
 import java.security.cert.CertificateException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Entry point to the Broker
@@ -79,14 +99,16 @@ public class Main extends ExtendedMainTemplate implements ComponentInteractorPro
     @Value("${ssl.javakeystore}")
     public String javaKeystorePath;
 
-    private RestHighLevelClient elasticsearchClient;
-
     //Environment allows us to access application.properties
     @Autowired
     private Environment env;
 
 
-    private ElasticsearchIndexing indexingParameter;
+    private Indexing<InfrastructureComponent> indexingParameter;
+
+    private AsyncIndexing asyncIndexing;
+
+    private ScheduledExecutorService indexRebuildExecutor;
 
     ElasticsearchIndexingMobiDS elasticsearchIndexingMobiDS ;
     ElasticsearchIndexing elasticsearchIndexing;
@@ -107,8 +129,39 @@ public class Main extends ExtendedMainTemplate implements ComponentInteractorPro
 
         ElasticsearchIndexing.elasticsearchHostname = env.getProperty("elasticsearch.hostname");
         ElasticsearchIndexing.elasticsearchPort = Integer.parseInt(Objects.requireNonNull(env.getProperty("elasticsearch.port")));
+        ElasticsearchClientFactory.hosts = env.getProperty("elasticsearch.hosts", "");
+        ElasticsearchClientFactory.maxConnectionsPerRoute = Integer.parseInt(env.getProperty("elasticsearch.client.maxConnectionsPerRoute", "10"));
+        ElasticsearchClientFactory.maxConnectionsTotal = Integer.parseInt(env.getProperty("elasticsearch.client.maxConnectionsTotal", "30"));
+        ElasticsearchClientFactory.ioThreads = Integer.parseInt(env.getProperty("elasticsearch.client.ioThreads", "0"));
+        ElasticsearchClientFactory.connectTimeoutMillis = Integer.parseInt(env.getProperty("elasticsearch.client.connectTimeoutMillis", "1000"));
+        ElasticsearchClientFactory.socketTimeoutMillis = Integer.parseInt(env.getProperty("elasticsearch.client.socketTimeoutMillis", "30000"));
+        ElasticsearchClientFactory.keepAliveMillis = Long.parseLong(env.getProperty("elasticsearch.client.keepAliveMillis", "60000"));
+        ElasticsearchClientFactory.compressRequests = Boolean.parseBoolean(env.getProperty("elasticsearch.client.compressRequests", "false"));
+        ElasticsearchIndexing.bulkIndexing = Boolean.parseBoolean(env.getProperty("elasticsearch.bulk.enabled", "true"));
+        ElasticsearchIndexing.bulkMaxActions = Integer.parseInt(env.getProperty("elasticsearch.bulk.maxActions", "500"));
+        ElasticsearchIndexing.bulkMaxBytes = Long.parseLong(env.getProperty("elasticsearch.bulk.maxBytes", "5242880"));
+        ElasticsearchIndexing.incrementalUpdates = Boolean.parseBoolean(env.getProperty("elasticsearch.incrementalUpdates", "true"));
+        ElasticsearchIndexing.batchedDomainAttributes = Boolean.parseBoolean(env.getProperty("elasticsearch.domainAttributes.batched", "true"));
+        ElasticsearchIndexing.documentBuildThreads = Integer.parseInt(env.getProperty("elasticsearch.documentBuildThreads", "0"));
+        ElasticsearchIndexing.partialResourceUpdates = Boolean.parseBoolean(env.getProperty("elasticsearch.partialResourceUpdates", "true"));
+        ElasticsearchIndexingMobiDS.mdsOntologyPath = env.getProperty("mds.ontology.path", "");
+        ElasticsearchIndexingMobiDS.mdsOntologyCheckIntervalMillis = Long.parseLong(env.getProperty("mds.ontology.checkIntervalMillis", "60000"));
         refreshAtBeginning = Boolean.parseBoolean(env.getProperty("index.refreshAtBeginning"));
         refreshHours = Integer.parseInt(env.getProperty("index.refreshHours"));
+        IndexRecreator.numberOfShards = Integer.parseInt(env.getProperty("index.numberOfShards", "5"));
+        IndexRecreator.numberOfReplicas = Integer.parseInt(env.getProperty("index.numberOfReplicas", "1"));
+        IndexRecreator.refreshInterval = env.getProperty("index.refreshInterval", "1s");
+        IndexRebuilder.pageSize = Integer.parseInt(env.getProperty("index.rebuild.pageSize", "100"));
+        LogVerificationJob.logDirectory = env.getProperty("log.directory", "logs");
+        LogVerificationJob.verificationThreads = Integer.parseInt(env.getProperty("log.verification.threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        LogEndpoint.maxMessageLength = Integer.parseInt(env.getProperty("log.frontend.maxMessageLength", "16384"));
+        LogEndpoint.maxBatchRecords = Integer.parseInt(env.getProperty("log.frontend.maxBatchRecords", "1000"));
+        LogEndpoint.maxBatchBytes = Long.parseLong(env.getProperty("log.frontend.maxBatchBytes", "1048576"));
+        LogEndpoint.rateLimitPerSecond = Double.parseDouble(env.getProperty("log.frontend.rateLimitPerSecond", "50"));
+        LogEndpoint.rateLimitBurst = Integer.parseInt(env.getProperty("log.frontend.rateLimitBurst", "1000"));
+        LogEndpoint.clientAddressHeader = env.getProperty("log.frontend.clientAddressHeader", "");
+        FrontendEndpoints.streamMaxLimit = Long.parseLong(env.getProperty("query.stream.maxLimit", "100000"));
+        FrontendEndpoints.streamTimeoutMillis = Long.parseLong(env.getProperty("query.stream.timeoutMillis", "300000"));
         prefixes = Arrays.asList(env.getProperty("elasticsearch.domainVocabularyPrefixes").split(","));
         predicates = Arrays.asList(env.getProperty("elasticsearch.domainVocabularyPredicates").split(","));
 
@@ -147,6 +200,50 @@ public class Main extends ExtendedMainTemplate implements ComponentInteractorPro
             {
                 logger.error("Failed to load private key from key store. Will not be able to provide signatures for log files!", e);
             }
+            if(indexingParameter != null) {
+                //Innermost decorator, so that the timers measure the indexing itself and not the time spent in the queue
+                indexingParameter = new MeteredIndexing(indexingParameter);
+            }
+            if(indexingParameter != null && Boolean.parseBoolean(env.getProperty("indexing.async.enabled", "false"))) {
+                String spoolDirectory = env.getProperty("indexing.async.spoolDirectory", "spool/indexing");
+                try {
+                    asyncIndexing = new AsyncIndexing(indexingParameter,
+                            Integer.parseInt(env.getProperty("indexing.async.workers", "4")),
+                            Integer.parseInt(env.getProperty("indexing.async.capacity", "10000")),
+                            Long.parseLong(env.getProperty("indexing.async.offerTimeoutMillis", "5000")),
+                            Integer.parseInt(env.getProperty("indexing.async.maxAttempts", "3")),
+                            spoolDirectory.isEmpty() ? null : Paths.get(spoolDirectory));
+                    indexingParameter = asyncIndexing;
+                    Metrics.gauge("broker.indexing.queue.depth", asyncIndexing, AsyncIndexing::getQueueDepth);
+                    FunctionCounter.builder("broker.indexing.queue.enqueued", asyncIndexing, AsyncIndexing::getEnqueued).register(Metrics.globalRegistry);
+                    FunctionCounter.builder("broker.indexing.queue.completed", asyncIndexing, AsyncIndexing::getCompleted).register(Metrics.globalRegistry);
+                    FunctionCounter.builder("broker.indexing.queue.failed", asyncIndexing, AsyncIndexing::getFailed).register(Metrics.globalRegistry);
+                    FunctionCounter.builder("broker.indexing.queue.rejected", asyncIndexing, AsyncIndexing::getRejected).register(Metrics.globalRegistry);
+                    FunctionCounter.builder("broker.indexing.queue.coalesced", asyncIndexing, AsyncIndexing::getCoalesced).register(Metrics.globalRegistry);
+                    logger.info("Asynchronous indexing enabled");
+                }
+                catch (IOException e) {
+                    logger.error("Failed to set up the indexing queue in {}. Indexing synchronously.", spoolDirectory, e);
+                }
+            }
+            if(Boolean.parseBoolean(env.getProperty("query.cache.enabled", "true"))) {
+                SelectQueryCache selectQueryCache = new SelectQueryCache(
+                        Integer.parseInt(env.getProperty("query.cache.maxEntries", "1000")),
+                        Long.parseLong(env.getProperty("query.cache.ttlMillis", "60000")),
+                        Integer.parseInt(env.getProperty("query.cache.maxResultLength", "1048576")));
+                FrontendEndpoints.selectQueryCache = selectQueryCache;
+                FunctionCounter.builder("broker.sparql.cache.hits", selectQueryCache, SelectQueryCache::getHits).register(Metrics.globalRegistry);
+                FunctionCounter.builder("broker.sparql.cache.misses", selectQueryCache, SelectQueryCache::getMisses).register(Metrics.globalRegistry);
+                if(indexingParameter != null) {
+                    indexingParameter = new CacheInvalidatingIndexing(indexingParameter, selectQueryCache);
+                }
+            }
+            //Rebuild the indices in the background instead of letting the refresh drop them
+            ElasticsearchIndexing rebuiltIndexing = enableMobidsBrokerIndexing ? elasticsearchIndexingMobiDS : elasticsearchIndexing;
+            boolean rebuildIndex = rebuiltIndexing != null && Boolean.parseBoolean(env.getProperty("index.rebuild.enabled", "true"));
+            //Reconcile the indices with the triple store periodically instead of recreating them every refreshHours hours
+            boolean reconcileIndex = rebuiltIndexing != null && Boolean.parseBoolean(env.getProperty("index.reconcile.enabled", "true"))
+                    && Long.parseLong(env.getProperty("index.reconcile.intervalMinutes", "60")) > 0;
             //This is not needed anymore, as the Elasticsearch Client is created during runtime, if dependency is available (Service Loader)
             //elasticsearchClient = createElasticsearchClient();
             multipartComponentInteractor = new AppConfig(createSelfDescriptionProvider(), prefixes, predicates)
@@ -159,14 +256,69 @@ public class Main extends ExtendedMainTemplate implements ComponentInteractorPro
                     .dapsValidateIncoming(dapsValidateIncoming)
                     .responseSenderAgent(new URI(responseSenderAgent))
                     .performShaclValidation(validateShacl)
-                    .setIndexing(indexingParameter, maxNumberOfIndexedConnectorResources,refreshAtBeginning, refreshHours) //overwrite default service loader behaviour
+                    .setIndexing(indexingParameter, maxNumberOfIndexedConnectorResources, refreshAtBeginning && !rebuildIndex, rebuildIndex || reconcileIndex ? 0 : refreshHours) //overwrite default service loader behaviour
                     .build();
+            if (rebuildIndex || reconcileIndex) {
+                scheduleIndexRefresh(rebuiltIndexing, rebuildIndex, reconcileIndex);
+            }
         }
         catch (URISyntaxException e) {
             throw new InfomodelFormalException(e);
         }
     }
 
+    /**
+     * Schedules the refresh of the indices. At startup, the indices are rebuilt (blue/green) if configured.
+     * Afterwards, they are reconciled with the triple store every index.reconcile.intervalMinutes minutes, which only indexes the connectors which changed.
+     * If the reconciliation is disabled, the indices are rebuilt every refreshHours hours instead
+     * @param indexing The indexer whose indices are rebuilt and reconciled
+     * @param rebuildIndex Whether the blue/green rebuild is used for the refresh at startup and, without reconciliation, for the periodic refresh
+     * @param reconcileIndex Whether the indices are reconciled periodically
+     */
+    private void scheduleIndexRefresh(ElasticsearchIndexing indexing, boolean rebuildIndex, boolean reconcileIndex) {
+        boolean rebuildAtBeginning = rebuildIndex && refreshAtBeginning;
+        boolean periodicRebuild = rebuildIndex && !reconcileIndex && refreshHours > 0;
+        if (!rebuildAtBeginning && !periodicRebuild && !reconcileIndex) {
+            return;
+        }
+        RepositoryFacade repositoryFacade = new RepositoryFacade(sparqlEndpointUrl);
+        IndexRebuilder indexRebuilder = new IndexRebuilder(indexing, repositoryFacade);
+        indexRebuildExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "index-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Runnable rebuild = () -> {
+            try {
+                indexRebuilder.rebuild();
+            }
+            catch (IOException | RuntimeException e) {
+                logger.error("Failed to rebuild the index.", e);
+            }
+        };
+        if (periodicRebuild) {
+            indexRebuildExecutor.scheduleWithFixedDelay(rebuild, refreshAtBeginning ? 0 : refreshHours, refreshHours, TimeUnit.HOURS);
+            return;
+        }
+        if (rebuildAtBeginning) {
+            indexRebuildExecutor.execute(rebuild);
+        }
+        if (reconcileIndex) {
+            long reconcileMinutes = Long.parseLong(env.getProperty("index.reconcile.intervalMinutes", "60"));
+            IndexReconciler indexReconciler = new IndexReconciler(indexing, repositoryFacade,
+                    Integer.parseInt(env.getProperty("index.reconcile.threads", "4")));
+            //Runs on the same thread as the rebuild, so the first reconciliation waits for the rebuild at startup
+            indexRebuildExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    indexReconciler.reconcile();
+                }
+                catch (IOException | RuntimeException e) {
+                    logger.error("Failed to reconcile the index.", e);
+                }
+            }, reconcileMinutes, reconcileMinutes, TimeUnit.MINUTES);
+        }
+    }
+
     /**
      * This function should take care of a clean shut down. TODO: Make sure it does... The function is actually not called before shutdown from what I can tell...
      * @throws IOException thrown if the log file could not be signed properly
@@ -200,7 +352,19 @@ public class Main extends ExtendedMainTemplate implements ComponentInteractorPro
             logger.info("Found key " + key);
         }
 
-        elasticsearchClient.close();
+        if(indexRebuildExecutor != null)
+        {
+            indexRebuildExecutor.shutdownNow();
+        }
+
+        //Finish pending indexing work before the Elasticsearch client goes away
+        if(asyncIndexing != null)
+        {
+            asyncIndexing.close(Long.parseLong(env.getProperty("indexing.async.shutdownTimeoutSeconds", "30")), TimeUnit.SECONDS);
+        }
+
+        ResourceDocumentPipeline.shutdown();
+        ElasticsearchClientFactory.close();
     }
 
 
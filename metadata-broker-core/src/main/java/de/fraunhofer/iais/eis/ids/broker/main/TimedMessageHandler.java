@@ -0,0 +1,58 @@
+package de.fraunhofer.iais.eis.ids.broker.main;
+
+import de.fraunhofer.iais.eis.Message;
+import de.fraunhofer.iais.eis.ids.component.core.MessageAndPayload;
+import de.fraunhofer.iais.eis.ids.component.core.MessageHandler;
+import de.fraunhofer.iais.eis.ids.component.core.MessageResponse;
+import de.fraunhofer.iais.eis.ids.component.core.RejectMessageException;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Collection;
+
+/**
+ * Decorator which records the duration and outcome of every handled message in the timer broker.message.handling, tagged with the class of the handler.
+ * It has the message and response types of the handler it wraps, which remains accessible via {@link #getDelegate()}
+ * @param <T> Type of messages handled
+ * @param <R> Type of responses
+ */
+public class TimedMessageHandler<T extends MessageAndPayload, R extends MessageResponse> implements MessageHandler<T, R> {
+
+    private final MessageHandler<T, R> delegate;
+    private final String handlerName;
+
+    /**
+     * Constructor
+     * @param delegate The message handler doing the actual work
+     */
+    public TimedMessageHandler(MessageHandler<T, R> delegate) {
+        this.delegate = delegate;
+        this.handlerName = delegate.getClass().getSimpleName();
+    }
+
+    /**
+     * @return The message handler doing the actual work
+     */
+    public MessageHandler<T, R> getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public R handle(T messageAndPayload) throws RejectMessageException {
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        String outcome = "failure";
+        try {
+            R response = delegate.handle(messageAndPayload);
+            outcome = "success";
+            return response;
+        }
+        finally {
+            sample.stop(Metrics.timer("broker.message.handling", "handler", handlerName, "outcome", outcome));
+        }
+    }
+
+    @Override
+    public Collection<Class<? extends Message>> getSupportedMessageTypes() {
+        return delegate.getSupportedMessageTypes();
+    }
+}
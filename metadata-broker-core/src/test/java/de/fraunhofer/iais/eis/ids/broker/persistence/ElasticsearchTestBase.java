@@ -0,0 +1,118 @@
+package de.fraunhofer.iais.eis.ids.broker.persistence;
+
+import de.fraunhofer.iais.eis.*;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.ElasticsearchClientFactory;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.ElasticsearchIndexing;
+import de.fraunhofer.iais.eis.util.TypedLiteral;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.*;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.wait.strategy.Wait;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+
+import static de.fraunhofer.iais.eis.util.Util.asList;
+
+/**
+ * Base of the tests which index connectors into an Elasticsearch 7 container. Every test class gets a container of its own, every test a connector ID of its own
+ */
+public abstract class ElasticsearchTestBase {
+
+    @ClassRule
+    public static GenericContainer<?> elasticsearch = new GenericContainer<>("docker.elastic.co/elasticsearch/elasticsearch:7.9.3")
+            .withEnv("discovery.type", "single-node")
+            .withEnv("ES_JAVA_OPTS", "-Xms512m -Xmx512m")
+            .withExposedPorts(9200)
+            .waitingFor(Wait.forHttp("/_cluster/health").forStatusCode(200));
+
+    protected static ElasticsearchIndexing indexing;
+
+    protected URI connectorId;
+
+    @BeforeClass
+    public static void setUpClass() {
+        ElasticsearchClientFactory.hosts = "http://" + elasticsearch.getHost() + ":" + elasticsearch.getFirstMappedPort();
+        indexing = new ElasticsearchIndexing();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws IOException {
+        ElasticsearchClientFactory.close();
+        ElasticsearchClientFactory.hosts = "";
+    }
+
+    @Before
+    public void setUpConnectorId() {
+        connectorId = URI.create("http://example.org/connector/" + UUID.randomUUID());
+    }
+
+    protected static RestHighLevelClient client() {
+        return ElasticsearchClientFactory.getClient();
+    }
+
+    /**
+     * Makes all indexed documents visible to searches
+     */
+    protected static void refresh() throws IOException {
+        client().indices().refresh(new RefreshRequest(), RequestOptions.DEFAULT);
+    }
+
+    protected static boolean exists(String index, URI id) throws IOException {
+        return client().get(new GetRequest(index, id.toString()), RequestOptions.DEFAULT).isExists();
+    }
+
+    protected static Map<String, Object> getSource(String index, URI id) throws IOException {
+        GetResponse response = client().get(new GetRequest(index, id.toString()), RequestOptions.DEFAULT);
+        Assert.assertTrue(index + " has no document " + id, response.isExists());
+        return response.getSourceAsMap();
+    }
+
+    /**
+     * @return Entries of all catalogs of the connector document by resource ID
+     */
+    @SuppressWarnings("unchecked")
+    protected Map<String, Map<String, Object>> getCatalogEntries() throws IOException {
+        Map<String, Map<String, Object>> entries = new LinkedHashMap<>();
+        for (Map<String, Object> catalog : (List<Map<String, Object>>) getSource(ElasticsearchIndexing.INDEX_NAME, connectorId).get("catalog")) {
+            List<Map<String, Object>> resources = (List<Map<String, Object>>) catalog.get("resources");
+            if (resources != null) {
+                for (Map<String, Object> entry : resources) {
+                    entries.put((String) entry.get("resourceID"), entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    protected Resource resource(String name, String title) {
+        return new DataResourceBuilder(URI.create(connectorId + "/resource/" + name))
+                ._title_(asList(new TypedLiteral(title, "en")))
+                ._description_(asList(new TypedLiteral("Description of " + title, "en")))
+                ._keyword_(asList(new TypedLiteral(name, "en")))
+                ._language_(asList(Language.EN))
+                ._standardLicense_(URI.create("https://creativecommons.org/publicdomain/zero/1.0/"))
+                .build();
+    }
+
+    protected Connector connector(Resource... resources) {
+        return new BaseConnectorBuilder(connectorId)
+                ._title_(asList(new TypedLiteral("Test Connector", "en")))
+                ._description_(asList(new TypedLiteral("Test Connector Description", "en")))
+                ._outboundModelVersion_("4.0.0")
+                ._inboundModelVersion_(asList("4.0.0"))
+                ._resourceCatalog_(asList(new ResourceCatalogBuilder()
+                        ._offeredResourceAsObject_(new ArrayList<>(Arrays.asList(resources)))
+                        .build()))
+                ._curatorAsUri_(URI.create("http://example.org/curator"))
+                ._maintainerAsUri_(URI.create("http://example.org/maintainer"))
+                ._securityProfile_(SecurityProfile.BASE_SECURITY_PROFILE)
+                ._hasDefaultEndpoint_(new ConnectorEndpointBuilder()._accessURL_(URI.create("http://example.org/endpoint")).build())
+                .build();
+    }
+}
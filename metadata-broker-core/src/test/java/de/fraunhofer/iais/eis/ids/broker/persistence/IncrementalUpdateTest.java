@@ -0,0 +1,110 @@
+package de.fraunhofer.iais.eis.ids.broker.persistence;
+
+import de.fraunhofer.iais.eis.*;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.ElasticsearchIndexing;
+import de.fraunhofer.iais.eis.util.TypedLiteral;
+import de.fraunhofer.iais.eis.util.Util;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.core.CountRequest;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static de.fraunhofer.iais.eis.util.Util.asList;
+
+/**
+ * Tests that an update of a connector only writes the resources whose fingerprint changed and deletes the resources which are no longer offered
+ */
+public class IncrementalUpdateTest extends ElasticsearchTestBase {
+
+    @Test
+    public void onlyChangedResourcesAreWritten() throws IOException {
+        Resource unchanged = resourceWithArtifact("unchanged", "unchanged resource");
+        Resource changed = resourceWithArtifact("changed", "first version");
+        Resource removed = resourceWithArtifact("removed", "removed resource");
+        indexing.add(connector(unchanged, changed, removed));
+        refresh();
+        long unchangedVersion = getVersion(unchanged.getId());
+        Object unchangedFingerprint = getSource(ElasticsearchIndexing.RESOURCE_INDEX, unchanged.getId()).get("contentHash");
+
+        //All resources are built anew, so that their representations and artifacts get new autogenerated IDs, as when a connector is parsed again
+        Resource added = resourceWithArtifact("added", "added resource");
+        indexing.update(connector(resourceWithArtifact("unchanged", "unchanged resource"), resourceWithArtifact("changed", "second version"), added));
+
+        Assert.assertEquals(unchangedVersion, getVersion(unchanged.getId()));
+        Assert.assertEquals(unchangedFingerprint, getSource(ElasticsearchIndexing.RESOURCE_INDEX, unchanged.getId()).get("contentHash"));
+        Assert.assertTrue(getSource(ElasticsearchIndexing.RESOURCE_INDEX, changed.getId()).toString().contains("second version"));
+        Assert.assertFalse(exists(ElasticsearchIndexing.RESOURCE_INDEX, removed.getId()));
+        Assert.assertTrue(exists(ElasticsearchIndexing.RESOURCE_INDEX, added.getId()));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(unchanged.getId().toString(), changed.getId().toString(), added.getId().toString())),
+                getCatalogEntries().keySet());
+    }
+
+    @Test
+    public void fingerprintsOfAllPagesAreCompared() throws IOException, InterruptedException {
+        //More resources than fit on one page of the scroll over the indexed fingerprints
+        int count = 2500;
+        Resource[] resources = new Resource[count];
+        for (int i = 0; i < count; i++) {
+            resources[i] = resourceWithArtifact("resource" + i, "resource " + i);
+        }
+        indexing.add(connector(resources));
+        refresh();
+        long indexed = System.currentTimeMillis();
+        Thread.sleep(10);
+
+        Resource[] rebuilt = new Resource[count];
+        for (int i = 0; i < count; i++) {
+            rebuilt[i] = resourceWithArtifact("resource" + i, "resource " + i);
+        }
+        indexing.update(connector(rebuilt));
+        refresh();
+
+        //A resource whose fingerprint was not found would have been written again
+        CountRequest written = new CountRequest(ElasticsearchIndexing.RESOURCE_INDEX)
+                .query(QueryBuilders.rangeQuery("lastChanged").gt(indexed));
+        Assert.assertEquals(0, client().count(written, RequestOptions.DEFAULT).getCount());
+        Assert.assertEquals(count, getCatalogEntries().size());
+    }
+
+    @Test
+    public void updateWithoutIndexedResourcesWritesAll() throws IOException {
+        //The connector document exists, but none of its resources is in the resource index
+        indexing.add(connector());
+        Resource resource = resourceWithArtifact("new", "new resource");
+
+        indexing.update(connector(resource));
+
+        Assert.assertTrue(exists(ElasticsearchIndexing.RESOURCE_INDEX, resource.getId()));
+        Assert.assertEquals(1, getCatalogEntries().size());
+    }
+
+    private long getVersion(URI id) throws IOException {
+        return client().get(new GetRequest(ElasticsearchIndexing.RESOURCE_INDEX, id.toString()), RequestOptions.DEFAULT).getVersion();
+    }
+
+    /**
+     * @return A resource with a representation and an artifact without IDs of their own, which get autogenerated IDs
+     */
+    private Resource resourceWithArtifact(String name, String title) {
+        Artifact artifact = new ArtifactBuilder()
+                ._fileName_(name + ".csv")
+                ._byteSize_(BigInteger.valueOf(1024))
+                .build();
+        Representation representation = new RepresentationBuilder()
+                ._instance_(Util.<RepresentationInstance>asList(artifact))
+                .build();
+        return new DataResourceBuilder(URI.create(connectorId + "/resource/" + name))
+                ._title_(asList(new TypedLiteral(title, "en")))
+                ._keyword_(asList(new TypedLiteral(name, "en")))
+                ._representation_(asList(representation))
+                .build();
+    }
+}
@@ -0,0 +1,159 @@
+package de.fraunhofer.iais.eis.ids.broker.persistence;
+
+import de.fraunhofer.iais.eis.*;
+import de.fraunhofer.iais.eis.ids.broker.core.common.persistence.SelfDescriptionPersistenceAndIndexing;
+import de.fraunhofer.iais.eis.ids.component.core.RejectMessageException;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.ElasticsearchIndexing;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.IndexRebuilder;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.RepositoryFacade;
+import de.fraunhofer.iais.eis.util.TypedLiteral;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.core.CountRequest;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.client.indices.GetIndexResponse;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static de.fraunhofer.iais.eis.util.Util.asList;
+
+/**
+ * Tests that the indices are rebuilt from the triple store into new versions behind the aliases, including indices created before aliases were used
+ * and connectors which are changed while the rebuild is running
+ */
+public class IndexRebuildTest extends ElasticsearchTestBase {
+
+    private static final String[] ALIASES = {ElasticsearchIndexing.INDEX_NAME, ElasticsearchIndexing.RESOURCE_INDEX};
+
+    private RepositoryFacade repositoryFacade;
+    private SelfDescriptionPersistenceAndIndexing persistence;
+
+    //Called after a connector was read from the triple store by the rebuild, at most once
+    private Runnable onRead;
+
+    @Before
+    public void setUp() throws IOException, RejectMessageException {
+        for (String alias : ALIASES) {
+            client().indices().delete(new DeleteIndexRequest(alias + "*"), RequestOptions.DEFAULT);
+        }
+        onRead = null;
+        repositoryFacade = new RepositoryFacade() {
+            private final AtomicBoolean read = new AtomicBoolean(false);
+
+            @Override
+            public Connector getConnectorFromTripleStore(URI connectorId) throws IOException, RejectMessageException {
+                Connector connector = super.getConnectorFromTripleStore(connectorId);
+                if (onRead != null && read.compareAndSet(false, true)) {
+                    onRead.run();
+                }
+                return connector;
+            }
+        };
+        persistence = new SelfDescriptionPersistenceAndIndexing(repositoryFacade, URI.create("http://localhost:8080/connectors/"), indexing, 100);
+    }
+
+    @Test
+    public void legacyIndexIsReplacedByAlias() throws IOException, RejectMessageException {
+        for (String alias : ALIASES) {
+            client().indices().create(new CreateIndexRequest(alias), RequestOptions.DEFAULT);
+            client().index(new IndexRequest(alias).id("http://example.org/legacy").source("{\"title\":\"legacy\"}", XContentType.JSON), RequestOptions.DEFAULT);
+        }
+        URI registered = register("first");
+
+        Assert.assertTrue(new IndexRebuilder(indexing, repositoryFacade).rebuild());
+
+        for (String alias : ALIASES) {
+            assertAliasedTo(alias, alias + "_v1");
+        }
+        Assert.assertFalse(exists(ElasticsearchIndexing.INDEX_NAME, URI.create("http://example.org/legacy")));
+        Assert.assertTrue(exists(ElasticsearchIndexing.INDEX_NAME, registered));
+    }
+
+    @Test
+    public void secondRebuildReplacesFirstVersion() throws IOException, RejectMessageException {
+        URI first = register("first");
+        URI second = register("second");
+        IndexRebuilder rebuilder = new IndexRebuilder(indexing, repositoryFacade);
+
+        Assert.assertTrue(rebuilder.rebuild());
+        for (String alias : ALIASES) {
+            assertAliasedTo(alias, alias + "_v1");
+        }
+
+        Assert.assertTrue(rebuilder.rebuild());
+        for (String alias : ALIASES) {
+            assertAliasedTo(alias, alias + "_v2");
+            Assert.assertFalse(client().indices().exists(new GetIndexRequest(alias + "_v1"), RequestOptions.DEFAULT));
+        }
+        refresh();
+        Assert.assertTrue(exists(ElasticsearchIndexing.INDEX_NAME, first));
+        Assert.assertTrue(exists(ElasticsearchIndexing.INDEX_NAME, second));
+        Assert.assertEquals(2, client().count(new CountRequest(ElasticsearchIndexing.INDEX_NAME), RequestOptions.DEFAULT).getCount());
+        Assert.assertEquals(2, client().count(new CountRequest(ElasticsearchIndexing.RESOURCE_INDEX), RequestOptions.DEFAULT).getCount());
+    }
+
+    @Test
+    public void connectorChangedDuringRebuildIsIndexedAgain() throws IOException, RejectMessageException {
+        URI registered = register("changed");
+        new IndexRebuilder(indexing, repositoryFacade).rebuild();
+
+        //The rebuild has read the previous version when the connector is updated, so the update only reaches the current index
+        onRead = () -> {
+            try {
+                persistence.updated(connector("changed", "second version"));
+            }
+            catch (IOException | RejectMessageException e) {
+                throw new RuntimeException(e);
+            }
+        };
+        Assert.assertTrue(new IndexRebuilder(indexing, repositoryFacade).rebuild());
+
+        for (String alias : ALIASES) {
+            assertAliasedTo(alias, alias + "_v2");
+        }
+        Assert.assertTrue(getSource(ElasticsearchIndexing.INDEX_NAME, registered).toString().contains("second version"));
+        refresh();
+        Assert.assertEquals(1, client().count(new CountRequest(ElasticsearchIndexing.INDEX_NAME), RequestOptions.DEFAULT).getCount());
+    }
+
+    /**
+     * Stores a connector with one resource in the triple store and indexes it
+     * @return ID of the connector in the broker
+     */
+    private URI register(String name) throws IOException, RejectMessageException {
+        return persistence.updated(connector(name, "first version"));
+    }
+
+    private Connector connector(String name, String title) {
+        URI id = URI.create(connectorId + "/" + name);
+        return new BaseConnectorBuilder(id)
+                ._title_(asList(new TypedLiteral(title, "en")))
+                ._outboundModelVersion_("4.0.0")
+                ._inboundModelVersion_(asList("4.0.0"))
+                ._resourceCatalog_(asList(new ResourceCatalogBuilder()
+                        ._offeredResourceAsObject_(asList(new DataResourceBuilder(URI.create(id + "/resource"))
+                                ._title_(asList(new TypedLiteral("Resource of " + name, "en")))
+                                .build()))
+                        .build()))
+                ._curatorAsUri_(URI.create("http://example.org/curator"))
+                ._maintainerAsUri_(URI.create("http://example.org/maintainer"))
+                ._securityProfile_(SecurityProfile.BASE_SECURITY_PROFILE)
+                ._hasDefaultEndpoint_(new ConnectorEndpointBuilder()._accessURL_(URI.create("http://example.org/endpoint")).build())
+                .build();
+    }
+
+    private static void assertAliasedTo(String alias, String index) throws IOException {
+        GetIndexResponse response = client().indices().get(new GetIndexRequest(alias), RequestOptions.DEFAULT);
+        Assert.assertEquals(Collections.singletonList(index), Arrays.asList(response.getIndices()));
+        Assert.assertTrue(response.getAliases().get(index).stream().anyMatch(metadata -> metadata.alias().equals(alias)));
+    }
+}
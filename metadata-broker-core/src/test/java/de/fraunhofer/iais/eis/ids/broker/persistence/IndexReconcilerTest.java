@@ -0,0 +1,201 @@
+package de.fraunhofer.iais.eis.ids.broker.persistence;
+
+import de.fraunhofer.iais.eis.*;
+import de.fraunhofer.iais.eis.ids.broker.core.common.persistence.SelfDescriptionPersistenceAndIndexing;
+import de.fraunhofer.iais.eis.ids.component.core.RejectMessageException;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.ElasticsearchIndexing;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.IndexReconciler;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.RepositoryFacade;
+import de.fraunhofer.iais.eis.util.TypedLiteral;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.core.CountRequest;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static de.fraunhofer.iais.eis.util.Util.asList;
+
+/**
+ * Tests that the reconciliation only indexes connectors again whose graph or resources diverged from their documents, removes the documents
+ * of connectors which no longer exist and leaves connectors changed during the reconciliation to be indexed afterwards
+ */
+public class IndexReconcilerTest extends ElasticsearchTestBase {
+
+    private static final String[] ALIASES = {ElasticsearchIndexing.INDEX_NAME, ElasticsearchIndexing.RESOURCE_INDEX};
+
+    private RepositoryFacade repositoryFacade;
+    private SelfDescriptionPersistenceAndIndexing persistence;
+    private IndexReconciler reconciler;
+
+    //Number of times each connector was read from the triple store
+    private final Map<URI, Integer> reads = new ConcurrentHashMap<>();
+
+    //Called after a connector was read from the triple store, at most once
+    private Runnable onRead;
+
+    @Before
+    public void setUp() throws IOException {
+        for (String alias : ALIASES) {
+            client().indices().delete(new DeleteIndexRequest(alias + "*"), RequestOptions.DEFAULT);
+        }
+        onRead = null;
+        repositoryFacade = new RepositoryFacade() {
+            private final AtomicBoolean read = new AtomicBoolean(false);
+
+            @Override
+            public Connector getConnectorFromTripleStore(URI connectorId) throws IOException, RejectMessageException {
+                Connector connector = super.getConnectorFromTripleStore(connectorId);
+                reads.merge(connectorId, 1, Integer::sum);
+                if (onRead != null && read.compareAndSet(false, true)) {
+                    onRead.run();
+                }
+                return connector;
+            }
+        };
+        persistence = new SelfDescriptionPersistenceAndIndexing(repositoryFacade, URI.create("http://localhost:8080/connectors/"), indexing, 100);
+        reconciler = new IndexReconciler(indexing, repositoryFacade, 2);
+    }
+
+    @Test
+    public void unchangedConnectorIsNotIndexedAgain() throws IOException, RejectMessageException {
+        URI registered = register("title");
+        //A registration resets the fingerprint, so the first reconciliation indexes the connector and stores it
+        Assert.assertEquals(1, reconcile(registered));
+        Map<String, Object> source = getSource(ElasticsearchIndexing.INDEX_NAME, registered);
+        Assert.assertNotNull(source.get("graphFingerprint"));
+        Assert.assertEquals(1, ((Number) source.get("resourceCount")).intValue());
+
+        Assert.assertEquals(0, reconcile(registered));
+        Assert.assertEquals(source.get("graphFingerprint"), getSource(ElasticsearchIndexing.INDEX_NAME, registered).get("graphFingerprint"));
+    }
+
+    @Test
+    public void divergedConnectorIsIndexedAgain() throws IOException, RejectMessageException {
+        URI registered = register("title");
+        reconcile(registered);
+        String fingerprint = (String) getSource(ElasticsearchIndexing.INDEX_NAME, registered).get("graphFingerprint");
+
+        //The graph was changed without the document being written
+        setFields(registered, Collections.singletonMap("graphFingerprint", "0:0"));
+        Assert.assertEquals(1, reconcile(registered));
+        Assert.assertEquals(fingerprint, getSource(ElasticsearchIndexing.INDEX_NAME, registered).get("graphFingerprint"));
+
+        //A resource document is missing
+        setFields(registered, Collections.singletonMap("resourceCount", 2));
+        Assert.assertEquals(1, reconcile(registered));
+        Assert.assertEquals(1, ((Number) getSource(ElasticsearchIndexing.INDEX_NAME, registered).get("resourceCount")).intValue());
+
+        //Written before the resource count was stored
+        setFields(registered, Collections.singletonMap("resourceCount", null));
+        Assert.assertEquals(1, reconcile(registered));
+
+        Assert.assertEquals(0, reconcile(registered));
+    }
+
+    @Test
+    public void orphansAreRemoved() throws IOException, RejectMessageException {
+        URI registered = register("title");
+        URI orphan = URI.create(connectorId + "/orphan");
+        URI resourceOrphan = URI.create(connectorId + "/resourceOrphan");
+        //Indexed, but not stored in the triple store
+        indexing.add(connector(orphan, "orphan"));
+        indexing.add(connector(resourceOrphan, "resource orphan"));
+        client().delete(new DeleteRequest(ElasticsearchIndexing.INDEX_NAME, resourceOrphan.toString()), RequestOptions.DEFAULT);
+        refresh();
+        Assert.assertEquals(1, countResources(orphan));
+        Assert.assertEquals(1, countResources(resourceOrphan));
+
+        reconcile(registered);
+
+        Assert.assertFalse(exists(ElasticsearchIndexing.INDEX_NAME, orphan));
+        Assert.assertEquals(0, countResources(orphan));
+        Assert.assertEquals(0, countResources(resourceOrphan));
+        Assert.assertTrue(exists(ElasticsearchIndexing.INDEX_NAME, registered));
+        Assert.assertEquals(1, countResources(registered));
+    }
+
+    @Test
+    public void connectorChangedDuringReconciliationIsIndexedAgain() throws IOException, RejectMessageException {
+        URI registered = register("first version");
+        reconcile(registered);
+        setFields(registered, Collections.singletonMap("graphFingerprint", "0:0"));
+
+        //The reconciliation has read the previous version and computed its fingerprint when the connector is updated
+        onRead = () -> {
+            try {
+                persistence.updated(connector(connectorId, "second version"));
+            }
+            catch (IOException | RejectMessageException e) {
+                throw new RuntimeException(e);
+            }
+        };
+        reconcile(registered);
+
+        //The fingerprint of the previous version is not stored for the new version
+        Map<String, Object> source = getSource(ElasticsearchIndexing.INDEX_NAME, registered);
+        Assert.assertTrue(source.toString().contains("second version"));
+        Assert.assertNull(source.get("graphFingerprint"));
+
+        Assert.assertEquals(1, reconcile(registered));
+        Assert.assertNotNull(getSource(ElasticsearchIndexing.INDEX_NAME, registered).get("graphFingerprint"));
+    }
+
+    /**
+     * Stores a connector with one resource in the triple store and indexes it
+     * @return ID of the connector in the broker
+     */
+    private URI register(String title) throws IOException, RejectMessageException {
+        URI registered = persistence.updated(connector(connectorId, title));
+        refresh();
+        return registered;
+    }
+
+    private Connector connector(URI id, String title) {
+        return new BaseConnectorBuilder(id)
+                ._title_(asList(new TypedLiteral(title, "en")))
+                ._outboundModelVersion_("4.0.0")
+                ._inboundModelVersion_(asList("4.0.0"))
+                ._resourceCatalog_(asList(new ResourceCatalogBuilder()
+                        ._offeredResourceAsObject_(asList(new DataResourceBuilder(URI.create(id + "/resource"))
+                                ._title_(asList(new TypedLiteral("Resource of " + title, "en")))
+                                .build()))
+                        .build()))
+                ._curatorAsUri_(URI.create("http://example.org/curator"))
+                ._maintainerAsUri_(URI.create("http://example.org/maintainer"))
+                ._securityProfile_(SecurityProfile.BASE_SECURITY_PROFILE)
+                ._hasDefaultEndpoint_(new ConnectorEndpointBuilder()._accessURL_(URI.create("http://example.org/endpoint")).build())
+                .build();
+    }
+
+    /**
+     * Reconciles the indices
+     * @return Number of times the connector was read from the triple store
+     */
+    private int reconcile(URI connector) throws IOException {
+        reads.clear();
+        Assert.assertTrue(reconciler.reconcile());
+        refresh();
+        return reads.getOrDefault(connector, 0);
+    }
+
+    private static void setFields(URI connector, Map<String, Object> fields) throws IOException {
+        client().update(new UpdateRequest(ElasticsearchIndexing.INDEX_NAME, connector.toString()).doc(fields), RequestOptions.DEFAULT);
+        refresh();
+    }
+
+    private static long countResources(URI connector) throws IOException {
+        return client().count(new CountRequest(ElasticsearchIndexing.RESOURCE_INDEX)
+                .query(QueryBuilders.termQuery("connectorID", connector.toString())), RequestOptions.DEFAULT).getCount();
+    }
+}
@@ -0,0 +1,116 @@
+package de.fraunhofer.iais.eis.ids.broker.persistence;
+
+import de.fraunhofer.iais.eis.Connector;
+import de.fraunhofer.iais.eis.Resource;
+import de.fraunhofer.iais.eis.ids.index.common.persistence.ElasticsearchIndexing;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Tests the partial updates and deletions of single resources against Elasticsearch. The scripted updates of the connector document need Elasticsearch 7
+ */
+public class ResourceIndexingTest extends ElasticsearchTestBase {
+
+    @Test
+    public void updateResourceReplacesDocumentAndCatalogEntry() throws IOException {
+        Resource first = resource("first", "first resource");
+        Resource second = resource("second", "second resource");
+        indexing.add(connector(first, second));
+
+        Resource changed = resource("first", "changed resource");
+        indexing.updateResource(connector(changed, second), changed);
+
+        Assert.assertTrue(getSource(ElasticsearchIndexing.RESOURCE_INDEX, first.getId()).toString().contains("changed resource"));
+        Map<String, Map<String, Object>> entries = getCatalogEntries();
+        Assert.assertEquals(2, entries.size());
+        Assert.assertTrue(entries.get(first.getId().toString()).toString().contains("changed resource"));
+        Assert.assertFalse(entries.get(first.getId().toString()).toString().contains("first resource"));
+        Assert.assertTrue(entries.get(second.getId().toString()).toString().contains("second resource"));
+    }
+
+    @Test
+    public void updateOfUnknownResourceUpdatesConnectorInFull() throws IOException {
+        Resource first = resource("first", "first resource");
+        indexing.add(connector(first));
+
+        //The catalog of the connector document has no entry for the new resource, which could be patched
+        Resource added = resource("added", "added resource");
+        indexing.updateResource(connector(first, added), added);
+
+        Assert.assertTrue(getSource(ElasticsearchIndexing.RESOURCE_INDEX, added.getId()).toString().contains("added resource"));
+        Map<String, Map<String, Object>> entries = getCatalogEntries();
+        Assert.assertEquals(2, entries.size());
+        Assert.assertTrue(entries.get(added.getId().toString()).toString().contains("added resource"));
+        Assert.assertTrue(entries.get(first.getId().toString()).toString().contains("first resource"));
+    }
+
+    @Test
+    public void patchedConnectorDocumentMatchesFullRewrite() throws IOException {
+        Resource first = resource("first", "first resource");
+        Resource second = resource("second", "second resource");
+        indexing.add(connector(first, second));
+
+        Resource changed = resource("second", "changed resource");
+        Connector updated = connector(first, changed);
+        indexing.updateResource(updated, changed);
+        Map<String, Object> patched = getSource(ElasticsearchIndexing.INDEX_NAME, connectorId);
+
+        indexing.update(updated);
+        Map<String, Object> rewritten = getSource(ElasticsearchIndexing.INDEX_NAME, connectorId);
+
+        //Only the time of the last write differs
+        patched.remove("lastChanged");
+        rewritten.remove("lastChanged");
+        Assert.assertEquals(rewritten, patched);
+    }
+
+    @Test
+    public void deleteResourceRemovesDocumentAndCatalogEntry() throws IOException {
+        Resource first = resource("first", "first resource");
+        Resource second = resource("second", "second resource");
+        indexing.add(connector(first, second));
+
+        indexing.deleteResource(connector(second), first.getId());
+
+        Assert.assertFalse(exists(ElasticsearchIndexing.RESOURCE_INDEX, first.getId()));
+        Assert.assertTrue(exists(ElasticsearchIndexing.RESOURCE_INDEX, second.getId()));
+        Assert.assertEquals(Collections.singleton(second.getId().toString()), getCatalogEntries().keySet());
+    }
+
+    @Test
+    public void deleteResourceOfOtherConnectorIsIgnored() throws IOException {
+        Resource owned = resource("owned", "owned resource");
+        indexing.add(connector(owned));
+        Map<String, Object> connectorDocument = getSource(ElasticsearchIndexing.INDEX_NAME, connectorId);
+
+        //Another connector claims the resource. It has no entry for it in its catalog either
+        URI owner = connectorId;
+        connectorId = URI.create("http://example.org/connector/" + UUID.randomUUID());
+        Resource other = resource("other", "other resource");
+        indexing.add(connector(other));
+        indexing.deleteResource(connector(other), owned.getId());
+
+        Assert.assertTrue(getSource(ElasticsearchIndexing.RESOURCE_INDEX, owned.getId()).toString().contains("owned resource"));
+        Assert.assertEquals(connectorDocument, getSource(ElasticsearchIndexing.INDEX_NAME, owner));
+        Assert.assertEquals(Collections.singleton(other.getId().toString()), getCatalogEntries().keySet());
+    }
+
+    @Test
+    public void deleteOfUnknownResourceIsIgnored() throws IOException {
+        Resource first = resource("first", "first resource");
+        indexing.add(connector(first));
+        Map<String, Object> connectorDocument = getSource(ElasticsearchIndexing.INDEX_NAME, connectorId);
+
+        //Elasticsearch reports the resource document as not found, which is not an error
+        indexing.deleteResource(connector(first), URI.create(connectorId + "/resource/unknown"));
+
+        Assert.assertTrue(exists(ElasticsearchIndexing.RESOURCE_INDEX, first.getId()));
+        Assert.assertEquals(connectorDocument, getSource(ElasticsearchIndexing.INDEX_NAME, connectorId));
+    }
+}